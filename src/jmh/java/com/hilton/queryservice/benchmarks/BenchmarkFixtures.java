@@ -0,0 +1,88 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.jackson.JacksonFeature;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+
+import javax.sql.DataSource;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+/**
+ * Fixtures shared by the benchmarks: responses, an in-memory H2 session factory and data source and a Jersey client reading json
+ * with the Dropwizard object mapper.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param ip query ip
+     * @return successful response of the remote api for the ip
+     */
+    static QueryIpResponseEntity response(String ip) {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery(ip);
+        queryIpResponseEntity.setStatus("success");
+        queryIpResponseEntity.setCountry("United States");
+        queryIpResponseEntity.setCountryCode("US");
+        queryIpResponseEntity.setRegion("NC");
+        queryIpResponseEntity.setRegionName("North Carolina");
+        queryIpResponseEntity.setCity("Charlotte");
+        queryIpResponseEntity.setZip("28202");
+        queryIpResponseEntity.setLat(35.2271);
+        queryIpResponseEntity.setLon(-80.8431);
+        queryIpResponseEntity.setTimezone("America/New_York");
+        queryIpResponseEntity.setIsp("Charter Communications Inc");
+        queryIpResponseEntity.setOrg("Spectrum");
+        queryIpResponseEntity.setAs("AS20115 Charter Communications");
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * @param ordinal number of the ip
+     * @return distinct public IPv4 address of the ordinal, from 20.0.0.0 up
+     */
+    static String publicIpv4(long ordinal) {
+        long address = 0x14000000L + ordinal;
+        return (address >>> 24 & 0xff) + "." + (address >>> 16 & 0xff) + "." + (address >>> 8 & 0xff) + "." + (address & 0xff);
+    }
+
+    /**
+     * @param name database name, each name is a separate database
+     * @return session factory of an in-memory H2 database with the ipquerytable created from the entity, sessions are
+     * bound with {@link org.hibernate.context.internal.ManagedSessionContext} like in the application
+     */
+    static SessionFactory h2SessionFactory(String name) {
+        return new Configuration()
+                .addAnnotatedClass(QueryIpResponseEntity.class)
+                .setProperty(AvailableSettings.DRIVER, "org.h2.Driver")
+                .setProperty(AvailableSettings.URL, "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.USER, "sa")
+                .setProperty(AvailableSettings.PASS, "")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .setProperty(AvailableSettings.CURRENT_SESSION_CONTEXT_CLASS, "managed")
+                .setProperty(AvailableSettings.SHOW_SQL, "false")
+                .buildSessionFactory();
+    }
+
+    /**
+     * @param name database name of a {@link #h2SessionFactory(String)}
+     * @return pool of connections to the in-memory H2 database of the name, like the pooled data source of the application
+     */
+    static DataSource h2DataSource(String name) {
+        return JdbcConnectionPool.create("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    /**
+     * @return client reading and writing json with the Dropwizard object mapper
+     */
+    static Client jsonClient() {
+        return ClientBuilder.newClient().register(new JacksonFeature(Jackson.newObjectMapper()));
+    }
+}
@@ -0,0 +1,85 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.core.QueryIpLookupService;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.resources.QueryIPResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups answered by the in-memory cache, warmed with {@link #CACHED_IPS} responses and read round robin so the
+ * reads are not all served from one cache line. A miss would call the null DAO and fail the benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheHitBenchmark {
+
+    // power of two, the read index is masked
+    private static final int CACHED_IPS = 1 << 14;
+
+    private QueryIpLookupService queryIpLookupService;
+    private QueryIPResource queryIPResource;
+    private String[] ips;
+    private List<Optional<String>> ipOptionals;
+
+    @Setup
+    public void setUp() {
+        queryIpLookupService = QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(null, "http://localhost/json/")),
+                LookupCacheSpec.ofSize(3600, CACHED_IPS * 2), null).build();
+        queryIPResource = QueryIPResource.builder(queryIpLookupService).build();
+        ips = new String[CACHED_IPS];
+        ipOptionals = new ArrayList<>(CACHED_IPS);
+        List<QueryIpResponseEntity> responses = new ArrayList<>(CACHED_IPS);
+        for (int i = 0; i < CACHED_IPS; i++) {
+            ips[i] = BenchmarkFixtures.publicIpv4(i * 7919L);
+            ipOptionals.add(Optional.of(ips[i]));
+            responses.add(BenchmarkFixtures.response(ips[i]));
+        }
+        queryIpLookupService.warm(responses);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (CACHED_IPS - 1);
+        }
+    }
+
+    @Benchmark
+    public QueryIpResponseEntity getIfPresent(Cursor cursor) {
+        return queryIpLookupService.getIfPresent(ips[cursor.next()]);
+    }
+
+    @Benchmark
+    public QueryIpResponseEntity get(Cursor cursor) throws ExecutionException {
+        return queryIpLookupService.get(ips[cursor.next()]);
+    }
+
+    @Benchmark
+    public QueryIpResponseEntity queryIp(Cursor cursor) throws ExecutionException {
+        return queryIPResource.queryIp(ipOptionals.get(cursor.next()));
+    }
+}
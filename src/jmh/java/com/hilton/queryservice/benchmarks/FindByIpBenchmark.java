@@ -0,0 +1,133 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.db.JdbcQueryIpResponseDAO;
+import com.hilton.queryservice.db.MVStoreQueryIpStore;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link QueryIpResponseDAO#findByIp(String)} against an in-memory H2 ipquerytable of {@link #ROWS} rows, each lookup in
+ * its own unit of work opened by {@link UnitOfWorkRunner} like the cache loader's database lookups, and the same
+ * lookups through the plain JDBC statements of {@link JdbcQueryIpResponseDAO} on a pool of connections to the database,
+ * which need no unit of work, and in the embedded key-value file of {@link MVStoreQueryIpStore}, which needs neither SQL
+ * nor a unit of work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FindByIpBenchmark {
+
+    // power of two, the read index is masked
+    private static final int ROWS = 1 << 14;
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private SessionFactory sessionFactory;
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private JdbcQueryIpResponseDAO jdbcQueryIpResponseDAO;
+    private UnitOfWorkRunner unitOfWorkRunner;
+    private Path mvStoreFile;
+    private MVStoreQueryIpStore mvStoreQueryIpStore;
+    private String[] ips;
+
+    @Setup
+    public void setUp() throws IOException {
+        sessionFactory = BenchmarkFixtures.h2SessionFactory("findByIp");
+        queryIpResponseDAO = new QueryIpResponseDAO(sessionFactory);
+        unitOfWorkRunner = new UnitOfWorkRunner(sessionFactory);
+        jdbcQueryIpResponseDAO = new JdbcQueryIpResponseDAO(sessionFactory, BenchmarkFixtures.h2DataSource("findByIp"), new MetricRegistry());
+        ips = new String[ROWS];
+        for (int from = 0; from < ROWS; from += INSERT_BATCH_SIZE) {
+            int to = Math.min(from + INSERT_BATCH_SIZE, ROWS);
+            int first = from;
+            unitOfWorkRunner.call(() -> {
+                for (int i = first; i < to; i++) {
+                    ips[i] = BenchmarkFixtures.publicIpv4(i * 7919L);
+                    queryIpResponseDAO.create(BenchmarkFixtures.response(ips[i]));
+                }
+                return null;
+            });
+        }
+        mvStoreFile = Files.createTempFile("findByIp", ".mv.db");
+        mvStoreQueryIpStore = MVStoreQueryIpStore.open(mvStoreFile, 16, true, new MetricRegistry());
+        for (int from = 0; from < ROWS; from += INSERT_BATCH_SIZE) {
+            List<QueryIpResponseEntity> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+            for (int i = from; i < Math.min(from + INSERT_BATCH_SIZE, ROWS); i++) {
+                batch.add(BenchmarkFixtures.response(ips[i]));
+            }
+            mvStoreQueryIpStore.upsertAll(batch);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sessionFactory.close();
+        mvStoreQueryIpStore.close();
+        Files.deleteIfExists(mvStoreFile);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (ROWS - 1);
+        }
+    }
+
+    @Benchmark
+    public Optional<QueryIpResponseEntity> findByIpHit(Cursor cursor) {
+        String ip = ips[cursor.next()];
+        return unitOfWorkRunner.call(() -> queryIpResponseDAO.findByIp(ip));
+    }
+
+    @Benchmark
+    public Optional<QueryIpResponseEntity> findByIpMiss(Cursor cursor) {
+        String ip = BenchmarkFixtures.publicIpv4(ROWS * 7919L + cursor.next());
+        return unitOfWorkRunner.call(() -> queryIpResponseDAO.findByIp(ip));
+    }
+
+    @Benchmark
+    public Optional<QueryIpResponseEntity> jdbcFindByIpHit(Cursor cursor) {
+        return jdbcQueryIpResponseDAO.findByIp(ips[cursor.next()]);
+    }
+
+    @Benchmark
+    public Optional<QueryIpResponseEntity> jdbcFindByIpMiss(Cursor cursor) {
+        return jdbcQueryIpResponseDAO.findByIp(BenchmarkFixtures.publicIpv4(ROWS * 7919L + cursor.next()));
+    }
+
+    @Benchmark
+    public Optional<QueryIpResponseEntity> mvStoreFindByIpHit(Cursor cursor) {
+        return mvStoreQueryIpStore.findByIp(ips[cursor.next()]);
+    }
+
+    @Benchmark
+    public Optional<QueryIpResponseEntity> mvStoreFindByIpMiss(Cursor cursor) {
+        return mvStoreQueryIpStore.findByIp(BenchmarkFixtures.publicIpv4(ROWS * 7919L + cursor.next()));
+    }
+}
@@ -0,0 +1,51 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpKey;
+import org.apache.commons.validator.routines.InetAddressValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of the query ip of queryIp: canonicalization and parsing into the cache key with {@link IpAddressParser},
+ * against commons-validator's {@link InetAddressValidator} as the baseline the resource validated with before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IpValidationBenchmark {
+
+    @Param({"71.76.72.156", "2001:db8::ff00:42:8329", "2001:0DB8:0000:0000:0000:0000:0000:0001", "::ffff:71.76.72.156",
+            "www.Example.com", "300.76.72.156"})
+    public String ip;
+
+    private final InetAddressValidator inetAddressValidator = InetAddressValidator.getInstance();
+
+    @Benchmark
+    public String canonicalize() {
+        return IpAddressParser.canonicalize(ip);
+    }
+
+    @Benchmark
+    public IpKey toKey() {
+        return IpAddressParser.toKey(ip);
+    }
+
+    @Benchmark
+    public boolean inetAddressValidator() {
+        return inetAddressValidator.isValid(ip);
+    }
+}
@@ -0,0 +1,55 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import io.dropwizard.jackson.Jackson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of {@link QueryIpResponseEntity} with the Dropwizard object mapper, writing as for the
+ * response body and reading as for the remote api answer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+
+    private ObjectWriter objectWriter;
+    private ObjectReader objectReader;
+    private QueryIpResponseEntity queryIpResponseEntity;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectWriter = Jackson.newObjectMapper().writerFor(QueryIpResponseEntity.class);
+        objectReader = Jackson.newObjectMapper().readerFor(QueryIpResponseEntity.class);
+        queryIpResponseEntity = BenchmarkFixtures.response("71.76.72.156");
+        json = objectWriter.writeValueAsBytes(queryIpResponseEntity);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectWriter.writeValueAsBytes(queryIpResponseEntity);
+    }
+
+    @Benchmark
+    public QueryIpResponseEntity deserialize() throws IOException {
+        return objectReader.readValue(json);
+    }
+}
@@ -0,0 +1,94 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.core.QueryIpLookupService;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import com.hilton.queryservice.resources.QueryIPResource;
+import io.dropwizard.jackson.Jackson;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Full lookup path of queryIp, from the path parameter to the json response body: validation, in-memory cache,
+ * in-memory H2 ipquerytable and a {@link StubUpstream} remote api on a loopback port. A cache miss looks up a new
+ * ip on every call, so each call misses the cache and the database, calls the remote api and persists its answer.
+ * An encoded cache hit returns the response body pre-serialized when the ip was loaded, as the endpoint writes it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourcePathBenchmark {
+
+    private static final String CACHED_IP = "71.76.72.156";
+
+    private final AtomicLong nextIp = new AtomicLong();
+
+    private StubUpstream stubUpstream;
+    private Client client;
+    private SessionFactory sessionFactory;
+    private QueryIPResource queryIPResource;
+    private ObjectWriter objectWriter;
+
+    @Setup
+    public void setUp() throws IOException, ExecutionException {
+        stubUpstream = new StubUpstream();
+        client = BenchmarkFixtures.jsonClient();
+        sessionFactory = BenchmarkFixtures.h2SessionFactory("resourcePath");
+        // the runner opens the sessions the @UnitOfWork of the resource method opens when served by jersey
+        QueryIpLookupService queryIpLookupService = QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, stubUpstream.serviceUrl())),
+                        LookupCacheSpec.ofSize(3600, 100000), new QueryIpResponseDAO(sessionFactory))
+                .unitOfWorkRunner(new UnitOfWorkRunner(sessionFactory))
+                .build();
+        queryIPResource = QueryIPResource.builder(queryIpLookupService).build();
+        objectWriter = Jackson.newObjectMapper().writerFor(QueryIpResponseEntity.class);
+        queryIPResource.queryIp(Optional.of(CACHED_IP));
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        stubUpstream.close();
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public byte[] cacheHit() throws ExecutionException, IOException {
+        return objectWriter.writeValueAsBytes(queryIPResource.queryIp(Optional.of(CACHED_IP)));
+    }
+
+    @Benchmark
+    public byte[] cacheHitEncoded() throws ExecutionException {
+        return (byte[]) queryIPResource.queryIp(Optional.of(CACHED_IP), null, null).getEntity();
+    }
+
+    @Benchmark
+    public byte[] cacheMiss() throws ExecutionException, IOException {
+        String ip = BenchmarkFixtures.publicIpv4(nextIp.getAndIncrement());
+        return objectWriter.writeValueAsBytes(queryIPResource.queryIp(Optional.of(ip)));
+    }
+}
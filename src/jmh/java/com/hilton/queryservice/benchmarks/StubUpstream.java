@@ -0,0 +1,69 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.jackson.Jackson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the remote api on a loopback port, answers GET /json/{ip} with a successful response for the ip
+ * so the full lookup path is measured without network latency and rate limits, or with a fixed latency of each answer.
+ */
+final class StubUpstream implements AutoCloseable {
+
+    private static final String PATH = "/json/";
+
+    private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    StubUpstream() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param latencyMillis time each answer is delayed, so concurrent calls wait on the remote api like on ip-api
+     */
+    StubUpstream(long latencyMillis) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // delayed answers are served concurrently, so the stub does not bound the concurrency of its callers
+        executor = latencyMillis > 0 ? Executors.newCachedThreadPool() : Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.createContext(PATH, exchange -> {
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String ip = exchange.getRequestURI().getPath().substring(PATH.length());
+            byte[] body = objectMapper.writeValueAsBytes(BenchmarkFixtures.response(ip));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return service url of the stub, the ip is appended to it like to ipServiceUrl
+     */
+    String serviceUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,110 @@
+package com.hilton.queryservice.benchmarks;
+
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.core.QueryIpLookupService;
+import com.hilton.queryservice.core.VirtualThreads;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blocking lookups of new ips handled on platform threads and on virtual threads, the threads modes of the
+ * virtualThreads setting. Each operation runs {@value #CONCURRENT_LOOKUPS} concurrent lookups that miss the cache and
+ * the in-memory H2 ipquerytable and call a {@link StubUpstream} answering after {@value #UPSTREAM_LATENCY_MILLIS}ms,
+ * so the platform mode is bounded by its thread pool while the virtual mode parks a thread per lookup. The virtual
+ * mode needs java 21.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadsBenchmark {
+
+    private static final int CONCURRENT_LOOKUPS = 256;
+    private static final long UPSTREAM_LATENCY_MILLIS = 20;
+
+    // size of the platform thread pool, the default loaderThreads
+    private static final int PLATFORM_THREADS = 16;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private final AtomicLong nextIp = new AtomicLong();
+
+    private StubUpstream stubUpstream;
+    private Client client;
+    private SessionFactory sessionFactory;
+    private ExecutorService executor;
+    private QueryIpLookupService queryIpLookupService;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("virtual".equals(threads)) {
+            executor = VirtualThreads.newThreadPerTaskExecutor("benchmark-virtual-");
+        } else {
+            executor = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+        stubUpstream = new StubUpstream(UPSTREAM_LATENCY_MILLIS);
+        client = BenchmarkFixtures.jsonClient();
+        sessionFactory = BenchmarkFixtures.h2SessionFactory("virtualThreads" + threads);
+        queryIpLookupService = QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, stubUpstream.serviceUrl())),
+                        LookupCacheSpec.ofSize(3600, 1000000), new QueryIpResponseDAO(sessionFactory))
+                .unitOfWorkRunner(new UnitOfWorkRunner(sessionFactory))
+                .loaderExecutor(executor)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        client.close();
+        stubUpstream.close();
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public int concurrentBlockingLookups() {
+        List<CompletableFuture<String>> lookups = new ArrayList<>(CONCURRENT_LOOKUPS);
+        for (int i = 0; i < CONCURRENT_LOOKUPS; i++) {
+            String ip = BenchmarkFixtures.publicIpv4(nextIp.getAndIncrement());
+            lookups.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return queryIpLookupService.get(ip).getStatus();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, executor));
+        }
+        int answered = 0;
+        for (CompletableFuture<String> lookup : lookups) {
+            answered += lookup.join() == null ? 0 : 1;
+        }
+        return answered;
+    }
+}
@@ -1,7 +1,31 @@
 package com.hilton.queryservice;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.cache.MappedFileCache;
+import com.hilton.queryservice.cli.EnrichCommand;
+import com.hilton.queryservice.client.CircuitBreaker;
+import com.hilton.queryservice.client.TokenBucket;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.cluster.PeerGroup;
+import com.hilton.queryservice.core.IpRangeIndex;
+import com.hilton.queryservice.core.PrefixAnswerCache;
+import com.hilton.queryservice.core.QueryIpCacheWarmer;
+import com.hilton.queryservice.core.QueryIpLookupService;
+import com.hilton.queryservice.core.QueryIpRefresher;
 import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.core.VirtualThreads;
+import com.hilton.queryservice.db.JdbcQueryIpResponseDAO;
+import com.hilton.queryservice.db.MVStoreQueryIpStore;
+import com.hilton.queryservice.db.QueryIpAccessTracker;
 import com.hilton.queryservice.db.QueryIpResponseDAO;
+import com.hilton.queryservice.db.QueryIpResponseWriter;
+import com.hilton.queryservice.db.QueryIpRetention;
+import com.hilton.queryservice.db.QueryIpStore;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import com.hilton.queryservice.health.CacheWarmupHealthCheck;
 import com.hilton.queryservice.resources.QueryIPResource;
 import io.dropwizard.client.JerseyClientBuilder;
 import io.dropwizard.core.Application;
@@ -9,16 +33,25 @@ import io.dropwizard.core.setup.Bootstrap;
 import io.dropwizard.core.setup.Environment;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.hibernate.HibernateBundle;
+import io.dropwizard.lifecycle.AutoCloseableManager;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.util.Duration;
 import io.dropwizard.migrations.MigrationsBundle;
 import io.swagger.v3.jaxrs2.integration.resources.OpenApiResource;
 import io.swagger.v3.oas.integration.SwaggerConfiguration;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Contact;
 import io.swagger.v3.oas.models.info.Info;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.hibernate.SessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -29,6 +62,9 @@ public class QueryIPServiceApplication extends Application<QueryIPServiceConfigu
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryIPServiceApplication.class);
 
+    // slots per set of the mapped cache file, a key may live in any slot of its set
+    private static final int MAPPED_CACHE_WAYS = 8;
+
     public static void main(final String[] args) throws Exception {
         new QueryIPServiceApplication().run(args);
     }
@@ -56,18 +92,140 @@ public class QueryIPServiceApplication extends Application<QueryIPServiceConfigu
                 return configuration.getDataSourceFactory();
             }
         });
+        bootstrap.addCommand(new EnrichCommand(this, hibernateBundle::getSessionFactory));
     }
 
     @Override
-    public void run(final QueryIPServiceConfiguration configuration, final Environment environment) {
+    public void run(final QueryIPServiceConfiguration configuration, final Environment environment) throws IOException {
         // Register QueryIPResource into the environment
-        final QueryIpResponseDAO dao = new QueryIpResponseDAO(hibernateBundle.getSessionFactory());
-        final Client client = new JerseyClientBuilder(environment).build("RESTClient");
+        final SessionFactory sessionFactory = hibernateBundle.getSessionFactory();
+        QueryIpStore store = configuration.isJdbcReads()
+                ? new JdbcQueryIpResponseDAO(sessionFactory, JdbcQueryIpResponseDAO.dataSourceOf(sessionFactory), environment.metrics())
+                : new QueryIpResponseDAO(sessionFactory, environment.metrics());
+        // database work runs in a unit of work of its own, outside the request's one for async lookups
+        UnitOfWorkRunner unitOfWorkRunner = new UnitOfWorkRunner(sessionFactory);
+        // jdbc reads take a pooled connection of their own and need no session
+        UnitOfWorkRunner readRunner = configuration.isJdbcReads() ? UnitOfWorkRunner.direct() : unitOfWorkRunner;
+        if (configuration.getMvStoreFile() != null) {
+            MVStoreQueryIpStore mvStore = MVStoreQueryIpStore.open(Paths.get(configuration.getMvStoreFile()), configuration.getMvStoreCacheSizeInMb(),
+                    configuration.isMvStoreMemoryMapped(), environment.metrics());
+            // managed before the write-behind writer, so it is closed after the writer flushed its queue
+            environment.lifecycle().manage(new AutoCloseableManager(mvStore));
+            LOGGER.info("opened " + mvStore + " from " + configuration.getMvStoreFile());
+            store = mvStore;
+            // the store needs no session for reads or writes
+            unitOfWorkRunner = UnitOfWorkRunner.direct();
+            readRunner = unitOfWorkRunner;
+        }
+        final Client client = new JerseyClientBuilder(environment).using(configuration.getJerseyClientConfiguration()).build("RESTClient");
         String ipServiceUrl = configuration.getIpServiceUrl();
-        int expireCacheInSeconds = configuration.getExpireCacheInSeconds();
-        int maxCacheSize = configuration.getMaxCacheSize();
+        TokenBucket tokenBucket = null;
+        if (configuration.getUpstreamRequestsPerMinute() > 0) {
+            tokenBucket = new TokenBucket(configuration.getUpstreamRequestsPerMinute(), configuration.getUpstreamBurstSize());
+        }
+        TokenBucket batchTokenBucket = null;
+        if (configuration.getUpstreamBatchRequestsPerMinute() > 0) {
+            batchTokenBucket = new TokenBucket(configuration.getUpstreamBatchRequestsPerMinute(), configuration.getUpstreamBurstSize());
+        }
+        CircuitBreaker circuitBreaker = null;
+        if (configuration.getUpstreamCircuitFailureThreshold() > 0) {
+            circuitBreaker = new CircuitBreaker(configuration.getUpstreamCircuitFailureThreshold(), configuration.getUpstreamCircuitOpenInMillis());
+        }
+        final UpstreamGateway upstreamGateway = new UpstreamGateway(client, ipServiceUrl, configuration.getIpServiceBatchUrl(), tokenBucket,
+                batchTokenBucket, configuration.getUpstreamMaxConcurrentRequests(), circuitBreaker, configuration.getUpstreamAcquireTimeoutInMillis());
+        environment.metrics().gauge(MetricRegistry.name(UpstreamGateway.class, "circuit-state"),
+                () -> (Gauge<String>) () -> upstreamGateway.getCircuitState().name());
+        LookupCacheSpec cacheSpec = new LookupCacheSpec(configuration.getExpireCacheInSeconds(), configuration.getRefreshCacheAfterSeconds(),
+                configuration.getMaxCacheSize(), configuration.getMaxCacheWeightInBytes());
+        IpRangeIndex ipRangeIndex = IpRangeIndex.empty();
+        if (configuration.getIpRangeFile() != null) {
+            ipRangeIndex = IpRangeIndex.load(Paths.get(configuration.getIpRangeFile()));
+            LOGGER.info("loaded ip range index " + ipRangeIndex + " from " + configuration.getIpRangeFile());
+        }
+        MappedFileCache mappedFileCache = MappedFileCache.disabled();
+        if (configuration.getMappedCacheFile() != null) {
+            int ways = Math.min(MAPPED_CACHE_WAYS, configuration.getMappedCacheEntries());
+            mappedFileCache = MappedFileCache.open(Paths.get(configuration.getMappedCacheFile()),
+                    Math.max(1, configuration.getMappedCacheEntries() / ways), ways, configuration.getMappedCacheSlotSizeInBytes());
+            // written back to the file when the server stops
+            environment.lifecycle().manage(new AutoCloseableManager(mappedFileCache));
+            LOGGER.info("opened mapped cache " + mappedFileCache + " from " + configuration.getMappedCacheFile());
+        }
+        final ExecutorService loaderExecutor = loaderExecutor(configuration, environment);
+        QueryIpResponseWriter queryIpResponseWriter = QueryIpResponseWriter.direct(store, unitOfWorkRunner);
+        if (configuration.getWriteBehindQueueCapacity() > 0) {
+            // lookups queue remote api responses, the writer thread upserts them in batches and flushes the queue on stop
+            queryIpResponseWriter = new QueryIpResponseWriter(store, unitOfWorkRunner, configuration.getWriteBehindQueueCapacity(),
+                    configuration.getWriteBehindBatchSize(), configuration.getWriteBehindFlushIntervalInMillis(), configuration.getWriteBehindOfferTimeoutInMillis());
+            environment.lifecycle().manage(queryIpResponseWriter);
+        }
+        UpstreamBatcher upstreamBatcher = UpstreamBatcher.direct(upstreamGateway);
+        if (configuration.getUpstreamBatchMaxSize() > 1) {
+            // concurrent remote api calls are collected into calls of the batch endpoint
+            upstreamBatcher = new UpstreamBatcher(upstreamGateway, configuration.getUpstreamBatchMaxSize(), configuration.getUpstreamBatchMaxDelayInMillis());
+            environment.lifecycle().manage(upstreamBatcher);
+        }
+        PeerGroup peerGroup = PeerGroup.standalone();
+        if (!configuration.getPeers().isEmpty()) {
+            // misses of ips owned by a peer are asked to the owner before the database and the remote api
+            Client peerClient = new JerseyClientBuilder(environment).using(configuration.getPeerClientConfiguration()).build("PeerClient");
+            peerGroup = new PeerGroup(peerClient, configuration.getSelfUrl(), configuration.getPeers(), configuration.getPeerVirtualNodes());
+            LOGGER.info("sharing the cache with " + peerGroup);
+        }
+        QueryIpAccessTracker accessTracker = QueryIpAccessTracker.disabled();
+        if (configuration.getAccessTrackingMaxPending() > 0) {
+            // lookups record their ip, the last access times are written in batches and flushed on stop
+            accessTracker = new QueryIpAccessTracker(store, unitOfWorkRunner, configuration.getAccessTrackingMaxPending(),
+                    configuration.getAccessTrackingBatchSize(), configuration.getAccessTrackingFlushIntervalInSeconds());
+            environment.lifecycle().manage(accessTracker);
+        }
+        PrefixAnswerCache prefixAnswerCache = PrefixAnswerCache.disabled();
+        if (configuration.getPrefixSharingMaxPrefixes() > 0) {
+            // misses of hosts of a prefix whose known hosts agree are answered with their answer, marked inferred
+            prefixAnswerCache = new PrefixAnswerCache(configuration.getPrefixSharingMaxPrefixes(), configuration.getPrefixSharingExpireInSeconds(),
+                    configuration.getPrefixSharingIpv4PrefixLength(), configuration.getPrefixSharingIpv6PrefixLength(),
+                    configuration.getPrefixSharingMinHosts(), configuration.getPrefixSharingMinConfidencePercent());
+        }
+        final QueryIpLookupService queryIpLookupService = QueryIpLookupService.builder(upstreamBatcher, cacheSpec, store)
+                .ipRangeIndex(ipRangeIndex)
+                .mappedFileCache(mappedFileCache)
+                .unitOfWorkRunner(readRunner)
+                .queryIpResponseWriter(queryIpResponseWriter)
+                .loaderExecutor(loaderExecutor)
+                .negativeCache(configuration.getNegativeCacheExpireInSeconds(), configuration.getNegativeCacheMaxSize())
+                .metricRegistry(environment.metrics())
+                .peerGroup(peerGroup)
+                .persistedMaxAgeInSeconds(configuration.getPersistedMaxAgeInSeconds())
+                .accessTracker(accessTracker)
+                .prefixAnswerCache(prefixAnswerCache)
+                .build();
+        if (configuration.getWarmupMaxRows() > 0) {
+            // the node reports unhealthy until the cache is warm or the time budget ran out
+            QueryIpCacheWarmer queryIpCacheWarmer = new QueryIpCacheWarmer(store, queryIpLookupService, loaderExecutor,
+                    configuration.getWarmupMaxRows(), configuration.getWarmupTimeBudgetInSeconds());
+            environment.lifecycle().manage(queryIpCacheWarmer);
+            environment.healthChecks().register("cacheWarmup", new CacheWarmupHealthCheck(queryIpCacheWarmer));
+        }
+        if (configuration.getPersistedMaxAgeInSeconds() > 0) {
+            // stale persisted responses are re-fetched in chunks under the remote api rate limit and updated in place
+            environment.lifecycle().manage(new QueryIpRefresher(store, unitOfWorkRunner, queryIpLookupService, configuration.getPersistedMaxAgeInSeconds(),
+                    configuration.getStaleRefreshIntervalInSeconds(), configuration.getStaleRefreshChunkSize(), configuration.getStaleRefreshMaxPerRound()));
+        }
+        if (configuration.getRetentionInSeconds() > 0) {
+            if (configuration.getAccessTrackingMaxPending() == 0) {
+                throw new IllegalArgumentException("retention removes the rows not accessed for retentionInSeconds and needs access tracking, set accessTrackingMaxPending");
+            }
+            // cold rows are removed in short transactions of retentionBatchSize rows
+            environment.lifecycle().manage(new QueryIpRetention(store, unitOfWorkRunner, mappedFileCache, configuration.getRetentionInSeconds(),
+                    configuration.getRetentionIntervalInSeconds(), configuration.getRetentionBatchSize(), configuration.getRetentionMaxPerRound(),
+                    configuration.isRetentionArchive()));
+        }
         LOGGER.info("registering QueryIPResource in environment jersey");
-        environment.jersey().register(new QueryIPResource(client, ipServiceUrl, expireCacheInSeconds, maxCacheSize, dao));
+        environment.jersey().register(QueryIPResource.builder(queryIpLookupService)
+                .maxBatchSize(configuration.getMaxBatchSize())
+                .maxStreamInFlight(configuration.getStreamMaxInFlight())
+                .cacheMaxAgeInSeconds(configuration.getExpireCacheInSeconds())
+                .build());
 
         OpenAPI openAPI = new OpenAPI();
         Info info = new Info().title("Query Geolocation by an IP API").description("API to query Geolocation by an IP").contact(new Contact().email("pradeep.gummi@gmail.com"));
@@ -78,4 +236,36 @@ public class QueryIPServiceApplication extends Application<QueryIPServiceConfigu
         environment.jersey().register(new OpenApiResource().openApiConfiguration(swaggerConfiguration));
     }
 
+    /**
+     * Executor of the cache loads, refreshes and database work of async lookups: a fixed pool of loaderThreads
+     * platform threads, or a virtual thread per task when virtualThreads is set and the JDK has them, in which case
+     * Jetty also handles requests on virtual threads. The @UnitOfWork session of a request is bound to the thread
+     * handling it and the loader opens its own sessions through {@link UnitOfWorkRunner}, so both hold on virtual
+     * threads; concurrent database work is bounded by the connection pool instead of the thread pools.
+     */
+    private static ExecutorService loaderExecutor(QueryIPServiceConfiguration configuration, Environment environment) {
+        if (configuration.isVirtualThreads()) {
+            if (VirtualThreads.isAvailable()) {
+                ExecutorService loaderExecutor = VirtualThreads.newThreadPerTaskExecutor("query-ip-loader-");
+                environment.lifecycle().manage(new ExecutorServiceManager(loaderExecutor, Duration.seconds(5), "query-ip-loader"));
+                ExecutorService requestExecutor = VirtualThreads.newThreadPerTaskExecutor("query-ip-request-");
+                environment.lifecycle().manage(new ExecutorServiceManager(requestExecutor, Duration.seconds(5), "query-ip-request"));
+                environment.lifecycle().addLifeCycleListener(new LifeCycle.Listener() {
+                    @Override
+                    public void lifeCycleStarting(LifeCycle event) {
+                        // the server thread pool is configured before the server starts it
+                        if (event instanceof Server && !VirtualThreads.useFor(((Server) event).getThreadPool(), requestExecutor)) {
+                            LOGGER.warn("jetty thread pool " + ((Server) event).getThreadPool() + " does not support virtual threads, requests are handled on platform threads");
+                        }
+                    }
+                });
+                LOGGER.info("running requests and lookups on virtual threads");
+                return loaderExecutor;
+            }
+            LOGGER.warn("virtual threads are not available on java " + System.getProperty("java.version") + ", using " + configuration.getLoaderThreads() + " loader threads");
+        }
+        return environment.lifecycle().executorService("query-ip-loader-%d")
+                .minThreads(configuration.getLoaderThreads()).maxThreads(configuration.getLoaderThreads()).build();
+    }
+
 }
@@ -1,12 +1,17 @@
 package com.hilton.queryservice;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.core.Configuration;
 import io.dropwizard.db.DataSourceFactory;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Query Service Configuration class to read properties from config.yml
@@ -16,12 +21,235 @@ public class QueryIPServiceConfiguration extends Configuration {
     @NotEmpty
     private String ipServiceUrl;
 
+    // batch endpoint of the remote api, required when upstreamBatchMaxSize is set
+    private String ipServiceBatchUrl;
+
     @NotNull
     private int expireCacheInSeconds;
 
     @NotNull
     private int maxCacheSize;
 
+    // cached ips read this long after they were loaded are reloaded in the background, 0 disables refresh
+    @Min(0)
+    private int refreshCacheAfterSeconds;
+
+    // max estimated size of the in-memory cache in bytes, 0 sizes the cache by maxCacheSize entries
+    @Min(0)
+    private long maxCacheWeightInBytes;
+
+    // max number of ips accepted by POST /geolocation/ip/batch
+    @Min(1)
+    private int maxBatchSize = 100;
+
+    // max number of pending lookups of a POST /geolocation/ip/stream request
+    @Min(1)
+    private int streamMaxInFlight = 64;
+
+    // threads for database work of async lookups
+    @Min(1)
+    private int loaderThreads = 16;
+
+    // run request handling and the loader executor on virtual threads when the JDK has them, loaderThreads is then unused
+    private boolean virtualThreads = false;
+
+    // read ips with plain JDBC statements instead of hibernate sessions, writes still go through hibernate
+    private boolean jdbcReads = false;
+
+    // optional embedded MVStore file keeping the responses instead of the ipquerytable, for single node deployments
+    private String mvStoreFile;
+
+    // size of the MVStore page cache in MB
+    @Min(1)
+    private int mvStoreCacheSizeInMb = 16;
+
+    // memory-map the MVStore file, so pages beyond the page cache are read from the OS page cache; limits it to 2 GB
+    private boolean mvStoreMemoryMapped = true;
+
+    // expiry of remote api fail answers and errors, shorter than expireCacheInSeconds so errors are retried soon
+    @Min(1)
+    private int negativeCacheExpireInSeconds = 30;
+
+    // max number of remote api fail answers and errors kept in the negative cache
+    @Min(1)
+    private int negativeCacheMaxSize = 10000;
+
+    // optional csv range file for the in-process range index, consulted before database and remote api
+    private String ipRangeFile;
+
+    // optional memory-mapped cache file under the in-memory cache, reopened on startup
+    private String mappedCacheFile;
+
+    // max number of entries of the mapped cache file
+    @Min(1)
+    private int mappedCacheEntries = 65536;
+
+    // size of an entry of the mapped cache file in bytes, responses that do not fit are not stored
+    @Min(64)
+    @Max(65536)
+    private int mappedCacheSlotSizeInBytes = 512;
+
+    // max number of most recently persisted ips loaded in the cache on startup, 0 disables warm-up
+    @Min(0)
+    private int warmupMaxRows;
+
+    // time after which warm-up stops and the node reports healthy
+    @Min(1)
+    private int warmupTimeBudgetInSeconds = 30;
+
+    // age after which a persisted response is served while it is re-fetched, and refreshed in the background, 0 never re-fetches
+    @Min(0)
+    private int persistedMaxAgeInSeconds;
+
+    // delay between two background refresh rounds of the stale persisted responses
+    @Min(1)
+    private int staleRefreshIntervalInSeconds = 300;
+
+    // number of stale responses read and re-fetched at once
+    @Min(1)
+    @Max(1000)
+    private int staleRefreshChunkSize = 100;
+
+    // max number of stale responses re-fetched by a refresh round
+    @Min(1)
+    private int staleRefreshMaxPerRound = 1000;
+
+    // max number of distinct looked up ips whose last access time waits to be written, 0 disables access tracking
+    @Min(0)
+    private int accessTrackingMaxPending;
+
+    // max number of last access times written with one batch
+    @Min(1)
+    private int accessTrackingBatchSize = 500;
+
+    // delay between two writes of the last access times
+    @Min(1)
+    private int accessTrackingFlushIntervalInSeconds = 60;
+
+    // time since the last access after which a persisted response is removed, 0 keeps every response, needs access tracking
+    @Min(0)
+    private int retentionInSeconds;
+
+    // delay between two retention rounds
+    @Min(1)
+    private int retentionIntervalInSeconds = 86400;
+
+    // number of cold responses removed with one transaction
+    @Min(1)
+    @Max(1000)
+    private int retentionBatchSize = 500;
+
+    // max number of cold responses removed by a retention round
+    @Min(1)
+    private int retentionMaxPerRound = 100000;
+
+    // copy the cold responses to ipquerytable_archive before they are removed
+    private boolean retentionArchive;
+
+    // max number of network prefixes whose hosts share their answers, 0 disables prefix sharing
+    @Min(0)
+    private int prefixSharingMaxPrefixes;
+
+    // prefix length of the IPv4 networks whose hosts share their answers
+    @Min(8)
+    @Max(32)
+    private int prefixSharingIpv4PrefixLength = 24;
+
+    // prefix length of the IPv6 networks whose hosts share their answers
+    @Min(16)
+    @Max(128)
+    private int prefixSharingIpv6PrefixLength = 48;
+
+    // number of distinct hosts of a prefix whose answers are known before the prefix answers its other hosts
+    @Min(1)
+    @Max(16)
+    private int prefixSharingMinHosts = 3;
+
+    // percentage of the known hosts of a prefix that share the answer given to its other hosts
+    @Min(51)
+    @Max(100)
+    private int prefixSharingMinConfidencePercent = 90;
+
+    // time after the last known answer of a prefix after which the prefix is forgotten
+    @Min(1)
+    private int prefixSharingExpireInSeconds = 86400;
+
+    // max number of remote api responses waiting to be written to the database, 0 writes each response directly
+    @Min(0)
+    private int writeBehindQueueCapacity;
+
+    // max number of responses written with one batch
+    @Min(1)
+    private int writeBehindBatchSize = 200;
+
+    // max time a queued response waits for its batch to fill up
+    @Min(1)
+    private long writeBehindFlushIntervalInMillis = 500;
+
+    // time a lookup waits for room in a full queue before writing its response itself
+    @Min(0)
+    private long writeBehindOfferTimeoutInMillis = 100;
+
+    // max remote api calls per minute, ip-api allows 45 per minute without a key, 0 disables the rate limit
+    @Min(0)
+    private int upstreamRequestsPerMinute;
+
+    // max remote api calls, and batch calls, made at once after an idle period
+    @Min(1)
+    private int upstreamBurstSize = 10;
+
+    // max remote api calls in flight, 0 does not bound them
+    @Min(0)
+    private int upstreamMaxConcurrentRequests = 16;
+
+    // max time a lookup waits for a concurrency slot and a rate limit permit before it is rejected, longer than the
+    // interval between two permits of both rates, 60000 / requests per minute, so a lookup arriving once the burst
+    // is spent waits for the next permit instead of failing
+    @Min(0)
+    private long upstreamAcquireTimeoutInMillis = 5000;
+
+    // consecutive remote api failures opening the circuit breaker, 0 disables it
+    @Min(0)
+    private int upstreamCircuitFailureThreshold = 5;
+
+    // time the open circuit breaker fails calls fast before a trial call
+    @Min(1)
+    private long upstreamCircuitOpenInMillis = 30000;
+
+    // max batch calls per minute, ip-api allows 15 per minute without a key, 0 disables the rate limit
+    @Min(0)
+    private int upstreamBatchRequestsPerMinute;
+
+    // max number of ips of a batch call, 0 makes one call per ip
+    @Min(0)
+    @Max(100)
+    private int upstreamBatchMaxSize;
+
+    // max time the first ip of a batch waits for more ips
+    @Min(0)
+    private long upstreamBatchMaxDelayInMillis = 5;
+
+    // timeouts, connection pool and keep-alive of the remote api client
+    @Valid
+    @NotNull
+    private JerseyClientConfiguration jerseyClient = new JerseyClientConfiguration();
+
+    // base url of this instance, one of the peers, required when peers are set
+    private String selfUrl;
+
+    // base urls of the instances sharing their caches, the same on every instance, empty for a standalone instance
+    @NotNull
+    private List<String> peers = new ArrayList<>();
+
+    // number of points of each peer on the consistent hash ring
+    @Min(1)
+    private int peerVirtualNodes = 128;
+
+    // timeouts and connection pool of the peer client
+    @Valid
+    @NotNull
+    private JerseyClientConfiguration peerClient = new JerseyClientConfiguration();
+
     @Valid
     @NotNull
     private DataSourceFactory database = new DataSourceFactory();
@@ -34,6 +262,14 @@ public class QueryIPServiceConfiguration extends Configuration {
         this.ipServiceUrl = ipServiceUrl;
     }
 
+    public String getIpServiceBatchUrl() {
+        return ipServiceBatchUrl;
+    }
+
+    public void setIpServiceBatchUrl(String ipServiceBatchUrl) {
+        this.ipServiceBatchUrl = ipServiceBatchUrl;
+    }
+
     @JsonProperty("database")
     public DataSourceFactory getDataSourceFactory() {
         return database;
@@ -59,4 +295,440 @@ public class QueryIPServiceConfiguration extends Configuration {
     public void setMaxCacheSize(int maxCacheSize) {
         this.maxCacheSize = maxCacheSize;
     }
+
+    public int getRefreshCacheAfterSeconds() {
+        return refreshCacheAfterSeconds;
+    }
+
+    public void setRefreshCacheAfterSeconds(int refreshCacheAfterSeconds) {
+        this.refreshCacheAfterSeconds = refreshCacheAfterSeconds;
+    }
+
+    public long getMaxCacheWeightInBytes() {
+        return maxCacheWeightInBytes;
+    }
+
+    public void setMaxCacheWeightInBytes(long maxCacheWeightInBytes) {
+        this.maxCacheWeightInBytes = maxCacheWeightInBytes;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getStreamMaxInFlight() {
+        return streamMaxInFlight;
+    }
+
+    public void setStreamMaxInFlight(int streamMaxInFlight) {
+        this.streamMaxInFlight = streamMaxInFlight;
+    }
+
+    public int getLoaderThreads() {
+        return loaderThreads;
+    }
+
+    public void setLoaderThreads(int loaderThreads) {
+        this.loaderThreads = loaderThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isJdbcReads() {
+        return jdbcReads;
+    }
+
+    public void setJdbcReads(boolean jdbcReads) {
+        this.jdbcReads = jdbcReads;
+    }
+
+    public String getMvStoreFile() {
+        return mvStoreFile;
+    }
+
+    public void setMvStoreFile(String mvStoreFile) {
+        this.mvStoreFile = mvStoreFile;
+    }
+
+    public int getMvStoreCacheSizeInMb() {
+        return mvStoreCacheSizeInMb;
+    }
+
+    public void setMvStoreCacheSizeInMb(int mvStoreCacheSizeInMb) {
+        this.mvStoreCacheSizeInMb = mvStoreCacheSizeInMb;
+    }
+
+    public boolean isMvStoreMemoryMapped() {
+        return mvStoreMemoryMapped;
+    }
+
+    public void setMvStoreMemoryMapped(boolean mvStoreMemoryMapped) {
+        this.mvStoreMemoryMapped = mvStoreMemoryMapped;
+    }
+
+    public int getNegativeCacheExpireInSeconds() {
+        return negativeCacheExpireInSeconds;
+    }
+
+    public void setNegativeCacheExpireInSeconds(int negativeCacheExpireInSeconds) {
+        this.negativeCacheExpireInSeconds = negativeCacheExpireInSeconds;
+    }
+
+    public int getNegativeCacheMaxSize() {
+        return negativeCacheMaxSize;
+    }
+
+    public void setNegativeCacheMaxSize(int negativeCacheMaxSize) {
+        this.negativeCacheMaxSize = negativeCacheMaxSize;
+    }
+
+    public String getIpRangeFile() {
+        return ipRangeFile;
+    }
+
+    public void setIpRangeFile(String ipRangeFile) {
+        this.ipRangeFile = ipRangeFile;
+    }
+
+    public String getMappedCacheFile() {
+        return mappedCacheFile;
+    }
+
+    public void setMappedCacheFile(String mappedCacheFile) {
+        this.mappedCacheFile = mappedCacheFile;
+    }
+
+    public int getMappedCacheEntries() {
+        return mappedCacheEntries;
+    }
+
+    public void setMappedCacheEntries(int mappedCacheEntries) {
+        this.mappedCacheEntries = mappedCacheEntries;
+    }
+
+    public int getMappedCacheSlotSizeInBytes() {
+        return mappedCacheSlotSizeInBytes;
+    }
+
+    public void setMappedCacheSlotSizeInBytes(int mappedCacheSlotSizeInBytes) {
+        this.mappedCacheSlotSizeInBytes = mappedCacheSlotSizeInBytes;
+    }
+
+    public int getWarmupMaxRows() {
+        return warmupMaxRows;
+    }
+
+    public void setWarmupMaxRows(int warmupMaxRows) {
+        this.warmupMaxRows = warmupMaxRows;
+    }
+
+    public int getWarmupTimeBudgetInSeconds() {
+        return warmupTimeBudgetInSeconds;
+    }
+
+    public void setWarmupTimeBudgetInSeconds(int warmupTimeBudgetInSeconds) {
+        this.warmupTimeBudgetInSeconds = warmupTimeBudgetInSeconds;
+    }
+
+    public int getPersistedMaxAgeInSeconds() {
+        return persistedMaxAgeInSeconds;
+    }
+
+    public void setPersistedMaxAgeInSeconds(int persistedMaxAgeInSeconds) {
+        this.persistedMaxAgeInSeconds = persistedMaxAgeInSeconds;
+    }
+
+    public int getStaleRefreshIntervalInSeconds() {
+        return staleRefreshIntervalInSeconds;
+    }
+
+    public void setStaleRefreshIntervalInSeconds(int staleRefreshIntervalInSeconds) {
+        this.staleRefreshIntervalInSeconds = staleRefreshIntervalInSeconds;
+    }
+
+    public int getStaleRefreshChunkSize() {
+        return staleRefreshChunkSize;
+    }
+
+    public void setStaleRefreshChunkSize(int staleRefreshChunkSize) {
+        this.staleRefreshChunkSize = staleRefreshChunkSize;
+    }
+
+    public int getStaleRefreshMaxPerRound() {
+        return staleRefreshMaxPerRound;
+    }
+
+    public void setStaleRefreshMaxPerRound(int staleRefreshMaxPerRound) {
+        this.staleRefreshMaxPerRound = staleRefreshMaxPerRound;
+    }
+
+    public int getAccessTrackingMaxPending() {
+        return accessTrackingMaxPending;
+    }
+
+    public void setAccessTrackingMaxPending(int accessTrackingMaxPending) {
+        this.accessTrackingMaxPending = accessTrackingMaxPending;
+    }
+
+    public int getAccessTrackingBatchSize() {
+        return accessTrackingBatchSize;
+    }
+
+    public void setAccessTrackingBatchSize(int accessTrackingBatchSize) {
+        this.accessTrackingBatchSize = accessTrackingBatchSize;
+    }
+
+    public int getAccessTrackingFlushIntervalInSeconds() {
+        return accessTrackingFlushIntervalInSeconds;
+    }
+
+    public void setAccessTrackingFlushIntervalInSeconds(int accessTrackingFlushIntervalInSeconds) {
+        this.accessTrackingFlushIntervalInSeconds = accessTrackingFlushIntervalInSeconds;
+    }
+
+    public int getRetentionInSeconds() {
+        return retentionInSeconds;
+    }
+
+    public void setRetentionInSeconds(int retentionInSeconds) {
+        this.retentionInSeconds = retentionInSeconds;
+    }
+
+    public int getRetentionIntervalInSeconds() {
+        return retentionIntervalInSeconds;
+    }
+
+    public void setRetentionIntervalInSeconds(int retentionIntervalInSeconds) {
+        this.retentionIntervalInSeconds = retentionIntervalInSeconds;
+    }
+
+    public int getRetentionBatchSize() {
+        return retentionBatchSize;
+    }
+
+    public void setRetentionBatchSize(int retentionBatchSize) {
+        this.retentionBatchSize = retentionBatchSize;
+    }
+
+    public int getRetentionMaxPerRound() {
+        return retentionMaxPerRound;
+    }
+
+    public void setRetentionMaxPerRound(int retentionMaxPerRound) {
+        this.retentionMaxPerRound = retentionMaxPerRound;
+    }
+
+    public boolean isRetentionArchive() {
+        return retentionArchive;
+    }
+
+    public void setRetentionArchive(boolean retentionArchive) {
+        this.retentionArchive = retentionArchive;
+    }
+
+    public int getPrefixSharingMaxPrefixes() {
+        return prefixSharingMaxPrefixes;
+    }
+
+    public void setPrefixSharingMaxPrefixes(int prefixSharingMaxPrefixes) {
+        this.prefixSharingMaxPrefixes = prefixSharingMaxPrefixes;
+    }
+
+    public int getPrefixSharingIpv4PrefixLength() {
+        return prefixSharingIpv4PrefixLength;
+    }
+
+    public void setPrefixSharingIpv4PrefixLength(int prefixSharingIpv4PrefixLength) {
+        this.prefixSharingIpv4PrefixLength = prefixSharingIpv4PrefixLength;
+    }
+
+    public int getPrefixSharingIpv6PrefixLength() {
+        return prefixSharingIpv6PrefixLength;
+    }
+
+    public void setPrefixSharingIpv6PrefixLength(int prefixSharingIpv6PrefixLength) {
+        this.prefixSharingIpv6PrefixLength = prefixSharingIpv6PrefixLength;
+    }
+
+    public int getPrefixSharingMinHosts() {
+        return prefixSharingMinHosts;
+    }
+
+    public void setPrefixSharingMinHosts(int prefixSharingMinHosts) {
+        this.prefixSharingMinHosts = prefixSharingMinHosts;
+    }
+
+    public int getPrefixSharingMinConfidencePercent() {
+        return prefixSharingMinConfidencePercent;
+    }
+
+    public void setPrefixSharingMinConfidencePercent(int prefixSharingMinConfidencePercent) {
+        this.prefixSharingMinConfidencePercent = prefixSharingMinConfidencePercent;
+    }
+
+    public int getPrefixSharingExpireInSeconds() {
+        return prefixSharingExpireInSeconds;
+    }
+
+    public void setPrefixSharingExpireInSeconds(int prefixSharingExpireInSeconds) {
+        this.prefixSharingExpireInSeconds = prefixSharingExpireInSeconds;
+    }
+
+    public int getWriteBehindQueueCapacity() {
+        return writeBehindQueueCapacity;
+    }
+
+    public void setWriteBehindQueueCapacity(int writeBehindQueueCapacity) {
+        this.writeBehindQueueCapacity = writeBehindQueueCapacity;
+    }
+
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+    public long getWriteBehindFlushIntervalInMillis() {
+        return writeBehindFlushIntervalInMillis;
+    }
+
+    public void setWriteBehindFlushIntervalInMillis(long writeBehindFlushIntervalInMillis) {
+        this.writeBehindFlushIntervalInMillis = writeBehindFlushIntervalInMillis;
+    }
+
+    public long getWriteBehindOfferTimeoutInMillis() {
+        return writeBehindOfferTimeoutInMillis;
+    }
+
+    public void setWriteBehindOfferTimeoutInMillis(long writeBehindOfferTimeoutInMillis) {
+        this.writeBehindOfferTimeoutInMillis = writeBehindOfferTimeoutInMillis;
+    }
+
+    public int getUpstreamRequestsPerMinute() {
+        return upstreamRequestsPerMinute;
+    }
+
+    public void setUpstreamRequestsPerMinute(int upstreamRequestsPerMinute) {
+        this.upstreamRequestsPerMinute = upstreamRequestsPerMinute;
+    }
+
+    public int getUpstreamBurstSize() {
+        return upstreamBurstSize;
+    }
+
+    public void setUpstreamBurstSize(int upstreamBurstSize) {
+        this.upstreamBurstSize = upstreamBurstSize;
+    }
+
+    public int getUpstreamMaxConcurrentRequests() {
+        return upstreamMaxConcurrentRequests;
+    }
+
+    public void setUpstreamMaxConcurrentRequests(int upstreamMaxConcurrentRequests) {
+        this.upstreamMaxConcurrentRequests = upstreamMaxConcurrentRequests;
+    }
+
+    public long getUpstreamAcquireTimeoutInMillis() {
+        return upstreamAcquireTimeoutInMillis;
+    }
+
+    public void setUpstreamAcquireTimeoutInMillis(long upstreamAcquireTimeoutInMillis) {
+        this.upstreamAcquireTimeoutInMillis = upstreamAcquireTimeoutInMillis;
+    }
+
+    public int getUpstreamCircuitFailureThreshold() {
+        return upstreamCircuitFailureThreshold;
+    }
+
+    public void setUpstreamCircuitFailureThreshold(int upstreamCircuitFailureThreshold) {
+        this.upstreamCircuitFailureThreshold = upstreamCircuitFailureThreshold;
+    }
+
+    public long getUpstreamCircuitOpenInMillis() {
+        return upstreamCircuitOpenInMillis;
+    }
+
+    public void setUpstreamCircuitOpenInMillis(long upstreamCircuitOpenInMillis) {
+        this.upstreamCircuitOpenInMillis = upstreamCircuitOpenInMillis;
+    }
+
+    public int getUpstreamBatchRequestsPerMinute() {
+        return upstreamBatchRequestsPerMinute;
+    }
+
+    public void setUpstreamBatchRequestsPerMinute(int upstreamBatchRequestsPerMinute) {
+        this.upstreamBatchRequestsPerMinute = upstreamBatchRequestsPerMinute;
+    }
+
+    public int getUpstreamBatchMaxSize() {
+        return upstreamBatchMaxSize;
+    }
+
+    public void setUpstreamBatchMaxSize(int upstreamBatchMaxSize) {
+        this.upstreamBatchMaxSize = upstreamBatchMaxSize;
+    }
+
+    public long getUpstreamBatchMaxDelayInMillis() {
+        return upstreamBatchMaxDelayInMillis;
+    }
+
+    public void setUpstreamBatchMaxDelayInMillis(long upstreamBatchMaxDelayInMillis) {
+        this.upstreamBatchMaxDelayInMillis = upstreamBatchMaxDelayInMillis;
+    }
+
+    @JsonProperty("jerseyClient")
+    public JerseyClientConfiguration getJerseyClientConfiguration() {
+        return jerseyClient;
+    }
+
+    @JsonProperty("jerseyClient")
+    public void setJerseyClientConfiguration(JerseyClientConfiguration jerseyClient) {
+        this.jerseyClient = jerseyClient;
+    }
+
+    public String getSelfUrl() {
+        return selfUrl;
+    }
+
+    public void setSelfUrl(String selfUrl) {
+        this.selfUrl = selfUrl;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+
+    public int getPeerVirtualNodes() {
+        return peerVirtualNodes;
+    }
+
+    public void setPeerVirtualNodes(int peerVirtualNodes) {
+        this.peerVirtualNodes = peerVirtualNodes;
+    }
+
+    @JsonProperty("peerClient")
+    public JerseyClientConfiguration getPeerClientConfiguration() {
+        return peerClient;
+    }
+
+    @JsonProperty("peerClient")
+    public void setPeerClientConfiguration(JerseyClientConfiguration peerClient) {
+        this.peerClient = peerClient;
+    }
 }
@@ -0,0 +1,119 @@
+package com.hilton.queryservice.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * {@link LookupCache} backed by a Caffeine async loading cache. Loads go through the async loader, except for misses
+ * of {@link #get(Object)} which load on the caller thread with the blocking loader. The blocking load runs after its
+ * pending future is installed, outside of the lock of the cache's map, so concurrent misses of the key wait on the
+ * future and a caller on a virtual thread is not pinned to its carrier while it loads. When refresh is enabled, an entry
+ * read after refreshAfterWriteSeconds is answered with its current value while it is reloaded by the async loader,
+ * so hot keys are refreshed in the background instead of expiring. A failed refresh keeps the current value.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class CaffeineLookupCache<K, V> implements LookupCache<K, V> {
+
+    private final AsyncLoadingCache<K, V> cache;
+
+    // loads misses of the blocking lookup on the caller thread
+    private final Function<K, V> loader;
+
+    /**
+     * @param spec        expiry, refresh and sizing of the cache
+     * @param loader      blocking loader for misses of {@link #get(Object)}
+     * @param asyncLoader non-blocking loader for misses of {@link #getAsync(Object)} and for refreshes
+     * @param weigher     estimated size of an entry in bytes, used when the spec is weighted
+     * @param executor    executor for refreshes and cache maintenance
+     */
+    public CaffeineLookupCache(LookupCacheSpec spec, Function<K, V> loader, Function<K, CompletableFuture<V>> asyncLoader,
+                               Weigher<K, V> weigher, Executor executor) {
+        this(spec, loader, asyncLoader, weigher, executor, new ConcurrentStatsCounter());
+    }
+
+    /**
+     * @param spec         expiry, refresh and sizing of the cache
+     * @param loader       blocking loader for misses of {@link #get(Object)}
+     * @param asyncLoader  non-blocking loader for misses of {@link #getAsync(Object)} and for refreshes
+     * @param weigher      estimated size of an entry in bytes, used when the spec is weighted
+     * @param executor     executor for refreshes and cache maintenance
+     * @param statsCounter counter of hits, misses, loads and evictions, such as a {@link MeteredStatsCounter}
+     */
+    public CaffeineLookupCache(LookupCacheSpec spec, Function<K, V> loader, Function<K, CompletableFuture<V>> asyncLoader,
+                               Weigher<K, V> weigher, Executor executor, StatsCounter statsCounter) {
+        this.loader = loader;
+        AsyncCacheLoader<K, V> asyncCacheLoader = (key, loaderExecutor) -> asyncLoader.apply(key);
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .expireAfterAccess(spec.getExpireAfterAccessSeconds(), TimeUnit.SECONDS)
+                .executor(executor)
+                .recordStats(() -> statsCounter);
+        if (spec.getRefreshAfterWriteSeconds() > 0) {
+            builder.refreshAfterWrite(spec.getRefreshAfterWriteSeconds(), TimeUnit.SECONDS);
+        }
+        if (spec.isWeighted()) {
+            this.cache = builder.maximumWeight(spec.getMaximumWeightInBytes()).weigher(weigher).buildAsync(asyncCacheLoader);
+        } else {
+            this.cache = builder.maximumSize(spec.getMaximumSize()).buildAsync(asyncCacheLoader);
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> future = cache.get(key, (k, executor) -> load);
+        if (future != load) {
+            return future.join();
+        }
+        try {
+            V value = loader.apply(key);
+            load.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            // a failed load is removed from the cache, the next miss loads again
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<V> getAsync(K key) {
+        return cache.get(key);
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        return cache.synchronous().getIfPresent(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        cache.synchronous().put(key, value);
+    }
+
+    @Override
+    public void invalidate(K key) {
+        cache.synchronous().invalidate(key);
+    }
+
+    @Override
+    public LookupCacheStats stats() {
+        CacheStats stats = cache.synchronous().stats();
+        long weightedSize = cache.synchronous().policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new LookupCacheStats(stats.hitCount(), stats.missCount(), stats.loadSuccessCount(), stats.loadFailureCount(),
+                stats.evictionCount(), cache.synchronous().estimatedSize(), weightedSize);
+    }
+}
@@ -0,0 +1,45 @@
+package com.hilton.queryservice.cache;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loading cache in front of the lookup tiers. A key is loaded once at a time, concurrent lookups of a key that is
+ * being loaded share the load.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public interface LookupCache<K, V> {
+
+    /**
+     * Lookup blocking the caller thread, a miss is loaded on the caller thread
+     *
+     * @param key key
+     * @return cached or loaded value
+     * @throws java.util.concurrent.CompletionException if the load shared with an async lookup fails
+     */
+    V get(K key);
+
+    /**
+     * Lookup without blocking the caller thread, a miss is loaded by the async loader
+     *
+     * @param key key
+     * @return future of the cached or loaded value, failed if the load fails
+     */
+    CompletableFuture<V> getAsync(K key);
+
+    /**
+     * @param key key
+     * @return cached value or null when the key is not cached or its load is still in flight
+     */
+    V getIfPresent(K key);
+
+    void put(K key, V value);
+
+    void invalidate(K key);
+
+    /**
+     * @return hit, miss, load and eviction counts since the cache was created
+     */
+    LookupCacheStats stats();
+}
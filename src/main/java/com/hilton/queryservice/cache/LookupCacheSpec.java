@@ -0,0 +1,65 @@
+package com.hilton.queryservice.cache;
+
+/**
+ * Expiry, refresh and sizing of a {@link LookupCache}
+ */
+public class LookupCacheSpec {
+
+    // entries not read for this time are expired
+    private final int expireAfterAccessSeconds;
+
+    // entries written this long ago are reloaded in the background on their next read, 0 disables refresh
+    private final int refreshAfterWriteSeconds;
+
+    // max number of entries, used when maximumWeightInBytes is 0
+    private final long maximumSize;
+
+    // max estimated size of all entries in bytes, 0 sizes the cache by maximumSize entries
+    private final long maximumWeightInBytes;
+
+    public LookupCacheSpec(int expireAfterAccessSeconds, int refreshAfterWriteSeconds, long maximumSize, long maximumWeightInBytes) {
+        this.expireAfterAccessSeconds = expireAfterAccessSeconds;
+        this.refreshAfterWriteSeconds = refreshAfterWriteSeconds;
+        this.maximumSize = maximumSize;
+        this.maximumWeightInBytes = maximumWeightInBytes;
+    }
+
+    /**
+     * @param expireAfterAccessSeconds expiry of entries not read
+     * @param maximumSize              max number of entries
+     * @return spec without refresh, sized by number of entries
+     */
+    public static LookupCacheSpec ofSize(int expireAfterAccessSeconds, long maximumSize) {
+        return new LookupCacheSpec(expireAfterAccessSeconds, 0, maximumSize, 0);
+    }
+
+    public int getExpireAfterAccessSeconds() {
+        return expireAfterAccessSeconds;
+    }
+
+    public int getRefreshAfterWriteSeconds() {
+        return refreshAfterWriteSeconds;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getMaximumWeightInBytes() {
+        return maximumWeightInBytes;
+    }
+
+    public boolean isWeighted() {
+        return maximumWeightInBytes > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LookupCacheSpec{" +
+                "expireAfterAccessSeconds=" + expireAfterAccessSeconds +
+                ", refreshAfterWriteSeconds=" + refreshAfterWriteSeconds +
+                ", maximumSize=" + maximumSize +
+                ", maximumWeightInBytes=" + maximumWeightInBytes +
+                '}';
+    }
+}
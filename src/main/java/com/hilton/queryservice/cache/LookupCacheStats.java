@@ -0,0 +1,78 @@
+package com.hilton.queryservice.cache;
+
+/**
+ * Snapshot of the counters of a {@link LookupCache}
+ */
+public class LookupCacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long evictionCount;
+    private final long estimatedSize;
+    private final long weightedSize;
+
+    public LookupCacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long evictionCount,
+                            long estimatedSize, long weightedSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.evictionCount = evictionCount;
+        this.estimatedSize = estimatedSize;
+        this.weightedSize = weightedSize;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return approximate number of entries
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * @return estimated size of all entries in bytes, 0 when the cache is sized by number of entries
+     */
+    public long getWeightedSize() {
+        return weightedSize;
+    }
+
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+        return "LookupCacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", evictionCount=" + evictionCount +
+                ", estimatedSize=" + estimatedSize +
+                ", weightedSize=" + weightedSize +
+                '}';
+    }
+}
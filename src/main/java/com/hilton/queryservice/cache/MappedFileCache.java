@@ -0,0 +1,320 @@
+package com.hilton.queryservice.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of byte values keyed by string, held in a fixed layout memory-mapped file that is reopened on
+ * startup, so its entries survive restarts.
+ * <p>
+ * The file is a header followed by sets of slots. A key hashes to one set and may live in any of its ways, when a
+ * set is full the least recently read slot of the set is evicted. Every slot has the same size:
+ * <pre>
+ * int checksum | long accessedAt | long writtenAt | short keyLength | short valueLength | key bytes | value bytes
+ * </pre>
+ * A keyLength of 0 marks an empty slot. keyLength is written last and cleared first, and the checksum over key and
+ * value is verified on read, so a slot torn by a crash reads as a miss.
+ */
+public final class MappedFileCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileCache.class);
+
+    private static final int MAGIC = 0x51495043;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_HEADER_SIZE = 24;
+    private static final int CHECKSUM_OFFSET = 0;
+    private static final int ACCESSED_AT_OFFSET = 4;
+    private static final int WRITTEN_AT_OFFSET = 12;
+    private static final int KEY_LENGTH_OFFSET = 20;
+    private static final int VALUE_LENGTH_OFFSET = 22;
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_SLOT_SIZE = 65536;
+    private static final MappedFileCache DISABLED = new MappedFileCache(null, null, 0, 0, 0);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int sets;
+    private final int ways;
+    private final int slotSize;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    // access stamps, wall clock millis made strictly increasing so the order of reads within a milli is kept
+    private final AtomicLong accessClock = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private MappedFileCache(FileChannel channel, MappedByteBuffer buffer, int sets, int ways, int slotSize) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.sets = sets;
+        this.ways = ways;
+        this.slotSize = slotSize;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return cache without a file, every lookup misses and nothing is stored
+     */
+    public static MappedFileCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Open the cache file, creating it when it does not exist. A file written with another layout is reinitialized.
+     *
+     * @param file     cache file
+     * @param sets     number of sets
+     * @param ways     number of slots per set
+     * @param slotSize size of a slot in bytes, including the slot header, key and value
+     * @return opened cache
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MappedFileCache open(Path file, int sets, int ways, int slotSize) throws IOException {
+        if (sets < 1 || ways < 1 || slotSize <= SLOT_HEADER_SIZE || slotSize > MAX_SLOT_SIZE) {
+            throw new IllegalArgumentException("sets and ways must be positive and slot size between " + (SLOT_HEADER_SIZE + 1) + " and " + MAX_SLOT_SIZE);
+        }
+        long fileSize = HEADER_SIZE + (long) sets * ways * slotSize;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("cache file of " + fileSize + " bytes exceeds the maximum mapped size of " + Integer.MAX_VALUE);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean reinitialize = channel.size() != fileSize;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            if (!reinitialize) {
+                reinitialize = buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                        || buffer.getInt(8) != sets || buffer.getInt(12) != ways || buffer.getInt(16) != slotSize;
+            }
+            if (reinitialize) {
+                LOGGER.info("initializing mapped cache file " + file + " with " + sets + " sets of " + ways + " slots of " + slotSize + " bytes");
+                for (int i = 0; i < sets * ways; i++) {
+                    buffer.putShort(HEADER_SIZE + i * slotSize + KEY_LENGTH_OFFSET, (short) 0);
+                }
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, sets);
+                buffer.putInt(12, ways);
+                buffer.putInt(16, slotSize);
+                // magic is written last, a file torn while initializing is initialized again on the next open
+                buffer.putInt(0, MAGIC);
+                buffer.force();
+            } else {
+                LOGGER.info("reopened mapped cache file " + file);
+            }
+            return new MappedFileCache(channel, buffer, sets, ways, slotSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public boolean isEnabled() {
+        return buffer != null;
+    }
+
+    /**
+     * @return max size of key and value bytes of an entry
+     */
+    public int maxEntrySize() {
+        return slotSize - SLOT_HEADER_SIZE;
+    }
+
+    /**
+     * @param key key
+     * @return value or null when the key is not cached
+     */
+    public byte[] get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int set = set(keyBytes);
+        synchronized (locks[set % LOCK_STRIPES]) {
+            int slot = find(set, keyBytes);
+            if (slot < 0) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            int offset = offset(slot);
+            ByteBuffer view = buffer.duplicate();
+            byte[] value = new byte[view.getShort(offset + VALUE_LENGTH_OFFSET) & 0xffff];
+            view.position(offset + SLOT_HEADER_SIZE + keyBytes.length);
+            view.get(value);
+            if (view.getInt(offset + CHECKSUM_OFFSET) != checksum(keyBytes, value)) {
+                LOGGER.warn("discarding corrupt mapped cache slot of key " + key);
+                view.putShort(offset + KEY_LENGTH_OFFSET, (short) 0);
+                missCount.incrementAndGet();
+                return null;
+            }
+            view.putLong(offset + ACCESSED_AT_OFFSET, nextAccessStamp());
+            hitCount.incrementAndGet();
+            return value;
+        }
+    }
+
+    /**
+     * Store the value, replacing the value of the key or evicting the least recently read slot of a full set
+     *
+     * @param key   key
+     * @param value value
+     * @return false when key and value do not fit in a slot and nothing was stored
+     */
+    public boolean put(String key, byte[] value) {
+        if (!isEnabled()) {
+            return false;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length == 0 || keyBytes.length + value.length > maxEntrySize()) {
+            return false;
+        }
+        int set = set(keyBytes);
+        synchronized (locks[set % LOCK_STRIPES]) {
+            int slot = find(set, keyBytes);
+            if (slot < 0) {
+                slot = victim(set);
+            }
+            int offset = offset(slot);
+            ByteBuffer view = buffer.duplicate();
+            view.putShort(offset + KEY_LENGTH_OFFSET, (short) 0);
+            view.putInt(offset + CHECKSUM_OFFSET, checksum(keyBytes, value));
+            view.putLong(offset + ACCESSED_AT_OFFSET, nextAccessStamp());
+            view.putLong(offset + WRITTEN_AT_OFFSET, System.currentTimeMillis());
+            view.putShort(offset + VALUE_LENGTH_OFFSET, (short) value.length);
+            view.position(offset + SLOT_HEADER_SIZE);
+            view.put(keyBytes);
+            view.put(value);
+            view.putShort(offset + KEY_LENGTH_OFFSET, (short) keyBytes.length);
+            return true;
+        }
+    }
+
+    /**
+     * @param key key to remove
+     */
+    public void remove(String key) {
+        if (!isEnabled()) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int set = set(keyBytes);
+        synchronized (locks[set % LOCK_STRIPES]) {
+            int slot = find(set, keyBytes);
+            if (slot >= 0) {
+                buffer.duplicate().putShort(offset(slot) + KEY_LENGTH_OFFSET, (short) 0);
+            }
+        }
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Write the mapped pages to the file and close it. The mapping itself is released once it is garbage collected.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    private int set(byte[] keyBytes) {
+        int hash = 0;
+        for (byte b : keyBytes) {
+            hash = 31 * hash + b;
+        }
+        // spread the bits so sequential ips do not crowd neighbouring sets
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return Math.floorMod(hash, sets);
+    }
+
+    private long nextAccessStamp() {
+        long now = System.currentTimeMillis();
+        return accessClock.updateAndGet(previous -> Math.max(previous + 1, now));
+    }
+
+    private int offset(int slot) {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    private int find(int set, byte[] keyBytes) {
+        for (int way = 0; way < ways; way++) {
+            int slot = set * ways + way;
+            int offset = offset(slot);
+            if ((buffer.getShort(offset + KEY_LENGTH_OFFSET) & 0xffff) == keyBytes.length && keyEquals(offset + SLOT_HEADER_SIZE, keyBytes)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int offset, byte[] keyBytes) {
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(offset + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int victim(int set) {
+        int victim = set * ways;
+        long oldestAccess = Long.MAX_VALUE;
+        for (int way = 0; way < ways; way++) {
+            int slot = set * ways + way;
+            int offset = offset(slot);
+            if (buffer.getShort(offset + KEY_LENGTH_OFFSET) == 0) {
+                return slot;
+            }
+            long accessedAt = buffer.getLong(offset + ACCESSED_AT_OFFSET);
+            if (accessedAt < oldestAccess) {
+                oldestAccess = accessedAt;
+                victim = slot;
+            }
+        }
+        evictionCount.incrementAndGet();
+        return victim;
+    }
+
+    private static int checksum(byte[] keyBytes, byte[] value) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(keyBytes);
+        crc32.update(value);
+        return (int) crc32.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFileCache{sets=" + sets + ", ways=" + ways + ", slotSize=" + slotSize + "}";
+    }
+}
@@ -0,0 +1,74 @@
+package com.hilton.queryservice.cache;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caffeine stats counter that also reports to a metric registry, so hits, misses, evictions and load times of a
+ * {@link CaffeineLookupCache} are metered as they are recorded instead of being polled from snapshots:
+ * {prefix}.hits, {prefix}.misses and {prefix}.evictions meters, the {prefix}.loads timer of successful loads and the
+ * {prefix}.load-failures meter. {@link #snapshot()} keeps the counts of {@link LookupCache#stats()}.
+ */
+public class MeteredStatsCounter implements StatsCounter {
+
+    private final StatsCounter counter = new ConcurrentStatsCounter();
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter evictions;
+    private final Timer loads;
+    private final Meter loadFailures;
+
+    /**
+     * @param metricRegistry registry the metrics are created in, or taken from when already registered
+     * @param prefix         name prefix of the metrics
+     */
+    public MeteredStatsCounter(MetricRegistry metricRegistry, String prefix) {
+        this.hits = metricRegistry.meter(MetricRegistry.name(prefix, "hits"));
+        this.misses = metricRegistry.meter(MetricRegistry.name(prefix, "misses"));
+        this.evictions = metricRegistry.meter(MetricRegistry.name(prefix, "evictions"));
+        this.loads = metricRegistry.timer(MetricRegistry.name(prefix, "loads"));
+        this.loadFailures = metricRegistry.meter(MetricRegistry.name(prefix, "load-failures"));
+    }
+
+    @Override
+    public void recordHits(int count) {
+        counter.recordHits(count);
+        hits.mark(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        counter.recordMisses(count);
+        misses.mark(count);
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadTime) {
+        counter.recordLoadSuccess(loadTime);
+        loads.update(loadTime, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadTime) {
+        counter.recordLoadFailure(loadTime);
+        loadFailures.mark();
+    }
+
+    @Override
+    public void recordEviction(int weight, RemovalCause cause) {
+        counter.recordEviction(weight, cause);
+        evictions.mark();
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        return counter.snapshot();
+    }
+}
@@ -0,0 +1,329 @@
+package com.hilton.queryservice.cli;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpRangeIndex;
+import com.hilton.queryservice.core.QueryIpBatchResult;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.core.ReservedRanges;
+import com.hilton.queryservice.db.QueryIpStore;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import com.hilton.queryservice.resources.QueryIPResource;
+import io.dropwizard.jackson.Jackson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Enriches a local file of ips, such as an access log or a csv file, into a newline delimited json file of
+ * {@link QueryIpBatchResult}, one line per non blank input line in input order, without the server and the remote api.
+ * The input is memory-mapped in chunks of about chunkSizeInBytes that end at a line end, which the workers of a
+ * fork-join pool enrich in parallel. A worker takes the ip in the given column of each line of its chunk, columns
+ * being separated by a comma or blanks, looks up the distinct ips of the chunk in the reserved ranges and the ip range
+ * index, then in the database through {@link QueryIpStore#findByIps} with one query per
+ * {@link #DATABASE_BATCH_SIZE} ips, and serializes the results of the chunk. Chunk results are written in input order
+ * and at most twice parallelism chunks are in memory at once. Ips found neither locally nor in the database are
+ * answered as unknown.
+ */
+public class BulkEnricher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkEnricher.class);
+
+    // max number of ips of a database query
+    static final int DATABASE_BATCH_SIZE = 1000;
+
+    // longer than any ip or domain name accepted by IpAddressParser
+    private static final int MAX_IP_LENGTH = 256;
+    private static final int SCAN_BUFFER_SIZE = 4096;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    static final String NOT_FOUND_MESSAGE = "ip is not in the ip range index nor in the database";
+    static final String NO_COLUMN_MESSAGE = "line has no column ";
+
+    private static final ObjectWriter RESULT_WRITER = Jackson.newObjectMapper().writerFor(QueryIpBatchResult.class);
+
+    private final QueryIpStore queryIpStore;
+    private final UnitOfWorkRunner unitOfWorkRunner;
+    private final IpRangeIndex ipRangeIndex;
+    private final int parallelism;
+    private final int chunkSizeInBytes;
+    private final int column;
+
+    /**
+     * @param queryIpStore     store the ips are looked up in
+     * @param unitOfWorkRunner runner opening a session for the lookups of each chunk
+     * @param ipRangeIndex     ip range index consulted before the database
+     * @param parallelism      number of workers
+     * @param chunkSizeInBytes size of the chunks the input is split into, extended to the next line end
+     * @param column           0 based column of the ip in the input lines
+     */
+    public BulkEnricher(QueryIpStore queryIpStore, UnitOfWorkRunner unitOfWorkRunner, IpRangeIndex ipRangeIndex, int parallelism,
+                        int chunkSizeInBytes, int column) {
+        this.queryIpStore = queryIpStore;
+        this.unitOfWorkRunner = unitOfWorkRunner;
+        this.ipRangeIndex = ipRangeIndex;
+        this.parallelism = parallelism;
+        this.chunkSizeInBytes = chunkSizeInBytes;
+        this.column = column;
+    }
+
+    /**
+     * Enrich the ips of the input file into the output file
+     *
+     * @param input  file of ips, one line per ip
+     * @param output newline delimited json file, created or replaced
+     * @return number of lines enriched
+     * @throws IOException if the input cannot be read or the output cannot be written
+     */
+    public long enrich(Path input, Path output) throws IOException {
+        ForkJoinPool workers = new ForkJoinPool(parallelism);
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), OUTPUT_BUFFER_SIZE)) {
+            long size = channel.size();
+            // chunk results in input order, enriched in any order
+            Deque<CompletableFuture<ChunkResult>> inFlight = new ArrayDeque<>(2 * parallelism);
+            long lines = 0;
+            long start = 0;
+            while (start < size) {
+                long end = nextLineStart(channel, Math.min(size, start + chunkSizeInBytes), size);
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("line at offset " + start + " of " + input + " is longer than " + Integer.MAX_VALUE + " bytes");
+                }
+                long chunkStart = start;
+                inFlight.addLast(CompletableFuture.supplyAsync(() -> enrichChunk(channel, chunkStart, end), workers));
+                while (inFlight.size() >= 2 * parallelism) {
+                    lines += write(out, inFlight.pollFirst());
+                }
+                start = end;
+            }
+            while (!inFlight.isEmpty()) {
+                lines += write(out, inFlight.pollFirst());
+            }
+            LOGGER.info("enriched " + lines + " lines of " + input + " into " + output);
+            return lines;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static long write(OutputStream out, CompletableFuture<ChunkResult> chunkResult) throws IOException {
+        ChunkResult result;
+        try {
+            result = chunkResult.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        out.write(result.bytes);
+        return result.lines;
+    }
+
+    /**
+     * @param position position to look for the end of a line from
+     * @return position after the first line end at or after position, the size at the end of the input
+     */
+    static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Enrich the lines from start to end of the input, run by a worker
+     */
+    private ChunkResult enrichChunk(FileChannel channel, long start, long end) {
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // ip of each line, and canonical ip of each distinct valid ip, null for an invalid ip
+        List<String> ips = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        Map<String, String> canonicalIps = new HashMap<>();
+        byte[] scratch = new byte[MAX_IP_LENGTH];
+        int lineStart = 0;
+        int limit = buffer.limit();
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && buffer.get(i) != '\n') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (!isBlankLine(buffer, lineStart, lineEnd)) {
+                String ip = column(buffer, lineStart, lineEnd, scratch);
+                ips.add(ip);
+                messages.add(ip == null ? NO_COLUMN_MESSAGE + column : null);
+                if (ip != null) {
+                    canonicalIps.computeIfAbsent(ip, IpAddressParser::canonicalize);
+                }
+            }
+            lineStart = i + 1;
+        }
+
+        Map<String, QueryIpResponseEntity> responses = lookup(canonicalIps);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, (end - start) * 4));
+        try {
+            for (int i = 0; i < ips.size(); i++) {
+                String ip = ips.get(i);
+                String canonicalIp = ip == null ? null : canonicalIps.get(ip);
+                QueryIpBatchResult result;
+                if (ip == null) {
+                    result = QueryIpBatchResult.invalid(null, messages.get(i));
+                } else if (canonicalIp == null) {
+                    result = QueryIpBatchResult.invalid(ip, QueryIPResource.INVALID_BATCH_IP_MESSAGE);
+                } else if (responses.containsKey(canonicalIp)) {
+                    result = QueryIpBatchResult.ok(ip, responses.get(canonicalIp));
+                } else {
+                    result = QueryIpBatchResult.unknown(ip, NOT_FOUND_MESSAGE);
+                }
+                out.write(RESULT_WRITER.writeValueAsBytes(result));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ChunkResult(out.toByteArray(), ips.size());
+    }
+
+    /**
+     * Look up the distinct valid ips of a chunk locally, then in the database
+     *
+     * @param canonicalIps canonical ip of each ip, null for an invalid ip
+     * @return response of each ip found, by canonical ip
+     */
+    private Map<String, QueryIpResponseEntity> lookup(Map<String, String> canonicalIps) {
+        Map<String, QueryIpResponseEntity> responses = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        // ips written differently may share their canonical ip
+        for (String canonicalIp : new LinkedHashSet<>(canonicalIps.values())) {
+            if (canonicalIp == null) {
+                continue;
+            }
+            Optional<QueryIpResponseEntity> local = ReservedRanges.lookup(canonicalIp);
+            if (local.isEmpty()) {
+                local = ipRangeIndex.lookup(canonicalIp);
+            }
+            if (local.isPresent()) {
+                responses.put(canonicalIp, local.get());
+            } else {
+                misses.add(canonicalIp);
+            }
+        }
+        for (int from = 0; from < misses.size(); from += DATABASE_BATCH_SIZE) {
+            List<String> batch = misses.subList(from, Math.min(misses.size(), from + DATABASE_BATCH_SIZE));
+            for (QueryIpResponseEntity persisted : unitOfWorkRunner.call(() -> queryIpStore.findByIps(batch))) {
+                responses.put(persisted.getQuery(), persisted);
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * @return text of the column of the line without surrounding quotes, null when the line has fewer columns
+     */
+    private String column(MappedByteBuffer buffer, int from, int to, byte[] scratch) {
+        int i = from;
+        while (i < to && isBlank(buffer.get(i))) {
+            i++;
+        }
+        int field = 0;
+        int fieldStart = i;
+        while (i < to) {
+            byte c = buffer.get(i);
+            if (c != ',' && !isBlank(c)) {
+                i++;
+                continue;
+            }
+            if (field == column) {
+                break;
+            }
+            // a separator is a run of blanks with at most one comma
+            boolean comma = false;
+            while (i < to && (isBlank(buffer.get(i)) || (buffer.get(i) == ',' && !comma))) {
+                comma |= buffer.get(i) == ',';
+                i++;
+            }
+            field++;
+            fieldStart = i;
+        }
+        if (field != column) {
+            return null;
+        }
+        int fieldEnd = i;
+        if (fieldEnd - fieldStart >= 2 && buffer.get(fieldStart) == '"' && buffer.get(fieldEnd - 1) == '"') {
+            fieldStart++;
+            fieldEnd--;
+        }
+        int length = Math.min(fieldEnd - fieldStart, scratch.length);
+        for (int k = 0; k < length; k++) {
+            scratch[k] = buffer.get(fieldStart + k);
+        }
+        // longer fields are cut, which makes them invalid
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isBlankLine(MappedByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isBlank(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static final class ChunkResult {
+
+        private final byte[] bytes;
+        private final int lines;
+
+        private ChunkResult(byte[] bytes, int lines) {
+            this.bytes = bytes;
+            this.lines = lines;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.hilton.queryservice.cli;
+
+import com.hilton.queryservice.QueryIPServiceConfiguration;
+import com.hilton.queryservice.core.IpRangeIndex;
+import com.hilton.queryservice.db.JdbcQueryIpResponseDAO;
+import com.hilton.queryservice.db.MVStoreQueryIpStore;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import com.hilton.queryservice.db.QueryIpStore;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import io.dropwizard.core.Application;
+import io.dropwizard.core.cli.EnvironmentCommand;
+import io.dropwizard.core.setup.Environment;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.hibernate.SessionFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+
+/**
+ * Command enriching a local file of ips into a newline delimited json file with {@link BulkEnricher}, from the
+ * database and the ip range index of the configuration, without starting the server or calling the remote api:
+ * <pre>
+ * java -jar QueryIpService.jar enrich -i access.log -o access.ndjson config.yml
+ * </pre>
+ * It is an environment command so the hibernate bundle's session factory is built as for the server. With an
+ * mvStoreFile it reads that file, which is locked while the server has it open.
+ */
+public class EnrichCommand extends EnvironmentCommand<QueryIPServiceConfiguration> {
+
+    static final int DEFAULT_CHUNK_SIZE_IN_MB = 8;
+
+    private final Supplier<SessionFactory> sessionFactory;
+
+    /**
+     * @param application    application the environment is built by
+     * @param sessionFactory session factory of the hibernate bundle, available once the bundles ran
+     */
+    public EnrichCommand(Application<QueryIPServiceConfiguration> application, Supplier<SessionFactory> sessionFactory) {
+        super(application, "enrich", "Enriches a file of ips into a newline delimited json file from the database");
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        super.configure(subparser);
+        subparser.addArgument("-i", "--input").dest("input").required(true)
+                .help("file of ips, one per line, such as an access log or a csv file");
+        subparser.addArgument("-o", "--output").dest("output").required(true)
+                .help("newline delimited json file written with the result of each line");
+        subparser.addArgument("--column").dest("column").type(Integer.class).setDefault(0)
+                .help("0 based column of the ip, columns being separated by a comma or blanks");
+        subparser.addArgument("--parallelism").dest("parallelism").type(Integer.class).setDefault(Runtime.getRuntime().availableProcessors())
+                .help("number of worker threads");
+        subparser.addArgument("--chunk-size-mb").dest("chunkSizeInMb").type(Integer.class).setDefault(DEFAULT_CHUNK_SIZE_IN_MB)
+                .help("size of the chunks of the input enriched by a worker at once");
+    }
+
+    @Override
+    protected void run(Environment environment, Namespace namespace, QueryIPServiceConfiguration configuration) throws Exception {
+        int column = namespace.getInt("column");
+        int parallelism = namespace.getInt("parallelism");
+        int chunkSizeInMb = namespace.getInt("chunkSizeInMb");
+        if (column < 0 || parallelism < 1 || chunkSizeInMb < 1 || chunkSizeInMb > 1024) {
+            throw new IllegalArgumentException("column must be at least 0, parallelism at least 1 and chunk size in 1 to 1024 MB");
+        }
+        IpRangeIndex ipRangeIndex = IpRangeIndex.empty();
+        if (configuration.getIpRangeFile() != null) {
+            ipRangeIndex = IpRangeIndex.load(Paths.get(configuration.getIpRangeFile()));
+        }
+        if (configuration.getMvStoreFile() != null) {
+            try (MVStoreQueryIpStore store = MVStoreQueryIpStore.open(Paths.get(configuration.getMvStoreFile()), configuration.getMvStoreCacheSizeInMb(),
+                    configuration.isMvStoreMemoryMapped(), environment.metrics())) {
+                enrich(namespace, store, UnitOfWorkRunner.direct(), ipRangeIndex, parallelism, chunkSizeInMb, column);
+            }
+            return;
+        }
+        QueryIpStore store = new QueryIpResponseDAO(sessionFactory.get(), environment.metrics());
+        UnitOfWorkRunner unitOfWorkRunner = new UnitOfWorkRunner(sessionFactory.get());
+        if (configuration.isJdbcReads()) {
+            // the enricher only reads, with plain JDBC statements outside of sessions
+            store = new JdbcQueryIpResponseDAO(sessionFactory.get(), JdbcQueryIpResponseDAO.dataSourceOf(sessionFactory.get()), environment.metrics());
+            unitOfWorkRunner = UnitOfWorkRunner.direct();
+        }
+        enrich(namespace, store, unitOfWorkRunner, ipRangeIndex, parallelism, chunkSizeInMb, column);
+    }
+
+    private static void enrich(Namespace namespace, QueryIpStore store, UnitOfWorkRunner unitOfWorkRunner, IpRangeIndex ipRangeIndex,
+                               int parallelism, int chunkSizeInMb, int column) throws IOException {
+        BulkEnricher bulkEnricher = new BulkEnricher(store, unitOfWorkRunner, ipRangeIndex, parallelism, chunkSizeInMb << 20, column);
+        bulkEnricher.enrich(Paths.get(namespace.getString("input")), Paths.get(namespace.getString("output")));
+    }
+}
@@ -0,0 +1,98 @@
+package com.hilton.queryservice.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of the upstream calls. Closed, calls go through until failureThreshold consecutive calls failed,
+ * then it opens and calls fail fast for openDurationInMillis. After that it is half open and lets one trial call
+ * through: a success closes it, a failure opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationInNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    // a half open breaker lets a single trial call through
+    private boolean trialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openDurationInMillis) {
+        this(failureThreshold, openDurationInMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openDurationInMillis, LongSupplier nanoClock) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failure threshold " + failureThreshold + " must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationInNanos = TimeUnit.MILLISECONDS.toNanos(openDurationInMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return true when a call may go through, which must then be reported with {@link #onSuccess()} or
+     * {@link #onFailure()}, false when the breaker is open
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAt < openDurationInNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nanoClock.getAsLong();
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Report a call that was let through but did not reach the upstream, such as when no permit was available,
+     * so a half open breaker lets another trial call through
+     */
+    public synchronized void onSkipped() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" +
+                "state=" + state +
+                ", consecutiveFailures=" + consecutiveFailures +
+                ", failureThreshold=" + failureThreshold +
+                '}';
+    }
+}
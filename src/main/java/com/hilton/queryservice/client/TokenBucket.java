@@ -0,0 +1,109 @@
+package com.hilton.queryservice.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limit: holds up to burstSize tokens, refilled at permitsPerMinute. A permit is reserved ahead of
+ * time when the bucket is empty, so callers wait their turn in order instead of polling. {@link #pauseFor(long)}
+ * empties the bucket until the upstream quota window resets, as announced by the upstream rate limit headers.
+ */
+public class TokenBucket {
+
+    private final int burstSize;
+    private final double nanosPerToken;
+    private final LongSupplier nanoClock;
+
+    // negative when permits are reserved ahead of the refill
+    private double tokens;
+    // time the tokens were refilled to, in the future while paused
+    private long refilledAt;
+
+    public TokenBucket(int permitsPerMinute, int burstSize) {
+        this(permitsPerMinute, burstSize, System::nanoTime);
+    }
+
+    TokenBucket(int permitsPerMinute, int burstSize, LongSupplier nanoClock) {
+        if (permitsPerMinute <= 0 || burstSize <= 0) {
+            throw new IllegalArgumentException("permits per minute " + permitsPerMinute + " and burst size " + burstSize + " must be positive");
+        }
+        this.burstSize = burstSize;
+        this.nanosPerToken = (double) TimeUnit.MINUTES.toNanos(1) / permitsPerMinute;
+        this.nanoClock = nanoClock;
+        this.tokens = burstSize;
+        this.refilledAt = nanoClock.getAsLong();
+    }
+
+    /**
+     * Reserve a permit if it is available within the timeout
+     *
+     * @param timeoutInNanos max time to wait for the permit
+     * @return nanos to wait before using the reserved permit, 0 when available now, -1 when not reserved
+     */
+    public synchronized long reserve(long timeoutInNanos) {
+        long now = nanoClock.getAsLong();
+        refill(now);
+        long waitInNanos = Math.max(0, refilledAt - now);
+        if (tokens < 1) {
+            waitInNanos += (long) Math.ceil((1 - tokens) * nanosPerToken);
+        }
+        if (waitInNanos > timeoutInNanos) {
+            return -1;
+        }
+        tokens -= 1;
+        return waitInNanos;
+    }
+
+    /**
+     * Reserve a permit and wait for it
+     *
+     * @param timeoutInNanos max time to wait for the permit
+     * @return true when a permit was acquired, false when none is available within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean tryAcquire(long timeoutInNanos) throws InterruptedException {
+        long waitInNanos = reserve(timeoutInNanos);
+        if (waitInNanos < 0) {
+            return false;
+        }
+        if (waitInNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitInNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Empty the bucket and stop refilling it for a while, such as until the upstream quota window resets
+     *
+     * @param pauseInNanos time before the bucket starts refilling
+     */
+    public synchronized void pauseFor(long pauseInNanos) {
+        long now = nanoClock.getAsLong();
+        refill(now);
+        tokens = Math.min(tokens, 0);
+        refilledAt = Math.max(refilledAt, now + pauseInNanos);
+    }
+
+    /**
+     * @return permits available now, negative when permits are reserved ahead
+     */
+    public synchronized double availablePermits() {
+        refill(nanoClock.getAsLong());
+        return tokens;
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(burstSize, tokens + (now - refilledAt) / nanosPerToken);
+            refilledAt = now;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucket{" +
+                "burstSize=" + burstSize +
+                ", permitsPerMinute=" + Math.round(TimeUnit.MINUTES.toNanos(1) / nanosPerToken) +
+                '}';
+    }
+}
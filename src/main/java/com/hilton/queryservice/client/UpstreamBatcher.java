@@ -0,0 +1,258 @@
+package com.hilton.queryservice.client;
+
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.ProcessingException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches ips from the remote api through the {@link UpstreamGateway}. A direct batcher makes one call per ip.
+ * A running micro-batcher collects the ips fetched concurrently for up to maxDelayInMillis after the first one, or
+ * until maxBatchSize ips are collected, and fetches them with one call of the batch endpoint, completing the future of
+ * each ip from its answer. An ip fetched again while it is collected shares the future of the first fetch. Under a
+ * burst of misses this turns up to {@link UpstreamGateway#MAX_BATCH_SIZE} remote api calls into one. Domain names are
+ * not accepted by the batch endpoint and are fetched with one call each.
+ * Batches are sent from the single dispatcher thread, which waits for the gateway's concurrency slot and rate limit
+ * permit, so batches go out one after another at the pace of the batch rate limit.
+ */
+public class UpstreamBatcher implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpstreamBatcher.class);
+
+    private final UpstreamGateway upstreamGateway;
+
+    // 1 for a direct batcher
+    private final int maxBatchSize;
+    private final long maxDelayInMillis;
+
+    // ips collected for the next batch and their futures, guarded by this
+    private Map<String, CompletableFuture<QueryIpResponseEntity>> collected = new LinkedHashMap<>();
+
+    // dispatch of the collected ips after maxDelayInMillis, cancelled when they are sent earlier, guarded by this
+    private ScheduledFuture<?> delayedDispatch;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong batchedIpCount = new AtomicLong();
+    private volatile ScheduledExecutorService dispatcher;
+
+    private UpstreamBatcher(UpstreamGateway upstreamGateway) {
+        this.upstreamGateway = upstreamGateway;
+        this.maxBatchSize = 1;
+        this.maxDelayInMillis = 0;
+    }
+
+    /**
+     * @param upstreamGateway  gateway of the remote api, supporting batch calls
+     * @param maxBatchSize     max number of ips of a batch, at most {@link UpstreamGateway#MAX_BATCH_SIZE}
+     * @param maxDelayInMillis max time the first ip of a batch waits for more ips
+     */
+    public UpstreamBatcher(UpstreamGateway upstreamGateway, int maxBatchSize, long maxDelayInMillis) {
+        if (!upstreamGateway.isBatchSupported()) {
+            throw new IllegalArgumentException("remote api gateway does not support batch calls");
+        }
+        if (maxBatchSize < 2 || maxBatchSize > UpstreamGateway.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("max batch size " + maxBatchSize + " not in 2 to " + UpstreamGateway.MAX_BATCH_SIZE);
+        }
+        this.upstreamGateway = upstreamGateway;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayInMillis = maxDelayInMillis;
+    }
+
+    /**
+     * @param upstreamGateway gateway of the remote api
+     * @return batcher that makes one remote api call per ip
+     */
+    public static UpstreamBatcher direct(UpstreamGateway upstreamGateway) {
+        return new UpstreamBatcher(upstreamGateway);
+    }
+
+    /**
+     * Start the dispatcher thread of a micro-batcher
+     */
+    @Override
+    public void start() {
+        if (maxBatchSize == 1) {
+            return;
+        }
+        dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-ip-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Send the collected ips and stop the dispatcher thread, ips fetched afterwards are fetched with one call each
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService scheduledExecutorService = dispatcher;
+        if (scheduledExecutorService == null) {
+            return;
+        }
+        dispatcher = null;
+        scheduledExecutorService.execute(this::dispatch);
+        scheduledExecutorService.shutdown();
+        if (!scheduledExecutorService.awaitTermination(maxDelayInMillis + 30000, TimeUnit.MILLISECONDS)) {
+            LOGGER.error("query ip batcher stopped before sending its last batch");
+        }
+    }
+
+    /**
+     * Fetch ip information blocking the caller thread, for up to maxDelayInMillis longer while the batch is collected
+     *
+     * @param ip ip string
+     * @return remote api response
+     * @throws UpstreamRejectedException if the call was not made
+     * @throws ProcessingException       if the call failed
+     */
+    public QueryIpResponseEntity fetch(String ip) {
+        if (!isBatched(ip)) {
+            return upstreamGateway.fetch(ip);
+        }
+        try {
+            return fetchAsync(ip).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Fetch ip information without blocking the caller thread on the remote api
+     *
+     * @param ip ip string
+     * @return future of the remote api response
+     */
+    public CompletableFuture<QueryIpResponseEntity> fetchAsync(String ip) {
+        ScheduledExecutorService scheduledExecutorService = dispatcher;
+        if (scheduledExecutorService == null || !IpAddressParser.isIpLiteral(ip)) {
+            return upstreamGateway.fetchAsync(ip);
+        }
+        CompletableFuture<QueryIpResponseEntity> future;
+        boolean full;
+        synchronized (this) {
+            future = collected.get(ip);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            collected.put(ip, future);
+            full = collected.size() >= maxBatchSize;
+            if (!full && collected.size() == 1) {
+                // scheduled while holding the lock, so a dispatch draining the ips always finds it to cancel
+                try {
+                    delayedDispatch = scheduledExecutorService.schedule(this::dispatch, maxDelayInMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // stopped meanwhile
+                    full = true;
+                }
+            }
+        }
+        if (full) {
+            try {
+                scheduledExecutorService.execute(this::dispatch);
+            } catch (RejectedExecutionException e) {
+                // stopped meanwhile
+                dispatch();
+            }
+        }
+        return future;
+    }
+
+    /**
+     * @return true while ips fetched concurrently are collected into batch calls
+     */
+    public boolean isBatching() {
+        return dispatcher != null;
+    }
+
+    private boolean isBatched(String ip) {
+        return dispatcher != null && IpAddressParser.isIpLiteral(ip);
+    }
+
+    /**
+     * Send the collected ips, in batches of maxBatchSize, on the dispatcher thread. Cancels the delayed dispatch of
+     * these ips, which would otherwise cut the delay of the ips collected after them short.
+     */
+    private void dispatch() {
+        Map<String, CompletableFuture<QueryIpResponseEntity>> batch;
+        synchronized (this) {
+            if (delayedDispatch != null) {
+                delayedDispatch.cancel(false);
+                delayedDispatch = null;
+            }
+            if (collected.isEmpty()) {
+                return;
+            }
+            batch = collected;
+            collected = new LinkedHashMap<>();
+        }
+        List<String> ips = new ArrayList<>(batch.keySet());
+        for (int from = 0; from < ips.size(); from += maxBatchSize) {
+            send(ips.subList(from, Math.min(ips.size(), from + maxBatchSize)), batch);
+        }
+    }
+
+    private void send(List<String> ips, Map<String, CompletableFuture<QueryIpResponseEntity>> futures) {
+        if (ips.size() == 1) {
+            // a batch of one is a single call, which has its own quota
+            String ip = ips.get(0);
+            upstreamGateway.fetchAsync(ip).whenComplete((answer, throwable) -> complete(futures.get(ip), answer, throwable));
+            return;
+        }
+        batchCount.incrementAndGet();
+        batchedIpCount.addAndGet(ips.size());
+        List<String> batchIps = new ArrayList<>(ips);
+        upstreamGateway.fetchBatchAsync(batchIps).whenComplete((answers, throwable) -> {
+            if (throwable == null && answers.size() != batchIps.size()) {
+                throwable = new ProcessingException("remote api batch answered " + answers.size() + " of " + batchIps.size() + " ips");
+            }
+            if (throwable != null) {
+                LOGGER.error(" failed to fetch batch of " + batchIps.size() + " ips from remote api", throwable);
+            }
+            for (int i = 0; i < batchIps.size(); i++) {
+                complete(futures.get(batchIps.get(i)), throwable == null ? answers.get(i) : null, throwable);
+            }
+        });
+    }
+
+    private static void complete(CompletableFuture<QueryIpResponseEntity> future, QueryIpResponseEntity answer, Throwable throwable) {
+        if (throwable != null) {
+            future.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+        } else {
+            future.complete(answer);
+        }
+    }
+
+    /**
+     * @return number of batch calls made
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return number of ips fetched with batch calls
+     */
+    public long getBatchedIpCount() {
+        return batchedIpCount.get();
+    }
+}
@@ -0,0 +1,338 @@
+package com.hilton.queryservice.client;
+
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Gateway of the remote api calls, guarding the upstream and the callers from each other:
+ * 1. A circuit breaker fails calls fast while the upstream is down, instead of holding threads on timeouts
+ * 2. A fair semaphore bounds the number of concurrent calls, callers wait for a slot in order
+ * 3. A token bucket keeps the call rate under the upstream quota. The rate limit headers of ip-api, X-Rl requests
+ * remaining and X-Ttl seconds to the reset of the quota window, pause the bucket when the quota is used up
+ * A caller waits at most acquireTimeoutInMillis for a slot and a permit, otherwise the call is rejected with
+ * {@link UpstreamRejectedException}. Errors and 5xx answers count as failures of the circuit breaker, 429 answers pause
+ * the rate limit instead.
+ * Calls of the batch endpoint, answering up to {@link #MAX_BATCH_SIZE} ips with one POST, share the circuit breaker
+ * and the concurrency bound and take their permits from their own token bucket, as the upstream limits them separately.
+ */
+public class UpstreamGateway {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpstreamGateway.class);
+
+    static final String REMAINING_REQUESTS_HEADER = "X-Rl";
+    static final String SECONDS_TO_RESET_HEADER = "X-Ttl";
+    static final int TOO_MANY_REQUESTS = 429;
+
+    // max number of ips of a call of the ip-api batch endpoint
+    public static final int MAX_BATCH_SIZE = 100;
+
+    private static final GenericType<List<QueryIpResponseEntity>> BATCH_RESPONSE = new GenericType<List<QueryIpResponseEntity>>() {
+    };
+
+    private final Client client;
+
+    // remote client service url, the ip is appended to it
+    private final String serviceUrl;
+
+    // remote batch service url, null when batch calls are not supported
+    private final String batchServiceUrl;
+
+    // null when calls are not rate limited
+    private final TokenBucket tokenBucket;
+
+    // null when batch calls are not rate limited
+    private final TokenBucket batchTokenBucket;
+
+    // null when concurrent calls are not bounded
+    private final Semaphore concurrentCalls;
+
+    // null when calls never fail fast
+    private final CircuitBreaker circuitBreaker;
+
+    private final long acquireTimeoutInNanos;
+
+    /**
+     * @param client                 client of the remote api
+     * @param serviceUrl             remote api url the ip is appended to
+     * @param tokenBucket            rate limit of the calls, null for no rate limit
+     * @param maxConcurrentCalls     max number of calls in flight, 0 for no bound
+     * @param circuitBreaker         circuit breaker of the calls, null to never fail fast
+     * @param acquireTimeoutInMillis max time a caller waits for a concurrency slot and a rate limit permit
+     */
+    public UpstreamGateway(Client client, String serviceUrl, TokenBucket tokenBucket, int maxConcurrentCalls, CircuitBreaker circuitBreaker,
+                           long acquireTimeoutInMillis) {
+        this(client, serviceUrl, null, tokenBucket, null, maxConcurrentCalls, circuitBreaker, acquireTimeoutInMillis);
+    }
+
+    /**
+     * @param client                 client of the remote api
+     * @param serviceUrl             remote api url the ip is appended to
+     * @param batchServiceUrl        remote api batch url, null when batch calls are not supported
+     * @param tokenBucket            rate limit of the calls, null for no rate limit
+     * @param batchTokenBucket       rate limit of the batch calls, null for no rate limit
+     * @param maxConcurrentCalls     max number of calls in flight, 0 for no bound
+     * @param circuitBreaker         circuit breaker of the calls, null to never fail fast
+     * @param acquireTimeoutInMillis max time a caller waits for a concurrency slot and a rate limit permit
+     */
+    public UpstreamGateway(Client client, String serviceUrl, String batchServiceUrl, TokenBucket tokenBucket, TokenBucket batchTokenBucket,
+                           int maxConcurrentCalls, CircuitBreaker circuitBreaker, long acquireTimeoutInMillis) {
+        this.client = client;
+        this.serviceUrl = serviceUrl;
+        this.batchServiceUrl = batchServiceUrl;
+        this.tokenBucket = tokenBucket;
+        this.batchTokenBucket = batchTokenBucket;
+        this.concurrentCalls = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+        this.circuitBreaker = circuitBreaker;
+        this.acquireTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutInMillis);
+    }
+
+    /**
+     * @param client     client of the remote api
+     * @param serviceUrl remote api url the ip is appended to
+     * @return gateway calling the remote api without rate limit, concurrency bound or circuit breaker
+     */
+    public static UpstreamGateway unlimited(Client client, String serviceUrl) {
+        return new UpstreamGateway(client, serviceUrl, null, 0, null, 0);
+    }
+
+    /**
+     * Fetch ip information from the remote api blocking the caller thread
+     *
+     * @param ip ip string
+     * @return remote api response
+     * @throws UpstreamRejectedException if the call was not made
+     * @throws ProcessingException       if the call failed or was answered with an error status
+     */
+    public QueryIpResponseEntity fetch(String ip) {
+        String targetUrl = serviceUrl + ip;
+        acquire(targetUrl, tokenBucket);
+        Response response;
+        try {
+            response = client.target(targetUrl).request(MediaType.APPLICATION_JSON).get();
+        } catch (RuntimeException e) {
+            onError(e, tokenBucket);
+            release();
+            throw e;
+        }
+        try {
+            return read(targetUrl, response, tokenBucket, answer -> answer.readEntity(QueryIpResponseEntity.class));
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Fetch ip information through the async client. Waiting for a concurrency slot and a rate limit permit blocks the
+     * caller thread, which is a loader thread of the lookup.
+     *
+     * @param ip ip string
+     * @return future of the remote api response, completes on the client's thread
+     */
+    public CompletableFuture<QueryIpResponseEntity> fetchAsync(String ip) {
+        String targetUrl = serviceUrl + ip;
+        return call(targetUrl, tokenBucket, () -> client.target(targetUrl).request(MediaType.APPLICATION_JSON).rx().get(),
+                response -> response.readEntity(QueryIpResponseEntity.class));
+    }
+
+    /**
+     * Fetch ip information of several ips with one call of the batch endpoint through the async client. Waiting for a
+     * concurrency slot and a rate limit permit blocks the caller thread.
+     *
+     * @param ips ip strings, at most {@link #MAX_BATCH_SIZE}
+     * @return future of the remote api responses in the order of the ips, completes on the client's thread
+     * @throws IllegalStateException if batch calls are not supported
+     */
+    public CompletableFuture<List<QueryIpResponseEntity>> fetchBatchAsync(List<String> ips) {
+        if (batchServiceUrl == null) {
+            throw new IllegalStateException("remote api batch service url is not configured");
+        }
+        if (ips.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batch of " + ips.size() + " ips, max is " + MAX_BATCH_SIZE);
+        }
+        return call(batchServiceUrl, batchTokenBucket, () -> client.target(batchServiceUrl).request(MediaType.APPLICATION_JSON).rx().post(Entity.json(ips)),
+                response -> response.readEntity(BATCH_RESPONSE));
+    }
+
+    /**
+     * @return true when batch calls are supported
+     */
+    public boolean isBatchSupported() {
+        return batchServiceUrl != null;
+    }
+
+    /**
+     * Make a call through the async client once a concurrency slot and a rate limit permit are taken
+     *
+     * @param targetUrl url of the call
+     * @param bucket    rate limit of the call, null for no rate limit
+     * @param request   sends the request
+     * @param reader    reads the entity of a successful answer
+     * @return future of the entity, completes on the client's thread
+     */
+    private <T> CompletableFuture<T> call(String targetUrl, TokenBucket bucket, Supplier<CompletionStage<Response>> request,
+                                          Function<Response, T> reader) {
+        try {
+            acquire(targetUrl, bucket);
+        } catch (UpstreamRejectedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Response> future;
+        try {
+            future = request.get().toCompletableFuture();
+        } catch (RuntimeException e) {
+            onError(e, bucket);
+            release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.handle((response, throwable) -> {
+            release();
+            if (throwable != null) {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                onError(cause, bucket);
+                throw new CompletionException(cause);
+            }
+            return read(targetUrl, response, bucket, reader);
+        });
+    }
+
+    /**
+     * Report the answer of a call and read its entity, the response is closed
+     *
+     * @param targetUrl url of the call
+     * @param response  answer of the upstream
+     * @param bucket    rate limit of the call, null for no rate limit
+     * @param reader    reads the entity of a successful answer
+     * @return entity of the answer
+     * @throws ProcessingException if the answer has an error status
+     */
+    private <T> T read(String targetUrl, Response response, TokenBucket bucket, Function<Response, T> reader) {
+        try {
+            onAnswer(response.getStatus(), response::getHeaderString, bucket);
+            if (response.getStatus() >= 400) {
+                throw new ProcessingException("remote api service " + targetUrl + " answered with status " + response.getStatus());
+            }
+            return reader.apply(response);
+        } finally {
+            // an error answer is not read, closing it frees its connection
+            response.close();
+        }
+    }
+
+    /**
+     * @return state of the circuit breaker, closed when there is none
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker == null ? CircuitBreaker.State.CLOSED : circuitBreaker.getState();
+    }
+
+    /**
+     * Take the circuit breaker, a concurrency slot and a rate limit permit, waiting at most the acquire timeout
+     *
+     * @param targetUrl url of the call
+     * @param bucket    rate limit of the call, null for no rate limit
+     * @throws UpstreamRejectedException if any of them is not available
+     */
+    private void acquire(String targetUrl, TokenBucket bucket) {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw new UpstreamRejectedException("circuit breaker of remote api service is open, not calling " + targetUrl);
+        }
+        long deadline = System.nanoTime() + acquireTimeoutInNanos;
+        boolean slotAcquired = false;
+        try {
+            if (concurrentCalls != null && !concurrentCalls.tryAcquire(acquireTimeoutInNanos, TimeUnit.NANOSECONDS)) {
+                throw new UpstreamRejectedException("max concurrent calls of remote api service reached, not calling " + targetUrl);
+            }
+            slotAcquired = true;
+            if (bucket != null && !bucket.tryAcquire(Math.max(0, deadline - System.nanoTime()))) {
+                throw new UpstreamRejectedException("rate limit of remote api service reached, not calling " + targetUrl);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            skip(slotAcquired);
+            throw new UpstreamRejectedException("interrupted while waiting to call " + targetUrl);
+        } catch (UpstreamRejectedException e) {
+            skip(slotAcquired);
+            throw e;
+        }
+    }
+
+    private void skip(boolean slotAcquired) {
+        if (slotAcquired) {
+            release();
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onSkipped();
+        }
+    }
+
+    private void release() {
+        if (concurrentCalls != null) {
+            concurrentCalls.release();
+        }
+    }
+
+    /**
+     * Report an answer of the upstream to the circuit breaker and the rate limit
+     *
+     * @param status  http status of the answer
+     * @param headers header values of the answer by name
+     * @param bucket  rate limit of the call, null for no rate limit
+     */
+    private void onAnswer(int status, Function<String, String> headers, TokenBucket bucket) {
+        if (status == TOO_MANY_REQUESTS || "0".equals(headers.apply(REMAINING_REQUESTS_HEADER))) {
+            pauseUntilQuotaReset(bucket, headers.apply(SECONDS_TO_RESET_HEADER));
+        }
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (status >= 500) {
+            circuitBreaker.onFailure();
+        } else if (status == TOO_MANY_REQUESTS) {
+            circuitBreaker.onSkipped();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    private void onError(Throwable throwable, TokenBucket bucket) {
+        if (throwable instanceof WebApplicationException && ((WebApplicationException) throwable).getResponse() != null) {
+            Response response = ((WebApplicationException) throwable).getResponse();
+            onAnswer(response.getStatus(), response::getHeaderString, bucket);
+        } else if (circuitBreaker != null) {
+            circuitBreaker.onFailure();
+        }
+    }
+
+    private void pauseUntilQuotaReset(TokenBucket bucket, String secondsToReset) {
+        if (bucket == null) {
+            return;
+        }
+        long seconds = 1;
+        try {
+            if (secondsToReset != null) {
+                seconds = Math.max(1, Long.parseLong(secondsToReset.trim()));
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.debug("ignoring invalid " + SECONDS_TO_RESET_HEADER + " header " + secondsToReset);
+        }
+        LOGGER.warn("remote api service quota used up, pausing calls for " + seconds + " seconds");
+        bucket.pauseFor(TimeUnit.SECONDS.toNanos(seconds));
+    }
+}
@@ -0,0 +1,14 @@
+package com.hilton.queryservice.client;
+
+import javax.ws.rs.ProcessingException;
+
+/**
+ * Remote api call not made by the {@link UpstreamGateway}: the circuit breaker is open, or no concurrency slot or rate
+ * limit permit was available in time
+ */
+public class UpstreamRejectedException extends ProcessingException {
+
+    public UpstreamRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,87 @@
+package com.hilton.queryservice.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring assigning each key an owner node. Each node is placed at virtualNodes points of a 64 bit ring
+ * and a key is owned by the node of the first point at or after the hash of the key, so keys spread evenly over the
+ * nodes and adding or removing a node only moves the keys of its own points. The hash depends on nothing but the
+ * node and key text, so every instance configured with the same nodes computes the same owners.
+ */
+public class HashRing {
+
+    // sorted ring points and the node of each point
+    private final long[] points;
+    private final String[] nodes;
+
+    /**
+     * @param nodes        distinct node names
+     * @param virtualNodes number of points of each node on the ring
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("a hash ring needs at least one node and one virtual node per node");
+        }
+        TreeMap<Long, String> ring = new TreeMap<>();
+        // nodes in sorted order, so a point shared by two nodes, as unlikely as it is, goes to the same node everywhere
+        for (String node : new TreeSet<>(nodes)) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.nodes = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            this.nodes[i++] = point.getValue();
+        }
+    }
+
+    /**
+     * @param key key text, such as a canonical ip
+     * @return owner node of the key
+     */
+    public String nodeOf(String key) {
+        long hash = hash(key);
+        int low = 0;
+        int high = points.length;
+        // first point at or after the hash, wrapping around to the first point
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (points[middle] < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return nodes[low == points.length ? 0 : low];
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the utf-8 bytes of the text, mixed with the murmur3 finalizer so close texts such as
+     * consecutive ips land far apart on the ring
+     */
+    static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "HashRing{" + points.length + " points}";
+    }
+}
@@ -0,0 +1,141 @@
+package com.hilton.queryservice.cluster;
+
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Static group of service instances sharing their caches. A {@link HashRing} of the peer urls assigns each canonical
+ * ip an owner instance; an instance missing an ip it does not own asks the owner with
+ * GET {peerUrl}{@value #PEER_PATH}{ip} before its database and the remote api, so an ip is loaded from the database
+ * or fetched from the remote api once for the whole group. The asking instance caches the answer of the owner too,
+ * the group deduplicates upstream fetches, not cached ips. A standalone group owns every ip.
+ */
+public class PeerGroup {
+
+    public static final String PEER_PATH = "/geolocation/peer/ip/";
+
+    private static final PeerGroup STANDALONE = new PeerGroup();
+
+    // client of the peer endpoint, with timeouts shorter than the remote api's
+    private final Client client;
+
+    // url of this instance, one of the peer urls
+    private final String selfUrl;
+
+    // null for a standalone instance
+    private final HashRing hashRing;
+
+    private final List<String> peerUrls;
+
+    private PeerGroup() {
+        this.client = null;
+        this.selfUrl = null;
+        this.hashRing = null;
+        this.peerUrls = List.of();
+    }
+
+    /**
+     * @param client       client of the peer endpoint
+     * @param selfUrl      base url of this instance, such as http://localhost:8080
+     * @param peerUrls     base urls of all instances, including this one, the same on every instance
+     * @param virtualNodes number of points of each instance on the hash ring
+     */
+    public PeerGroup(Client client, String selfUrl, Collection<String> peerUrls, int virtualNodes) {
+        if (selfUrl == null) {
+            throw new IllegalArgumentException("self url is required to share the cache with peers " + peerUrls);
+        }
+        this.client = client;
+        this.selfUrl = normalize(selfUrl);
+        this.peerUrls = new ArrayList<>();
+        for (String peerUrl : peerUrls) {
+            this.peerUrls.add(normalize(peerUrl));
+        }
+        if (!this.peerUrls.contains(this.selfUrl)) {
+            throw new IllegalArgumentException("self url " + selfUrl + " is not one of the peer urls " + peerUrls);
+        }
+        this.hashRing = new HashRing(this.peerUrls, virtualNodes);
+    }
+
+    /**
+     * @return group of this instance alone, which owns every ip
+     */
+    public static PeerGroup standalone() {
+        return STANDALONE;
+    }
+
+    /**
+     * @return true when ips are shared with other instances
+     */
+    public boolean isClustered() {
+        return hashRing != null && peerUrls.size() > 1;
+    }
+
+    /**
+     * @param ip canonical ip
+     * @return url of the instance owning the ip, null when this instance owns it
+     */
+    public String ownerOf(String ip) {
+        if (!isClustered()) {
+            return null;
+        }
+        String owner = hashRing.nodeOf(ip);
+        return owner.equals(selfUrl) ? null : owner;
+    }
+
+    /**
+     * Fetch ip information from its owner blocking the caller thread
+     *
+     * @param ownerUrl url of the owner instance
+     * @param ip       canonical ip
+     * @return response of the owner, which may be a fail answer
+     * @throws ProcessingException if the call failed or was answered with an error status
+     */
+    public QueryIpResponseEntity fetch(String ownerUrl, String ip) {
+        String targetUrl = ownerUrl + PEER_PATH + ip;
+        Response response = client.target(targetUrl).request(MediaType.APPLICATION_JSON).get();
+        try {
+            if (response.getStatus() >= 400) {
+                throw new ProcessingException("peer " + targetUrl + " answered with status " + response.getStatus());
+            }
+            return response.readEntity(QueryIpResponseEntity.class);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Fetch ip information from its owner through the async client
+     *
+     * @param ownerUrl url of the owner instance
+     * @param ip       canonical ip
+     * @return future of the response of the owner, completes on the client's thread
+     */
+    public CompletableFuture<QueryIpResponseEntity> fetchAsync(String ownerUrl, String ip) {
+        return client.target(ownerUrl + PEER_PATH + ip).request(MediaType.APPLICATION_JSON).rx()
+                .get(QueryIpResponseEntity.class).toCompletableFuture();
+    }
+
+    /**
+     * @return base urls of all instances
+     */
+    public List<String> getPeerUrls() {
+        return peerUrls;
+    }
+
+    private static String normalize(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerGroup{self=" + selfUrl + ", peers=" + peerUrls + "}";
+    }
+}
@@ -0,0 +1,172 @@
+package com.hilton.queryservice.core;
+
+import java.util.Objects;
+
+/**
+ * Immutable in-memory cache value of a query ip response. Strings are held as ids of a {@link StringDictionary}
+ * shared by all values, lat and lon as primitives, and the query only when it differs from the cache key, such as
+ * the resolved ip of a domain name. A value takes a few dozen bytes of its own, the
+ * {@link QueryIpResponseEntity} JSON shape is built from it only when a response is returned.
+ * A value may also hold its {@link EncodedQueryIpResponse}, the response bodies built once when it was loaded, which
+ * the single ip endpoint writes out as they are.
+ */
+public final class CompactQueryIpResponse {
+
+    // estimated heap size of a value without its query, message and encoding: object header, 12 ids, 2 doubles, 3 references and a flag
+    public static final int SHALLOW_SIZE_IN_BYTES = 112;
+
+    private final String query;
+    private final int status;
+    private final int country;
+    private final int countryCode;
+    private final int region;
+    private final int regionName;
+    private final int city;
+    private final int zip;
+    private final int timezone;
+    private final int isp;
+    private final int org;
+    private final int as;
+    private final int persisted;
+    private final double lat;
+    private final double lon;
+    private final String message;
+
+    // answer of the network prefix of the key rather than of the key itself
+    private final boolean inferred;
+
+    // null when the response bodies are built on demand
+    private final EncodedQueryIpResponse encoded;
+
+    private CompactQueryIpResponse(String query, int status, int country, int countryCode, int region, int regionName, int city, int zip,
+                                   int timezone, int isp, int org, int as, int persisted, double lat, double lon, String message,
+                                   boolean inferred, EncodedQueryIpResponse encoded) {
+        this.query = query;
+        this.status = status;
+        this.country = country;
+        this.countryCode = countryCode;
+        this.region = region;
+        this.regionName = regionName;
+        this.city = city;
+        this.zip = zip;
+        this.timezone = timezone;
+        this.isp = isp;
+        this.org = org;
+        this.as = as;
+        this.persisted = persisted;
+        this.lat = lat;
+        this.lon = lon;
+        this.message = message;
+        this.inferred = inferred;
+        this.encoded = encoded;
+    }
+
+    /**
+     * @param key                   cache key the value is stored under
+     * @param queryIpResponseEntity query ip response entity
+     * @param dictionary            dictionary of the strings
+     * @return compact value of the entity
+     */
+    public static CompactQueryIpResponse of(String key, QueryIpResponseEntity queryIpResponseEntity, StringDictionary dictionary) {
+        String query = Objects.equals(key, queryIpResponseEntity.getQuery()) ? null : queryIpResponseEntity.getQuery();
+        return new CompactQueryIpResponse(query,
+                dictionary.idOf(queryIpResponseEntity.getStatus()),
+                dictionary.idOf(queryIpResponseEntity.getCountry()),
+                dictionary.idOf(queryIpResponseEntity.getCountryCode()),
+                dictionary.idOf(queryIpResponseEntity.getRegion()),
+                dictionary.idOf(queryIpResponseEntity.getRegionName()),
+                dictionary.idOf(queryIpResponseEntity.getCity()),
+                dictionary.idOf(queryIpResponseEntity.getZip()),
+                dictionary.idOf(queryIpResponseEntity.getTimezone()),
+                dictionary.idOf(queryIpResponseEntity.getIsp()),
+                dictionary.idOf(queryIpResponseEntity.getOrg()),
+                dictionary.idOf(queryIpResponseEntity.getAs()),
+                dictionary.idOf(queryIpResponseEntity.getPersisted()),
+                queryIpResponseEntity.getLat(),
+                queryIpResponseEntity.getLon(),
+                queryIpResponseEntity.getMessage(),
+                Boolean.TRUE.equals(queryIpResponseEntity.getInferred()),
+                null);
+    }
+
+    /**
+     * @param key        cache key the value is stored under
+     * @param dictionary dictionary the value was built with
+     * @return equal value holding the response bodies of its entity
+     */
+    public CompactQueryIpResponse withEncoding(String key, StringDictionary dictionary) {
+        return new CompactQueryIpResponse(query, status, country, countryCode, region, regionName, city, zip, timezone, isp, org, as,
+                persisted, lat, lon, message, inferred, EncodedQueryIpResponse.of(toEntity(key, dictionary)));
+    }
+
+    /**
+     * @param key        cache key the value is stored under
+     * @param dictionary dictionary the value was built with
+     * @return response bodies of the value, built now when the value does not hold them
+     */
+    public EncodedQueryIpResponse encoded(String key, StringDictionary dictionary) {
+        return encoded != null ? encoded : EncodedQueryIpResponse.of(toEntity(key, dictionary));
+    }
+
+    /**
+     * @param key        cache key the value is stored under
+     * @param dictionary dictionary the value was built with
+     * @return query ip response entity in the JSON shape of the api
+     */
+    public QueryIpResponseEntity toEntity(String key, StringDictionary dictionary) {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery(query == null ? key : query);
+        queryIpResponseEntity.setStatus(dictionary.valueOf(status));
+        queryIpResponseEntity.setCountry(dictionary.valueOf(country));
+        queryIpResponseEntity.setCountryCode(dictionary.valueOf(countryCode));
+        queryIpResponseEntity.setRegion(dictionary.valueOf(region));
+        queryIpResponseEntity.setRegionName(dictionary.valueOf(regionName));
+        queryIpResponseEntity.setCity(dictionary.valueOf(city));
+        queryIpResponseEntity.setZip(dictionary.valueOf(zip));
+        queryIpResponseEntity.setLat(lat);
+        queryIpResponseEntity.setLon(lon);
+        queryIpResponseEntity.setTimezone(dictionary.valueOf(timezone));
+        queryIpResponseEntity.setIsp(dictionary.valueOf(isp));
+        queryIpResponseEntity.setOrg(dictionary.valueOf(org));
+        queryIpResponseEntity.setAs(dictionary.valueOf(as));
+        queryIpResponseEntity.setPersisted(dictionary.valueOf(persisted));
+        queryIpResponseEntity.setMessage(message);
+        if (inferred) {
+            queryIpResponseEntity.setInferred(true);
+        }
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * @param key cache key the value is stored under
+     * @return estimated heap size of the value, its encoding and its key in bytes, dictionary strings are shared and not counted
+     */
+    public int estimatedSizeInBytes(IpKey key) {
+        return SHALLOW_SIZE_IN_BYTES + IpKey.SHALLOW_SIZE_IN_BYTES + stringSizeInBytes(key.getDomain()) + stringSizeInBytes(query)
+                + stringSizeInBytes(message) + (encoded == null ? 0 : encoded.estimatedSizeInBytes());
+    }
+
+    private static int stringSizeInBytes(String value) {
+        // string and array headers, latin-1 strings take a byte per character, others two
+        return value == null ? 0 : 40 + 2 * value.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CompactQueryIpResponse that = (CompactQueryIpResponse) o;
+        return status == that.status && country == that.country && countryCode == that.countryCode && region == that.region
+                && regionName == that.regionName && city == that.city && zip == that.zip && timezone == that.timezone && isp == that.isp
+                && org == that.org && as == that.as && persisted == that.persisted && Double.compare(that.lat, lat) == 0
+                && Double.compare(that.lon, lon) == 0 && inferred == that.inferred && Objects.equals(query, that.query) && Objects.equals(message, that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * city + country;
+        result = 31 * result + isp;
+        result = 31 * result + Double.hashCode(lat);
+        return 31 * result + Double.hashCode(lon);
+    }
+}
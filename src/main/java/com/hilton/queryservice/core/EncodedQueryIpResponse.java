@@ -0,0 +1,165 @@
+package com.hilton.queryservice.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.dropwizard.jackson.Jackson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable JSON body of a query ip response as the api answers it, plain and gzip compressed, with a strong entity
+ * tag of each. It is built once when a response is loaded into the in-memory cache, so cache hits are written out
+ * without serialization or compression. The tag is derived from the JSON bytes, so a response reloaded unchanged keeps
+ * its tag; the gzip body has its own tag, as a strong tag names one representation.
+ */
+public final class EncodedQueryIpResponse {
+
+    private static final ObjectWriter WRITER = Jackson.newObjectMapper().writerFor(QueryIpResponseEntity.class);
+
+    // hex digits of the sha-256 of the json body kept in the tag
+    private static final int TAG_LENGTH = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // object header, 3 references, the flag and the tag string
+    private static final int SHALLOW_SIZE_IN_BYTES = 32 + 40 + TAG_LENGTH;
+
+    private final byte[] json;
+
+    // null when compression does not make the body smaller
+    private final byte[] gzip;
+
+    // tag of the json body without quotes
+    private final String tag;
+
+    // true for a fail answer, which clients must not store
+    private final boolean failAnswer;
+
+    private EncodedQueryIpResponse(byte[] json, byte[] gzip, String tag, boolean failAnswer) {
+        this.json = json;
+        this.gzip = gzip;
+        this.tag = tag;
+        this.failAnswer = failAnswer;
+    }
+
+    /**
+     * @param queryIpResponseEntity query ip response entity
+     * @return json and gzip bodies of the entity
+     */
+    public static EncodedQueryIpResponse of(QueryIpResponseEntity queryIpResponseEntity) {
+        return encode(queryIpResponseEntity, false);
+    }
+
+    /**
+     * @param queryIpResponseEntity fail answer, answered from the negative cache or by the remote api
+     * @return json and gzip bodies of the fail answer, which clients must not store
+     */
+    public static EncodedQueryIpResponse ofFailAnswer(QueryIpResponseEntity queryIpResponseEntity) {
+        return encode(queryIpResponseEntity, true);
+    }
+
+    private static EncodedQueryIpResponse encode(QueryIpResponseEntity queryIpResponseEntity, boolean failAnswer) {
+        byte[] json;
+        try {
+            json = WRITER.writeValueAsBytes(queryIpResponseEntity);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] gzip = gzip(json);
+        return new EncodedQueryIpResponse(json, gzip.length < json.length ? gzip : null, tag(json), failAnswer);
+    }
+
+    /**
+     * @return json body
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * @return gzip compressed json body, null when compression does not make it smaller
+     */
+    public byte[] getGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return true for the bodies of a fail answer, which is not cached and must not be stored by clients
+     */
+    public boolean isFailAnswer() {
+        return failAnswer;
+    }
+
+    /**
+     * @return quoted strong entity tag of the json body
+     */
+    public String getEntityTag() {
+        return '"' + tag + '"';
+    }
+
+    /**
+     * @return quoted strong entity tag of the gzip body
+     */
+    public String getGzipEntityTag() {
+        return '"' + tag + "-gzip\"";
+    }
+
+    /**
+     * Weak comparison of an If-None-Match header with the tags of both bodies, as conditional GET requires
+     *
+     * @param ifNoneMatch If-None-Match header, a comma separated list of tags or *, may be null
+     * @return true when the client holds one of the bodies
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String entityTag : ifNoneMatch.split(",")) {
+            String candidate = entityTag.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(getEntityTag()) || candidate.equals(getGzipEntityTag())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return estimated heap size of the bodies and the tag in bytes
+     */
+    public int estimatedSizeInBytes() {
+        return SHALLOW_SIZE_IN_BYTES + 16 + json.length + (gzip == null ? 0 : 16 + gzip.length);
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String tag(byte[] json) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(json);
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform provides sha-256
+            throw new IllegalStateException(e);
+        }
+        char[] tag = new char[TAG_LENGTH];
+        for (int i = 0; i < TAG_LENGTH; i += 2) {
+            tag[i] = HEX[(digest[i / 2] >> 4) & 0xf];
+            tag[i + 1] = HEX[digest[i / 2] & 0xf];
+        }
+        return new String(tag);
+    }
+}
@@ -0,0 +1,383 @@
+package com.hilton.queryservice.core;
+
+import java.util.Locale;
+
+/**
+ * Single pass validator and canonicalizer of the query ips accepted by the lookup: IPv4 and IPv6 literals and public
+ * domain names. The canonical form is the key of the caches and the database, so equivalent spellings of an address
+ * share one entry:
+ * IPv4: dotted decimal, octets with leading zeros are rejected as they are read as octal by some resolvers
+ * IPv6: RFC 5952 text, lower case hex without leading zeros and the longest run of two or more zero groups
+ * compressed to "::". IPv4-mapped addresses ::ffff:a.b.c.d are the IPv4 address a.b.c.d. Zone ids and prefixes are
+ * rejected
+ * domain: labels of letters and digits joined by single hyphens, a top level label of two or more letters, lower cased
+ * IPv4 and domain inputs that are already canonical are validated and returned as they are, without allocating.
+ * Canonical IPv6 inputs are returned as they are too: their canonical text is compared with the input as it is
+ * produced and only built for an input that differs, the parsed address is the one object allocated.
+ * {@link #toKey(String)} parses an ip into its numeric {@link IpKey}.
+ */
+public final class IpAddressParser {
+
+    // longest domain name resolvable by DNS
+    private static final int MAX_DOMAIN_LENGTH = 253;
+    // longest IPv6 text, eight groups of four hex digits or six groups and an IPv4 address
+    private static final int MAX_IPV6_LENGTH = 45;
+    private static final int IPV6_GROUPS = 8;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private IpAddressParser() {
+    }
+
+    /**
+     * Canonicalize an IPv4, IPv6 or domain name query
+     *
+     * @param input query ip
+     * @return canonical form, the input itself when already canonical, null when the input is not valid
+     */
+    public static String canonicalize(String input) {
+        if (input == null || input.isEmpty()) {
+            return null;
+        }
+        if (input.indexOf(':') >= 0) {
+            return canonicalizeIpv6(input);
+        }
+        if (isDigit(input.charAt(input.length() - 1))) {
+            return parseIpv4(input, 0, input.length()) >= 0 ? input : null;
+        }
+        return canonicalizeDomain(input);
+    }
+
+    /**
+     * @param input query ip
+     * @return true for a valid IPv4 or IPv6 literal, false for domain names and invalid input
+     */
+    public static boolean isIpLiteral(String input) {
+        if (input == null || input.isEmpty()) {
+            return false;
+        }
+        if (input.indexOf(':') >= 0) {
+            return parseIpv6(input) != null;
+        }
+        return isDigit(input.charAt(input.length() - 1)) && parseIpv4(input, 0, input.length()) >= 0;
+    }
+
+    /**
+     * Parse an IPv4, IPv6 or domain name query into its key
+     *
+     * @param input query ip
+     * @return key of the address or domain name, null when the input is not valid
+     */
+    public static IpKey toKey(String input) {
+        if (input == null || input.isEmpty()) {
+            return null;
+        }
+        if (input.indexOf(':') >= 0) {
+            return parseIpv6(input);
+        }
+        if (isDigit(input.charAt(input.length() - 1))) {
+            long ipv4 = parseIpv4(input, 0, input.length());
+            return ipv4 >= 0 ? IpKey.ofIpv4(ipv4) : null;
+        }
+        String domain = canonicalizeDomain(input);
+        return domain == null ? null : IpKey.ofDomain(domain);
+    }
+
+    /**
+     * @param high upper 64 bits of the address
+     * @param low  lower 64 bits of the address
+     * @return canonical text of the address
+     */
+    static String format(long high, long low) {
+        StringBuilder canonical = new StringBuilder(MAX_IPV6_LENGTH);
+        formatIpv6(null, canonical, high, low);
+        return canonical.toString();
+    }
+
+    /**
+     * Parse dotted decimal IPv4 text
+     *
+     * @param input text
+     * @param from  index of the first character
+     * @param to    index after the last character
+     * @return address as an unsigned 32 bit value, -1 when not valid
+     */
+    private static long parseIpv4(String input, int from, int to) {
+        long address = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = from; i <= to; i++) {
+            char c = i < to ? input.charAt(i) : '.';
+            if (c == '.') {
+                if (digits == 0 || ++octets > 4) {
+                    return -1;
+                }
+                address = (address << 8) | value;
+                value = 0;
+                digits = 0;
+            } else if (isDigit(c)) {
+                if (digits > 0 && value == 0) {
+                    // leading zero
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? address : -1;
+    }
+
+    private static String canonicalizeIpv6(String input) {
+        IpKey ipKey = parseIpv6(input);
+        if (ipKey == null) {
+            return null;
+        }
+        if (formatIpv6(input, null, ipKey.getHigh(), ipKey.getLow()) == input.length()) {
+            return input;
+        }
+        return format(ipKey.getHigh(), ipKey.getLow());
+    }
+
+    private static IpKey parseIpv6(String input) {
+        int length = input.length();
+        if (length < 2 || length > MAX_IPV6_LENGTH) {
+            return null;
+        }
+        // the 128 bit address, groups are placed from the left as they are read
+        long high = 0;
+        long low = 0;
+        int groups = 0;
+        // number of groups before "::", -1 without "::"
+        int compressionAt = -1;
+        int i = 0;
+        if (input.charAt(0) == ':') {
+            if (input.charAt(1) != ':') {
+                return null;
+            }
+            compressionAt = 0;
+            i = 2;
+        }
+        while (i < length) {
+            int start = i;
+            int value = 0;
+            int digit;
+            while (i < length && (digit = hexValue(input.charAt(i))) >= 0) {
+                value = (value << 4) | digit;
+                i++;
+            }
+            if (i < length && input.charAt(i) == '.') {
+                // embedded IPv4 address, always the last two groups
+                long ipv4 = groups <= IPV6_GROUPS - 2 ? parseIpv4(input, start, length) : -1;
+                if (ipv4 < 0) {
+                    return null;
+                }
+                for (int shift = 16; shift >= 0; shift -= 16, groups++) {
+                    if (groups < 4) {
+                        high = withGroup(high, groups, (int) (ipv4 >>> shift) & 0xffff);
+                    } else {
+                        low = withGroup(low, groups, (int) (ipv4 >>> shift) & 0xffff);
+                    }
+                }
+                break;
+            }
+            int digits = i - start;
+            if (digits == 0 || digits > 4 || groups == IPV6_GROUPS) {
+                return null;
+            }
+            if (groups < 4) {
+                high = withGroup(high, groups, value);
+            } else {
+                low = withGroup(low, groups, value);
+            }
+            groups++;
+            if (i == length) {
+                break;
+            }
+            if (input.charAt(i) != ':' || ++i == length) {
+                // not a separator or a trailing single ':'
+                return null;
+            }
+            if (input.charAt(i) == ':') {
+                if (compressionAt >= 0) {
+                    return null;
+                }
+                compressionAt = groups;
+                i++;
+            }
+        }
+        if (compressionAt < 0 ? groups != IPV6_GROUPS : groups > IPV6_GROUPS - 1) {
+            // "::" stands for one or more zero groups
+            return null;
+        }
+        // move the groups after "::" to the right end
+        int gap = IPV6_GROUPS - groups;
+        for (int group = groups - 1; gap > 0 && group >= compressionAt; group--) {
+            int value = group(high, low, group);
+            if (group < 4) {
+                high = withGroup(high, group, 0);
+            } else {
+                low = withGroup(low, group, 0);
+            }
+            if (group + gap < 4) {
+                high = withGroup(high, group + gap, value);
+            } else {
+                low = withGroup(low, group + gap, value);
+            }
+        }
+        return IpKey.ofAddress(high, low);
+    }
+
+    /**
+     * Write the canonical text of an address, or compare it with the input when out is null
+     *
+     * @return length of the text written, or of the input prefix matching the text and -1 on the first mismatch
+     */
+    private static int formatIpv6(String input, StringBuilder out, long high, long low) {
+        int position = 0;
+        if (high == 0 && (low & 0xffffffff00000000L) == IpKey.IPV4_MAPPED_PREFIX) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                if (shift < 24) {
+                    position = emit(input, out, position, '.');
+                }
+                position = emitDecimal(input, out, position, (int) (low >>> shift) & 0xff);
+            }
+            return position;
+        }
+        int compressedStart = -1;
+        int compressedLength = 1;
+        int runStart = -1;
+        for (int group = 0; group < IPV6_GROUPS; group++) {
+            if (group(high, low, group) != 0) {
+                runStart = -1;
+                continue;
+            }
+            if (runStart < 0) {
+                runStart = group;
+            }
+            if (group - runStart + 1 > compressedLength) {
+                compressedStart = runStart;
+                compressedLength = group - runStart + 1;
+            }
+        }
+        for (int group = 0; group < IPV6_GROUPS; group++) {
+            if (compressedStart >= 0 && group >= compressedStart && group < compressedStart + compressedLength) {
+                if (group == compressedStart) {
+                    position = emit(input, out, position, ':');
+                    position = emit(input, out, position, ':');
+                }
+                continue;
+            }
+            if (group > 0 && group != compressedStart + compressedLength) {
+                position = emit(input, out, position, ':');
+            }
+            int value = group(high, low, group);
+            for (int shift = 12; shift >= 0; shift -= 4) {
+                int digit = (value >>> shift) & 0xf;
+                if (shift == 0 || (value >>> shift) != 0) {
+                    position = emit(input, out, position, HEX_DIGITS[digit]);
+                }
+            }
+        }
+        return position;
+    }
+
+    private static int emitDecimal(String input, StringBuilder out, int position, int value) {
+        if (value >= 100) {
+            position = emit(input, out, position, (char) ('0' + value / 100));
+        }
+        if (value >= 10) {
+            position = emit(input, out, position, (char) ('0' + value / 10 % 10));
+        }
+        return emit(input, out, position, (char) ('0' + value % 10));
+    }
+
+    private static int emit(String input, StringBuilder out, int position, char c) {
+        if (out != null) {
+            out.append(c);
+            return position + 1;
+        }
+        if (position < 0 || position >= input.length() || input.charAt(position) != c) {
+            return -1;
+        }
+        return position + 1;
+    }
+
+    private static String canonicalizeDomain(String input) {
+        int length = input.length();
+        if (length > MAX_DOMAIN_LENGTH) {
+            return null;
+        }
+        boolean upperCase = false;
+        boolean lettersOnly = true;
+        int labels = 1;
+        int labelLength = 0;
+        char previous = '.';
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c == '.' || c == '-') {
+                if (previous == '.' || previous == '-') {
+                    return null;
+                }
+                if (c == '.') {
+                    labels++;
+                    labelLength = 0;
+                    lettersOnly = true;
+                    previous = c;
+                    continue;
+                }
+                lettersOnly = false;
+            } else if (c >= 'A' && c <= 'Z') {
+                upperCase = true;
+            } else if (isDigit(c)) {
+                lettersOnly = false;
+            } else if (c < 'a' || c > 'z') {
+                return null;
+            }
+            labelLength++;
+            previous = c;
+        }
+        // at least two labels, the top level label is two or more letters
+        if (labels < 2 || !lettersOnly || labelLength < 2) {
+            return null;
+        }
+        return upperCase ? input.toLowerCase(Locale.ROOT) : input;
+    }
+
+    private static int group(long high, long low, int group) {
+        return (int) ((group < 4 ? high : low) >>> groupShift(group)) & 0xffff;
+    }
+
+    /**
+     * @return the half of the address holding a group, with the group set to value
+     */
+    private static long withGroup(long half, int group, int value) {
+        int shift = groupShift(group);
+        return (half & ~(0xffffL << shift)) | ((long) value << shift);
+    }
+
+    private static int groupShift(int group) {
+        return (3 - (group & 3)) * 16;
+    }
+
+    private static int hexValue(char c) {
+        if (isDigit(c)) {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,181 @@
+package com.hilton.queryservice.core;
+
+import java.util.Objects;
+
+/**
+ * Numeric key of a query ip: the 128 bit address as two longs, IPv4 addresses as IPv4-mapped ::ffff:a.b.c.d, or the
+ * lower case name of a domain. Keys of equivalent spellings of an address are equal, and the 16 byte big endian form
+ * of an address is stored in the address column of ipquerytable, which orders addresses numerically so prefixes
+ * are ranges of keys. Created by {@link IpAddressParser#toKey(String)}.
+ */
+public final class IpKey {
+
+    // estimated heap size of a key: object header, 2 longs and a reference
+    public static final int SHALLOW_SIZE_IN_BYTES = 32;
+    public static final int ADDRESS_LENGTH_IN_BYTES = 16;
+
+    static final long IPV4_MAPPED_PREFIX = 0x0000ffff00000000L;
+
+    private final long high;
+    private final long low;
+    // null for an address
+    private final String domain;
+
+    private IpKey(long high, long low, String domain) {
+        this.high = high;
+        this.low = low;
+        this.domain = domain;
+    }
+
+    /**
+     * @param high upper 64 bits of the address
+     * @param low  lower 64 bits of the address
+     * @return key of an IPv6 or IPv4-mapped address
+     */
+    public static IpKey ofAddress(long high, long low) {
+        return new IpKey(high, low, null);
+    }
+
+    /**
+     * @param ipv4 IPv4 address as an unsigned 32 bit value
+     * @return key of the IPv4-mapped address
+     */
+    public static IpKey ofIpv4(long ipv4) {
+        return new IpKey(0, IPV4_MAPPED_PREFIX | (ipv4 & 0xffffffffL), null);
+    }
+
+    /**
+     * @param domain canonical, lower case domain name
+     * @return key of the domain name
+     */
+    public static IpKey ofDomain(String domain) {
+        return new IpKey(0, 0, Objects.requireNonNull(domain));
+    }
+
+    /**
+     * @param address 16 byte big endian address as stored in the address column
+     * @return key of the address
+     */
+    public static IpKey ofBytes(byte[] address) {
+        if (address.length != ADDRESS_LENGTH_IN_BYTES) {
+            throw new IllegalArgumentException("address of " + address.length + " bytes, expected " + ADDRESS_LENGTH_IN_BYTES);
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (address[i] & 0xff);
+            low = (low << 8) | (address[8 + i] & 0xff);
+        }
+        return new IpKey(high, low, null);
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * @return domain name, null for an address
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    public boolean isDomain() {
+        return domain != null;
+    }
+
+    /**
+     * @return true for an IPv4-mapped address
+     */
+    public boolean isIpv4() {
+        return domain == null && high == 0 && (low & 0xffffffff00000000L) == IPV4_MAPPED_PREFIX;
+    }
+
+    /**
+     * @return 16 byte big endian address, null for a domain
+     */
+    public byte[] toBytes() {
+        if (domain != null) {
+            return null;
+        }
+        byte[] address = new byte[ADDRESS_LENGTH_IN_BYTES];
+        for (int i = 0; i < 8; i++) {
+            address[i] = (byte) (high >>> (56 - 8 * i));
+            address[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        return address;
+    }
+
+    /**
+     * First address of the prefix of this address, such as 10.1.0.0 for 10.1.2.3 and 16, the CIDR 10.1.0.0/16
+     *
+     * @param prefixLength prefix length, 0 to 32 for IPv4 and 0 to 128 for IPv6 addresses
+     * @return key of the first address of the prefix
+     */
+    public IpKey firstInPrefix(int prefixLength) {
+        int hostBits = hostBits(prefixLength);
+        return new IpKey(high & ~hostMask(hostBits - 64), low & ~hostMask(hostBits), null);
+    }
+
+    /**
+     * Last address of the prefix of this address, such as 10.1.255.255 for 10.1.2.3 and 16
+     *
+     * @param prefixLength prefix length, 0 to 32 for IPv4 and 0 to 128 for IPv6 addresses
+     * @return key of the last address of the prefix
+     */
+    public IpKey lastInPrefix(int prefixLength) {
+        int hostBits = hostBits(prefixLength);
+        return new IpKey(high | hostMask(hostBits - 64), low | hostMask(hostBits), null);
+    }
+
+    private int hostBits(int prefixLength) {
+        if (domain != null) {
+            throw new IllegalStateException("domain " + domain + " has no prefix");
+        }
+        int maxPrefixLength = isIpv4() ? 32 : 128;
+        if (prefixLength < 0 || prefixLength > maxPrefixLength) {
+            throw new IllegalArgumentException("prefix length " + prefixLength + " not in 0 to " + maxPrefixLength);
+        }
+        return maxPrefixLength - prefixLength;
+    }
+
+    /**
+     * @return mask of the lowest bits of a long, all bits when bits is 64 or more
+     */
+    private static long hostMask(int bits) {
+        if (bits <= 0) {
+            return 0;
+        }
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * @return canonical text of the address, dotted decimal for IPv4, or the domain name
+     */
+    @Override
+    public String toString() {
+        return domain != null ? domain : IpAddressParser.format(high, low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IpKey that = (IpKey) o;
+        return high == that.high && low == that.low && Objects.equals(domain, that.domain);
+    }
+
+    @Override
+    public int hashCode() {
+        if (domain != null) {
+            return domain.hashCode();
+        }
+        long mixed = high * 0x9e3779b97f4a7c15L + low;
+        mixed = (mixed ^ (mixed >>> 32)) * 0x9e3779b97f4a7c15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
@@ -0,0 +1,291 @@
+package com.hilton.queryservice.core;
+
+import org.apache.commons.validator.routines.InetAddressValidator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * In-process geolocation range table loaded from a CSV range file. Ranges are held in primitive arrays sorted
+ * by start address and searched by binary search, so a lookup neither allocates nor leaves the JVM.
+ * IPv4 addresses are stored as IPv4-mapped IPv6 addresses (::ffff:a.b.c.d) so both families share one table.
+ * <p>
+ * CSV columns: startIp,endIp,countryCode,country,region,regionName,city,zip,lat,lon,timezone,isp,org,as
+ * Lines starting with '#' and blank lines are skipped, fields may be double quoted.
+ */
+public final class IpRangeIndex {
+
+    private static final int COLUMN_COUNT = 14;
+    private static final long IPV4_MAPPED_PREFIX = 0x0000ffff00000000L;
+    private static final IpRangeIndex EMPTY = new IpRangeIndex(new long[0], new long[0], new long[0], new long[0], new int[0], new QueryIpResponseEntity[0]);
+
+    // range bounds, sorted by start address, as unsigned 128 bit numbers split into high and low words
+    private final long[] startHigh;
+    private final long[] startLow;
+    private final long[] endHigh;
+    private final long[] endLow;
+
+    // location of each range, as an index into the de-duplicated locations table
+    private final int[] locationIds;
+    private final QueryIpResponseEntity[] locations;
+
+    private IpRangeIndex(long[] startHigh, long[] startLow, long[] endHigh, long[] endLow, int[] locationIds, QueryIpResponseEntity[] locations) {
+        this.startHigh = startHigh;
+        this.startLow = startLow;
+        this.endHigh = endHigh;
+        this.endLow = endLow;
+        this.locationIds = locationIds;
+        this.locations = locations;
+    }
+
+    /**
+     * @return index without any range, every lookup misses
+     */
+    public static IpRangeIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Load range index from csv range file
+     *
+     * @param rangeFile csv range file
+     * @return range index sorted by start address
+     * @throws IOException if the file cannot be read or contains invalid or overlapping ranges
+     */
+    public static IpRangeIndex load(Path rangeFile) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        Map<QueryIpResponseEntity, Integer> locationIds = new HashMap<>();
+        List<QueryIpResponseEntity> locations = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(rangeFile, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                List<String> columns = splitCsvLine(line);
+                if (columns.size() != COLUMN_COUNT) {
+                    throw new IOException(rangeFile + ":" + lineNumber + " expected " + COLUMN_COUNT + " columns but found " + columns.size());
+                }
+                long[] start = toNumeric(columns.get(0), rangeFile, lineNumber);
+                long[] end = toNumeric(columns.get(1), rangeFile, lineNumber);
+                if (compare(start[0], start[1], end[0], end[1]) > 0) {
+                    throw new IOException(rangeFile + ":" + lineNumber + " start address is after end address");
+                }
+                QueryIpResponseEntity location = toLocation(columns, rangeFile, lineNumber);
+                Integer locationId = locationIds.get(location);
+                if (locationId == null) {
+                    locationId = locations.size();
+                    locationIds.put(location, locationId);
+                    locations.add(location);
+                }
+                ranges.add(new long[]{start[0], start[1], end[0], end[1], locationId});
+            }
+        }
+        ranges.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+
+        int size = ranges.size();
+        long[] startHigh = new long[size];
+        long[] startLow = new long[size];
+        long[] endHigh = new long[size];
+        long[] endLow = new long[size];
+        int[] rangeLocations = new int[size];
+        for (int i = 0; i < size; i++) {
+            long[] range = ranges.get(i);
+            if (i > 0 && compare(range[0], range[1], endHigh[i - 1], endLow[i - 1]) <= 0) {
+                throw new IOException(rangeFile + " contains overlapping ranges starting at " + toInetAddress(range[0], range[1]).getHostAddress());
+            }
+            startHigh[i] = range[0];
+            startLow[i] = range[1];
+            endHigh[i] = range[2];
+            endLow[i] = range[3];
+            rangeLocations[i] = (int) range[4];
+        }
+        return new IpRangeIndex(startHigh, startLow, endHigh, endLow, rangeLocations, locations.toArray(new QueryIpResponseEntity[0]));
+    }
+
+    /**
+     * @return number of ranges in the index
+     */
+    public int size() {
+        return startHigh.length;
+    }
+
+    public boolean isEmpty() {
+        return startHigh.length == 0;
+    }
+
+    /**
+     * Binary search for the range containing the address
+     *
+     * @param high high 64 bits of the IPv6 (or IPv4-mapped) address
+     * @param low  low 64 bits of the IPv6 (or IPv4-mapped) address
+     * @return index of the containing range or -1 when no range contains the address
+     */
+    public int find(long high, long low) {
+        int lo = 0;
+        int hi = startHigh.length - 1;
+        int candidate = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(startHigh[mid], startLow[mid], high, low) <= 0) {
+                candidate = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (candidate >= 0 && compare(high, low, endHigh[candidate], endLow[candidate]) <= 0) {
+            return candidate;
+        }
+        return -1;
+    }
+
+    /**
+     * Build the response for a range returned by {@link #find(long, long)}
+     *
+     * @param range range index
+     * @param query queried ip
+     * @return query ip response entity for the range location
+     */
+    public QueryIpResponseEntity toEntity(int range, String query) {
+        QueryIpResponseEntity queryIpResponseEntity = QueryIpResponseEntity.copyValuesFrom(locations[locationIds[range]]);
+        queryIpResponseEntity.setQuery(query);
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * Lookup an IPv4 or IPv6 literal in the index. Domain names are never resolved and always miss.
+     *
+     * @param ip ip literal
+     * @return Optional of the query ip response for the containing range
+     */
+    public Optional<QueryIpResponseEntity> lookup(String ip) {
+        if (isEmpty()) {
+            return Optional.empty();
+        }
+        IpKey ipKey = IpAddressParser.toKey(ip);
+        if (ipKey == null || ipKey.isDomain()) {
+            return Optional.empty();
+        }
+        int range = find(ipKey.getHigh(), ipKey.getLow());
+        return range < 0 ? Optional.empty() : Optional.of(toEntity(range, ip));
+    }
+
+    static long high(byte[] address) {
+        if (address.length == 4) {
+            return 0L;
+        }
+        return toLong(address, 0);
+    }
+
+    static long low(byte[] address) {
+        if (address.length == 4) {
+            return IPV4_MAPPED_PREFIX | (toLong(address, 0) >>> 32);
+        }
+        return toLong(address, 8);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (i < bytes.length ? bytes[i] & 0xff : 0);
+        }
+        return value;
+    }
+
+    private static int compare(long highA, long lowA, long highB, long lowB) {
+        int result = Long.compareUnsigned(highA, highB);
+        return result != 0 ? result : Long.compareUnsigned(lowA, lowB);
+    }
+
+    private static long[] toNumeric(String ip, Path rangeFile, int lineNumber) throws IOException {
+        InetAddressValidator inetAddressValidator = InetAddressValidator.getInstance();
+        if (!inetAddressValidator.isValidInet4Address(ip) && !inetAddressValidator.isValidInet6Address(ip)) {
+            throw new IOException(rangeFile + ":" + lineNumber + " '" + ip + "' is not a valid IPv4 or IPv6 address");
+        }
+        byte[] address = InetAddress.getByName(ip).getAddress();
+        return new long[]{high(address), low(address)};
+    }
+
+    private static InetAddress toInetAddress(long high, long low) throws UnknownHostException {
+        byte[] address = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            address[i] = (byte) (high >>> (56 - 8 * i));
+            address[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        return InetAddress.getByAddress(address);
+    }
+
+    private static QueryIpResponseEntity toLocation(List<String> columns, Path rangeFile, int lineNumber) throws IOException {
+        QueryIpResponseEntity location = new QueryIpResponseEntity();
+        location.setStatus("success");
+        location.setCountryCode(emptyToNull(columns.get(2)));
+        location.setCountry(emptyToNull(columns.get(3)));
+        location.setRegion(emptyToNull(columns.get(4)));
+        location.setRegionName(emptyToNull(columns.get(5)));
+        location.setCity(emptyToNull(columns.get(6)));
+        location.setZip(emptyToNull(columns.get(7)));
+        try {
+            location.setLat(columns.get(8).isEmpty() ? 0 : Double.parseDouble(columns.get(8)));
+            location.setLon(columns.get(9).isEmpty() ? 0 : Double.parseDouble(columns.get(9)));
+        } catch (NumberFormatException e) {
+            throw new IOException(rangeFile + ":" + lineNumber + " lat/lon is not a number", e);
+        }
+        location.setTimezone(emptyToNull(columns.get(10)));
+        location.setIsp(emptyToNull(columns.get(11)));
+        location.setOrg(emptyToNull(columns.get(12)));
+        location.setAs(emptyToNull(columns.get(13)));
+        // placeholder query so equals/hashCode can be used to de-duplicate locations
+        location.setQuery("");
+        return location;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    static List<String> splitCsvLine(String line) {
+        List<String> columns = new ArrayList<>(COLUMN_COUNT);
+        StringBuilder column = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    column.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    column.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                columns.add(column.toString().trim());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+        columns.add(column.toString().trim());
+        return columns;
+    }
+
+    @Override
+    public String toString() {
+        return "IpRangeIndex{ranges=" + size() + ", locations=" + locations.length + "}";
+    }
+}
@@ -0,0 +1,232 @@
+package com.hilton.queryservice.core;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of the answers shared by the hosts of a network prefix, a /24 of IPv4 or a /48 of IPv6 addresses
+ * by default, whose hosts almost always resolve to the same location. The exact answers of ips, from the database or
+ * the remote api, are observed under the prefix of the ip: a prefix keeps the location of up to
+ * {@link #MAX_HOSTS_PER_PREFIX} distinct hosts, and answers its most common location for the other hosts of the prefix
+ * once minHosts hosts were observed and at least minConfidencePercent of them share it. Its answers are marked
+ * inferred and are never persisted, a prefix whose hosts disagree answers nothing. A prefix is forgotten
+ * expireInSeconds after its last observation, at most maxPrefixes prefixes are kept.
+ * <p>
+ * Locations are compared on all response fields but the query, so hosts of one city served by two isps disagree.
+ */
+public final class PrefixAnswerCache {
+
+    public static final int MAX_HOSTS_PER_PREFIX = 16;
+    private static final String SUCCESS_STATUS = "success";
+    private static final PrefixAnswerCache DISABLED = new PrefixAnswerCache();
+
+    // null for a disabled cache
+    private final Cache<IpKey, PrefixHosts> prefixes;
+    private final int ipv4PrefixLength;
+    private final int ipv6PrefixLength;
+    private final int minHosts;
+    private final int minConfidencePercent;
+
+    private PrefixAnswerCache() {
+        this.prefixes = null;
+        this.ipv4PrefixLength = 32;
+        this.ipv6PrefixLength = 128;
+        this.minHosts = MAX_HOSTS_PER_PREFIX;
+        this.minConfidencePercent = 100;
+    }
+
+    /**
+     * @param maxPrefixes          max number of prefixes kept
+     * @param expireInSeconds      time after the last observation of a prefix after which it is forgotten
+     * @param ipv4PrefixLength     prefix length of the IPv4 networks sharing answers, 0 to 32
+     * @param ipv6PrefixLength     prefix length of the IPv6 networks sharing answers, 0 to 128
+     * @param minHosts             number of distinct hosts observed before a prefix answers, at most {@link #MAX_HOSTS_PER_PREFIX}
+     * @param minConfidencePercent percentage of the observed hosts of a prefix sharing the location it answers, 1 to 100
+     */
+    public PrefixAnswerCache(int maxPrefixes, int expireInSeconds, int ipv4PrefixLength, int ipv6PrefixLength, int minHosts,
+                             int minConfidencePercent) {
+        if (ipv4PrefixLength < 0 || ipv4PrefixLength > 32 || ipv6PrefixLength < 0 || ipv6PrefixLength > 128) {
+            throw new IllegalArgumentException("prefix lengths " + ipv4PrefixLength + " and " + ipv6PrefixLength + " not in 0 to 32 and 0 to 128");
+        }
+        if (minHosts < 1 || minHosts > MAX_HOSTS_PER_PREFIX) {
+            throw new IllegalArgumentException("min hosts " + minHosts + " not in 1 to " + MAX_HOSTS_PER_PREFIX);
+        }
+        if (minConfidencePercent < 1 || minConfidencePercent > 100) {
+            throw new IllegalArgumentException("min confidence percent " + minConfidencePercent + " not in 1 to 100");
+        }
+        this.prefixes = Caffeine.newBuilder().maximumSize(maxPrefixes).expireAfterWrite(expireInSeconds, TimeUnit.SECONDS).build();
+        this.ipv4PrefixLength = ipv4PrefixLength;
+        this.ipv6PrefixLength = ipv6PrefixLength;
+        this.minHosts = minHosts;
+        this.minConfidencePercent = minConfidencePercent;
+    }
+
+    /**
+     * @return cache that observes nothing and never answers
+     */
+    public static PrefixAnswerCache disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return prefixes != null;
+    }
+
+    /**
+     * Observe the exact answer of an ip under its prefix. Domain names, fail answers and inferred answers are ignored.
+     *
+     * @param ip     ip string
+     * @param answer exact answer of the ip
+     */
+    public void observe(String ip, QueryIpResponseEntity answer) {
+        IpKey ipKey = prefixes == null ? null : IpAddressParser.toKey(ip);
+        if (ipKey != null && !ipKey.isDomain() && isExact(answer)) {
+            IpKey prefix = prefixOf(ipKey);
+            QueryIpResponseEntity location = location(prefix, ipKey, answer);
+            prefixes.asMap().compute(prefix, (key, hosts) -> (hosts == null ? new PrefixHosts() : hosts).observe(ipKey, location, minHosts, minConfidencePercent));
+        }
+    }
+
+    /**
+     * Observe the persisted answers of the hosts of the prefix of an ip, read from the database once per prefix
+     *
+     * @param ipKey      key of an IPv4 or IPv6 address
+     * @param neighbours persisted answers of addresses of the prefix of the ip
+     */
+    public void seed(IpKey ipKey, Collection<QueryIpResponseEntity> neighbours) {
+        if (prefixes == null) {
+            return;
+        }
+        IpKey prefix = prefixOf(ipKey);
+        prefixes.asMap().compute(prefix, (key, hosts) -> {
+            PrefixHosts prefixHosts = hosts == null ? new PrefixHosts() : hosts;
+            for (QueryIpResponseEntity neighbour : neighbours) {
+                IpKey host = IpAddressParser.toKey(neighbour.getQuery());
+                if (host != null && !host.isDomain() && prefix.equals(prefixOf(host)) && isExact(neighbour)) {
+                    prefixHosts.observe(host, location(prefix, host, neighbour), minHosts, minConfidencePercent);
+                }
+            }
+            prefixHosts.seeded = true;
+            return prefixHosts;
+        });
+    }
+
+    /**
+     * @param ipKey key of an IPv4 or IPv6 address
+     * @return true when the persisted answers of the prefix of the ip were observed since the prefix was last forgotten
+     */
+    public boolean isSeeded(IpKey ipKey) {
+        PrefixHosts hosts = prefixes == null ? null : prefixes.getIfPresent(prefixOf(ipKey));
+        return hosts != null && hosts.seeded;
+    }
+
+    /**
+     * Lookup the answer shared by the hosts of the prefix of an ip
+     *
+     * @param ip ip string
+     * @return Optional of the answer of the prefix, marked inferred, empty for domain names and prefixes without a confident answer
+     */
+    public Optional<QueryIpResponseEntity> lookup(String ip) {
+        IpKey ipKey = prefixes == null ? null : IpAddressParser.toKey(ip);
+        if (ipKey == null || ipKey.isDomain()) {
+            return Optional.empty();
+        }
+        PrefixHosts hosts = prefixes.getIfPresent(prefixOf(ipKey));
+        QueryIpResponseEntity location = hosts == null ? null : hosts.answer;
+        if (location == null) {
+            return Optional.empty();
+        }
+        QueryIpResponseEntity queryIpResponseEntity = QueryIpResponseEntity.copyValuesFrom(location);
+        queryIpResponseEntity.setQuery(ip);
+        queryIpResponseEntity.setInferred(true);
+        return Optional.of(queryIpResponseEntity);
+    }
+
+    /**
+     * @param ipKey key of an IPv4 or IPv6 address
+     * @return prefix length of the networks of the address family of the ip
+     */
+    public int prefixLength(IpKey ipKey) {
+        return ipKey.isIpv4() ? ipv4PrefixLength : ipv6PrefixLength;
+    }
+
+    /**
+     * @return number of prefixes kept
+     */
+    public long size() {
+        return prefixes == null ? 0 : prefixes.estimatedSize();
+    }
+
+    private IpKey prefixOf(IpKey ipKey) {
+        return ipKey.firstInPrefix(prefixLength(ipKey));
+    }
+
+    private static boolean isExact(QueryIpResponseEntity answer) {
+        return SUCCESS_STATUS.equals(answer.getStatus()) && !Boolean.TRUE.equals(answer.getInferred());
+    }
+
+    /**
+     * @return location of the answer, queried as the prefix so equal locations of different hosts are equal
+     */
+    private QueryIpResponseEntity location(IpKey prefix, IpKey host, QueryIpResponseEntity answer) {
+        QueryIpResponseEntity location = QueryIpResponseEntity.copyValuesFrom(answer);
+        location.setQuery(prefix + "/" + prefixLength(host));
+        location.setPersisted(null);
+        location.setMessage(null);
+        location.setFetchedAt(null);
+        location.setLastAccessedAt(null);
+        return location;
+    }
+
+    /**
+     * Observed hosts of a prefix, changed only inside the compute of its cache entry, its answer is read without lock
+     */
+    private static final class PrefixHosts {
+
+        private final Map<IpKey, QueryIpResponseEntity> locations = new HashMap<>();
+        private volatile boolean seeded;
+
+        // most common location once enough hosts share it, null while the prefix answers nothing
+        private volatile QueryIpResponseEntity answer;
+
+        PrefixHosts observe(IpKey host, QueryIpResponseEntity location, int minHosts, int minConfidencePercent) {
+            if (locations.size() >= MAX_HOSTS_PER_PREFIX && !locations.containsKey(host)) {
+                return this;
+            }
+            Map<QueryIpResponseEntity, Integer> counts = new HashMap<>();
+            for (QueryIpResponseEntity observed : locations.values()) {
+                counts.merge(observed, 1, Integer::sum);
+            }
+            // equal locations of the hosts share one instance
+            QueryIpResponseEntity shared = location;
+            for (QueryIpResponseEntity observed : counts.keySet()) {
+                if (observed.equals(location)) {
+                    shared = observed;
+                }
+            }
+            QueryIpResponseEntity previous = locations.put(host, shared);
+            if (previous != null) {
+                counts.merge(previous, -1, Integer::sum);
+            }
+            counts.merge(shared, 1, Integer::sum);
+
+            QueryIpResponseEntity common = null;
+            int commonCount = 0;
+            for (Map.Entry<QueryIpResponseEntity, Integer> count : counts.entrySet()) {
+                if (count.getValue() > commonCount) {
+                    common = count.getKey();
+                    commonCount = count.getValue();
+                }
+            }
+            int hosts = locations.size();
+            answer = hosts >= minHosts && commonCount * 100 >= minConfidencePercent * hosts ? common : null;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hilton.queryservice.core;
+
+/**
+ * Result of a single ip in a batch lookup. status is one of
+ * ok: response holds the query ip response
+ * invalid: the ip is empty or not in valid IPv4, IPv6 or domain format
+ * error: the ip could not be fetched from the remote api
+ * unknown: the ip is not known locally, when looked up without the remote api
+ */
+public class QueryIpBatchResult {
+
+    public static final String OK = "ok";
+    public static final String INVALID = "invalid";
+    public static final String ERROR = "error";
+    public static final String UNKNOWN = "unknown";
+
+    private String ip;
+    private String status;
+    private String message;
+    private QueryIpResponseEntity response;
+
+    public QueryIpBatchResult() {
+    }
+
+    public QueryIpBatchResult(String ip, String status, String message, QueryIpResponseEntity response) {
+        this.ip = ip;
+        this.status = status;
+        this.message = message;
+        this.response = response;
+    }
+
+    public static QueryIpBatchResult ok(String ip, QueryIpResponseEntity response) {
+        return new QueryIpBatchResult(ip, OK, null, response);
+    }
+
+    public static QueryIpBatchResult invalid(String ip, String message) {
+        return new QueryIpBatchResult(ip, INVALID, message, null);
+    }
+
+    public static QueryIpBatchResult error(String ip, String message) {
+        return new QueryIpBatchResult(ip, ERROR, message, null);
+    }
+
+    public static QueryIpBatchResult unknown(String ip, String message) {
+        return new QueryIpBatchResult(ip, UNKNOWN, message, null);
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public void setIp(String ip) {
+        this.ip = ip;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public QueryIpResponseEntity getResponse() {
+        return response;
+    }
+
+    public void setResponse(QueryIpResponseEntity response) {
+        this.response = response;
+    }
+}
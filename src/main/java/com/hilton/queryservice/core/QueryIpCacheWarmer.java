@@ -0,0 +1,144 @@
+package com.hilton.queryservice.core;
+
+import com.hilton.queryservice.db.QueryIpStore;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms the in-memory cache on startup with the most recently persisted rows of ipquerytable, so a restarted node
+ * does not send its first minutes of traffic to the database. Rows are streamed on a warm-up thread and put in the
+ * cache in chunks on the loader executor. Warm-up stops when maxRows are loaded or the time budget runs out,
+ * {@link #isFinished()} reports either.
+ */
+public class QueryIpCacheWarmer implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIpCacheWarmer.class);
+
+    private static final int CHUNK_SIZE = 500;
+    private static final int MAX_CHUNKS_IN_FLIGHT = 4;
+    private static final int PROGRESS_LOG_INTERVAL = 10000;
+
+    private final QueryIpStore queryIpStore;
+    private final QueryIpLookupService queryIpLookupService;
+    private final Executor loaderExecutor;
+    private final int maxRows;
+    private final long timeBudgetInMillis;
+
+    private final AtomicInteger loadedCount = new AtomicInteger();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile boolean stopped;
+    private volatile Throwable failure;
+
+    public QueryIpCacheWarmer(QueryIpStore queryIpStore, QueryIpLookupService queryIpLookupService, Executor loaderExecutor,
+                              int maxRows, int timeBudgetInSeconds) {
+        this.queryIpStore = queryIpStore;
+        this.queryIpLookupService = queryIpLookupService;
+        this.loaderExecutor = loaderExecutor;
+        this.maxRows = maxRows;
+        this.timeBudgetInMillis = TimeUnit.SECONDS.toMillis(timeBudgetInSeconds);
+    }
+
+    /**
+     * Start warm-up on its own thread, startup does not wait for it
+     */
+    @Override
+    public void start() {
+        startedAt = System.currentTimeMillis();
+        Thread thread = new Thread(this::warm, "query-ip-cache-warmer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Stream rows into the cache until maxRows are loaded or the time budget runs out
+     */
+    void warm() {
+        if (startedAt == 0) {
+            startedAt = System.currentTimeMillis();
+        }
+        LOGGER.info("warming cache with up to " + maxRows + " ips within " + timeBudgetInMillis + " ms");
+        Semaphore chunksInFlight = new Semaphore(MAX_CHUNKS_IN_FLIGHT);
+        List<CompletableFuture<Void>> chunkLoads = new ArrayList<>();
+        List<QueryIpResponseEntity> chunk = new ArrayList<>(CHUNK_SIZE);
+        try {
+            queryIpStore.streamMostRecent(maxRows, queryIpResponseEntity -> {
+                chunk.add(queryIpResponseEntity);
+                if (chunk.size() == CHUNK_SIZE) {
+                    chunkLoads.add(load(new ArrayList<>(chunk), chunksInFlight));
+                    chunk.clear();
+                }
+                return !stopped && !isTimeBudgetExhausted();
+            });
+            if (!chunk.isEmpty()) {
+                chunkLoads.add(load(chunk, chunksInFlight));
+            }
+            CompletableFuture.allOf(chunkLoads.toArray(new CompletableFuture[0])).join();
+            LOGGER.info("cache warm-up loaded " + loadedCount.get() + " ips in " + elapsedMillis() + " ms"
+                    + (isTimeBudgetExhausted() ? ", time budget exhausted" : ""));
+        } catch (RuntimeException e) {
+            failure = e;
+            LOGGER.error("cache warm-up failed after loading " + loadedCount.get() + " ips", e);
+        } finally {
+            finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    private CompletableFuture<Void> load(List<QueryIpResponseEntity> chunk, Semaphore chunksInFlight) {
+        // bounds the rows read ahead of the cache while the loader executor is busy
+        chunksInFlight.acquireUninterruptibly();
+        return CompletableFuture.runAsync(() -> {
+            queryIpLookupService.warm(chunk);
+            int loaded = loadedCount.addAndGet(chunk.size());
+            if (loaded / PROGRESS_LOG_INTERVAL != (loaded - chunk.size()) / PROGRESS_LOG_INTERVAL) {
+                LOGGER.info("cache warm-up loaded " + loaded + " of up to " + maxRows + " ips in " + elapsedMillis() + " ms");
+            }
+        }, loaderExecutor).whenComplete((result, throwable) -> chunksInFlight.release());
+    }
+
+    /**
+     * @return true when warm-up completed, failed or ran out of its time budget
+     */
+    public boolean isFinished() {
+        return finishedAt > 0 || isTimeBudgetExhausted();
+    }
+
+    public boolean isTimeBudgetExhausted() {
+        return startedAt > 0 && elapsedMillis() > timeBudgetInMillis;
+    }
+
+    /**
+     * @return failure of the warm-up or null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public int getLoadedCount() {
+        return loadedCount.get();
+    }
+
+    /**
+     * @return time spent warming, up to now while in progress
+     */
+    public long elapsedMillis() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+    }
+}
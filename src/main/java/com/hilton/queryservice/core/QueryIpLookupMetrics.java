@@ -0,0 +1,139 @@
+package com.hilton.queryservice.core;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hilton.queryservice.cache.LookupCacheStats;
+import com.hilton.queryservice.cache.MeteredStatsCounter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the lookup tiers of {@link QueryIpLookupService}, named after the service class so they are listed
+ * together on the admin port:
+ * answers.{source}: meter of the lookups answered by each tier, answers.cache are the hits of the in-memory cache
+ * remote-call: timer of the remote api calls, remote-errors: meter of the failed calls
+ * peer-errors: meter of the calls to the owner instance of an ip that failed, looked up locally instead
+ * stale-answers: meter of the stale persisted responses answered while they are refreshed, refreshes: meter of the
+ * persisted responses updated from the remote api
+ * cache.hits, cache.misses, cache.evictions, cache.load-failures: meters of the in-memory cache, cache.loads: timer
+ * of its loads through the tiers under it
+ * cache.hit-ratio, cache.size, cache.weighted-size, dictionary-size: gauges of the in-memory cache
+ * in-flight-loads: gauge of the loads waiting on the database or the remote api
+ * Metrics are taken from the registry when already registered, so services sharing a registry share their metrics.
+ */
+public class QueryIpLookupMetrics {
+
+    /**
+     * Lookup tiers under the in-memory cache, whose hits are metered by its stats counter
+     */
+    public enum AnswerSource {
+        NEGATIVE_CACHE("negative-cache"),
+        RESERVED("reserved"),
+        RANGE_INDEX("range-index"),
+        PREFIX("prefix"),
+        MAPPED_CACHE("mapped-cache"),
+        PEER("peer"),
+        DATABASE("database"),
+        REMOTE("remote");
+
+        private final String metricName;
+
+        AnswerSource(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private static final String PREFIX = QueryIpLookupService.class.getName();
+    private static final String CACHE = MetricRegistry.name(PREFIX, "cache");
+
+    private final MetricRegistry metricRegistry;
+    private final MeteredStatsCounter cacheStatsCounter;
+    private final Map<AnswerSource, Meter> answers = new EnumMap<>(AnswerSource.class);
+    private final Timer remoteCall;
+    private final Meter remoteErrors;
+    private final Meter peerErrors;
+    private final Meter staleAnswers;
+    private final Meter refreshes;
+    private final AtomicInteger inFlightLoads = new AtomicInteger();
+
+    public QueryIpLookupMetrics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.cacheStatsCounter = new MeteredStatsCounter(metricRegistry, CACHE);
+        for (AnswerSource answerSource : AnswerSource.values()) {
+            answers.put(answerSource, metricRegistry.meter(MetricRegistry.name(PREFIX, "answers", answerSource.metricName)));
+        }
+        Meter cacheHits = metricRegistry.meter(MetricRegistry.name(CACHE, "hits"));
+        metricRegistry.meter(MetricRegistry.name(PREFIX, "answers", "cache"), () -> cacheHits);
+        this.remoteCall = metricRegistry.timer(MetricRegistry.name(PREFIX, "remote-call"));
+        this.remoteErrors = metricRegistry.meter(MetricRegistry.name(PREFIX, "remote-errors"));
+        this.peerErrors = metricRegistry.meter(MetricRegistry.name(PREFIX, "peer-errors"));
+        this.staleAnswers = metricRegistry.meter(MetricRegistry.name(PREFIX, "stale-answers"));
+        this.refreshes = metricRegistry.meter(MetricRegistry.name(PREFIX, "refreshes"));
+        metricRegistry.gauge(MetricRegistry.name(PREFIX, "in-flight-loads"), () -> (Gauge<Integer>) inFlightLoads::get);
+    }
+
+    /**
+     * Register the gauges of the in-memory cache
+     *
+     * @param cacheStats     stats of the in-memory cache
+     * @param dictionarySize number of strings of the compact cache values
+     */
+    void registerCacheGauges(Supplier<LookupCacheStats> cacheStats, IntSupplier dictionarySize) {
+        metricRegistry.gauge(MetricRegistry.name(CACHE, "hit-ratio"), () -> (Gauge<Double>) () -> cacheStats.get().getHitRate());
+        metricRegistry.gauge(MetricRegistry.name(CACHE, "size"), () -> (Gauge<Long>) () -> cacheStats.get().getEstimatedSize());
+        metricRegistry.gauge(MetricRegistry.name(CACHE, "weighted-size"), () -> (Gauge<Long>) () -> cacheStats.get().getWeightedSize());
+        metricRegistry.gauge(MetricRegistry.name(PREFIX, "dictionary-size"), () -> (Gauge<Integer>) dictionarySize::getAsInt);
+    }
+
+    /**
+     * @return stats counter of the in-memory cache, metering its hits, misses, loads and evictions
+     */
+    MeteredStatsCounter cacheStatsCounter() {
+        return cacheStatsCounter;
+    }
+
+    void markAnswer(AnswerSource answerSource) {
+        answers.get(answerSource).mark();
+    }
+
+    Timer remoteCall() {
+        return remoteCall;
+    }
+
+    void markRemoteError() {
+        remoteErrors.mark();
+    }
+
+    void markPeerError() {
+        peerErrors.mark();
+    }
+
+    void markStaleAnswer() {
+        staleAnswers.mark();
+    }
+
+    void markRefreshed(int count) {
+        refreshes.mark(count);
+    }
+
+    void loadStarted() {
+        inFlightLoads.incrementAndGet();
+    }
+
+    void loadFinished() {
+        inFlightLoads.decrementAndGet();
+    }
+
+    /**
+     * @return number of loads waiting on the database or the remote api
+     */
+    public int getInFlightLoads() {
+        return inFlightLoads.get();
+    }
+}
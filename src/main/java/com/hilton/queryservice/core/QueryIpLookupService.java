@@ -0,0 +1,1122 @@
+package com.hilton.queryservice.core;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hilton.queryservice.cache.CaffeineLookupCache;
+import com.hilton.queryservice.cache.LookupCache;
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.cache.LookupCacheStats;
+import com.hilton.queryservice.cache.MappedFileCache;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.cluster.PeerGroup;
+import com.hilton.queryservice.core.QueryIpLookupMetrics.AnswerSource;
+import com.hilton.queryservice.db.QueryIpAccessTracker;
+import com.hilton.queryservice.db.QueryIpStore;
+import com.hilton.queryservice.db.QueryIpResponseWriter;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Looks up the IP information through the lookup tiers shared by all request paths:
+ * 1. In-memory cache for cache expiry time configured as expireCacheInSeconds, refreshed in the background after
+ * refreshCacheAfterSeconds
+ * 2. Negative cache of remote api fail answers and errors, kept for negativeCacheExpireInSeconds
+ * 3. Private and reserved ranges, answered locally
+ * 4. In-process ip range index
+ * 5. Memory-mapped file cache, kept across restarts
+ * 6. Owner instance of the ip in the {@link PeerGroup}, when instances share their caches, which looks the ip up
+ * through its own tiers. If the owner cannot be reached the lookup goes on with the next tiers
+ * 7. Query response persisted in the database
+ * 8. Answer shared by the hosts of the network prefix of the ip, marked inferred, when the {@link PrefixAnswerCache}
+ * is enabled and no exact tier knows the ip. The persisted responses of a prefix are read once into it
+ * 9. Remote api call through the {@link UpstreamBatcher}, which collects concurrent misses into batch calls, and the
+ * {@link UpstreamGateway}, which applies the upstream rate limit, concurrency bound and circuit breaker. The response is persisted in the database unless it is a fail answer, directly or through the
+ * write-behind queue of {@link QueryIpResponseWriter}
+ * <p>
+ * A persisted response older than persistedMaxAgeInSeconds is stale: it is still answered at once, and re-fetched
+ * from the remote api in the background, which updates it in place in the database and the caches
+ * (stale-while-revalidate). {@link QueryIpRefresher} refreshes the stale rows that are not looked up.
+ * <p>
+ * Each lookup records its ip in the {@link QueryIpAccessTracker}, which writes the last access times of the persisted
+ * ips in batches, so retention keeps the rows that are still looked up.
+ * <p>
+ * Lookups are available blocking on the caller thread, or non-blocking where database work runs on the loader
+ * executor and the remote api call goes through the async client, so no thread waits on either.
+ * <p>
+ * The tier answering each lookup, the remote api calls and the in-memory cache are reported by {@link QueryIpLookupMetrics}.
+ */
+public class QueryIpLookupService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIpLookupService.class);
+
+    public static final int DEFAULT_NEGATIVE_CACHE_EXPIRE_IN_SECONDS = 30;
+    public static final int DEFAULT_NEGATIVE_CACHE_MAX_SIZE = 10000;
+    public static final String FAIL_STATUS = "fail";
+    public static final String ERROR_STATUS = "error";
+    public static String UPSTREAM_ERROR_MESSAGE = "remote api call failed for ip ";
+
+    // remote api calls, batched, rate limited and guarded by the circuit breaker
+    private final UpstreamBatcher upstreamBatcher;
+
+    // store of query response persistence and lookup
+    private final QueryIpStore queryIpStore;
+
+    // in-process range table consulted before the database and remote api
+    private final IpRangeIndex ipRangeIndex;
+
+    // persistent cache under the in-memory cache, keyed by canonical ip
+    private final MappedFileCache mappedFileCache;
+
+    // opens a hibernate session for database work off the request thread
+    private final UnitOfWorkRunner unitOfWorkRunner;
+
+    // writes remote api responses to the database, directly or write-behind
+    private final QueryIpResponseWriter queryIpResponseWriter;
+
+    // executor for database work of async loads
+    private final Executor loaderExecutor;
+
+    // in-memory cache of compact values keyed by numeric ip, converted to entities only when returned
+    private final LookupCache<IpKey, CompactQueryIpResponse> ipCache;
+
+    // strings of the compact cache values
+    private final StringDictionary dictionary = new StringDictionary();
+
+    // fail answers and errors of the remote api, expire sooner than the in-memory cache
+    private final Cache<String, QueryIpResponseEntity> negativeCache;
+
+    // answers per tier, remote api calls and in-memory cache metrics
+    private final QueryIpLookupMetrics metrics;
+
+    // instances sharing their caches, standalone when this instance owns every ip
+    private final PeerGroup peerGroup;
+
+    // age after which a persisted response is re-fetched, 0 when persisted responses never go stale
+    private final long persistedMaxAgeInMillis;
+
+    // stale ips of lookups whose refresh is in flight, each is refreshed once at a time
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    // last access times of the looked up ips, written in batches for retention
+    private final QueryIpAccessTracker accessTracker;
+
+    // answers shared by the hosts of a network prefix, observed from the exact answers
+    private final PrefixAnswerCache prefixAnswerCache;
+
+    private QueryIpLookupService(Builder builder) {
+        this.upstreamBatcher = builder.upstreamBatcher;
+        this.queryIpStore = builder.queryIpStore;
+        this.ipRangeIndex = builder.ipRangeIndex;
+        this.mappedFileCache = builder.mappedFileCache;
+        this.unitOfWorkRunner = builder.unitOfWorkRunner;
+        this.queryIpResponseWriter = builder.queryIpResponseWriter != null ? builder.queryIpResponseWriter
+                : QueryIpResponseWriter.direct(builder.queryIpStore, builder.unitOfWorkRunner);
+        this.loaderExecutor = builder.loaderExecutor;
+        this.negativeCache = Caffeine.newBuilder().maximumSize(builder.negativeCacheMaxSize)
+                .expireAfterWrite(builder.negativeCacheExpireInSeconds, TimeUnit.SECONDS).build();
+        this.metrics = new QueryIpLookupMetrics(builder.metricRegistry);
+        this.peerGroup = builder.peerGroup;
+        this.persistedMaxAgeInMillis = TimeUnit.SECONDS.toMillis(builder.persistedMaxAgeInSeconds);
+        this.accessTracker = builder.accessTracker;
+        this.prefixAnswerCache = builder.prefixAnswerCache;
+
+        /**
+         * Initialize Cache with load from remote api call and persist in db table
+         */
+        this.ipCache = new CaffeineLookupCache<>(builder.cacheSpec,
+                ipKey -> {
+                    String ip = ipKey.toString();
+                    metrics.loadStarted();
+                    try {
+                        return compact(ip, load(ip, true));
+                    } finally {
+                        metrics.loadFinished();
+                    }
+                },
+                ipKey -> {
+                    String ip = ipKey.toString();
+                    metrics.loadStarted();
+                    return loadAsync(ip).whenComplete((queryIpResponseEntity, throwable) -> metrics.loadFinished())
+                            .thenApply(queryIpResponseEntity -> compact(ip, queryIpResponseEntity));
+                },
+                (ipKey, compactQueryIpResponse) -> compactQueryIpResponse.estimatedSizeInBytes(ipKey),
+                loaderExecutor,
+                metrics.cacheStatsCounter());
+        metrics.registerCacheGauges(ipCache::stats, dictionary::size);
+    }
+
+    /**
+     * @param upstreamBatcher remote api calls
+     * @param cacheSpec       expiry, refresh and sizing of the in-memory cache
+     * @param queryIpStore    store of query response persistence and lookup
+     * @return builder of a lookup service whose optional tiers are disabled until they are set
+     */
+    public static Builder builder(UpstreamBatcher upstreamBatcher, LookupCacheSpec cacheSpec, QueryIpStore queryIpStore) {
+        return new Builder(upstreamBatcher, cacheSpec, queryIpStore);
+    }
+
+    /**
+     * Lookup ip blocking the caller thread on database and remote api calls
+     *
+     * @param ip validated ip string
+     * @return query ip response entity
+     * @throws ExecutionException if the load fails
+     */
+    public QueryIpResponseEntity get(String ip) throws ExecutionException {
+        return get(ip, compactQueryIpResponse -> compactQueryIpResponse.toEntity(ip, dictionary), Function.identity());
+    }
+
+    /**
+     * Lookup ip blocking the caller thread like {@link #get(String)}, answering the response bodies the in-memory
+     * cache holds, which are built when not cached such as for fail answers
+     *
+     * @param ip validated ip string
+     * @return json and gzip bodies of the query ip response entity
+     * @throws ExecutionException if the load fails
+     */
+    public EncodedQueryIpResponse getEncoded(String ip) throws ExecutionException {
+        return get(ip, compactQueryIpResponse -> compactQueryIpResponse.encoded(ip, dictionary), EncodedQueryIpResponse::ofFailAnswer);
+    }
+
+    /**
+     * @param cached   answer of a cached value
+     * @param uncached answer of a fail answer, which is not cached
+     */
+    private <T> T get(String ip, Function<CompactQueryIpResponse, T> cached, Function<QueryIpResponseEntity, T> uncached) throws ExecutionException {
+        QueryIpResponseEntity negative = fetchQueryIpFromNegativeCache(ip);
+        if (negative != null) {
+            return uncached.apply(negative);
+        }
+        accessTracker.record(ip);
+        try {
+            return cached.apply(ipCache.get(key(ip)));
+        } catch (RuntimeException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof FailAnswerException) {
+                return uncached.apply(((FailAnswerException) cause).queryIpResponseEntity);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ExecutionException(cause);
+        }
+    }
+
+    /**
+     * @param ip validated ip string
+     * @return cached query ip response entity or null when not in cache
+     */
+    public QueryIpResponseEntity getIfPresent(String ip) {
+        CompactQueryIpResponse cached = ipCache.getIfPresent(key(ip));
+        return cached == null ? null : cached.toEntity(ip, dictionary);
+    }
+
+    /**
+     * Cache hit of a lookup, recorded as an access of the ip like the hits of {@link #get} and {@link #getAsync}.
+     * Lets callers answer hits without going through a future.
+     *
+     * @param ip validated ip string
+     * @return cached query ip response entity or null when not in cache
+     */
+    public QueryIpResponseEntity getCached(String ip) {
+        QueryIpResponseEntity cached = getIfPresent(ip);
+        if (cached != null) {
+            accessTracker.record(ip);
+        }
+        return cached;
+    }
+
+    /**
+     * Lookup ip without blocking the caller thread. Cache hits complete immediately, misses complete on the
+     * loader executor or the async client thread once the database or remote api answered.
+     *
+     * @param ip validated ip string
+     * @return future of the query ip response entity
+     */
+    public CompletableFuture<QueryIpResponseEntity> getAsync(String ip) {
+        QueryIpResponseEntity cached = getCached(ip);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        try {
+            QueryIpResponseEntity negative = fetchQueryIpFromNegativeCache(ip);
+            if (negative != null) {
+                return CompletableFuture.completedFuture(negative);
+            }
+        } catch (WebApplicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        accessTracker.record(ip);
+        return ipCache.getAsync(key(ip)).handle((compactQueryIpResponse, throwable) -> {
+            if (throwable == null) {
+                return CompletableFuture.completedFuture(compactQueryIpResponse.toEntity(ip, dictionary));
+            }
+            Throwable cause = unwrap(throwable);
+            if (cause instanceof FailAnswerException) {
+                return CompletableFuture.completedFuture(((FailAnswerException) cause).queryIpResponseEntity);
+            }
+            return CompletableFuture.<QueryIpResponseEntity>failedFuture(cause);
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Lookup ip for a peer instance that found this instance to be the owner of the ip. The lookup is never forwarded
+     * to another instance, so a lookup crosses at most one instance even while the peer lists of the instances differ.
+     *
+     * @param ip validated ip string
+     * @return query ip response entity
+     * @throws ExecutionException if the load fails
+     */
+    public QueryIpResponseEntity getForPeer(String ip) throws ExecutionException {
+        if (peerGroup.ownerOf(ip) == null) {
+            return get(ip);
+        }
+        accessTracker.record(ip);
+        QueryIpResponseEntity cached = getIfPresent(ip);
+        if (cached != null) {
+            return cached;
+        }
+        QueryIpResponseEntity negative = fetchQueryIpFromNegativeCache(ip);
+        if (negative != null) {
+            return negative;
+        }
+        try {
+            return load(ip, false);
+        } catch (FailAnswerException e) {
+            return e.queryIpResponseEntity;
+        }
+    }
+
+    /**
+     * Put persisted responses in the in-memory cache ahead of lookups, fail answers are skipped
+     *
+     * @param queryIpResponseEntities persisted query ip response entities
+     */
+    public void warm(Collection<QueryIpResponseEntity> queryIpResponseEntities) {
+        for (QueryIpResponseEntity queryIpResponseEntity : queryIpResponseEntities) {
+            // rows of queries that are not valid ips are skipped
+            IpKey ipKey = IpAddressParser.toKey(queryIpResponseEntity.getQuery());
+            if (ipKey != null && !isFailAnswer(queryIpResponseEntity)) {
+                ipCache.put(ipKey, compact(queryIpResponseEntity.getQuery(), queryIpResponseEntity));
+                prefixAnswerCache.observe(queryIpResponseEntity.getQuery(), queryIpResponseEntity);
+            }
+        }
+    }
+
+    /**
+     * Re-fetch persisted responses from the remote api and update them in place, in the database and the mapped file
+     * cache, and in the in-memory cache when they are cached. The remote calls take the gateway's rate limit permits
+     * and concurrent ones are sent in batch calls by a micro-batcher. A response the remote api now answers as fail
+     * keeps its persisted value with a new fetch time, so it is retried after another max age; a response whose call
+     * failed is left stale.
+     *
+     * @param stale persisted responses to refresh
+     * @return future of the number of responses updated, completes on a loader thread
+     */
+    public CompletableFuture<Integer> refresh(List<QueryIpResponseEntity> stale) {
+        List<CompletableFuture<QueryIpResponseEntity>> remoteCalls = new ArrayList<>(stale.size());
+        Map<String, Long> lastAccessedAt = new HashMap<>();
+        for (QueryIpResponseEntity persisted : stale) {
+            String ip = persisted.getQuery();
+            if (persisted.getLastAccessedAt() != null) {
+                lastAccessedAt.put(ip, persisted.getLastAccessedAt());
+            }
+            remoteCalls.add(fetchQueryIpFromRemoteCallAsync(ip).handle((remote, throwable) -> {
+                if (throwable != null) {
+                    metrics.markRemoteError();
+                    LOGGER.warn(" failed to refresh ip " + ip + " from remote api, serving its stale response", unwrap(throwable));
+                    return null;
+                }
+                if (isFailAnswer(remote)) {
+                    LOGGER.info("IP " + ip + " answered as fail by remote api on refresh, keeping its persisted response");
+                    return QueryIpResponseEntity.copyValuesFrom(persisted);
+                }
+                return remote;
+            }));
+        }
+        return CompletableFuture.allOf(remoteCalls.toArray(new CompletableFuture[0])).thenApplyAsync(ignored -> {
+            long now = System.currentTimeMillis();
+            List<QueryIpResponseEntity> refreshed = new ArrayList<>(remoteCalls.size());
+            for (CompletableFuture<QueryIpResponseEntity> remoteCall : remoteCalls) {
+                QueryIpResponseEntity queryIpResponseEntity = remoteCall.join();
+                if (queryIpResponseEntity != null) {
+                    queryIpResponseEntity.setPersisted("true");
+                    queryIpResponseEntity.setFetchedAt(now);
+                    // a refresh is no access, the row keeps its last access time unless it is unknown
+                    queryIpResponseEntity.setLastAccessedAt(lastAccessedAt.getOrDefault(queryIpResponseEntity.getQuery(), now));
+                    refreshed.add(queryIpResponseEntity);
+                }
+            }
+            if (refreshed.isEmpty()) {
+                return 0;
+            }
+            queryIpResponseWriter.update(refreshed);
+            for (QueryIpResponseEntity queryIpResponseEntity : refreshed) {
+                String ip = queryIpResponseEntity.getQuery();
+                storeInMappedCache(ip, queryIpResponseEntity);
+                prefixAnswerCache.observe(ip, queryIpResponseEntity);
+                IpKey ipKey = IpAddressParser.toKey(ip);
+                if (ipKey != null && ipCache.getIfPresent(ipKey) != null) {
+                    ipCache.put(ipKey, compact(ip, queryIpResponseEntity));
+                }
+            }
+            metrics.markRefreshed(refreshed.size());
+            return refreshed.size();
+        }, loaderExecutor);
+    }
+
+    /**
+     * @param queryIpResponseEntity persisted response
+     * @return true when the response was fetched more than persistedMaxAgeInSeconds ago, or at an unknown time
+     */
+    public boolean isStale(QueryIpResponseEntity queryIpResponseEntity) {
+        if (persistedMaxAgeInMillis == 0) {
+            return false;
+        }
+        Long fetchedAt = queryIpResponseEntity.getFetchedAt();
+        return fetchedAt == null || fetchedAt < System.currentTimeMillis() - persistedMaxAgeInMillis;
+    }
+
+    /**
+     * Refresh a stale persisted response in the background, the lookup answers it as it is
+     *
+     * @param ip        ip string
+     * @param persisted persisted response of the ip
+     */
+    private void revalidateIfStale(String ip, QueryIpResponseEntity persisted) {
+        if (!isStale(persisted) || !revalidating.add(ip)) {
+            return;
+        }
+        metrics.markStaleAnswer();
+        // waiting for a rate limit permit blocks, so the refresh is started off the lookup's thread
+        CompletableFuture.supplyAsync(() -> refresh(Collections.singletonList(persisted)), loaderExecutor)
+                .thenCompose(Function.identity())
+                .whenComplete((refreshed, throwable) -> {
+                    revalidating.remove(ip);
+                    if (throwable != null) {
+                        LOGGER.error(" failed to refresh stale ip " + ip, unwrap(throwable));
+                    }
+                });
+    }
+
+    /**
+     * @return number of distinct strings held for the compact cache values
+     */
+    public int dictionarySize() {
+        return dictionary.size();
+    }
+
+    /**
+     * @return hit, miss, load and eviction counts of the in-memory cache
+     */
+    public LookupCacheStats cacheStats() {
+        return ipCache.stats();
+    }
+
+    /**
+     * @return answers per tier, remote api call and in-memory cache metrics
+     */
+    public QueryIpLookupMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Lookup a batch of distinct, validated ips. Cached ips are answered from the cache, ips owned by peer instances
+     * are asked to their owners concurrently, the remaining ips are fetched from the database with a single query and
+     * only the ips not in the database are sent to the remote api, all at once when the remote api calls are batched.
+     *
+     * @param ips distinct validated ips
+     * @return result for each ip, in the order of the ips
+     */
+    public Map<String, QueryIpBatchResult> getAll(Collection<String> ips) {
+        // a null result marks an ip still to be looked up
+        Map<String, QueryIpBatchResult> results = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String ip : ips) {
+            accessTracker.record(ip);
+            QueryIpResponseEntity cached = getIfPresent(ip);
+            if (cached == null) {
+                try {
+                    cached = fetchQueryIpFromNegativeCache(ip);
+                } catch (WebApplicationException e) {
+                    results.put(ip, QueryIpBatchResult.error(ip, e.getMessage()));
+                    continue;
+                }
+            }
+            if (cached == null) {
+                cached = fetchQueryIpLocally(ip);
+                if (cached == null) {
+                    cached = fetchQueryIpFromMappedCache(ip);
+                }
+                if (cached != null) {
+                    ipCache.put(key(ip), compact(ip, cached));
+                }
+            }
+            if (cached != null) {
+                results.put(ip, QueryIpBatchResult.ok(ip, cached));
+            } else {
+                results.put(ip, null);
+                misses.add(ip);
+            }
+        }
+        if (peerGroup.isClustered()) {
+            fetchQueryIpsFromOwners(misses, results);
+            misses.removeIf(ip -> results.get(ip) != null);
+        }
+        if (misses.isEmpty()) {
+            return results;
+        }
+
+        LOGGER.info("Loading " + misses.size() + " ips of batch from Database as not in cache");
+        for (QueryIpResponseEntity persisted : unitOfWorkRunner.call(() -> queryIpStore.findByIps(misses))) {
+            String ip = persisted.getQuery();
+            if (results.containsKey(ip) && results.get(ip) == null) {
+                metrics.markAnswer(AnswerSource.DATABASE);
+                ipCache.put(key(ip), compact(ip, persisted));
+                storeInMappedCache(ip, persisted);
+                prefixAnswerCache.observe(ip, persisted);
+                revalidateIfStale(ip, persisted);
+                results.put(ip, QueryIpBatchResult.ok(ip, persisted));
+            }
+        }
+        for (String ip : misses) {
+            QueryIpResponseEntity inferred = results.get(ip) == null ? fetchQueryIpFromPrefix(ip) : null;
+            if (inferred != null) {
+                ipCache.put(key(ip), compact(ip, inferred));
+                results.put(ip, QueryIpBatchResult.ok(ip, inferred));
+            }
+        }
+        // remote calls made together are sent in batch calls by a micro-batcher
+        Map<String, CompletableFuture<QueryIpResponseEntity>> remoteCalls = new HashMap<>();
+        if (upstreamBatcher.isBatching()) {
+            for (String ip : misses) {
+                if (results.get(ip) == null) {
+                    remoteCalls.put(ip, fetchQueryIpFromRemoteCallAsync(ip));
+                }
+            }
+        }
+        for (String ip : misses) {
+            if (results.get(ip) != null) {
+                continue;
+            }
+            try {
+                QueryIpResponseEntity fetched = remoteCalls.containsKey(ip) ? persistRemoteCall(ip, remoteCalls.get(ip))
+                        : fetchQueryIpFromRemoteCallAndPersist(ip);
+                if (!isFailAnswer(fetched)) {
+                    ipCache.put(key(ip), compact(ip, fetched));
+                }
+                results.put(ip, QueryIpBatchResult.ok(ip, fetched));
+            } catch (RuntimeException e) {
+                LOGGER.error(" failed to fetch ip " + ip + " of batch from remote api", e);
+                results.put(ip, QueryIpBatchResult.error(ip, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Load ip locally, from its owner or through database and remote api blocking the caller thread
+     *
+     * @param ip      ip string
+     * @param forward false to look the ip up in this instance's tiers even when a peer owns it
+     * @return loaded query ip response entity
+     * @throws FailAnswerException if the remote api answered with a fail answer, which is not kept in the in-memory cache
+     */
+    private QueryIpResponseEntity load(String ip, boolean forward) {
+        QueryIpResponseEntity queryIpResponseEntity = fetchQueryIpLocally(ip);
+        if (queryIpResponseEntity != null) {
+            return queryIpResponseEntity;
+        }
+        String owner = forward ? peerGroup.ownerOf(ip) : null;
+        if (owner != null) {
+            queryIpResponseEntity = fetchQueryIpFromMappedCache(ip);
+            if (queryIpResponseEntity == null) {
+                queryIpResponseEntity = fetchQueryIpFromOwner(owner, ip);
+            }
+            if (queryIpResponseEntity != null) {
+                return rejectFailAnswer(queryIpResponseEntity);
+            }
+        }
+        LOGGER.info("Loading key " + ip + " from Database as not in cache");
+        queryIpResponseEntity = fetchQueryIpFromMappedCacheOrDatabase(ip);
+        if (queryIpResponseEntity == null) {
+            queryIpResponseEntity = fetchQueryIpFromPrefix(ip);
+        }
+        if (queryIpResponseEntity == null) {
+            LOGGER.info("IP " + ip + " is not present in database, fetch from remote api call");
+            queryIpResponseEntity = rejectFailAnswer(fetchQueryIpFromRemoteCallAndPersist(ip));
+        }
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * Load ip locally or through database and remote api without blocking the caller thread, also used to refresh
+     * cached ips in the background
+     *
+     * @param ip ip string
+     * @return future of the loaded query ip response entity, failed with {@link FailAnswerException} on a fail answer
+     */
+    private CompletableFuture<QueryIpResponseEntity> loadAsync(String ip) {
+        QueryIpResponseEntity local = fetchQueryIpLocally(ip);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
+        }
+        String owner = peerGroup.ownerOf(ip);
+        if (owner == null) {
+            return loadFromDatabaseOrRemoteAsync(ip);
+        }
+        return CompletableFuture.supplyAsync(() -> fetchQueryIpFromMappedCache(ip), loaderExecutor)
+                .thenCompose(mapped -> mapped != null ? CompletableFuture.completedFuture(mapped) : fetchQueryIpFromOwnerAsync(owner, ip))
+                .thenCompose(answer -> answer != null ? CompletableFuture.completedFuture(rejectFailAnswer(answer)) : loadFromDatabaseOrRemoteAsync(ip));
+    }
+
+    /**
+     * Load ip through database and remote api without blocking the caller thread
+     *
+     * @param ip ip string
+     * @return future of the loaded query ip response entity, failed with {@link FailAnswerException} on a fail answer
+     */
+    private CompletableFuture<QueryIpResponseEntity> loadFromDatabaseOrRemoteAsync(String ip) {
+        LOGGER.info("Loading key " + ip + " from Database as not in cache");
+        return CompletableFuture.supplyAsync(() -> {
+                    QueryIpResponseEntity persisted = fetchQueryIpFromMappedCacheOrDatabase(ip);
+                    return persisted != null ? persisted : fetchQueryIpFromPrefix(ip);
+                }, loaderExecutor)
+                .thenCompose(persisted -> {
+                    if (persisted != null) {
+                        return CompletableFuture.completedFuture(persisted);
+                    }
+                    LOGGER.info("IP " + ip + " is not present in database, fetch from remote api call");
+                    return fetchQueryIpFromRemoteCallAsync(ip)
+                            .exceptionally(throwable -> {
+                                throw upstreamError(ip, unwrap(throwable));
+                            })
+                            .thenApplyAsync(remote -> rejectFailAnswer(persistUnlessFailAnswer(ip, remote)), loaderExecutor);
+                });
+    }
+
+    /**
+     * Remote client call to fetch IP information by remote api call
+     *
+     * @param ip address
+     * @return ip response entity
+     */
+    private QueryIpResponseEntity fetchQueryIpFromRemoteCall(String ip) {
+        QueryIpResponseEntity queryIpResponseEntity;
+        try (Timer.Context ignored = metrics.remoteCall().time()) {
+            queryIpResponseEntity = upstreamBatcher.fetch(ip);
+        }
+        LOGGER.info(" successfully fetched the ip:" + ip + " from remote api service and query status is :" + queryIpResponseEntity.getStatus());
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * Remote client call through the async client, the returned future completes on the client's thread
+     *
+     * @param ip address
+     * @return future of the ip response entity
+     */
+    private CompletableFuture<QueryIpResponseEntity> fetchQueryIpFromRemoteCallAsync(String ip) {
+        Timer.Context remoteCall = metrics.remoteCall().time();
+        return upstreamBatcher.fetchAsync(ip)
+                .whenComplete((queryIpResponseEntity, throwable) -> remoteCall.stop())
+                .thenApply(queryIpResponseEntity -> {
+                    LOGGER.info(" successfully fetched the ip:" + ip + " from remote api service and query status is :" + queryIpResponseEntity.getStatus());
+                    return queryIpResponseEntity;
+                });
+    }
+
+    /**
+     * Remote client call whose response is persisted in the database. Fail answers are not persisted but kept in the
+     * negative cache, errors are kept in the negative cache and thrown as service unavailable.
+     *
+     * @param ip address
+     * @return persisted ip response entity or unpersisted fail answer
+     * @throws ServiceUnavailableException if the remote api call failed
+     */
+    private QueryIpResponseEntity fetchQueryIpFromRemoteCallAndPersist(String ip) throws ServiceUnavailableException {
+        QueryIpResponseEntity remote;
+        try {
+            remote = fetchQueryIpFromRemoteCall(ip);
+        } catch (RuntimeException e) {
+            throw upstreamError(ip, e);
+        }
+        return persistUnlessFailAnswer(ip, remote);
+    }
+
+    /**
+     * Wait for a remote client call made through the async client and persist its response like
+     * {@link #fetchQueryIpFromRemoteCallAndPersist(String)}
+     *
+     * @param ip         address
+     * @param remoteCall future of the remote client call
+     * @return persisted ip response entity or unpersisted fail answer
+     * @throws ServiceUnavailableException if the remote api call failed
+     */
+    private QueryIpResponseEntity persistRemoteCall(String ip, CompletableFuture<QueryIpResponseEntity> remoteCall) throws ServiceUnavailableException {
+        QueryIpResponseEntity remote;
+        try {
+            remote = remoteCall.join();
+        } catch (CompletionException e) {
+            throw upstreamError(ip, unwrap(e));
+        }
+        return persistUnlessFailAnswer(ip, remote);
+    }
+
+    /**
+     * Ask the owner instance of the ip blocking the caller thread
+     *
+     * @param owner url of the owner instance
+     * @param ip    ip string
+     * @return response of the owner, which may be a fail answer, or null when the owner could not be reached
+     */
+    private QueryIpResponseEntity fetchQueryIpFromOwner(String owner, String ip) {
+        try {
+            return ownerAnswer(owner, ip, peerGroup.fetch(owner, ip));
+        } catch (RuntimeException e) {
+            return ownerError(owner, ip, e);
+        }
+    }
+
+    /**
+     * Ask the owner instance of the ip through the async client
+     *
+     * @param owner url of the owner instance
+     * @param ip    ip string
+     * @return future of the response of the owner, which may be a fail answer, or of null when the owner could not be reached
+     */
+    private CompletableFuture<QueryIpResponseEntity> fetchQueryIpFromOwnerAsync(String owner, String ip) {
+        CompletableFuture<QueryIpResponseEntity> answer;
+        try {
+            answer = peerGroup.fetchAsync(owner, ip);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(ownerError(owner, ip, e));
+        }
+        return answer.handle((queryIpResponseEntity, throwable) ->
+                throwable == null ? ownerAnswer(owner, ip, queryIpResponseEntity) : ownerError(owner, ip, unwrap(throwable)));
+    }
+
+    /**
+     * Ask the owners of the ips owned by peer instances concurrently, the ips the owners answered are put in results
+     *
+     * @param ips     ips missed by the local tiers
+     * @param results result of each ip, null while the ip is not looked up
+     */
+    private void fetchQueryIpsFromOwners(List<String> ips, Map<String, QueryIpBatchResult> results) {
+        Map<String, CompletableFuture<QueryIpResponseEntity>> ownerCalls = new LinkedHashMap<>();
+        for (String ip : ips) {
+            String owner = peerGroup.ownerOf(ip);
+            if (owner != null) {
+                ownerCalls.put(ip, fetchQueryIpFromOwnerAsync(owner, ip));
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<QueryIpResponseEntity>> ownerCall : ownerCalls.entrySet()) {
+            String ip = ownerCall.getKey();
+            QueryIpResponseEntity answer = ownerCall.getValue().join();
+            if (answer != null) {
+                if (!isFailAnswer(answer)) {
+                    ipCache.put(key(ip), compact(ip, answer));
+                }
+                results.put(ip, QueryIpBatchResult.ok(ip, answer));
+            }
+        }
+    }
+
+    private QueryIpResponseEntity ownerAnswer(String owner, String ip, QueryIpResponseEntity queryIpResponseEntity) {
+        metrics.markAnswer(AnswerSource.PEER);
+        LOGGER.debug("IP " + ip + " answered by its owner " + owner);
+        if (isFailAnswer(queryIpResponseEntity)) {
+            negativeCache.put(ip, queryIpResponseEntity);
+        } else {
+            prefixAnswerCache.observe(ip, queryIpResponseEntity);
+        }
+        return queryIpResponseEntity;
+    }
+
+    private QueryIpResponseEntity ownerError(String owner, String ip, Throwable cause) {
+        LOGGER.warn(" failed to fetch the ip:" + ip + " from its owner " + owner + ", looking it up locally", cause);
+        metrics.markPeerError();
+        return null;
+    }
+
+    /**
+     * Answer ip locally, without database or remote api call, if it is in a private or reserved range or in the ip range
+     * index
+     *
+     * @param ip ip string
+     * @return query ip response or null when the ip is not known locally
+     */
+    private QueryIpResponseEntity fetchQueryIpLocally(String ip) {
+        Optional<QueryIpResponseEntity> reservedResponse = ReservedRanges.lookup(ip);
+        if (reservedResponse.isPresent()) {
+            metrics.markAnswer(AnswerSource.RESERVED);
+            LOGGER.debug("IP " + ip + " answered as " + reservedResponse.get().getMessage());
+            return reservedResponse.get();
+        }
+        Optional<QueryIpResponseEntity> rangeIndexResponse = ipRangeIndex.lookup(ip);
+        if (rangeIndexResponse.isPresent()) {
+            metrics.markAnswer(AnswerSource.RANGE_INDEX);
+            LOGGER.debug("IP " + ip + " answered from the ip range index");
+            return rangeIndexResponse.get();
+        }
+        return null;
+    }
+
+    /**
+     * Answer ip from the negative cache
+     *
+     * @param ip ip string
+     * @return fail answer or null when the ip is not in the negative cache
+     * @throws ServiceUnavailableException if the last remote api call for the ip failed
+     */
+    private QueryIpResponseEntity fetchQueryIpFromNegativeCache(String ip) throws ServiceUnavailableException {
+        QueryIpResponseEntity negative = negativeCache.getIfPresent(ip);
+        if (negative != null) {
+            metrics.markAnswer(AnswerSource.NEGATIVE_CACHE);
+        }
+        if (negative != null && ERROR_STATUS.equals(negative.getStatus())) {
+            throw new ServiceUnavailableException(negative.getMessage());
+        }
+        return negative;
+    }
+
+    /**
+     * Keep remote api error in the negative cache so the ip is not fetched again until the negative cache expires
+     *
+     * @param ip    ip string
+     * @param cause remote api error
+     * @return service unavailable exception to throw
+     */
+    private ServiceUnavailableException upstreamError(String ip, Throwable cause) {
+        LOGGER.error(" failed to fetch the ip:" + ip + " from remote api service", cause);
+        metrics.markRemoteError();
+        QueryIpResponseEntity error = new QueryIpResponseEntity();
+        error.setQuery(ip);
+        error.setStatus(ERROR_STATUS);
+        error.setMessage(UPSTREAM_ERROR_MESSAGE + ip);
+        negativeCache.put(ip, error);
+        return new ServiceUnavailableException(error.getMessage());
+    }
+
+    private static boolean isFailAnswer(QueryIpResponseEntity queryIpResponseEntity) {
+        return FAIL_STATUS.equals(queryIpResponseEntity.getStatus());
+    }
+
+    /**
+     * Keep fail answers out of the in-memory cache, they are answered from the negative cache
+     *
+     * @param queryIpResponseEntity loaded query ip response entity
+     * @return query ip response entity if it is not a fail answer
+     * @throws FailAnswerException if it is a fail answer
+     */
+    private static QueryIpResponseEntity rejectFailAnswer(QueryIpResponseEntity queryIpResponseEntity) throws FailAnswerException {
+        if (isFailAnswer(queryIpResponseEntity)) {
+            throw new FailAnswerException(queryIpResponseEntity);
+        }
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * @return cache value of the entity, holding its response bodies so cache hits are not serialized again
+     */
+    private CompactQueryIpResponse compact(String ip, QueryIpResponseEntity queryIpResponseEntity) {
+        return CompactQueryIpResponse.of(ip, queryIpResponseEntity, dictionary).withEncoding(ip, dictionary);
+    }
+
+    /**
+     * @param ip validated ip string
+     * @return in-memory cache key of the ip
+     * @throws IllegalArgumentException if the ip is not a valid IPv4, IPv6 or domain name
+     */
+    private static IpKey key(String ip) {
+        IpKey ipKey = IpAddressParser.toKey(ip);
+        if (ipKey == null) {
+            throw new IllegalArgumentException("not a valid ip " + ip);
+        }
+        return ipKey;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+
+    /**
+     * Fetch IP Query response persisted in the database as a fallback mechanism from cache lookup
+     *
+     * @param ipString ip string
+     * @return query ip response persisted in database
+     */
+    private QueryIpResponseEntity fetchQueryIpFromDatabase(String ipString) {
+        Optional<QueryIpResponseEntity> optionalQueryIpResponseEntity = unitOfWorkRunner.call(() -> queryIpStore.findByIp(ipString));
+        if (optionalQueryIpResponseEntity != null && optionalQueryIpResponseEntity.isPresent()) {
+            metrics.markAnswer(AnswerSource.DATABASE);
+            LOGGER.info(" successfully queried ip : " + ipString + " from database ");
+            prefixAnswerCache.observe(ipString, optionalQueryIpResponseEntity.get());
+            return optionalQueryIpResponseEntity.get();
+        }
+        return null;
+    }
+
+    /**
+     * Fetch IP Query response from the mapped file cache, then from the database. Database hits are stored in the
+     * mapped file cache, so they are answered without database call after a restart. Stale responses of either are
+     * refreshed in the background.
+     *
+     * @param ip ip string
+     * @return query ip response or null when the ip is neither in the mapped file cache nor in the database
+     */
+    private QueryIpResponseEntity fetchQueryIpFromMappedCacheOrDatabase(String ip) {
+        QueryIpResponseEntity queryIpResponseEntity = fetchQueryIpFromMappedCache(ip);
+        if (queryIpResponseEntity == null) {
+            queryIpResponseEntity = fetchQueryIpFromDatabase(ip);
+            if (queryIpResponseEntity != null) {
+                storeInMappedCache(ip, queryIpResponseEntity);
+            }
+        }
+        if (queryIpResponseEntity != null) {
+            revalidateIfStale(ip, queryIpResponseEntity);
+        }
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * Answer an ip no exact tier knows from the answers shared by the hosts of its network prefix. The persisted
+     * responses of a prefix are read through the address index the first time one of its ips misses, so the prefixes
+     * known to the database answer their other hosts without remote api call. Exact answers of the ip are always
+     * looked up first, so an inferred answer never hides one.
+     *
+     * @param ip ip string
+     * @return inferred query ip response or null when the prefix of the ip has no shared answer
+     */
+    private QueryIpResponseEntity fetchQueryIpFromPrefix(String ip) {
+        IpKey ipKey = prefixAnswerCache.isEnabled() ? IpAddressParser.toKey(ip) : null;
+        if (ipKey == null || ipKey.isDomain()) {
+            return null;
+        }
+        if (!prefixAnswerCache.isSeeded(ipKey)) {
+            int prefixLength = prefixAnswerCache.prefixLength(ipKey);
+            List<QueryIpResponseEntity> neighbours = unitOfWorkRunner.call(() -> queryIpStore.findByAddressRange(ipKey.firstInPrefix(prefixLength),
+                    ipKey.lastInPrefix(prefixLength), PrefixAnswerCache.MAX_HOSTS_PER_PREFIX));
+            prefixAnswerCache.seed(ipKey, neighbours);
+        }
+        Optional<QueryIpResponseEntity> prefixResponse = prefixAnswerCache.lookup(ip);
+        if (prefixResponse.isEmpty()) {
+            return null;
+        }
+        metrics.markAnswer(AnswerSource.PREFIX);
+        LOGGER.debug("IP " + ip + " answered from the answers of its network prefix");
+        return prefixResponse.get();
+    }
+
+    /**
+     * @param ip ip string
+     * @return query ip response or null when the ip is not in the mapped file cache
+     */
+    private QueryIpResponseEntity fetchQueryIpFromMappedCache(String ip) {
+        if (!mappedFileCache.isEnabled()) {
+            return null;
+        }
+        String key = mappedCacheKey(ip);
+        byte[] bytes = mappedFileCache.get(key);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            QueryIpResponseEntity queryIpResponseEntity = QueryIpResponseCodec.decode(bytes);
+            // the cached entry may have been stored for another textual form of the same address
+            queryIpResponseEntity.setQuery(ip);
+            metrics.markAnswer(AnswerSource.MAPPED_CACHE);
+            LOGGER.debug("IP " + ip + " answered from the mapped file cache");
+            prefixAnswerCache.observe(ip, queryIpResponseEntity);
+            return queryIpResponseEntity;
+        } catch (IOException e) {
+            LOGGER.warn("discarding undecodable mapped file cache entry of ip " + ip, e);
+            mappedFileCache.remove(key);
+            return null;
+        }
+    }
+
+    private void storeInMappedCache(String ip, QueryIpResponseEntity queryIpResponseEntity) {
+        if (mappedFileCache.isEnabled() && !mappedFileCache.put(mappedCacheKey(ip), QueryIpResponseCodec.encode(queryIpResponseEntity))) {
+            LOGGER.debug("IP " + ip + " response does not fit in a mapped file cache slot");
+        }
+    }
+
+    /**
+     * @param ip ip string
+     * @return canonical text of an IPv4 or IPv6 literal or domain name, lower case text of an invalid ip
+     */
+    public static String mappedCacheKey(String ip) {
+        String canonicalIp = IpAddressParser.canonicalize(ip);
+        return canonicalIp != null ? canonicalIp : ip.toLowerCase();
+    }
+
+    /**
+     * Persist the remote api response in the database, fail answers are kept in the negative cache instead
+     *
+     * @param ip                    ip string
+     * @param queryIpResponseEntity remote api response
+     * @return persisted query ip response entity or unpersisted fail answer
+     */
+    private QueryIpResponseEntity persistUnlessFailAnswer(String ip, QueryIpResponseEntity queryIpResponseEntity) {
+        metrics.markAnswer(AnswerSource.REMOTE);
+        if (isFailAnswer(queryIpResponseEntity)) {
+            LOGGER.info("IP " + ip + " answered as fail by remote api, caching it in negative cache");
+            negativeCache.put(ip, queryIpResponseEntity);
+            return queryIpResponseEntity;
+        }
+        queryIpResponseEntity.setPersisted("true");
+        long now = System.currentTimeMillis();
+        queryIpResponseEntity.setFetchedAt(now);
+        queryIpResponseEntity.setLastAccessedAt(now);
+        queryIpResponseWriter.write(queryIpResponseEntity);
+        storeInMappedCache(ip, queryIpResponseEntity);
+        prefixAnswerCache.observe(ip, queryIpResponseEntity);
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * Collaborators and settings of a {@link QueryIpLookupService}. Optional tiers default to their disabled form: no
+     * range index, mapped file cache, peers, access tracking or prefix sharing, database work on the caller thread,
+     * responses written in the request's unit of work and persisted responses that never go stale.
+     */
+    public static final class Builder {
+
+        private final UpstreamBatcher upstreamBatcher;
+        private final LookupCacheSpec cacheSpec;
+        private final QueryIpStore queryIpStore;
+        private IpRangeIndex ipRangeIndex = IpRangeIndex.empty();
+        private MappedFileCache mappedFileCache = MappedFileCache.disabled();
+        private UnitOfWorkRunner unitOfWorkRunner = UnitOfWorkRunner.direct();
+        // null writes directly through the unit of work runner
+        private QueryIpResponseWriter queryIpResponseWriter;
+        private Executor loaderExecutor = ForkJoinPool.commonPool();
+        private int negativeCacheExpireInSeconds = DEFAULT_NEGATIVE_CACHE_EXPIRE_IN_SECONDS;
+        private int negativeCacheMaxSize = DEFAULT_NEGATIVE_CACHE_MAX_SIZE;
+        private MetricRegistry metricRegistry = new MetricRegistry();
+        private PeerGroup peerGroup = PeerGroup.standalone();
+        private int persistedMaxAgeInSeconds;
+        private QueryIpAccessTracker accessTracker = QueryIpAccessTracker.disabled();
+        private PrefixAnswerCache prefixAnswerCache = PrefixAnswerCache.disabled();
+
+        private Builder(UpstreamBatcher upstreamBatcher, LookupCacheSpec cacheSpec, QueryIpStore queryIpStore) {
+            this.upstreamBatcher = upstreamBatcher;
+            this.cacheSpec = cacheSpec;
+            this.queryIpStore = queryIpStore;
+        }
+
+        public Builder ipRangeIndex(IpRangeIndex ipRangeIndex) {
+            this.ipRangeIndex = ipRangeIndex;
+            return this;
+        }
+
+        public Builder mappedFileCache(MappedFileCache mappedFileCache) {
+            this.mappedFileCache = mappedFileCache;
+            return this;
+        }
+
+        /**
+         * @param unitOfWorkRunner opens a unit of work for database work off the request thread
+         */
+        public Builder unitOfWorkRunner(UnitOfWorkRunner unitOfWorkRunner) {
+            this.unitOfWorkRunner = unitOfWorkRunner;
+            return this;
+        }
+
+        /**
+         * @param queryIpResponseWriter writer of the remote api responses, direct or write-behind
+         */
+        public Builder queryIpResponseWriter(QueryIpResponseWriter queryIpResponseWriter) {
+            this.queryIpResponseWriter = queryIpResponseWriter;
+            return this;
+        }
+
+        /**
+         * @param loaderExecutor executor of the database work of async loads and of cache refreshes
+         */
+        public Builder loaderExecutor(Executor loaderExecutor) {
+            this.loaderExecutor = loaderExecutor;
+            return this;
+        }
+
+        /**
+         * @param expireInSeconds time fail answers and errors of the remote api are kept
+         * @param maxSize         max number of fail answers and errors kept
+         */
+        public Builder negativeCache(int expireInSeconds, int maxSize) {
+            this.negativeCacheExpireInSeconds = expireInSeconds;
+            this.negativeCacheMaxSize = maxSize;
+            return this;
+        }
+
+        public Builder metricRegistry(MetricRegistry metricRegistry) {
+            this.metricRegistry = metricRegistry;
+            return this;
+        }
+
+        public Builder peerGroup(PeerGroup peerGroup) {
+            this.peerGroup = peerGroup;
+            return this;
+        }
+
+        /**
+         * @param persistedMaxAgeInSeconds age after which a persisted response is re-fetched, 0 when persisted responses never go stale
+         */
+        public Builder persistedMaxAgeInSeconds(int persistedMaxAgeInSeconds) {
+            this.persistedMaxAgeInSeconds = persistedMaxAgeInSeconds;
+            return this;
+        }
+
+        public Builder accessTracker(QueryIpAccessTracker accessTracker) {
+            this.accessTracker = accessTracker;
+            return this;
+        }
+
+        public Builder prefixAnswerCache(PrefixAnswerCache prefixAnswerCache) {
+            this.prefixAnswerCache = prefixAnswerCache;
+            return this;
+        }
+
+        public QueryIpLookupService build() {
+            return new QueryIpLookupService(this);
+        }
+    }
+
+    /**
+     * Fail answer of the remote api thrown out of the cache loader, so it is not kept in the in-memory cache
+     */
+    private static class FailAnswerException extends RuntimeException {
+
+        private final QueryIpResponseEntity queryIpResponseEntity;
+
+        FailAnswerException(QueryIpResponseEntity queryIpResponseEntity) {
+            super(queryIpResponseEntity.getMessage(), null, false, false);
+            this.queryIpResponseEntity = queryIpResponseEntity;
+        }
+    }
+}
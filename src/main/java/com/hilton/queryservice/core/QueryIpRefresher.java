@@ -0,0 +1,141 @@
+package com.hilton.queryservice.core;
+
+import com.hilton.queryservice.db.QueryIpStore;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refreshes the persisted responses that went stale in the background, so ips that are not looked up do not keep
+ * their remote api answer forever. Every intervalInSeconds a round scans the store for rows fetched more than
+ * maxAgeInSeconds ago in keyset-paginated chunks of chunkSize, in query order, and refreshes each chunk through
+ * {@link QueryIpLookupService#refresh(List)}, which re-fetches it under the remote api rate limit and updates it in
+ * place. A round ends after maxPerRound rows, at the last stale row, or at a chunk of which no row could be refreshed,
+ * as the remote api is then failing or out of quota. The next round starts over; rows refreshed meanwhile are no
+ * longer stale.
+ */
+public class QueryIpRefresher implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIpRefresher.class);
+
+    private static final long STOP_TIMEOUT_IN_SECONDS = 30;
+
+    private final QueryIpStore queryIpStore;
+    private final UnitOfWorkRunner unitOfWorkRunner;
+    private final QueryIpLookupService queryIpLookupService;
+    private final long maxAgeInMillis;
+    private final int intervalInSeconds;
+    private final int chunkSize;
+    private final int maxPerRound;
+
+    private final AtomicLong refreshedCount = new AtomicLong();
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean stopped;
+
+    /**
+     * @param queryIpStore         store scanned for stale rows
+     * @param unitOfWorkRunner     runner opening a session for each scanned chunk
+     * @param queryIpLookupService service re-fetching and updating the rows
+     * @param maxAgeInSeconds      age after which a row is stale
+     * @param intervalInSeconds    delay between the end of a round and the start of the next
+     * @param chunkSize            number of rows read and refreshed at once
+     * @param maxPerRound          max number of rows refreshed by a round
+     */
+    public QueryIpRefresher(QueryIpStore queryIpStore, UnitOfWorkRunner unitOfWorkRunner, QueryIpLookupService queryIpLookupService,
+                            int maxAgeInSeconds, int intervalInSeconds, int chunkSize, int maxPerRound) {
+        this.queryIpStore = queryIpStore;
+        this.unitOfWorkRunner = unitOfWorkRunner;
+        this.queryIpLookupService = queryIpLookupService;
+        this.maxAgeInMillis = TimeUnit.SECONDS.toMillis(maxAgeInSeconds);
+        this.intervalInSeconds = intervalInSeconds;
+        this.chunkSize = chunkSize;
+        this.maxPerRound = maxPerRound;
+    }
+
+    /**
+     * Start the refresher thread, the first round runs one interval after startup
+     */
+    @Override
+    public void start() {
+        stopped = false;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-ip-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runRound, intervalInSeconds, intervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop after the chunk being refreshed
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService scheduledExecutorService = scheduler;
+        if (scheduledExecutorService == null) {
+            return;
+        }
+        stopped = true;
+        scheduler = null;
+        scheduledExecutorService.shutdown();
+        if (!scheduledExecutorService.awaitTermination(STOP_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+            LOGGER.error("query ip refresher stopped while refreshing a chunk");
+        }
+    }
+
+    private void runRound() {
+        try {
+            refreshStale();
+        } catch (RuntimeException e) {
+            // a scheduled task that throws is not run again
+            LOGGER.error("stale row refresh failed after refreshing " + refreshedCount.get() + " rows in total", e);
+        }
+    }
+
+    /**
+     * Run one round of refreshes on the caller thread
+     *
+     * @return number of rows refreshed
+     */
+    int refreshStale() {
+        long fetchedBefore = System.currentTimeMillis() - maxAgeInMillis;
+        String afterQuery = "";
+        int scanned = 0;
+        int refreshed = 0;
+        while (!stopped && scanned < maxPerRound) {
+            String after = afterQuery;
+            int limit = Math.min(chunkSize, maxPerRound - scanned);
+            List<QueryIpResponseEntity> chunk = unitOfWorkRunner.call(() -> queryIpStore.findStale(fetchedBefore, after, limit));
+            if (chunk.isEmpty()) {
+                break;
+            }
+            scanned += chunk.size();
+            afterQuery = chunk.get(chunk.size() - 1).getQuery();
+            int chunkRefreshed = queryIpLookupService.refresh(chunk).join();
+            refreshed += chunkRefreshed;
+            if (chunkRefreshed == 0) {
+                LOGGER.warn("no row of a chunk of " + chunk.size() + " stale rows could be refreshed, resuming next round");
+                break;
+            }
+        }
+        refreshedCount.addAndGet(refreshed);
+        if (scanned > 0) {
+            LOGGER.info("refreshed " + refreshed + " of " + scanned + " stale rows");
+        }
+        return refreshed;
+    }
+
+    /**
+     * @return number of rows refreshed since startup
+     */
+    public long getRefreshedCount() {
+        return refreshedCount.get();
+    }
+}
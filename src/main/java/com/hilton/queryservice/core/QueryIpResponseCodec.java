@@ -0,0 +1,103 @@
+package com.hilton.queryservice.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Compact binary form of {@link QueryIpResponseEntity} for the mapped file cache. Strings are written as a presence
+ * flag followed by modified UTF-8, lat and lon as doubles, in field declaration order after a format version byte.
+ * Format 2 appends fetchedAt as a presence flag and a long; format 1 bytes are still read, without fetchedAt.
+ */
+public final class QueryIpResponseCodec {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final int FORMAT_VERSION_WITHOUT_FETCHED_AT = 1;
+
+    private QueryIpResponseCodec() {
+    }
+
+    /**
+     * @param queryIpResponseEntity query ip response entity
+     * @return serialized entity
+     */
+    public static byte[] encode(QueryIpResponseEntity queryIpResponseEntity) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            writeString(out, queryIpResponseEntity.getQuery());
+            writeString(out, queryIpResponseEntity.getStatus());
+            writeString(out, queryIpResponseEntity.getCountry());
+            writeString(out, queryIpResponseEntity.getCountryCode());
+            writeString(out, queryIpResponseEntity.getRegion());
+            writeString(out, queryIpResponseEntity.getRegionName());
+            writeString(out, queryIpResponseEntity.getCity());
+            writeString(out, queryIpResponseEntity.getZip());
+            out.writeDouble(queryIpResponseEntity.getLat());
+            out.writeDouble(queryIpResponseEntity.getLon());
+            writeString(out, queryIpResponseEntity.getTimezone());
+            writeString(out, queryIpResponseEntity.getIsp());
+            writeString(out, queryIpResponseEntity.getOrg());
+            writeString(out, queryIpResponseEntity.getAs());
+            writeString(out, queryIpResponseEntity.getPersisted());
+            writeString(out, queryIpResponseEntity.getMessage());
+            out.writeBoolean(queryIpResponseEntity.getFetchedAt() != null);
+            if (queryIpResponseEntity.getFetchedAt() != null) {
+                out.writeLong(queryIpResponseEntity.getFetchedAt());
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes serialized entity
+     * @return query ip response entity
+     * @throws IOException if the bytes are truncated or of another format version
+     */
+    public static QueryIpResponseEntity decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int formatVersion = in.readUnsignedByte();
+            if (formatVersion != FORMAT_VERSION && formatVersion != FORMAT_VERSION_WITHOUT_FETCHED_AT) {
+                throw new IOException("unsupported query ip response format version " + formatVersion);
+            }
+            QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+            queryIpResponseEntity.setQuery(readString(in));
+            queryIpResponseEntity.setStatus(readString(in));
+            queryIpResponseEntity.setCountry(readString(in));
+            queryIpResponseEntity.setCountryCode(readString(in));
+            queryIpResponseEntity.setRegion(readString(in));
+            queryIpResponseEntity.setRegionName(readString(in));
+            queryIpResponseEntity.setCity(readString(in));
+            queryIpResponseEntity.setZip(readString(in));
+            queryIpResponseEntity.setLat(in.readDouble());
+            queryIpResponseEntity.setLon(in.readDouble());
+            queryIpResponseEntity.setTimezone(readString(in));
+            queryIpResponseEntity.setIsp(readString(in));
+            queryIpResponseEntity.setOrg(readString(in));
+            queryIpResponseEntity.setAs(readString(in));
+            queryIpResponseEntity.setPersisted(readString(in));
+            queryIpResponseEntity.setMessage(readString(in));
+            if (formatVersion == FORMAT_VERSION && in.readBoolean()) {
+                queryIpResponseEntity.setFetchedAt(in.readLong());
+            }
+            return queryIpResponseEntity;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -1,10 +1,18 @@
 package com.hilton.queryservice.core;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import java.io.Serializable;
 import java.util.Objects;
 
@@ -12,12 +20,28 @@ import java.util.Objects;
  * Query ip response entity table mapped to ipquerytable in database
  */
 @Entity
-@Table(name = "ipquerytable")
-@NamedQuery(name = "com.hilton.queryservice.core.QueryIpResponseEntity.findByQuery", query = "SELECT p from QueryIpResponseEntity p where p.query = :ipQuery")
+@Table(name = "ipquerytable", indexes = @Index(name = "idx_ipquerytable_address", columnList = "address"))
+@NamedQueries({
+        @NamedQuery(name = "com.hilton.queryservice.core.QueryIpResponseEntity.findByQuery", query = "SELECT p from QueryIpResponseEntity p where p.query = :ipQuery"),
+        @NamedQuery(name = "com.hilton.queryservice.core.QueryIpResponseEntity.findByQueries", query = "SELECT p from QueryIpResponseEntity p where p.query in (:ipQueries)"),
+        @NamedQuery(name = "com.hilton.queryservice.core.QueryIpResponseEntity.findByAddressRange", query = "SELECT p from QueryIpResponseEntity p where p.address between :firstAddress and :lastAddress order by p.address"),
+        @NamedQuery(name = "com.hilton.queryservice.core.QueryIpResponseEntity.findStale", query = "SELECT p from QueryIpResponseEntity p where (p.fetchedAt is null or p.fetchedAt < :fetchedBefore) and p.query > :afterQuery order by p.query"),
+        @NamedQuery(name = "com.hilton.queryservice.core.QueryIpResponseEntity.findCold", query = "SELECT p.query from QueryIpResponseEntity p where p.lastAccessedAt < :accessedBefore and p.query > :afterQuery order by p.query")
+})
 public class QueryIpResponseEntity implements Serializable {
 
     public static String FIND_BY_QUERY_IP = "com.hilton.queryservice.core.QueryIpResponseEntity.findByQuery";
+    public static String FIND_BY_QUERY_IPS = "com.hilton.queryservice.core.QueryIpResponseEntity.findByQueries";
     public static String IP_QUERY = "ipQuery";
+    public static String IP_QUERIES = "ipQueries";
+    public static String FIND_BY_ADDRESS_RANGE = "com.hilton.queryservice.core.QueryIpResponseEntity.findByAddressRange";
+    public static String FIRST_ADDRESS = "firstAddress";
+    public static String LAST_ADDRESS = "lastAddress";
+    public static String FIND_STALE = "com.hilton.queryservice.core.QueryIpResponseEntity.findStale";
+    public static String FETCHED_BEFORE = "fetchedBefore";
+    public static String AFTER_QUERY = "afterQuery";
+    public static String FIND_COLD = "com.hilton.queryservice.core.QueryIpResponseEntity.findCold";
+    public static String ACCESSED_BEFORE = "accessedBefore";
     private String query;
     private String status;
     private String country;
@@ -33,6 +57,11 @@ public class QueryIpResponseEntity implements Serializable {
     private String org;
     private String as;
     private String persisted;
+    private String message;
+    private byte[] address;
+    private Long fetchedAt;
+    private Long lastAccessedAt;
+    private Boolean inferred;
 
     public QueryIpResponseEntity() {
     }
@@ -159,6 +188,79 @@ public class QueryIpResponseEntity implements Serializable {
         this.persisted = persisted;
     }
 
+    /**
+     * @return reason of a fail status as answered by the remote api, such as private range, not persisted
+     */
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return 16 byte numeric address of the query, null for a domain name, derived from the query when persisted
+     */
+    @Column(name = "address", columnDefinition = "BINARY(16)")
+    @JsonIgnore
+    public byte[] getAddress() {
+        return address;
+    }
+
+    public void setAddress(byte[] address) {
+        this.address = address;
+    }
+
+    /**
+     * @return epoch millis of the remote api answer, null for rows persisted before it was tracked
+     */
+    @Column(name = "fetchedAt")
+    @JsonIgnore
+    public Long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public void setFetchedAt(Long fetchedAt) {
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * @return epoch millis of the last lookup of the row, recorded in batches, null when unknown
+     */
+    @Column(name = "lastAccessedAt")
+    @JsonIgnore
+    public Long getLastAccessedAt() {
+        return lastAccessedAt;
+    }
+
+    public void setLastAccessedAt(Long lastAccessedAt) {
+        this.lastAccessedAt = lastAccessedAt;
+    }
+
+    /**
+     * @return true for an answer inferred from the answers of other hosts of the network prefix of the query, null for
+     * the exact answer of the query, not persisted
+     */
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Boolean getInferred() {
+        return inferred;
+    }
+
+    public void setInferred(Boolean inferred) {
+        this.inferred = inferred;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void fillAddress() {
+        IpKey ipKey = IpAddressParser.toKey(query);
+        address = ipKey == null ? null : ipKey.toBytes();
+    }
+
     public static QueryIpResponseEntity copyValuesFrom(QueryIpResponseEntity queryIpResponseEntity) {
         QueryIpResponseEntity newObject = new QueryIpResponseEntity();
         newObject.setQuery(queryIpResponseEntity.getQuery());
@@ -176,6 +278,10 @@ public class QueryIpResponseEntity implements Serializable {
         newObject.setOrg(queryIpResponseEntity.getOrg());
         newObject.setAs(queryIpResponseEntity.getAs());
         newObject.setPersisted(queryIpResponseEntity.getPersisted());
+        newObject.setMessage(queryIpResponseEntity.getMessage());
+        newObject.setFetchedAt(queryIpResponseEntity.getFetchedAt());
+        newObject.setLastAccessedAt(queryIpResponseEntity.getLastAccessedAt());
+        newObject.setInferred(queryIpResponseEntity.getInferred());
         return newObject;
     }
 
@@ -184,11 +290,11 @@ public class QueryIpResponseEntity implements Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         QueryIpResponseEntity that = (QueryIpResponseEntity) o;
-        return Double.compare(that.lat, lat) == 0 && Double.compare(that.lon, lon) == 0 && query.equals(that.query) && Objects.equals(status, that.status) && Objects.equals(country, that.country) && Objects.equals(countryCode, that.countryCode) && Objects.equals(region, that.region) && Objects.equals(regionName, that.regionName) && Objects.equals(city, that.city) && Objects.equals(zip, that.zip) && Objects.equals(timezone, that.timezone) && Objects.equals(isp, that.isp) && Objects.equals(org, that.org) && Objects.equals(as, that.as) && Objects.equals(persisted, that.persisted);
+        return Double.compare(that.lat, lat) == 0 && Double.compare(that.lon, lon) == 0 && query.equals(that.query) && Objects.equals(status, that.status) && Objects.equals(country, that.country) && Objects.equals(countryCode, that.countryCode) && Objects.equals(region, that.region) && Objects.equals(regionName, that.regionName) && Objects.equals(city, that.city) && Objects.equals(zip, that.zip) && Objects.equals(timezone, that.timezone) && Objects.equals(isp, that.isp) && Objects.equals(org, that.org) && Objects.equals(as, that.as) && Objects.equals(persisted, that.persisted) && Objects.equals(message, that.message) && Objects.equals(inferred, that.inferred);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(query, status, country, countryCode, region, regionName, city, zip, lat, lon, timezone, isp, org, as, persisted);
+        return Objects.hash(query, status, country, countryCode, region, regionName, city, zip, lat, lon, timezone, isp, org, as, persisted, message, inferred);
     }
 }
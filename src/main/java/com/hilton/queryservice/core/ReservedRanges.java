@@ -0,0 +1,57 @@
+package com.hilton.queryservice.core;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Optional;
+
+/**
+ * Private and reserved address ranges answered locally, the way the remote api answers them, without a database
+ * or remote api call:
+ * private range: RFC1918 10/8, 172.16/12, 192.168/16 and unique local fc00::/7
+ * reserved range: loopback 127/8, ::1, link-local 169.254/16, fe80::/10 and unspecified 0.0.0.0, ::
+ */
+public final class ReservedRanges {
+
+    public static final String PRIVATE_RANGE_MESSAGE = "private range";
+    public static final String RESERVED_RANGE_MESSAGE = "reserved range";
+
+    private ReservedRanges() {
+    }
+
+    /**
+     * Lookup an IPv4 or IPv6 literal in the private and reserved ranges. Domain names are never resolved and always miss.
+     *
+     * @param ip ip literal
+     * @return Optional of the fail response for a private or reserved ip
+     */
+    public static Optional<QueryIpResponseEntity> lookup(String ip) {
+        if (!IpAddressParser.isIpLiteral(ip)) {
+            return Optional.empty();
+        }
+        InetAddress address;
+        try {
+            // literals are parsed in place by InetAddress, no name service lookup happens here
+            address = InetAddress.getByName(ip);
+        } catch (UnknownHostException e) {
+            return Optional.empty();
+        }
+        String message = null;
+        if (address.isSiteLocalAddress() || isUniqueLocal(address.getAddress())) {
+            message = PRIVATE_RANGE_MESSAGE;
+        } else if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isAnyLocalAddress()) {
+            message = RESERVED_RANGE_MESSAGE;
+        }
+        if (message == null) {
+            return Optional.empty();
+        }
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery(ip);
+        queryIpResponseEntity.setStatus(QueryIpLookupService.FAIL_STATUS);
+        queryIpResponseEntity.setMessage(message);
+        return Optional.of(queryIpResponseEntity);
+    }
+
+    private static boolean isUniqueLocal(byte[] address) {
+        return address.length == 16 && (address[0] & 0xfe) == 0xfc;
+    }
+}
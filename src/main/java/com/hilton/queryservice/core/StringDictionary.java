@@ -0,0 +1,72 @@
+package com.hilton.queryservice.core;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe dictionary of strings to small int ids, so a string repeated across many cache values, such as a
+ * country, timezone or isp, is held once. Ids are assigned in order of first use and never reused, lookups by id
+ * are a lock-free array read.
+ * <p>
+ * The dictionary only grows. It is meant for values taken from a bounded set, such as locations and networks of
+ * the remote api, not for keys.
+ */
+public final class StringDictionary {
+
+    public static final int NULL_ID = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // strings by id, replaced by a larger copy when full
+    private volatile String[] strings = new String[INITIAL_CAPACITY];
+
+    // guarded by this
+    private int size;
+
+    /**
+     * @param value string or null
+     * @return id of the string, assigned on first use, or NULL_ID for null
+     */
+    public int idOf(String value) {
+        if (value == null) {
+            return NULL_ID;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            String[] current = strings;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = value;
+            // the string is stored before its id is published through the map or the volatile array
+            strings = current;
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @param id id returned by {@link #idOf(String)}
+     * @return string of the id, null for NULL_ID
+     */
+    public String valueOf(int id) {
+        return id == NULL_ID ? null : strings[id];
+    }
+
+    /**
+     * @return number of distinct strings
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
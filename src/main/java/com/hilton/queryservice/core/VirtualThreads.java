@@ -0,0 +1,122 @@
+package com.hilton.queryservice.core;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads of the running JDK, looked up reflectively as the service is built for Java 11. On a JDK with
+ * virtual threads, blocking database and remote api calls park their virtual thread instead of holding a platform
+ * thread, so the number of concurrent lookups is bounded by the connection pools rather than the thread pools.
+ * On an older JDK, or a JDK where they are a preview feature that is not enabled, they are not available.
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+    private static final Method NAME = method(className("java.lang.Thread$Builder"), "name", String.class, long.class);
+    private static final Method FACTORY = method(className("java.lang.Thread$Builder"), "factory");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private static final boolean AVAILABLE = probe();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true when the JDK starts virtual threads
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @param namePrefix prefix of the thread names, followed by a counter
+     * @return executor starting a new virtual thread for each task
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        if (!AVAILABLE) {
+            throw new UnsupportedOperationException("virtual threads are not available on java " + System.getProperty("java.version"));
+        }
+        return (ExecutorService) invoke(NEW_THREAD_PER_TASK_EXECUTOR, null, factory(namePrefix));
+    }
+
+    /**
+     * Make a Jetty thread pool run blocking request handling on virtual threads, through the setter of the Jetty
+     * version in use, before the pool is started
+     *
+     * @param threadPool server thread pool, a QueuedThreadPool
+     * @param executor   virtual thread executor
+     * @return true when the thread pool uses the executor
+     */
+    public static boolean useFor(ThreadPool threadPool, Executor executor) {
+        Method setVirtualThreadsExecutor = method(threadPool.getClass(), "setVirtualThreadsExecutor", Executor.class);
+        if (setVirtualThreadsExecutor != null) {
+            invoke(setVirtualThreadsExecutor, threadPool, executor);
+            return true;
+        }
+        // jetty 10.0 before the executor setter starts its own virtual threads
+        Method setUseVirtualThreads = method(threadPool.getClass(), "setUseVirtualThreads", boolean.class);
+        if (setUseVirtualThreads != null) {
+            invoke(setUseVirtualThreads, threadPool, true);
+            return true;
+        }
+        return false;
+    }
+
+    private static ThreadFactory factory(String namePrefix) {
+        Object builder = invoke(NAME, invoke(OF_VIRTUAL, null), namePrefix, 0L);
+        return (ThreadFactory) invoke(FACTORY, builder);
+    }
+
+    private static boolean probe() {
+        if (OF_VIRTUAL == null || NAME == null || FACTORY == null || NEW_THREAD_PER_TASK_EXECUTOR == null) {
+            return false;
+        }
+        try {
+            factory("probe-");
+            return true;
+        } catch (UnsupportedOperationException e) {
+            // preview feature of java 19 and 20 without --enable-preview
+            return false;
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static Class<?> className(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (type == null) {
+            return null;
+        }
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.hilton.queryservice.db;
+
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpKey;
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Liquibase change filling the address column of the rows of ipquerytable persisted before the column was added.
+ * The address is derived from the query with {@link IpAddressParser}, rows of domain names and of queries that
+ * are not valid ips keep a null address.
+ */
+public class AddressBackfillChange implements CustomTaskChange {
+
+    private static final String SELECT_QUERIES = "SELECT id, query FROM ipquerytable WHERE address IS NULL";
+    private static final String UPDATE_ADDRESS = "UPDATE ipquerytable SET address = ? WHERE id = ?";
+    private static final int BATCH_SIZE = 500;
+
+    private int updatedRows;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try (Statement select = connection.createStatement();
+             ResultSet rows = select.executeQuery(SELECT_QUERIES);
+             PreparedStatement update = connection.prepareStatement(UPDATE_ADDRESS)) {
+            int batched = 0;
+            while (rows.next()) {
+                IpKey ipKey = IpAddressParser.toKey(rows.getString(2));
+                if (ipKey == null || ipKey.isDomain()) {
+                    continue;
+                }
+                update.setBytes(1, ipKey.toBytes());
+                update.setLong(2, rows.getLong(1));
+                update.addBatch();
+                updatedRows++;
+                if (++batched == BATCH_SIZE) {
+                    update.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                update.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new CustomChangeException("failed to fill address column of ipquerytable", e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "filled address column of " + updatedRows + " rows of ipquerytable";
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+}
@@ -0,0 +1,195 @@
+package com.hilton.queryservice.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hilton.queryservice.core.IpKey;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import org.hibernate.JDBCException;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Read-only fast path of {@link QueryIpResponseDAO}: findByIp and findByIps run plain JDBC statements on a connection
+ * of the pooled data source and map the rows straight into entities, without a hibernate session, persistence context
+ * or dirty-checking snapshot, so they need no unit of work, and so does findByAddressRange of the prefix neighbours.
+ * Writes and streaming are inherited and still go through hibernate. The statements are constants and IN lists are padded to a few sizes, so the prepared
+ * statement cache of the pool or the driver, such as cachePrepStmts of MySQL Connector/J, holds every statement.
+ */
+public class JdbcQueryIpResponseDAO extends QueryIpResponseDAO {
+
+    private static final String COLUMNS = "query, status, country, countryCode, region, regionName, city, zip, lat, lon, timezone, isp, org, asColumn, persisted, address, fetchedAt, lastAccessedAt";
+    static final String FIND_BY_IP = "SELECT " + COLUMNS + " FROM ipquerytable WHERE query = ?";
+    private static final String FIND_BY_IPS = "SELECT " + COLUMNS + " FROM ipquerytable WHERE query IN (";
+    static final String FIND_BY_ADDRESS_RANGE = "SELECT " + COLUMNS + " FROM ipquerytable WHERE address BETWEEN ? AND ? ORDER BY address LIMIT ?";
+
+    // largest IN list, larger batches are read with several statements; smaller lists are padded to a power of two
+    static final int MAX_IN_LIST_SIZE = 256;
+
+    private final DataSource dataSource;
+
+    /**
+     * @param sessionFactory session factory of the inherited writes
+     * @param dataSource     pooled data source of the reads, the one of the session factory
+     * @param metricRegistry registry of the DAO timers, reads are timed by the inherited find-by-ip and find-by-ips timers
+     */
+    public JdbcQueryIpResponseDAO(SessionFactory sessionFactory, DataSource dataSource, MetricRegistry metricRegistry) {
+        super(sessionFactory, metricRegistry);
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param sessionFactory session factory built on a pooled data source, such as by the hibernate bundle
+     * @return data source of the session factory's connections
+     * @throws IllegalArgumentException if the connections of the session factory do not come from a data source
+     */
+    public static DataSource dataSourceOf(SessionFactory sessionFactory) {
+        ConnectionProvider connectionProvider = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry().getService(ConnectionProvider.class);
+        if (connectionProvider == null || !connectionProvider.isUnwrappableAs(DataSource.class)) {
+            throw new IllegalArgumentException("connections of session factory " + sessionFactory + " do not come from a data source");
+        }
+        return connectionProvider.unwrap(DataSource.class);
+    }
+
+    /**
+     * Find entity by ip with a primary key lookup, outside of any session
+     * @param ip canonical ip string
+     * @return Optional of Query Ip Response entity
+     */
+    @Override
+    public Optional<QueryIpResponseEntity> findByIp(String ip) {
+        try (Timer.Context ignored = findByIpTimer.time();
+             Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(FIND_BY_IP)) {
+            statement.setString(1, ip);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Optional.of(toEntity(resultSet)) : Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new JDBCException("failed to find ip " + ip, e);
+        }
+    }
+
+    /**
+     * Find entities for a batch of ips with IN (...) queries of at most {@value #MAX_IN_LIST_SIZE} ips, outside of
+     * any session
+     * @param ips distinct ip strings
+     * @return entities found in the database, ips not persisted are absent from the list
+     */
+    @Override
+    public List<QueryIpResponseEntity> findByIps(Collection<String> ips) {
+        if (ips.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<QueryIpResponseEntity> found = new ArrayList<>(ips.size());
+        try (Timer.Context ignored = findByIpsTimer.time();
+             Connection connection = dataSource.getConnection()) {
+            Iterator<String> iterator = ips.iterator();
+            int remaining = ips.size();
+            while (remaining > 0) {
+                int size = inListSize(remaining);
+                try (PreparedStatement statement = connection.prepareStatement(findByIpsStatement(size))) {
+                    String ip = null;
+                    for (int i = 1; i <= size; i++) {
+                        // a short list repeats its last ip up to the padded size
+                        if (iterator.hasNext() && i <= remaining) {
+                            ip = iterator.next();
+                        }
+                        statement.setString(i, ip);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            found.add(toEntity(resultSet));
+                        }
+                    }
+                }
+                remaining -= Math.min(remaining, size);
+            }
+            return found;
+        } catch (SQLException e) {
+            throw new JDBCException("failed to find " + ips.size() + " ips", e);
+        }
+    }
+
+    /**
+     * Find entities of the addresses from first to last through the index of the address column, outside of any session
+     * @param first first address of the range
+     * @param last last address of the range
+     * @param maxResults max number of entities
+     * @return entities in address order
+     */
+    @Override
+    public List<QueryIpResponseEntity> findByAddressRange(IpKey first, IpKey last, int maxResults) {
+        List<QueryIpResponseEntity> found = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(FIND_BY_ADDRESS_RANGE)) {
+            statement.setBytes(1, first.toBytes());
+            statement.setBytes(2, last.toBytes());
+            statement.setInt(3, maxResults);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    found.add(toEntity(resultSet));
+                }
+            }
+            return found;
+        } catch (SQLException e) {
+            throw new JDBCException("failed to find addresses from " + first + " to " + last, e);
+        }
+    }
+
+    /**
+     * @param remaining number of ips left to read
+     * @return number of parameters of the next IN list, a power of two of at most {@value #MAX_IN_LIST_SIZE}
+     */
+    static int inListSize(int remaining) {
+        if (remaining >= MAX_IN_LIST_SIZE) {
+            return MAX_IN_LIST_SIZE;
+        }
+        return Integer.highestOneBit(remaining) == remaining ? remaining : Integer.highestOneBit(remaining) << 1;
+    }
+
+    static String findByIpsStatement(int size) {
+        StringBuilder statement = new StringBuilder(FIND_BY_IPS.length() + 3 * size).append(FIND_BY_IPS);
+        for (int i = 0; i < size; i++) {
+            statement.append(i == 0 ? "?" : ", ?");
+        }
+        return statement.append(')').toString();
+    }
+
+    private static QueryIpResponseEntity toEntity(ResultSet resultSet) throws SQLException {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery(resultSet.getString(1));
+        queryIpResponseEntity.setStatus(resultSet.getString(2));
+        queryIpResponseEntity.setCountry(resultSet.getString(3));
+        queryIpResponseEntity.setCountryCode(resultSet.getString(4));
+        queryIpResponseEntity.setRegion(resultSet.getString(5));
+        queryIpResponseEntity.setRegionName(resultSet.getString(6));
+        queryIpResponseEntity.setCity(resultSet.getString(7));
+        queryIpResponseEntity.setZip(resultSet.getString(8));
+        queryIpResponseEntity.setLat(resultSet.getDouble(9));
+        queryIpResponseEntity.setLon(resultSet.getDouble(10));
+        queryIpResponseEntity.setTimezone(resultSet.getString(11));
+        queryIpResponseEntity.setIsp(resultSet.getString(12));
+        queryIpResponseEntity.setOrg(resultSet.getString(13));
+        queryIpResponseEntity.setAs(resultSet.getString(14));
+        queryIpResponseEntity.setPersisted(resultSet.getString(15));
+        queryIpResponseEntity.setAddress(resultSet.getBytes(16));
+        long fetchedAt = resultSet.getLong(17);
+        queryIpResponseEntity.setFetchedAt(resultSet.wasNull() ? null : fetchedAt);
+        long lastAccessedAt = resultSet.getLong(18);
+        queryIpResponseEntity.setLastAccessedAt(resultSet.wasNull() ? null : lastAccessedAt);
+        return queryIpResponseEntity;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hilton.queryservice.db;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Liquibase change setting the lastAccessedAt column of the rows of ipquerytable persisted before the column was
+ * added to the time of the migration, so they are kept for the retention period like a row looked up then, instead of
+ * being removed by the first retention round or never.
+ */
+public class LastAccessedBackfillChange implements CustomTaskChange {
+
+    private static final String UPDATE_LAST_ACCESSED = "UPDATE ipquerytable SET lastAccessedAt = ? WHERE lastAccessedAt IS NULL";
+
+    private int updatedRows;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try (PreparedStatement update = connection.prepareStatement(UPDATE_LAST_ACCESSED)) {
+            update.setLong(1, System.currentTimeMillis());
+            updatedRows = update.executeUpdate();
+        } catch (SQLException e) {
+            throw new CustomChangeException("failed to fill lastAccessedAt column of ipquerytable", e);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "filled lastAccessedAt column of " + updatedRows + " rows of ipquerytable";
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+}
@@ -0,0 +1,329 @@
+package com.hilton.queryservice.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpKey;
+import com.hilton.queryservice.core.QueryIpResponseCodec;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * {@link QueryIpStore} kept in an embedded H2 MVStore file instead of the ipquerytable, for single node deployments.
+ * Lookups are B-tree reads of the MVStore maps without SQL, sessions or a unit of work:
+ * <pre>
+ * responses: query -> long sequence | {@link QueryIpResponseCodec} bytes
+ * addresses: hex of the 16 byte address -> query, domain name queries have none
+ * recent:    sequence -> query, the sequence of the latest write of each query
+ * accessed:  query -> epoch millis of its last access
+ * archive:   query -> long sequence | {@link QueryIpResponseCodec} bytes of the removed cold responses
+ * </pre>
+ * Pages read from the file are kept in the MVStore page cache of cacheSizeInMb; the file itself may be memory-mapped,
+ * so further pages are served from the OS page cache outside the heap. The MVStore background writer commits pending
+ * changes about every second and rewrites chunks whose fill rate drops below the auto compact fill rate, so the file
+ * does not grow with updates. Writes of create are durable once the background writer committed them, upsertAll
+ * commits before it returns. The file is locked by the process having it open.
+ */
+public final class MVStoreQueryIpStore implements QueryIpStore, Closeable {
+
+    // chunks less filled than this percentage are rewritten by the background writer
+    static final int AUTO_COMPACT_FILL_RATE = 50;
+
+    private static final int SEQUENCE_LENGTH = Long.BYTES;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MVStore store;
+    private final MVMap<String, byte[]> responses;
+    private final MVMap<String, String> addresses;
+    private final MVMap<Long, String> recent;
+    private final MVMap<String, Long> accessed;
+    private final MVMap<String, byte[]> archive;
+
+    // sequence of the last write, responses are streamed from the highest sequence down
+    private final AtomicLong sequence;
+
+    private final Timer findByIpTimer;
+    private final Timer findByIpsTimer;
+    private final Timer createTimer;
+    private final Timer upsertAllTimer;
+
+    private MVStoreQueryIpStore(MVStore store, MetricRegistry metricRegistry) {
+        this.store = store;
+        this.responses = store.openMap("responses");
+        this.addresses = store.openMap("addresses");
+        this.recent = store.openMap("recent");
+        this.accessed = store.openMap("accessed");
+        this.archive = store.openMap("archive");
+        Long lastSequence = recent.lastKey();
+        this.sequence = new AtomicLong(lastSequence == null ? 0 : lastSequence);
+        // same timers as the SQL store, so dashboards compare both engines
+        this.findByIpTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "find-by-ip"));
+        this.findByIpsTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "find-by-ips"));
+        this.createTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "create"));
+        this.upsertAllTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "upsert-all"));
+    }
+
+    /**
+     * Open the store file, creating it when it does not exist
+     *
+     * @param file           store file
+     * @param cacheSizeInMb  size of the page cache in MB
+     * @param memoryMapped   true to memory-map the file, which then may not grow beyond 2 GB
+     * @param metricRegistry registry of the find-by-ip, find-by-ips, create and upsert-all timers
+     * @return opened store
+     */
+    public static MVStoreQueryIpStore open(Path file, int cacheSizeInMb, boolean memoryMapped, MetricRegistry metricRegistry) {
+        MVStore store = new MVStore.Builder()
+                .fileName(memoryMapped ? "nioMapped:" + file.toAbsolutePath() : file.toAbsolutePath().toString())
+                .cacheSize(cacheSizeInMb)
+                .autoCompactFillRate(AUTO_COMPACT_FILL_RATE)
+                .compress()
+                .open();
+        return new MVStoreQueryIpStore(store, metricRegistry);
+    }
+
+    @Override
+    public Optional<QueryIpResponseEntity> findByIp(String ip) {
+        try (Timer.Context ignored = findByIpTimer.time()) {
+            byte[] value = responses.get(ip);
+            return value == null ? Optional.empty() : Optional.of(toEntity(value));
+        }
+    }
+
+    @Override
+    public List<QueryIpResponseEntity> findByIps(Collection<String> ips) {
+        if (ips.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try (Timer.Context ignored = findByIpsTimer.time()) {
+            List<QueryIpResponseEntity> found = new ArrayList<>(ips.size());
+            for (String ip : ips) {
+                byte[] value = responses.get(ip);
+                if (value != null) {
+                    found.add(toEntity(value));
+                }
+            }
+            return found;
+        }
+    }
+
+    @Override
+    public List<QueryIpResponseEntity> findByAddressRange(IpKey first, IpKey last, int maxResults) {
+        List<QueryIpResponseEntity> found = new ArrayList<>();
+        Cursor<String, String> cursor = addresses.cursor(hex(first.toBytes()), hex(last.toBytes()), false);
+        while (found.size() < maxResults && cursor.hasNext()) {
+            cursor.next();
+            byte[] value = responses.get(cursor.getValue());
+            if (value != null) {
+                found.add(toEntity(value));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<QueryIpResponseEntity> findStale(long fetchedBefore, String afterQuery, int maxResults) {
+        List<QueryIpResponseEntity> found = new ArrayList<>();
+        String from = responses.higherKey(afterQuery);
+        if (from == null) {
+            return found;
+        }
+        Cursor<String, byte[]> cursor = responses.cursor(from);
+        while (found.size() < maxResults && cursor.hasNext()) {
+            cursor.next();
+            QueryIpResponseEntity queryIpResponseEntity = toEntity(cursor.getValue());
+            if (queryIpResponseEntity.getFetchedAt() == null || queryIpResponseEntity.getFetchedAt() < fetchedBefore) {
+                found.add(queryIpResponseEntity);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int streamMostRecent(int maxRows, Predicate<QueryIpResponseEntity> consumer) {
+        int streamed = 0;
+        Long key = recent.lastKey();
+        while (key != null && streamed < maxRows) {
+            String query = recent.get(key);
+            byte[] value = query == null ? null : responses.get(query);
+            // skips a sequence replaced by a concurrent write of the same query
+            if (value != null && sequenceOf(value) == key) {
+                streamed++;
+                if (!consumer.test(toEntity(value))) {
+                    break;
+                }
+            }
+            key = recent.lowerKey(key);
+        }
+        return streamed;
+    }
+
+    @Override
+    public QueryIpResponseEntity create(QueryIpResponseEntity queryIpResponseEntity) {
+        try (Timer.Context ignored = createTimer.time()) {
+            put(queryIpResponseEntity);
+            return queryIpResponseEntity;
+        }
+    }
+
+    @Override
+    public int upsertAll(List<QueryIpResponseEntity> queryIpResponseEntities) {
+        if (queryIpResponseEntities.isEmpty()) {
+            return 0;
+        }
+        try (Timer.Context ignored = upsertAllTimer.time()) {
+            for (QueryIpResponseEntity queryIpResponseEntity : queryIpResponseEntities) {
+                put(queryIpResponseEntity);
+            }
+            store.commit();
+            return queryIpResponseEntities.size();
+        }
+    }
+
+    @Override
+    public int touchAll(Collection<String> queries, long accessedAt) {
+        int touched = 0;
+        for (String query : queries) {
+            if (responses.containsKey(query)) {
+                accessed.put(query, accessedAt);
+                touched++;
+            }
+        }
+        return touched;
+    }
+
+    @Override
+    public List<String> findCold(long accessedBefore, String afterQuery, int maxResults) {
+        List<String> found = new ArrayList<>();
+        String from = accessed.higherKey(afterQuery);
+        if (from == null) {
+            return found;
+        }
+        Cursor<String, Long> cursor = accessed.cursor(from);
+        while (found.size() < maxResults && cursor.hasNext()) {
+            cursor.next();
+            if (cursor.getValue() < accessedBefore) {
+                found.add(cursor.getKey());
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<String> removeCold(Collection<String> queries, long accessedBefore, boolean archived) {
+        List<String> removed = new ArrayList<>();
+        for (String query : queries) {
+            Long accessedAt = accessed.get(query);
+            // a response accessed or written since it was found cold changed its access time and is kept
+            if (accessedAt == null || accessedAt >= accessedBefore || !accessed.remove(query, accessedAt)) {
+                continue;
+            }
+            byte[] value = responses.remove(query);
+            if (value == null) {
+                continue;
+            }
+            recent.remove(sequenceOf(value));
+            IpKey ipKey = IpAddressParser.toKey(query);
+            if (ipKey != null && !ipKey.isDomain()) {
+                addresses.remove(hex(ipKey.toBytes()));
+            }
+            if (archived) {
+                archive.put(query, value);
+            }
+            removed.add(query);
+        }
+        store.commit();
+        return removed;
+    }
+
+    /**
+     * @return number of persisted responses
+     */
+    public long size() {
+        return responses.sizeAsLong();
+    }
+
+    /**
+     * @return number of archived cold responses
+     */
+    public long archivedSize() {
+        return archive.sizeAsLong();
+    }
+
+    /**
+     * Commit pending changes and close the file
+     */
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private void put(QueryIpResponseEntity queryIpResponseEntity) {
+        String query = queryIpResponseEntity.getQuery();
+        IpKey ipKey = IpAddressParser.toKey(query);
+        long next = sequence.incrementAndGet();
+        byte[] encoded = QueryIpResponseCodec.encode(queryIpResponseEntity);
+        byte[] value = ByteBuffer.allocate(SEQUENCE_LENGTH + encoded.length).putLong(next).put(encoded).array();
+        // the sequence is indexed before the response refers to it, so a replaced sequence is always removed
+        recent.put(next, query);
+        byte[] replaced = responses.put(query, value);
+        if (replaced != null) {
+            recent.remove(sequenceOf(replaced));
+        }
+        if (ipKey != null && !ipKey.isDomain()) {
+            addresses.put(hex(ipKey.toBytes()), query);
+        }
+        if (queryIpResponseEntity.getLastAccessedAt() != null) {
+            accessed.put(query, queryIpResponseEntity.getLastAccessedAt());
+        }
+    }
+
+    private QueryIpResponseEntity toEntity(byte[] value) {
+        try {
+            QueryIpResponseEntity queryIpResponseEntity = QueryIpResponseCodec.decode(Arrays.copyOfRange(value, SEQUENCE_LENGTH, value.length));
+            IpKey ipKey = IpAddressParser.toKey(queryIpResponseEntity.getQuery());
+            queryIpResponseEntity.setAddress(ipKey == null ? null : ipKey.toBytes());
+            queryIpResponseEntity.setLastAccessedAt(accessed.get(queryIpResponseEntity.getQuery()));
+            return queryIpResponseEntity;
+        } catch (IOException e) {
+            throw new UncheckedIOException("corrupt query ip response in store", e);
+        }
+    }
+
+    private static long sequenceOf(byte[] value) {
+        return ByteBuffer.wrap(value, 0, SEQUENCE_LENGTH).getLong();
+    }
+
+    /**
+     * @return lower case hex digits of the address, which sort like the unsigned address
+     */
+    static String hex(byte[] address) {
+        char[] hex = new char[address.length * 2];
+        for (int i = 0; i < address.length; i++) {
+            hex[2 * i] = HEX[(address[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[address[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    @Override
+    public String toString() {
+        return "MVStoreQueryIpStore{responses=" + responses.sizeAsLong() + ", fillRate=" + store.getFillRate() + "%}";
+    }
+}
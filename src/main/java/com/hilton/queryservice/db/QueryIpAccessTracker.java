@@ -0,0 +1,187 @@
+package com.hilton.queryservice.db;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records the lookups of persisted ips and writes their last access time in batches instead of updating a row per
+ * lookup. Lookups add their ip to a set of at most maxPending distinct ips, a hot ip takes one entry however often it
+ * is looked up; every flushIntervalInSeconds a flusher thread swaps the set for an empty one and updates lastAccessedAt
+ * of its ips with {@link QueryIpStore#touchAll} in batches of batchSize, each in its own unit of work. Ips recorded
+ * while the set is full are dropped until the next flush, as are the ips of a failed batch; the access time is a
+ * retention hint, an ip looked up again is recorded again. Pending ips are flushed when the tracker stops.
+ */
+public class QueryIpAccessTracker implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIpAccessTracker.class);
+
+    private static final long STOP_TIMEOUT_IN_SECONDS = 30;
+    private static final QueryIpAccessTracker DISABLED = new QueryIpAccessTracker(null, null, 0, 1, 1);
+
+    // null for a disabled tracker
+    private final QueryIpStore queryIpStore;
+    private final UnitOfWorkRunner unitOfWorkRunner;
+    private final int maxPending;
+    private final int batchSize;
+    private final int flushIntervalInSeconds;
+
+    private final AtomicReference<Set<String>> pending = new AtomicReference<>(ConcurrentHashMap.newKeySet());
+    private final AtomicLong touchedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * @param queryIpStore           store of the last access times
+     * @param unitOfWorkRunner       runner opening a unit of work for each batch
+     * @param maxPending             max number of distinct ips recorded between two flushes
+     * @param batchSize              max number of ips updated with one batch
+     * @param flushIntervalInSeconds delay between two flushes
+     */
+    public QueryIpAccessTracker(QueryIpStore queryIpStore, UnitOfWorkRunner unitOfWorkRunner, int maxPending, int batchSize,
+                                int flushIntervalInSeconds) {
+        this.queryIpStore = queryIpStore;
+        this.unitOfWorkRunner = unitOfWorkRunner;
+        this.maxPending = maxPending;
+        this.batchSize = batchSize;
+        this.flushIntervalInSeconds = flushIntervalInSeconds;
+    }
+
+    /**
+     * @return tracker that records nothing
+     */
+    public static QueryIpAccessTracker disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Start the flusher thread
+     */
+    @Override
+    public void start() {
+        if (queryIpStore == null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-ip-access-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalInSeconds, flushIntervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the flusher thread and flush the pending ips
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService scheduledExecutorService = scheduler;
+        if (scheduledExecutorService == null) {
+            return;
+        }
+        scheduler = null;
+        scheduledExecutorService.shutdown();
+        if (!scheduledExecutorService.awaitTermination(STOP_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+            LOGGER.error("query ip access tracker stopped while flushing");
+        }
+        flush();
+    }
+
+    /**
+     * Record a lookup of an ip, a set insertion on the caller thread
+     *
+     * @param ip canonical ip string
+     */
+    public void record(String ip) {
+        if (queryIpStore == null) {
+            return;
+        }
+        Set<String> accessed = pending.get();
+        if (accessed.size() >= maxPending && !accessed.contains(ip)) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        accessed.add(ip);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // a scheduled task that throws is not run again
+            LOGGER.error("query ip access flush failed", e);
+        }
+    }
+
+    /**
+     * Write the last access time of the ips recorded since the previous flush
+     *
+     * @return number of rows updated
+     */
+    public int flush() {
+        if (queryIpStore == null) {
+            return 0;
+        }
+        Set<String> accessed = pending.getAndSet(ConcurrentHashMap.newKeySet());
+        if (accessed.isEmpty()) {
+            return 0;
+        }
+        long accessedAt = System.currentTimeMillis();
+        int touched = 0;
+        List<String> batch = new ArrayList<>(Math.min(batchSize, accessed.size()));
+        for (String ip : accessed) {
+            batch.add(ip);
+            if (batch.size() == batchSize) {
+                touched += touch(batch, accessedAt);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            touched += touch(batch, accessedAt);
+        }
+        touchedCount.addAndGet(touched);
+        return touched;
+    }
+
+    private int touch(List<String> batch, long accessedAt) {
+        try {
+            return unitOfWorkRunner.call(() -> queryIpStore.touchAll(batch, accessedAt));
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(batch.size());
+            LOGGER.error("failed to record the access of " + batch.size() + " ips", e);
+            return 0;
+        }
+    }
+
+    /**
+     * @return number of rows whose last access time was written since startup
+     */
+    public long getTouchedCount() {
+        return touchedCount.get();
+    }
+
+    /**
+     * @return number of lookups dropped because maxPending ips were pending
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return number of ips of failed batches
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -1,36 +1,176 @@
 package com.hilton.queryservice.db;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpKey;
 import com.hilton.queryservice.core.QueryIpResponseEntity;
 import io.dropwizard.hibernate.AbstractDAO;
 //import jakarta.persistence.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 
 import javax.persistence.Query;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 /**
- * DAO for QueryIpResponseEntity persisted in database
+ * DAO for QueryIpResponseEntity persisted in database, the SQL {@link QueryIpStore}. Lookups and writes are timed by the find-by-ip, find-by-ips,
+ * create and upsert-all timers named after the DAO class; the insert of create is flushed when its unit of work commits.
  */
-public class QueryIpResponseDAO extends AbstractDAO<QueryIpResponseEntity> {
+public class QueryIpResponseDAO extends AbstractDAO<QueryIpResponseEntity> implements QueryIpStore {
+
+    // newest rows first, by the auto increment id of ipquerytable
+    private static final String MOST_RECENT_QUERY = "SELECT * FROM ipquerytable ORDER BY id DESC";
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private static final String UPSERT_COLUMNS = "query, status, country, countryCode, region, regionName, city, zip, lat, lon, timezone, isp, org, asColumn, persisted, address, fetchedAt, lastAccessedAt";
+    private static final String UPSERT_VALUES = "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?";
+    // H2 and other databases supporting MERGE ... KEY
+    private static final String MERGE_UPSERT = "MERGE INTO ipquerytable (" + UPSERT_COLUMNS + ") KEY (query) VALUES (" + UPSERT_VALUES + ")";
+    // MySQL and MariaDB, relies on the unique constraint of ipquerytable.query
+    private static final String MYSQL_UPSERT = "INSERT INTO ipquerytable (" + UPSERT_COLUMNS + ") VALUES (" + UPSERT_VALUES + ")"
+            + " ON DUPLICATE KEY UPDATE status = VALUES(status), country = VALUES(country), countryCode = VALUES(countryCode),"
+            + " region = VALUES(region), regionName = VALUES(regionName), city = VALUES(city), zip = VALUES(zip), lat = VALUES(lat),"
+            + " lon = VALUES(lon), timezone = VALUES(timezone), isp = VALUES(isp), org = VALUES(org), asColumn = VALUES(asColumn),"
+            + " persisted = VALUES(persisted), address = VALUES(address), fetchedAt = VALUES(fetchedAt),"
+            + " lastAccessedAt = COALESCE(VALUES(lastAccessedAt), lastAccessedAt)";
+
+    private static final String TOUCH = "UPDATE ipquerytable SET lastAccessedAt = ? WHERE query = ?";
+    // lastAccessedAt is checked again, so a row accessed since it was found cold is kept
+    private static final String LOCK_COLD = "SELECT query FROM ipquerytable WHERE lastAccessedAt < ? AND query IN (";
+    private static final String ARCHIVE = "INSERT INTO ipquerytable_archive (" + UPSERT_COLUMNS + ") SELECT " + UPSERT_COLUMNS
+            + " FROM ipquerytable WHERE query IN (";
+    private static final String DELETE = "DELETE FROM ipquerytable WHERE query IN (";
+
+    private final SessionFactory sessionFactory;
+
+    // also time the reads of subclasses reading without hibernate
+    protected final Timer findByIpTimer;
+    protected final Timer findByIpsTimer;
+    private final Timer createTimer;
+    private final Timer upsertAllTimer;
 
     public QueryIpResponseDAO(SessionFactory sessionFactory) {
+        this(sessionFactory, new MetricRegistry());
+    }
+
+    public QueryIpResponseDAO(SessionFactory sessionFactory, MetricRegistry metricRegistry) {
         super(sessionFactory);
+        this.sessionFactory = sessionFactory;
+        this.findByIpTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "find-by-ip"));
+        this.findByIpsTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "find-by-ips"));
+        this.createTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "create"));
+        this.upsertAllTimer = metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "upsert-all"));
     }
 
     /**
-     * Find entity by ip
-     * @param ip string
+     * Find entity by ip with a primary key lookup
+     * @param ip canonical ip string
      * @return Optional of Query Ip Response entity
      */
+    @Override
     public Optional<QueryIpResponseEntity> findByIp(String ip) {
-        Query namedQuery = currentSession().getNamedQuery(QueryIpResponseEntity.FIND_BY_QUERY_IP);
-        namedQuery.setParameter(QueryIpResponseEntity.IP_QUERY, ip);
-        List<QueryIpResponseEntity> queryIpResponseEntityList =  namedQuery.getResultList();
-        if (queryIpResponseEntityList.size() > 0) {
-            return Optional.ofNullable(queryIpResponseEntityList.get(0));
-        } else {
-            return Optional.ofNullable(null);
+        try (Timer.Context ignored = findByIpTimer.time()) {
+            return Optional.ofNullable(get(ip));
+        }
+    }
+
+    /**
+     * Find entities for a batch of ips with a single IN (...) query
+     * @param ips distinct ip strings
+     * @return entities found in the database, ips not persisted are absent from the list
+     */
+    @Override
+    public List<QueryIpResponseEntity> findByIps(Collection<String> ips) {
+        if (ips.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try (Timer.Context ignored = findByIpsTimer.time()) {
+            Query namedQuery = currentSession().getNamedQuery(QueryIpResponseEntity.FIND_BY_QUERY_IPS);
+            namedQuery.setParameter(QueryIpResponseEntity.IP_QUERIES, ips);
+            return namedQuery.getResultList();
+        }
+    }
+
+    /**
+     * Find entities of the addresses from first to last through the index of the address column, such as the
+     * addresses of a CIDR prefix from {@link IpKey#firstInPrefix(int)} to {@link IpKey#lastInPrefix(int)}.
+     * Domain name queries have no address and are never found.
+     * @param first first address of the range
+     * @param last last address of the range
+     * @param maxResults max number of entities
+     * @return entities in address order
+     */
+    @Override
+    public List<QueryIpResponseEntity> findByAddressRange(IpKey first, IpKey last, int maxResults) {
+        Query namedQuery = currentSession().getNamedQuery(QueryIpResponseEntity.FIND_BY_ADDRESS_RANGE);
+        namedQuery.setParameter(QueryIpResponseEntity.FIRST_ADDRESS, first.toBytes());
+        namedQuery.setParameter(QueryIpResponseEntity.LAST_ADDRESS, last.toBytes());
+        namedQuery.setMaxResults(maxResults);
+        return namedQuery.getResultList();
+    }
+
+    /**
+     * Find a page of stale entities by keyset pagination over the unique query index, so each page reads only its own
+     * rows however far the scan got
+     * @param fetchedBefore epoch millis, rows fetched before it or without fetchedAt are stale
+     * @param afterQuery last query of the previous page, empty for the first page
+     * @param maxResults max number of entities
+     * @return stale entities in query order
+     */
+    @Override
+    public List<QueryIpResponseEntity> findStale(long fetchedBefore, String afterQuery, int maxResults) {
+        Query namedQuery = currentSession().getNamedQuery(QueryIpResponseEntity.FIND_STALE);
+        namedQuery.setParameter(QueryIpResponseEntity.FETCHED_BEFORE, fetchedBefore);
+        namedQuery.setParameter(QueryIpResponseEntity.AFTER_QUERY, afterQuery);
+        namedQuery.setMaxResults(maxResults);
+        return namedQuery.getResultList();
+    }
+
+    /**
+     * Stream the most recently persisted entities, newest first, through a stateless session with a forward only
+     * cursor, so the rows are neither held in a persistence context nor read into memory at once.
+     * Opens its own session and does not need a unit of work.
+     * @param maxRows max number of entities to stream
+     * @param consumer called with each entity, returns false to stop streaming
+     * @return number of entities streamed
+     */
+    @Override
+    public int streamMostRecent(int maxRows, Predicate<QueryIpResponseEntity> consumer) {
+        StatelessSession session = sessionFactory.openStatelessSession();
+        try {
+            ScrollableResults results = session.createNativeQuery(MOST_RECENT_QUERY, QueryIpResponseEntity.class)
+                    .setMaxResults(maxRows)
+                    .setFetchSize(STREAM_FETCH_SIZE)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                int streamed = 0;
+                while (results.next()) {
+                    streamed++;
+                    if (!consumer.test((QueryIpResponseEntity) results.get(0))) {
+                        break;
+                    }
+                }
+                return streamed;
+            } finally {
+                results.close();
+            }
+        } finally {
+            session.close();
         }
     }
 
@@ -39,7 +179,163 @@ public class QueryIpResponseDAO extends AbstractDAO<QueryIpResponseEntity> {
      * @param queryIpResponseEntity query Ip ResponseEntity
      * @return created instance
      */
+    @Override
     public QueryIpResponseEntity create(QueryIpResponseEntity queryIpResponseEntity) {
-       return persist(queryIpResponseEntity);
+        try (Timer.Context ignored = createTimer.time()) {
+            return persist(queryIpResponseEntity);
+        }
+    }
+
+    /**
+     * Insert or update a batch of entities by query with one JDBC batch, so concurrent writers of the same ip do not
+     * fail on a duplicate key. The entities are not attached to the session.
+     * @param queryIpResponseEntities entities to write
+     * @return number of entities written
+     */
+    @Override
+    public int upsertAll(List<QueryIpResponseEntity> queryIpResponseEntities) {
+        if (queryIpResponseEntities.isEmpty()) {
+            return 0;
+        }
+        try (Timer.Context ignored = upsertAllTimer.time()) {
+            return currentSession().doReturningWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(isMySql(connection) ? MYSQL_UPSERT : MERGE_UPSERT)) {
+                    for (QueryIpResponseEntity queryIpResponseEntity : queryIpResponseEntities) {
+                        statement.setString(1, queryIpResponseEntity.getQuery());
+                        statement.setString(2, queryIpResponseEntity.getStatus());
+                        statement.setString(3, queryIpResponseEntity.getCountry());
+                        statement.setString(4, queryIpResponseEntity.getCountryCode());
+                        statement.setString(5, queryIpResponseEntity.getRegion());
+                        statement.setString(6, queryIpResponseEntity.getRegionName());
+                        statement.setString(7, queryIpResponseEntity.getCity());
+                        statement.setString(8, queryIpResponseEntity.getZip());
+                        statement.setDouble(9, queryIpResponseEntity.getLat());
+                        statement.setDouble(10, queryIpResponseEntity.getLon());
+                        statement.setString(11, queryIpResponseEntity.getTimezone());
+                        statement.setString(12, queryIpResponseEntity.getIsp());
+                        statement.setString(13, queryIpResponseEntity.getOrg());
+                        statement.setString(14, queryIpResponseEntity.getAs());
+                        statement.setString(15, queryIpResponseEntity.getPersisted());
+                        IpKey ipKey = IpAddressParser.toKey(queryIpResponseEntity.getQuery());
+                        statement.setBytes(16, ipKey == null ? null : ipKey.toBytes());
+                        statement.setObject(17, queryIpResponseEntity.getFetchedAt(), Types.BIGINT);
+                        statement.setObject(18, queryIpResponseEntity.getLastAccessedAt(), Types.BIGINT);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    return queryIpResponseEntities.size();
+                }
+            });
+        }
+    }
+
+    /**
+     * Set the last access time of a batch of rows with one JDBC batch of updates by query, queries that are not
+     * persisted are skipped
+     * @param queries    distinct queries
+     * @param accessedAt epoch millis of the accesses
+     * @return number of rows updated
+     */
+    @Override
+    public int touchAll(Collection<String> queries, long accessedAt) {
+        if (queries.isEmpty()) {
+            return 0;
+        }
+        return currentSession().doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(TOUCH)) {
+                for (String query : queries) {
+                    statement.setLong(1, accessedAt);
+                    statement.setString(2, query);
+                    statement.addBatch();
+                }
+                int updated = 0;
+                for (int count : statement.executeBatch()) {
+                    // drivers may answer SUCCESS_NO_INFO instead of the count of a statement
+                    updated += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                }
+                return updated;
+            }
+        });
+    }
+
+    /**
+     * Find a page of the queries of cold rows by keyset pagination over the unique query index, rows without a last
+     * access time are never cold
+     * @param accessedBefore epoch millis, rows last accessed before it are cold
+     * @param afterQuery last query of the previous page, empty for the first page
+     * @param maxResults max number of queries
+     * @return queries of cold rows in query order
+     */
+    @Override
+    public List<String> findCold(long accessedBefore, String afterQuery, int maxResults) {
+        Query namedQuery = currentSession().getNamedQuery(QueryIpResponseEntity.FIND_COLD);
+        namedQuery.setParameter(QueryIpResponseEntity.ACCESSED_BEFORE, accessedBefore);
+        namedQuery.setParameter(QueryIpResponseEntity.AFTER_QUERY, afterQuery);
+        namedQuery.setMaxResults(maxResults);
+        return namedQuery.getResultList();
+    }
+
+    /**
+     * Delete the rows of a batch of queries that are still cold, copying them to ipquerytable_archive first when
+     * archived, in the transaction of the unit of work. The cold rows are locked with SELECT ... FOR UPDATE, so the rows
+     * archived are the rows deleted and a concurrent removal of the same rows finds them gone instead of archiving
+     * them twice.
+     * @param queries        queries found cold, at most a few thousand
+     * @param accessedBefore epoch millis, rows last accessed before it are cold
+     * @param archive        true to copy the rows to ipquerytable_archive
+     * @return queries of the rows deleted
+     */
+    @Override
+    public List<String> removeCold(Collection<String> queries, long accessedBefore, boolean archive) {
+        if (queries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return currentSession().doReturningWork(connection -> {
+            List<String> cold = new ArrayList<>(queries.size());
+            try (PreparedStatement statement = connection.prepareStatement(inList(LOCK_COLD, queries.size()) + " FOR UPDATE")) {
+                statement.setLong(1, accessedBefore);
+                setQueries(statement, 2, queries);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        cold.add(resultSet.getString(1));
+                    }
+                }
+            }
+            if (cold.isEmpty()) {
+                return cold;
+            }
+            if (archive) {
+                updateAll(connection, ARCHIVE, cold);
+            }
+            updateAll(connection, DELETE, cold);
+            return cold;
+        });
+    }
+
+    private static int updateAll(Connection connection, String prefix, Collection<String> queries) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(inList(prefix, queries.size()))) {
+            setQueries(statement, 1, queries);
+            return statement.executeUpdate();
+        }
+    }
+
+    private static String inList(String prefix, int size) {
+        StringBuilder sql = new StringBuilder(prefix.length() + 3 * size + 1).append(prefix);
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    private static void setQueries(PreparedStatement statement, int firstIndex, Collection<String> queries) throws SQLException {
+        int index = firstIndex;
+        for (String query : queries) {
+            statement.setString(index++, query);
+        }
+    }
+
+    private static boolean isMySql(Connection connection) throws SQLException {
+        String databaseProductName = connection.getMetaData().getDatabaseProductName();
+        return databaseProductName.contains("MySQL") || databaseProductName.contains("MariaDB");
     }
 }
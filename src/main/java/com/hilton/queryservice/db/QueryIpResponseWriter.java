@@ -0,0 +1,216 @@
+package com.hilton.queryservice.db;
+
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes remote api responses to the database. A direct writer persists each response in the caller's unit of work.
+ * A write-behind writer puts responses on a bounded queue that a writer thread flushes with batched upserts when
+ * batchSize responses are queued or flushIntervalInMillis after the first queued response, so lookups do not wait on
+ * the insert and commit. When the queue stays full for offerTimeoutInMillis the caller upserts its response itself,
+ * which slows callers down to the pace of the database. Queued responses are flushed when the writer stops.
+ * A failed batch is logged and dropped, its responses are still served from the caches and are fetched from the
+ * remote api again once evicted.
+ */
+public class QueryIpResponseWriter implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIpResponseWriter.class);
+
+    // max time stop waits for the queued responses to be flushed
+    private static final long STOP_TIMEOUT_IN_MILLIS = 30000;
+    // max time the writer thread waits on the queue before checking whether it is stopping
+    private static final long POLL_SLICE_IN_MILLIS = 100;
+
+    private final QueryIpStore queryIpStore;
+    private final UnitOfWorkRunner unitOfWorkRunner;
+
+    // null for a direct writer
+    private final BlockingQueue<QueryIpResponseEntity> queue;
+    private final int batchSize;
+    private final long flushIntervalInMillis;
+    private final long offerTimeoutInMillis;
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile Thread writerThread;
+    private volatile boolean stopping;
+
+    private QueryIpResponseWriter(QueryIpStore queryIpStore, UnitOfWorkRunner unitOfWorkRunner) {
+        this.queryIpStore = queryIpStore;
+        this.unitOfWorkRunner = unitOfWorkRunner;
+        this.queue = null;
+        this.batchSize = 1;
+        this.flushIntervalInMillis = 0;
+        this.offerTimeoutInMillis = 0;
+    }
+
+    public QueryIpResponseWriter(QueryIpStore queryIpStore, UnitOfWorkRunner unitOfWorkRunner, int queueCapacity, int batchSize,
+                                 long flushIntervalInMillis, long offerTimeoutInMillis) {
+        this.queryIpStore = queryIpStore;
+        this.unitOfWorkRunner = unitOfWorkRunner;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalInMillis = flushIntervalInMillis;
+        this.offerTimeoutInMillis = offerTimeoutInMillis;
+    }
+
+    /**
+     * @param queryIpStore     store the responses are created in
+     * @param unitOfWorkRunner runner of the create
+     * @return writer that persists each response on the caller thread
+     */
+    public static QueryIpResponseWriter direct(QueryIpStore queryIpStore, UnitOfWorkRunner unitOfWorkRunner) {
+        return new QueryIpResponseWriter(queryIpStore, unitOfWorkRunner);
+    }
+
+    /**
+     * Start the writer thread of a write-behind writer
+     */
+    @Override
+    public void start() {
+        if (queue == null) {
+            return;
+        }
+        stopping = false;
+        Thread thread = new Thread(this::writeQueued, "query-ip-writer");
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Flush the queued responses and stop the writer thread
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        Thread thread = writerThread;
+        if (thread == null) {
+            return;
+        }
+        stopping = true;
+        thread.join(STOP_TIMEOUT_IN_MILLIS);
+        writerThread = null;
+        if (!queue.isEmpty()) {
+            LOGGER.error("query ip writer stopped with " + queue.size() + " responses not written");
+        }
+    }
+
+    /**
+     * Write a response, queued by a running write-behind writer and upserted directly otherwise, so a response
+     * persisted meanwhile by another instance or a concurrent load does not fail the lookup
+     *
+     * @param queryIpResponseEntity response of the remote api
+     */
+    public void write(QueryIpResponseEntity queryIpResponseEntity) {
+        if (queue == null) {
+            unitOfWorkRunner.call(() -> queryIpStore.upsertAll(Collections.singletonList(queryIpResponseEntity)));
+            return;
+        }
+        if (writerThread != null && !stopping) {
+            try {
+                if (queue.offer(queryIpResponseEntity, offerTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                LOGGER.warn("query ip writer queue is full, writing " + queryIpResponseEntity.getQuery() + " on the caller thread");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        unitOfWorkRunner.call(() -> queryIpStore.upsertAll(Collections.singletonList(queryIpResponseEntity)));
+        writtenCount.incrementAndGet();
+    }
+
+    /**
+     * Write responses replacing persisted ones, queued by a running write-behind writer and upserted directly
+     * otherwise, as a direct create would fail on the existing rows
+     *
+     * @param queryIpResponseEntities refreshed responses of persisted ips
+     */
+    public void update(List<QueryIpResponseEntity> queryIpResponseEntities) {
+        if (queue != null && writerThread != null && !stopping) {
+            for (QueryIpResponseEntity queryIpResponseEntity : queryIpResponseEntities) {
+                write(queryIpResponseEntity);
+            }
+            return;
+        }
+        unitOfWorkRunner.call(() -> queryIpStore.upsertAll(queryIpResponseEntities));
+        writtenCount.addAndGet(queryIpResponseEntities.size());
+    }
+
+    /**
+     * Writer thread loop, takes batches off the queue until stopped and the queue is drained
+     */
+    private void writeQueued() {
+        while (!stopping || !queue.isEmpty()) {
+            List<QueryIpResponseEntity> batch = new ArrayList<>(batchSize);
+            try {
+                QueryIpResponseEntity first = queue.poll(Math.min(flushIntervalInMillis, POLL_SLICE_IN_MILLIS), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalInMillis);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || stopping) {
+                        break;
+                    }
+                    QueryIpResponseEntity next = queue.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_SLICE_IN_MILLIS)), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            flush(batch);
+        }
+    }
+
+    private void flush(List<QueryIpResponseEntity> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            unitOfWorkRunner.call(() -> queryIpStore.upsertAll(batch));
+            writtenCount.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(batch.size());
+            LOGGER.error("failed to write batch of " + batch.size() + " query ip responses", e);
+        }
+    }
+
+    /**
+     * @return number of responses waiting in the queue
+     */
+    public int getQueuedCount() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return number of responses upserted, direct creates are not counted
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * @return number of responses of failed batches
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -0,0 +1,144 @@
+package com.hilton.queryservice.db;
+
+import com.hilton.queryservice.cache.MappedFileCache;
+import com.hilton.queryservice.core.QueryIpLookupService;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes the cold persisted responses, not looked up for retentionInSeconds, so the store holds the working set of
+ * ips instead of every ip ever seen. Every intervalInSeconds a round walks the cold rows in keyset-paginated batches of
+ * batchSize, in query order, and removes each batch in its own short unit of work, archiving the rows first when
+ * archive is set; the rows accessed since they were found cold are kept. A round removes at most maxPerRound rows.
+ * Removed ips are evicted from the mapped file cache, which would answer them across restarts, are still answered by
+ * the in-memory caches holding them and are fetched from the remote api again once evicted.
+ */
+public class QueryIpRetention implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIpRetention.class);
+
+    private static final long STOP_TIMEOUT_IN_SECONDS = 30;
+
+    private final QueryIpStore queryIpStore;
+    private final UnitOfWorkRunner unitOfWorkRunner;
+    private final MappedFileCache mappedFileCache;
+    private final long retentionInMillis;
+    private final int intervalInSeconds;
+    private final int batchSize;
+    private final int maxPerRound;
+    private final boolean archive;
+
+    private final AtomicLong removedCount = new AtomicLong();
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean stopped;
+
+    /**
+     * @param queryIpStore       store of the persisted responses
+     * @param unitOfWorkRunner   runner opening a unit of work for each batch
+     * @param mappedFileCache    mapped file cache the removed ips are evicted from
+     * @param retentionInSeconds time since the last access after which a row is cold
+     * @param intervalInSeconds  delay between the end of a round and the start of the next
+     * @param batchSize          max number of rows removed with one unit of work
+     * @param maxPerRound        max number of rows removed by a round
+     * @param archive            true to archive the rows before they are removed
+     */
+    public QueryIpRetention(QueryIpStore queryIpStore, UnitOfWorkRunner unitOfWorkRunner, MappedFileCache mappedFileCache, int retentionInSeconds,
+                            int intervalInSeconds, int batchSize, int maxPerRound, boolean archive) {
+        this.queryIpStore = queryIpStore;
+        this.unitOfWorkRunner = unitOfWorkRunner;
+        this.mappedFileCache = mappedFileCache;
+        this.retentionInMillis = TimeUnit.SECONDS.toMillis(retentionInSeconds);
+        this.intervalInSeconds = intervalInSeconds;
+        this.batchSize = batchSize;
+        this.maxPerRound = maxPerRound;
+        this.archive = archive;
+    }
+
+    /**
+     * Start the retention thread, the first round runs one interval after startup
+     */
+    @Override
+    public void start() {
+        stopped = false;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-ip-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runRound, intervalInSeconds, intervalInSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop after the batch being removed
+     */
+    @Override
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService scheduledExecutorService = scheduler;
+        if (scheduledExecutorService == null) {
+            return;
+        }
+        stopped = true;
+        scheduler = null;
+        scheduledExecutorService.shutdown();
+        if (!scheduledExecutorService.awaitTermination(STOP_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS)) {
+            LOGGER.error("query ip retention stopped while removing a batch");
+        }
+    }
+
+    private void runRound() {
+        try {
+            removeCold();
+        } catch (RuntimeException e) {
+            // a scheduled task that throws is not run again
+            LOGGER.error("cold row removal failed after removing " + removedCount.get() + " rows in total", e);
+        }
+    }
+
+    /**
+     * Run one round of removals on the caller thread
+     *
+     * @return number of rows removed
+     */
+    int removeCold() {
+        long accessedBefore = System.currentTimeMillis() - retentionInMillis;
+        String afterQuery = "";
+        int scanned = 0;
+        int removed = 0;
+        while (!stopped && scanned < maxPerRound) {
+            String after = afterQuery;
+            int limit = Math.min(batchSize, maxPerRound - scanned);
+            List<String> cold = unitOfWorkRunner.call(() -> queryIpStore.findCold(accessedBefore, after, limit));
+            if (cold.isEmpty()) {
+                break;
+            }
+            scanned += cold.size();
+            afterQuery = cold.get(cold.size() - 1);
+            List<String> removedQueries = unitOfWorkRunner.call(() -> queryIpStore.removeCold(cold, accessedBefore, archive));
+            if (mappedFileCache.isEnabled()) {
+                for (String query : removedQueries) {
+                    mappedFileCache.remove(QueryIpLookupService.mappedCacheKey(query));
+                }
+            }
+            removed += removedQueries.size();
+        }
+        removedCount.addAndGet(removed);
+        if (scanned > 0) {
+            LOGGER.info((archive ? "archived and removed " : "removed ") + removed + " of " + scanned + " cold rows");
+        }
+        return removed;
+    }
+
+    /**
+     * @return number of rows removed since startup
+     */
+    public long getRemovedCount() {
+        return removedCount.get();
+    }
+}
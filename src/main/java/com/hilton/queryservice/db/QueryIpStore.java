@@ -0,0 +1,97 @@
+package com.hilton.queryservice.db;
+
+import com.hilton.queryservice.core.IpKey;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Storage engine of the persisted query ip responses, keyed by canonical ip. {@link QueryIpResponseDAO} keeps them in
+ * the ipquerytable through hibernate, its work runs in a unit of work opened by {@link UnitOfWorkRunner};
+ * {@link MVStoreQueryIpStore} keeps them in an embedded key-value file and needs no unit of work.
+ */
+public interface QueryIpStore {
+
+    /**
+     * @param ip canonical ip string
+     * @return Optional of Query Ip Response entity
+     */
+    Optional<QueryIpResponseEntity> findByIp(String ip);
+
+    /**
+     * @param ips distinct ip strings
+     * @return entities found, ips not persisted are absent from the list
+     */
+    List<QueryIpResponseEntity> findByIps(Collection<String> ips);
+
+    /**
+     * @param first      first address of the range
+     * @param last       last address of the range
+     * @param maxResults max number of entities
+     * @return entities of the addresses from first to last in address order, domain name queries are never found
+     */
+    List<QueryIpResponseEntity> findByAddressRange(IpKey first, IpKey last, int maxResults);
+
+    /**
+     * One page of the entities fetched before a time, in query order, such that the next page starts after the last
+     * query of this one. Does not need a unit of work for the embedded store.
+     * @param fetchedBefore epoch millis, entities fetched before it or of unknown fetch time are stale
+     * @param afterQuery    last query of the previous page, empty for the first page
+     * @param maxResults    max number of entities
+     * @return stale entities with a query greater than afterQuery, in query order
+     */
+    List<QueryIpResponseEntity> findStale(long fetchedBefore, String afterQuery, int maxResults);
+
+    /**
+     * Stream the most recently persisted entities, newest first, without holding them in memory at once.
+     * Does not need a unit of work.
+     * @param maxRows  max number of entities to stream
+     * @param consumer called with each entity, returns false to stop streaming
+     * @return number of entities streamed
+     */
+    int streamMostRecent(int maxRows, Predicate<QueryIpResponseEntity> consumer);
+
+    /**
+     * @param queryIpResponseEntity entity of an ip that is not persisted yet
+     * @return created instance
+     */
+    QueryIpResponseEntity create(QueryIpResponseEntity queryIpResponseEntity);
+
+    /**
+     * Insert or update a batch of entities by query
+     * @param queryIpResponseEntities entities to write
+     * @return number of entities written
+     */
+    int upsertAll(List<QueryIpResponseEntity> queryIpResponseEntities);
+
+    /**
+     * Record the last access of a batch of persisted entities
+     * @param queries    distinct queries, ones not persisted are skipped
+     * @param accessedAt epoch millis of the accesses
+     * @return number of entities updated
+     */
+    int touchAll(Collection<String> queries, long accessedAt);
+
+    /**
+     * One page of the queries of the entities last accessed before a time, in query order, such that the next page
+     * starts after the last query of this one. Entities of unknown last access are never cold.
+     * @param accessedBefore epoch millis, entities last accessed before it are cold
+     * @param afterQuery     last query of the previous page, empty for the first page
+     * @param maxResults     max number of queries
+     * @return queries of cold entities greater than afterQuery, in query order
+     */
+    List<String> findCold(long accessedBefore, String afterQuery, int maxResults);
+
+    /**
+     * Remove the entities of a batch of queries that are still cold, entities accessed since they were found are kept.
+     * The entities archived are the ones removed.
+     * @param queries        queries found cold
+     * @param accessedBefore epoch millis, entities last accessed before it are cold
+     * @param archive        true to keep the removed entities in the archive of the store
+     * @return queries of the entities removed
+     */
+    List<String> removeCold(Collection<String> queries, long accessedBefore, boolean archive);
+}
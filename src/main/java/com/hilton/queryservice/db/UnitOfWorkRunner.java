@@ -0,0 +1,63 @@
+package com.hilton.queryservice.db;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs DAO work inside a hibernate unit of work on threads that are not serving a {@code @UnitOfWork} resource
+ * method, such as cache loader and async completion threads. When a session is already bound to the current thread
+ * the work joins it, otherwise a session and transaction are opened for the work and closed afterwards.
+ */
+public class UnitOfWorkRunner {
+
+    private static final UnitOfWorkRunner DIRECT = new UnitOfWorkRunner(null);
+
+    // null when the work always runs in the caller's unit of work
+    private final SessionFactory sessionFactory;
+
+    public UnitOfWorkRunner(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * @return runner that never opens a session and runs the work directly in the caller's unit of work
+     */
+    public static UnitOfWorkRunner direct() {
+        return DIRECT;
+    }
+
+    /**
+     * Run work in a unit of work
+     *
+     * @param work DAO work
+     * @param <T>  result type
+     * @return result of the work
+     */
+    public <T> T call(Supplier<T> work) {
+        if (sessionFactory == null || ManagedSessionContext.hasBind(sessionFactory)) {
+            return work.get();
+        }
+        Session session = sessionFactory.openSession();
+        try {
+            ManagedSessionContext.bind(session);
+            Transaction transaction = session.beginTransaction();
+            try {
+                T result = work.get();
+                transaction.commit();
+                return result;
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            }
+        } finally {
+            ManagedSessionContext.unbind(sessionFactory);
+            session.close();
+        }
+    }
+}
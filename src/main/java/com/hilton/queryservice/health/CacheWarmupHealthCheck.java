@@ -0,0 +1,33 @@
+package com.hilton.queryservice.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.hilton.queryservice.core.QueryIpCacheWarmer;
+
+/**
+ * Reports unhealthy while the cache warm-up is in progress, so a restarted node is not sent traffic before its
+ * cache is warm. Healthy once warm-up finished, failed or ran out of its time budget.
+ */
+public class CacheWarmupHealthCheck extends HealthCheck {
+
+    private final QueryIpCacheWarmer queryIpCacheWarmer;
+
+    public CacheWarmupHealthCheck(QueryIpCacheWarmer queryIpCacheWarmer) {
+        this.queryIpCacheWarmer = queryIpCacheWarmer;
+    }
+
+    @Override
+    protected Result check() {
+        int loaded = queryIpCacheWarmer.getLoadedCount();
+        long elapsed = queryIpCacheWarmer.elapsedMillis();
+        if (!queryIpCacheWarmer.isFinished()) {
+            return Result.unhealthy("cache warm-up in progress, " + loaded + " ips loaded in " + elapsed + " ms");
+        }
+        if (queryIpCacheWarmer.getFailure() != null) {
+            return Result.healthy("cache warm-up failed after " + loaded + " ips: " + queryIpCacheWarmer.getFailure().getMessage());
+        }
+        if (queryIpCacheWarmer.isTimeBudgetExhausted()) {
+            return Result.healthy("cache warm-up time budget exhausted, " + loaded + " ips loaded");
+        }
+        return Result.healthy("cache warm-up finished, " + loaded + " ips loaded in " + elapsed + " ms");
+    }
+}
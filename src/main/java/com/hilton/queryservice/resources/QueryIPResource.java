@@ -1,37 +1,54 @@
 package com.hilton.queryservice.resources;
 
+import com.codahale.metrics.annotation.Timed;
+import com.hilton.queryservice.core.EncodedQueryIpResponse;
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.QueryIpBatchResult;
+import com.hilton.queryservice.core.QueryIpLookupService;
 import com.hilton.queryservice.core.QueryIpResponseEntity;
-import com.hilton.queryservice.db.QueryIpResponseDAO;
 import io.dropwizard.hibernate.UnitOfWork;
 import io.swagger.v3.oas.annotations.Operation;
-import org.apache.commons.validator.routines.InetAddressValidator;
-import org.glassfish.jersey.internal.guava.CacheBuilder;
-import org.glassfish.jersey.internal.guava.CacheLoader;
-import org.glassfish.jersey.internal.guava.LoadingCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 
 /**
  * Query IP Resource to fetch the IP Information and executes in the following steps on ip query:
- * 1. Fetch from remote client call
- * 2. Store query response in database
- * 3. Cache the result with in-memory cache for cache expiry time configured as expireCacheInSeconds
- * 4. Further calls are queried from cache, then fallback to database, and remote api call
+ * 1. Lookup the in-process ip range index, if the ip is in a known range it is answered locally
+ * 2. Fetch from remote client call
+ * 3. Store query response in database
+ * 4. Cache the result with in-memory cache for cache expiry time configured as expireCacheInSeconds
+ * 5. Further calls are queried from cache, then fallback to range index, database, and remote api call
+ * Ips are validated and canonicalized by {@link IpAddressParser}, so equivalent spellings share cache entries and rows.
+ * The lookup tiers are implemented by {@link QueryIpLookupService}, which reports the tier answering each lookup.
+ * Request latency of each endpoint is timed with {@link Timed}.
+ * The single ip endpoint writes the response bodies held by the in-memory cache as they are, gzip compressed when the
+ * client accepts it, with a strong ETag, so a client sending the tag back in If-None-Match is answered 304 Not Modified.
  */
 @Path("/geolocation")
 @Produces(MediaType.APPLICATION_JSON)
@@ -39,112 +56,298 @@ public class QueryIPResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryIPResource.class);
 
-    public static final String PUBLIC_DOMAIN_FORMAT = "^([a-z0-9]+(-[a-z0-9]+)*\\.)+[a-z]{2,}$";
     public static String EMPTY_INPUT_EXCEPTION_MESSAGE = "queryIp in the path /geolocation/ip/{queryIp} is required field to search for ip";
     public static String INVALID_INPUT_EXCEPTION_MESSAGE = "queryIp in the path /geolocation/ip/{queryIp} is not in valid IPv4 or IPv6 format";
-    private final Client client;
+    public static String EMPTY_BATCH_EXCEPTION_MESSAGE = "request body of /geolocation/ip/batch must be a non empty list of ips";
+    public static String BATCH_TOO_LARGE_EXCEPTION_MESSAGE = "request body of /geolocation/ip/batch exceeds the maximum batch size of ";
+    public static String INVALID_BATCH_IP_MESSAGE = "ip is empty or not in valid IPv4, IPv6 or domain format";
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_STREAM_IN_FLIGHT = 64;
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String GZIP = "gzip";
+    public static final String NO_STORE = "no-store";
 
-    // remote client service url
-    private final String serviceUrl;
+    // cache, range index, database and remote api lookup tiers
+    private final QueryIpLookupService queryIpLookupService;
 
-    // cache expiry time in seconds
-    private final int expireCacheInSeconds;
+    // max number of ips accepted by a single batch request
+    private final int maxBatchSize;
 
-    // max cache size. this is currently in memory and needs to be moved to external cache such as redis etc
-    private final int maxCacheSize;
+    // max number of pending lookups of a single stream request
+    private final int maxStreamInFlight;
 
-    // in-memory cache
-    private final LoadingCache<String, QueryIpResponseEntity> ipCache;
+    // max-age of the Cache-Control header of single ip responses, no header when 0
+    private final int cacheMaxAgeInSeconds;
 
-    // DAO for query response persistence and lookup
-    private final QueryIpResponseDAO queryIpResponseDAO;
+    private QueryIPResource(Builder builder) {
+        this.queryIpLookupService = builder.queryIpLookupService;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.maxStreamInFlight = builder.maxStreamInFlight;
+        this.cacheMaxAgeInSeconds = builder.cacheMaxAgeInSeconds;
+    }
 
-    public QueryIPResource(Client client, String serviceUrl, int expireCacheInSeconds, int maxCacheSize, QueryIpResponseDAO queryIpResponseDAO) {
-        this.client = client;
-        this.serviceUrl = serviceUrl;
-        this.expireCacheInSeconds = expireCacheInSeconds;
-        this.maxCacheSize = maxCacheSize;
-        this.queryIpResponseDAO = queryIpResponseDAO;
+    /**
+     * @param queryIpLookupService cache, range index, database and remote api lookup tiers
+     * @return builder of a resource accepting batches of {@link #DEFAULT_MAX_BATCH_SIZE} ips, streams of
+     * {@link #DEFAULT_MAX_STREAM_IN_FLIGHT} pending lookups and answering without Cache-Control header
+     */
+    public static Builder builder(QueryIpLookupService queryIpLookupService) {
+        return new Builder(queryIpLookupService);
+    }
 
-        /**
-         * Initialize Cache with load from remote api call and persist in db table
-         */
-        ipCache = CacheBuilder.newBuilder().maximumSize(maxCacheSize).expireAfterAccess(this.expireCacheInSeconds, TimeUnit.SECONDS).build(new CacheLoader<String, QueryIpResponseEntity>() {
-            public QueryIpResponseEntity load(String key) throws Exception {
-                LOGGER.info("Loading key " + key + " from Database as not in cache");
-                QueryIpResponseEntity queryIpResponseEntity = fetchQueryIpFromDatabase(key);
-                if (queryIpResponseEntity == null) {
-                    LOGGER.info("IP " + key + " is not present in database, fetch from remote api call");
-                    queryIpResponseEntity = fetchQueryIpFromRemoteCall(Optional.of(key));
-                    queryIpResponseEntity.setPersisted("true");
-                    queryIpResponseDAO.create(queryIpResponseEntity);
-                }
-                return queryIpResponseEntity;
+    /**
+     * Fetch query IP Rest API Call
+     * Request format /geolocation/ip/{queryIp}
+     * The pre-serialized body is written without serialization, gzip compressed when Accept-Encoding allows it, with
+     * an ETag of the body and a Cache-Control max-age of the in-memory cache expiry. Fail answers, which are not
+     * cached, are sent with Cache-Control no-store. A request whose If-None-Match holds the tag is answered
+     * 304 Not Modified without a body.
+     *
+     * @param ipOptional     ip String
+     * @param ifNoneMatch    If-None-Match header, may be null
+     * @param acceptEncoding Accept-Encoding header, may be null
+     * @return json response, or 304 when the client holds it
+     * @throws BadRequestException if null or invalid
+     * @throws ExecutionException
+     */
+    @GET
+    @Path(("/ip/{queryIp}"))
+    @Operation(description = "Fetch Geo Location by an IP")
+    @Timed
+    @UnitOfWork
+    public Response queryIp(@PathParam("queryIp") Optional<String> ipOptional, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                            @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) throws BadRequestException, ExecutionException {
+        EncodedQueryIpResponse encoded = queryIpLookupService.getEncoded(validateQueryIp(ipOptional));
+        boolean gzip = encoded.getGzip() != null && acceptsGzip(acceptEncoding);
+        String entityTag = gzip ? encoded.getGzipEntityTag() : encoded.getEntityTag();
+        Response.ResponseBuilder builder = encoded.matches(ifNoneMatch)
+                ? Response.notModified()
+                : Response.ok(gzip ? encoded.getGzip() : encoded.getJson(), MediaType.APPLICATION_JSON_TYPE);
+        if (gzip) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        if (encoded.isFailAnswer()) {
+            builder.header(HttpHeaders.CACHE_CONTROL, NO_STORE);
+        } else if (cacheMaxAgeInSeconds > 0) {
+            builder.header(HttpHeaders.CACHE_CONTROL, "max-age=" + cacheMaxAgeInSeconds);
+        }
+        return builder.header(HttpHeaders.ETAG, entityTag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+    }
+
+    /**
+     * Fetch query IP as an entity, the lookup of the single ip endpoint without its http encoding
+     *
+     * @param ipOptional ip String
+     * @return query ip response entity
+     * @throws BadRequestException if null or invalid
+     * @throws ExecutionException
+     */
+    public QueryIpResponseEntity queryIp(Optional<String> ipOptional) throws BadRequestException, ExecutionException {
+        return queryIpLookupService.get(validateQueryIp(ipOptional));
+    }
+
+    /**
+     * Fetch query IP Rest API Call without holding the request thread while database and remote api calls are in flight.
+     * Cache hits are answered inline on the request thread.
+     * Request format /geolocation/async/ip/{queryIp}
+     *
+     * @param ipOptional    ip String
+     * @param asyncResponse suspended response resumed with the query ip response entity
+     * @throws BadRequestException if null or invalid
+     */
+    @GET
+    @Path(("/async/ip/{queryIp}"))
+    @Operation(description = "Fetch Geo Location by an IP asynchronously")
+    @Timed
+    public void queryIpAsync(@PathParam("queryIp") Optional<String> ipOptional, @Suspended AsyncResponse asyncResponse) throws BadRequestException {
+        String ipString = validateQueryIp(ipOptional);
+        QueryIpResponseEntity cached = queryIpLookupService.getCached(ipString);
+        if (cached != null) {
+            asyncResponse.resume(cached);
+            return;
+        }
+        queryIpLookupService.getAsync(ipString).whenComplete((queryIpResponseEntity, throwable) -> {
+            if (throwable == null) {
+                asyncResponse.resume(queryIpResponseEntity);
+            } else {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                LOGGER.error(" failed to fetch ip " + ipString + " asynchronously", cause);
+                asyncResponse.resume(cause);
             }
         });
     }
 
     /**
-     * Fetch query IP Rest API Call
-     * Request format /geolocation/ip/{queryIp}
+     * Fetch query IP for a peer instance that found this instance to be the owner of the ip, the lookup is not
+     * forwarded to another instance
+     * Request format /geolocation/peer/ip/{queryIp}
      *
      * @param ipOptional ip String
      * @return query ip response entity
-     * @throws BadRequestException if null
+     * @throws BadRequestException if null or invalid
      * @throws ExecutionException
      */
     @GET
-    @Path(("/ip/{queryIp}"))
-    @Operation(description = "Fetch Geo Location by an IP")
+    @Path(("/peer/ip/{queryIp}"))
+    @Operation(description = "Fetch Geo Location by an IP owned by this instance for a peer instance")
+    @Timed
     @UnitOfWork
-    public QueryIpResponseEntity queryIp(@PathParam("queryIp") Optional<String> ipOptional) throws BadRequestException, ExecutionException {
+    public QueryIpResponseEntity queryIpForPeer(@PathParam("queryIp") Optional<String> ipOptional) throws BadRequestException, ExecutionException {
+        return queryIpLookupService.getForPeer(validateQueryIp(ipOptional));
+    }
 
-        if (ipOptional == null || ipOptional.isEmpty()) {
-            LOGGER.error(" empty query ip returning error message: " + EMPTY_INPUT_EXCEPTION_MESSAGE);
-            throw new BadRequestException(EMPTY_INPUT_EXCEPTION_MESSAGE);
+    /**
+     * Fetch query IP for a batch of ips
+     * Request format POST /geolocation/ip/batch with a json list of ips as body
+     * Duplicate ips are looked up once, cached ips are answered from the cache, the remaining ips are fetched
+     * from the database with a single query and only the ips not in the database are sent to the remote api.
+     *
+     * @param ips list of ips
+     * @return list of results in the order of the requested ips
+     * @throws BadRequestException if the list is empty or larger than the max batch size
+     */
+    @POST
+    @Path("/ip/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Operation(description = "Fetch Geo Location for a batch of IPs")
+    @Timed
+    @UnitOfWork
+    public List<QueryIpBatchResult> queryIpBatch(List<String> ips) throws BadRequestException {
+        if (ips == null || ips.isEmpty()) {
+            LOGGER.error(" empty batch returning error message: " + EMPTY_BATCH_EXCEPTION_MESSAGE);
+            throw new BadRequestException(EMPTY_BATCH_EXCEPTION_MESSAGE);
         }
-        String ipString = ipOptional.get();
-        InetAddressValidator inetAddressValidator = InetAddressValidator.getInstance();
-        if (!inetAddressValidator.isValidInet4Address(ipString) && !inetAddressValidator.isValidInet6Address(ipString) && !ipString.matches(PUBLIC_DOMAIN_FORMAT)) {
-            LOGGER.error(" invalid ip input message: " + INVALID_INPUT_EXCEPTION_MESSAGE);
-            throw new BadRequestException(INVALID_INPUT_EXCEPTION_MESSAGE);
+        if (ips.size() > maxBatchSize) {
+            LOGGER.error(" batch of " + ips.size() + " ips exceeds max batch size " + maxBatchSize);
+            throw new BadRequestException(BATCH_TOO_LARGE_EXCEPTION_MESSAGE + maxBatchSize);
+        }
+
+        // equivalent spellings of an ip share one canonical ip and are looked up once
+        Map<String, String> canonicalIps = new LinkedHashMap<>();
+        Set<String> validIps = new LinkedHashSet<>();
+        for (String ip : ips) {
+            if (ip == null || canonicalIps.containsKey(ip)) {
+                continue;
+            }
+            String canonicalIp = IpAddressParser.canonicalize(ip);
+            canonicalIps.put(ip, canonicalIp);
+            if (canonicalIp != null) {
+                validIps.add(canonicalIp);
+            }
         }
-        return ipCache.get(ipString);
+        Map<String, QueryIpBatchResult> results = validIps.isEmpty() ? new LinkedHashMap<>() : queryIpLookupService.getAll(validIps);
+
+        List<QueryIpBatchResult> response = new ArrayList<>(ips.size());
+        for (String ip : ips) {
+            String canonicalIp = ip == null ? null : canonicalIps.get(ip);
+            response.add(canonicalIp == null ? QueryIpBatchResult.invalid(ip, INVALID_BATCH_IP_MESSAGE) : results.get(canonicalIp));
+        }
+        return response;
     }
 
     /**
-     * Remote client call to fetch IP information by remote api call
+     * Fetch query IP for a stream of ips of any size
+     * Request format POST /geolocation/ip/stream with one ip per line as body, answered with one json
+     * {@link QueryIpBatchResult} per line in the order of the ips. Results are streamed while the body is read,
+     * at most maxStreamInFlight lookups are pending at once, so memory does not grow with the size of the body.
      *
-     * @param ip address
-     * @return ip response entity
+     * @param input newline delimited ips
+     * @return newline delimited json results
      */
-    private QueryIpResponseEntity fetchQueryIpFromRemoteCall(Optional<String> ip) {
-        String targetUrl = null;
-        if (ip.isPresent() && ip.get() != "") {
-            targetUrl = serviceUrl + ip.get();
-        } else {
-            targetUrl = serviceUrl;
-        }
-        WebTarget webTarget = client.target(targetUrl);
-        Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON);
-        Response response = invocationBuilder.get();
-        QueryIpResponseEntity queryIpResponseEntity = response.readEntity(QueryIpResponseEntity.class);
-        LOGGER.info(" successfully fetched the ip:" + ip + " from remote api service " + targetUrl + " and query status is :" + queryIpResponseEntity.getStatus());
-        return queryIpResponseEntity;
+    @POST
+    @Path("/ip/stream")
+    @Consumes({NDJSON, MediaType.TEXT_PLAIN})
+    @Produces(NDJSON)
+    @Operation(description = "Fetch Geo Location for a newline delimited stream of IPs")
+    @Timed
+    public StreamingOutput queryIpStream(InputStream input) {
+        return new QueryIpStreamingOutput(queryIpLookupService, input, maxStreamInFlight);
     }
 
     /**
-     * Fetch IP Query response persisted in the database as a fallback mechanism from cache lookup
+     * @param acceptEncoding Accept-Encoding header, may be null
+     * @return true when the header lists gzip without a zero quality
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            if (!parts[0].trim().equalsIgnoreCase(GZIP)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().replace(" ", "");
+                if (parameter.matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Validate query ip is present and in IPv4, IPv6 or public domain format
      *
-     * @param ipString ip string
-     * @return query ip response persisted in database
+     * @param ipOptional ip String
+     * @return canonical ip string, the key of the caches and the database
+     * @throws BadRequestException if null or invalid
      */
-    private QueryIpResponseEntity fetchQueryIpFromDatabase(String ipString) {
-        Optional<QueryIpResponseEntity> optionalQueryIpResponseEntity = queryIpResponseDAO.findByIp(ipString);
-        if (optionalQueryIpResponseEntity != null && optionalQueryIpResponseEntity.isPresent()) {
-            LOGGER.info(" successfully queried ip : " + ipString + " from database ");
-            return optionalQueryIpResponseEntity.get();
+    private String validateQueryIp(Optional<String> ipOptional) throws BadRequestException {
+        if (ipOptional == null || ipOptional.isEmpty()) {
+            LOGGER.error(" empty query ip returning error message: " + EMPTY_INPUT_EXCEPTION_MESSAGE);
+            throw new BadRequestException(EMPTY_INPUT_EXCEPTION_MESSAGE);
+        }
+        String canonicalIp = IpAddressParser.canonicalize(ipOptional.get());
+        if (canonicalIp == null) {
+            LOGGER.error(" invalid ip input message: " + INVALID_INPUT_EXCEPTION_MESSAGE);
+            throw new BadRequestException(INVALID_INPUT_EXCEPTION_MESSAGE);
+        }
+        return canonicalIp;
+    }
+
+    /**
+     * Lookup service and request limits of a {@link QueryIPResource}
+     */
+    public static final class Builder {
+
+        private final QueryIpLookupService queryIpLookupService;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private int maxStreamInFlight = DEFAULT_MAX_STREAM_IN_FLIGHT;
+        private int cacheMaxAgeInSeconds;
+
+        private Builder(QueryIpLookupService queryIpLookupService) {
+            this.queryIpLookupService = queryIpLookupService;
+        }
+
+        /**
+         * @param maxBatchSize max number of ips accepted by a single batch request
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param maxStreamInFlight max number of pending lookups of a single stream request
+         */
+        public Builder maxStreamInFlight(int maxStreamInFlight) {
+            this.maxStreamInFlight = maxStreamInFlight;
+            return this;
+        }
+
+        /**
+         * @param cacheMaxAgeInSeconds max-age of the Cache-Control header of single ip responses, no header when 0
+         */
+        public Builder cacheMaxAgeInSeconds(int cacheMaxAgeInSeconds) {
+            this.cacheMaxAgeInSeconds = cacheMaxAgeInSeconds;
+            return this;
+        }
+
+        public QueryIPResource build() {
+            return new QueryIPResource(this);
         }
-        return null;
     }
 }
@@ -0,0 +1,139 @@
+package com.hilton.queryservice.resources;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.QueryIpBatchResult;
+import com.hilton.queryservice.core.QueryIpLookupService;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import io.dropwizard.jackson.Jackson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Enriches a newline delimited stream of ips into a newline delimited json stream of {@link QueryIpBatchResult}, one
+ * line per input line in the input order. Blank lines are skipped.
+ * Ips are looked up through the same tiers as single requests: cache hits are answered inline, misses are looked up
+ * with {@link QueryIpLookupService#getAsync(String)} and at most maxInFlight of them are pending at once, reading stops
+ * until the oldest pending lookup completes. Input lines longer than {@link #MAX_LINE_LENGTH} are answered as invalid
+ * without being kept, so memory stays bounded by maxInFlight whatever the size of the input. The output is flushed
+ * whenever reading or a lookup would wait, so results are sent while the input is still uploading.
+ */
+public class QueryIpStreamingOutput implements StreamingOutput {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIpStreamingOutput.class);
+
+    // longer than any ip or domain name accepted by IpAddressParser
+    static final int MAX_LINE_LENGTH = 256;
+
+    private static final ObjectWriter RESULT_WRITER = Jackson.newObjectMapper().writerFor(QueryIpBatchResult.class);
+
+    private final QueryIpLookupService queryIpLookupService;
+    private final InputStream input;
+    private final int maxInFlight;
+
+    /**
+     * @param queryIpLookupService lookup tiers
+     * @param input                newline delimited ips
+     * @param maxInFlight          max number of pending lookups
+     */
+    public QueryIpStreamingOutput(QueryIpLookupService queryIpLookupService, InputStream input, int maxInFlight) {
+        this.queryIpLookupService = queryIpLookupService;
+        this.input = input;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        // results in the input order, pending lookups complete in any order
+        Deque<CompletableFuture<QueryIpBatchResult>> inFlight = new ArrayDeque<>(maxInFlight);
+        StringBuilder line = new StringBuilder(MAX_LINE_LENGTH);
+        long lines = 0;
+        while (true) {
+            if (!reader.ready()) {
+                output.flush();
+            }
+            int length = readLine(reader, line);
+            if (length < 0) {
+                break;
+            }
+            String ip = line.toString().trim();
+            if (ip.isEmpty() && length <= MAX_LINE_LENGTH) {
+                continue;
+            }
+            lines++;
+            inFlight.addLast(lookup(ip, length));
+            while (inFlight.size() >= maxInFlight || (!inFlight.isEmpty() && inFlight.peekFirst().isDone())) {
+                writeResult(output, inFlight.pollFirst());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            writeResult(output, inFlight.pollFirst());
+        }
+        output.flush();
+        LOGGER.info(" streamed results of " + lines + " ips");
+    }
+
+    private CompletableFuture<QueryIpBatchResult> lookup(String ip, int length) {
+        String canonicalIp = length > MAX_LINE_LENGTH ? null : IpAddressParser.canonicalize(ip);
+        if (canonicalIp == null) {
+            return CompletableFuture.completedFuture(QueryIpBatchResult.invalid(length > MAX_LINE_LENGTH ? ip + "..." : ip,
+                    QueryIPResource.INVALID_BATCH_IP_MESSAGE));
+        }
+        QueryIpResponseEntity cached = queryIpLookupService.getCached(canonicalIp);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(QueryIpBatchResult.ok(ip, cached));
+        }
+        return queryIpLookupService.getAsync(canonicalIp).handle((queryIpResponseEntity, throwable) -> {
+            if (throwable == null) {
+                return QueryIpBatchResult.ok(ip, queryIpResponseEntity);
+            }
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            return QueryIpBatchResult.error(ip, cause.getMessage());
+        });
+    }
+
+    private static void writeResult(OutputStream output, CompletableFuture<QueryIpBatchResult> result) throws IOException {
+        if (!result.isDone()) {
+            // send what is written while waiting for the lookup
+            output.flush();
+        }
+        output.write(RESULT_WRITER.writeValueAsBytes(result.join()));
+        output.write('\n');
+    }
+
+    /**
+     * Read a line keeping at most {@link #MAX_LINE_LENGTH} + 1 characters of it
+     *
+     * @param reader input
+     * @param line   cleared and filled with the start of the line, without the line terminator
+     * @return length of the line, -1 at the end of the input
+     */
+    static int readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int length = 0;
+        int c;
+        while ((c = reader.read()) >= 0 && c != '\n') {
+            if (length++ <= MAX_LINE_LENGTH) {
+                line.append((char) c);
+            }
+        }
+        if (c < 0 && length == 0) {
+            return -1;
+        }
+        return length;
+    }
+}
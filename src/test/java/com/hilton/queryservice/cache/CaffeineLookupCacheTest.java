@@ -0,0 +1,153 @@
+package com.hilton.queryservice.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CaffeineLookupCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicInteger asyncLoads = new AtomicInteger();
+
+    private CaffeineLookupCache<String, String> newCache(LookupCacheSpec spec) {
+        return new CaffeineLookupCache<>(spec,
+                key -> {
+                    loads.incrementAndGet();
+                    return "value-" + key;
+                },
+                key -> {
+                    asyncLoads.incrementAndGet();
+                    return CompletableFuture.completedFuture("async-" + key);
+                },
+                (key, value) -> value.length(),
+                Runnable::run);
+    }
+
+    @Test
+    public void loadsMissOnCallerThreadOnce() {
+        CaffeineLookupCache<String, String> cache = newCache(LookupCacheSpec.ofSize(60, 100));
+
+        assertThat(cache.get("a")).isEqualTo("value-a");
+        assertThat(cache.get("a")).isEqualTo("value-a");
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(asyncLoads.get()).isEqualTo(0);
+        LookupCacheStats stats = cache.stats();
+        assertThat(stats.getHitCount()).isEqualTo(1);
+        assertThat(stats.getMissCount()).isEqualTo(1);
+        assertThat(stats.getEstimatedSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void loadsAsyncMissWithAsyncLoader() {
+        CaffeineLookupCache<String, String> cache = newCache(LookupCacheSpec.ofSize(60, 100));
+
+        assertThat(cache.getAsync("a").join()).isEqualTo("async-a");
+        assertThat(cache.getIfPresent("a")).isEqualTo("async-a");
+        assertThat(cache.get("a")).isEqualTo("async-a");
+
+        assertThat(asyncLoads.get()).isEqualTo(1);
+        assertThat(loads.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void failedLoadIsNotCached() {
+        AtomicInteger attempts = new AtomicInteger();
+        CaffeineLookupCache<String, String> cache = new CaffeineLookupCache<>(LookupCacheSpec.ofSize(60, 100),
+                key -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException("load failed");
+                },
+                key -> CompletableFuture.failedFuture(new IllegalStateException("load failed")),
+                (key, value) -> 1,
+                Runnable::run);
+
+        assertThrows(IllegalStateException.class, () -> cache.get("a"));
+        assertThrows(IllegalStateException.class, () -> cache.get("a"));
+        assertThrows(CompletionException.class, () -> cache.getAsync("a").join());
+
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(cache.getIfPresent("a")).isNull();
+    }
+
+    @Test
+    public void concurrentMissesWaitForOneBlockingLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CaffeineLookupCache<String, String> cache = new CaffeineLookupCache<>(LookupCacheSpec.ofSize(60, 100),
+                key -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "value-" + key;
+                },
+                key -> CompletableFuture.completedFuture("async-" + key),
+                (key, value) -> 1,
+                Runnable::run);
+        AtomicReference<String> first = new AtomicReference<>();
+        Thread loader = new Thread(() -> first.set(cache.get("a")));
+        loader.start();
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // the pending load is in the cache while the loader blocks outside of the map lock
+        CompletableFuture<String> waiting = CompletableFuture.supplyAsync(() -> cache.get("a"));
+        assertThat(cache.get("b")).isEqualTo("value-b");
+        release.countDown();
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("value-a");
+        loader.join(5000);
+        assertThat(first.get()).isEqualTo("value-a");
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void blockingLoadMayLookUpAnotherKey() {
+        AtomicReference<CaffeineLookupCache<String, String>> self = new AtomicReference<>();
+        CaffeineLookupCache<String, String> cache = new CaffeineLookupCache<>(LookupCacheSpec.ofSize(60, 100),
+                key -> key.startsWith("www.") ? self.get().get(key.substring(4)) : "value-" + key,
+                key -> CompletableFuture.completedFuture("async-" + key),
+                (key, value) -> 1,
+                Runnable::run);
+        self.set(cache);
+
+        assertThat(cache.get("www.a")).isEqualTo("value-a");
+        assertThat(cache.getIfPresent("a")).isEqualTo("value-a");
+    }
+
+    @Test
+    public void evictsByWeightInBytes() {
+        // every value weighs 7 bytes, so only two fit in 16 bytes
+        CaffeineLookupCache<String, String> cache = newCache(new LookupCacheSpec(60, 0, Long.MAX_VALUE, 16));
+
+        for (String key : new String[]{"a", "b", "c", "d"}) {
+            cache.get(key);
+        }
+
+        LookupCacheStats stats = cache.stats();
+        assertThat(stats.getEvictionCount()).isGreaterThanOrEqualTo(2);
+        assertThat(stats.getWeightedSize()).isLessThanOrEqualTo(16);
+    }
+
+    @Test
+    public void putAndInvalidate() {
+        CaffeineLookupCache<String, String> cache = newCache(LookupCacheSpec.ofSize(60, 100));
+
+        cache.put("a", "put-a");
+        assertThat(cache.get("a")).isEqualTo("put-a");
+        cache.invalidate("a");
+        assertThat(cache.getIfPresent("a")).isNull();
+        assertThat(loads.get()).isEqualTo(0);
+    }
+}
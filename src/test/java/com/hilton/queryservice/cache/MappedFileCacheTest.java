@@ -0,0 +1,124 @@
+package com.hilton.queryservice.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MappedFileCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void storesAndReadsValues() throws IOException {
+        try (MappedFileCache cache = MappedFileCache.open(tempDir.resolve("cache.bin"), 16, 4, 128)) {
+            assertThat(cache.put("71.76.72.156", bytes("Charlotte"))).isTrue();
+            assertThat(cache.put("8.8.8.8", bytes("Mountain View"))).isTrue();
+
+            assertThat(cache.get("71.76.72.156")).isEqualTo(bytes("Charlotte"));
+            assertThat(cache.get("8.8.8.8")).isEqualTo(bytes("Mountain View"));
+            assertThat(cache.get("1.1.1.1")).isNull();
+            assertThat(cache.hitCount()).isEqualTo(2);
+            assertThat(cache.missCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void replacesValueOfKey() throws IOException {
+        try (MappedFileCache cache = MappedFileCache.open(tempDir.resolve("cache.bin"), 1, 2, 128)) {
+            cache.put("8.8.8.8", bytes("old"));
+            cache.put("8.8.8.8", bytes("new"));
+            cache.put("1.1.1.1", bytes("other"));
+
+            assertThat(cache.get("8.8.8.8")).isEqualTo(bytes("new"));
+            assertThat(cache.get("1.1.1.1")).isEqualTo(bytes("other"));
+            assertThat(cache.evictionCount()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void survivesReopen() throws IOException {
+        Path file = tempDir.resolve("cache.bin");
+        try (MappedFileCache cache = MappedFileCache.open(file, 16, 4, 128)) {
+            cache.put("71.76.72.156", bytes("Charlotte"));
+        }
+        try (MappedFileCache cache = MappedFileCache.open(file, 16, 4, 128)) {
+            assertThat(cache.get("71.76.72.156")).isEqualTo(bytes("Charlotte"));
+        }
+    }
+
+    @Test
+    public void reinitializesFileOfAnotherLayout() throws IOException {
+        Path file = tempDir.resolve("cache.bin");
+        try (MappedFileCache cache = MappedFileCache.open(file, 16, 4, 128)) {
+            cache.put("71.76.72.156", bytes("Charlotte"));
+        }
+        try (MappedFileCache cache = MappedFileCache.open(file, 16, 4, 256)) {
+            assertThat(cache.get("71.76.72.156")).isNull();
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyReadSlotOfFullSet() throws IOException {
+        try (MappedFileCache cache = MappedFileCache.open(tempDir.resolve("cache.bin"), 1, 2, 128)) {
+            cache.put("a", bytes("1"));
+            cache.put("b", bytes("2"));
+            cache.get("a");
+            cache.put("c", bytes("3"));
+
+            assertThat(cache.get("a")).isEqualTo(bytes("1"));
+            assertThat(cache.get("b")).isNull();
+            assertThat(cache.get("c")).isEqualTo(bytes("3"));
+            assertThat(cache.evictionCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void rejectsEntryLargerThanSlot() throws IOException {
+        try (MappedFileCache cache = MappedFileCache.open(tempDir.resolve("cache.bin"), 1, 2, 64)) {
+            assertThat(cache.put("8.8.8.8", new byte[cache.maxEntrySize()])).isFalse();
+            assertThat(cache.get("8.8.8.8")).isNull();
+        }
+    }
+
+    @Test
+    public void discardsCorruptSlot() throws IOException {
+        Path file = tempDir.resolve("cache.bin");
+        try (MappedFileCache cache = MappedFileCache.open(file, 1, 1, 128)) {
+            cache.put("8.8.8.8", bytes("Mountain View"));
+        }
+        // flip the last value byte of the only slot: header 32, slot header 24, key 7, value 13
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'x'}), 32 + 24 + 7 + 12);
+        }
+        try (MappedFileCache cache = MappedFileCache.open(file, 1, 1, 128)) {
+            assertThat(cache.get("8.8.8.8")).isNull();
+        }
+    }
+
+    @Test
+    public void rejectsInvalidLayout() {
+        assertThrows(IllegalArgumentException.class, () -> MappedFileCache.open(tempDir.resolve("cache.bin"), 0, 4, 128));
+        assertThrows(IllegalArgumentException.class, () -> MappedFileCache.open(tempDir.resolve("cache.bin"), 16, 4, 16));
+    }
+
+    @Test
+    public void disabledCacheAlwaysMisses() {
+        MappedFileCache cache = MappedFileCache.disabled();
+        assertThat(cache.put("8.8.8.8", bytes("Mountain View"))).isFalse();
+        assertThat(cache.get("8.8.8.8")).isNull();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+package com.hilton.queryservice.cli;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hilton.queryservice.core.IpRangeIndex;
+import com.hilton.queryservice.core.QueryIpBatchResult;
+import com.hilton.queryservice.core.QueryIpResponses;
+import com.hilton.queryservice.core.ReservedRanges;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import io.dropwizard.jackson.Jackson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BulkEnricherTest {
+
+    private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private final List<Collection<String>> queries = new ArrayList<>();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = mock(QueryIpResponseDAO.class);
+        when(queryIpResponseDAO.findByIps(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> ips = invocation.getArgument(0);
+            synchronized (queries) {
+                queries.add(new ArrayList<>(ips));
+            }
+            // every ip of the database ends with .156 or .157
+            return ips.stream().filter(ip -> ip.endsWith(".156") || ip.endsWith(".157")).map(QueryIpResponses::charlotte).collect(Collectors.toList());
+        });
+    }
+
+    @Test
+    public void writesOneResultPerLineInInputOrder() throws Exception {
+        List<QueryIpBatchResult> results = enrich("71.76.72.156\n71.76.72.158\r\n\n  \ninvalidString\n127.0.0.1\n71.76.72.157", 1, 0);
+
+        assertThat(results).hasSize(5);
+        assertThat(results.get(0).getIp()).isEqualTo("71.76.72.156");
+        assertThat(results.get(0).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+        assertThat(results.get(0).getResponse().getQuery()).isEqualTo("71.76.72.156");
+        assertThat(results.get(1).getIp()).isEqualTo("71.76.72.158");
+        assertThat(results.get(1).getStatus()).isEqualTo(QueryIpBatchResult.UNKNOWN);
+        assertThat(results.get(2).getStatus()).isEqualTo(QueryIpBatchResult.INVALID);
+        assertThat(results.get(3).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+        assertThat(results.get(3).getResponse().getMessage()).isEqualTo(ReservedRanges.RESERVED_RANGE_MESSAGE);
+        assertThat(results.get(4).getIp()).isEqualTo("71.76.72.157");
+        assertThat(results.get(4).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+    }
+
+    @Test
+    public void keepsInputOrderAcrossChunksEnrichedInParallel() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            input.append("71.76.").append(i / 250).append('.').append(i % 250).append('\n');
+        }
+
+        List<QueryIpBatchResult> results = enrich(input.toString(), 4, 0, 1024);
+
+        assertThat(results).hasSize(2000);
+        for (int i = 0; i < 2000; i++) {
+            assertThat(results.get(i).getIp()).isEqualTo("71.76." + i / 250 + "." + i % 250);
+        }
+        assertThat(results.stream().filter(result -> QueryIpBatchResult.OK.equals(result.getStatus())).count()).isEqualTo(16);
+        assertThat(queries.size()).isGreaterThan(1);
+    }
+
+    @Test
+    public void looksUpDistinctIpsOfAChunkOnce() throws Exception {
+        List<QueryIpBatchResult> results = enrich("71.76.72.156\n71.76.72.156\n71.76.72.158\n71.76.72.156\n71.76.72.158\n", 1, 0);
+
+        assertThat(results).hasSize(5);
+        assertThat(results.stream().map(QueryIpBatchResult::getStatus).collect(Collectors.toList()))
+                .containsExactly("ok", "ok", "unknown", "ok", "unknown");
+        assertThat(queries).hasSize(1);
+        assertThat(queries.get(0)).containsExactlyInAnyOrder("71.76.72.156", "71.76.72.158");
+    }
+
+    @Test
+    public void readsIpFromColumnOfCsvAndLogLines() throws Exception {
+        List<QueryIpBatchResult> results = enrich("1,\"71.76.72.156\",x\n2, 71.76.72.157 ,y\n3\n", 1, 1);
+
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).getIp()).isEqualTo("71.76.72.156");
+        assertThat(results.get(0).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+        assertThat(results.get(1).getIp()).isEqualTo("71.76.72.157");
+        assertThat(results.get(1).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+        assertThat(results.get(2).getStatus()).isEqualTo(QueryIpBatchResult.INVALID);
+        assertThat(results.get(2).getMessage()).isEqualTo(BulkEnricher.NO_COLUMN_MESSAGE + 1);
+
+        List<QueryIpBatchResult> logResults = enrich("71.76.72.156 - - [10/Oct/2026:13:55:36 +0000] \"GET / HTTP/1.1\" 200\n", 1, 0);
+        assertThat(logResults.get(0).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+    }
+
+    @Test
+    public void emptyInputWritesEmptyOutput() throws Exception {
+        assertThat(enrich("", 2, 0)).isEmpty();
+        verify(queryIpResponseDAO, never()).findByIps(anyCollection());
+    }
+
+    @Test
+    public void splitsChunksAtLineEnds() throws Exception {
+        Path input = tempDir.resolve("lines.txt");
+        Files.write(input, "0123\n5678\n".getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(input)) {
+            assertThat(BulkEnricher.nextLineStart(channel, 0, 10)).isEqualTo(5);
+            assertThat(BulkEnricher.nextLineStart(channel, 4, 10)).isEqualTo(5);
+            assertThat(BulkEnricher.nextLineStart(channel, 5, 10)).isEqualTo(10);
+            assertThat(BulkEnricher.nextLineStart(channel, 10, 10)).isEqualTo(10);
+        }
+    }
+
+    private List<QueryIpBatchResult> enrich(String input, int parallelism, int column) throws Exception {
+        return enrich(input, parallelism, column, 1 << 20);
+    }
+
+    private List<QueryIpBatchResult> enrich(String input, int parallelism, int column, int chunkSizeInBytes) throws Exception {
+        Path inputFile = Files.createTempFile(tempDir, "ips", ".txt");
+        Path outputFile = Files.createTempFile(tempDir, "ips", ".ndjson");
+        Files.write(inputFile, input.getBytes(StandardCharsets.UTF_8));
+        BulkEnricher bulkEnricher = new BulkEnricher(queryIpResponseDAO, UnitOfWorkRunner.direct(), IpRangeIndex.empty(), parallelism,
+                chunkSizeInBytes, column);
+
+        long lines = bulkEnricher.enrich(inputFile, outputFile);
+
+        List<QueryIpBatchResult> results = new ArrayList<>();
+        for (String line : Files.readAllLines(outputFile, StandardCharsets.UTF_8)) {
+            results.add(objectMapper.readValue(line, QueryIpBatchResult.class));
+        }
+        assertThat(results).hasSize((int) lines);
+        return results;
+    }
+}
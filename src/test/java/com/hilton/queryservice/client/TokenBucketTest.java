@@ -0,0 +1,77 @@
+package com.hilton.queryservice.client;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private AtomicLong clock;
+    private TokenBucket tokenBucket;
+
+    @BeforeEach
+    void setUp() {
+        clock = new AtomicLong(1000 * SECOND);
+        // a permit every second, up to 3 at once
+        tokenBucket = new TokenBucket(60, 3, clock::get);
+    }
+
+    @Test
+    public void burstIsAvailableRightAway() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(tokenBucket.reserve(0)).isEqualTo(0);
+        }
+        assertThat(tokenBucket.reserve(0)).isEqualTo(-1);
+    }
+
+    @Test
+    public void emptyBucketReservesPermitsAheadInOrder() {
+        for (int i = 0; i < 3; i++) {
+            tokenBucket.reserve(0);
+        }
+
+        assertThat(tokenBucket.reserve(5 * SECOND)).isEqualTo(SECOND);
+        assertThat(tokenBucket.reserve(5 * SECOND)).isEqualTo(2 * SECOND);
+        assertThat(tokenBucket.reserve(SECOND)).isEqualTo(-1);
+        assertThat(tokenBucket.availablePermits()).isEqualTo(-2.0);
+    }
+
+    @Test
+    public void bucketRefillsUpToBurstSize() {
+        for (int i = 0; i < 3; i++) {
+            tokenBucket.reserve(0);
+        }
+
+        clock.addAndGet(2 * SECOND);
+        assertThat(tokenBucket.availablePermits()).isEqualTo(2.0);
+        clock.addAndGet(60 * SECOND);
+        assertThat(tokenBucket.availablePermits()).isEqualTo(3.0);
+    }
+
+    @Test
+    public void pauseEmptiesBucketUntilItEnds() {
+        tokenBucket.pauseFor(10 * SECOND);
+
+        assertThat(tokenBucket.reserve(5 * SECOND)).isEqualTo(-1);
+        assertThat(tokenBucket.reserve(20 * SECOND)).isEqualTo(11 * SECOND);
+        // the permit after the one reserved above
+        clock.addAndGet(12 * SECOND);
+        assertThat(tokenBucket.reserve(0)).isEqualTo(0);
+    }
+
+    @Test
+    public void tryAcquireWaitsForReservedPermit() throws InterruptedException {
+        TokenBucket fast = new TokenBucket(60000, 1);
+
+        assertThat(fast.tryAcquire(0)).isTrue();
+        long start = System.nanoTime();
+        assertThat(fast.tryAcquire(TimeUnit.SECONDS.toNanos(1))).isTrue();
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(1) / 2);
+    }
+}
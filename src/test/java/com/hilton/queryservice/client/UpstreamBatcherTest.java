@@ -0,0 +1,161 @@
+package com.hilton.queryservice.client;
+
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.core.QueryIpResponses;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.ws.rs.ProcessingException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UpstreamBatcherTest {
+
+    private UpstreamGateway upstreamGateway;
+    private UpstreamBatcher upstreamBatcher;
+
+    @BeforeEach
+    void setUp() {
+        upstreamGateway = mock(UpstreamGateway.class);
+        when(upstreamGateway.isBatchSupported()).thenReturn(true);
+        when(upstreamGateway.fetchBatchAsync(anyList())).thenAnswer(invocation -> {
+            List<String> ips = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(ips.stream().map(QueryIpResponses::charlotte).collect(Collectors.toList()));
+        });
+        when(upstreamGateway.fetchAsync(anyString())).thenAnswer(invocation -> CompletableFuture.completedFuture(charlotte(invocation.getArgument(0))));
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (upstreamBatcher != null) {
+            upstreamBatcher.stop();
+        }
+    }
+
+    @Test
+    public void concurrentFetchesAreSentInOneBatchCall() throws Exception {
+        upstreamBatcher = new UpstreamBatcher(upstreamGateway, 100, 50);
+        upstreamBatcher.start();
+
+        CompletableFuture<QueryIpResponseEntity> first = upstreamBatcher.fetchAsync("71.76.72.156");
+        CompletableFuture<QueryIpResponseEntity> second = upstreamBatcher.fetchAsync("71.76.72.157");
+        CompletableFuture<QueryIpResponseEntity> third = upstreamBatcher.fetchAsync("2001:db8::1");
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.156");
+        assertThat(second.get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.157");
+        assertThat(third.get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("2001:db8::1");
+        ArgumentCaptor<List<String>> batch = ArgumentCaptor.forClass(List.class);
+        verify(upstreamGateway).fetchBatchAsync(batch.capture());
+        assertThat(batch.getValue()).containsExactly("71.76.72.156", "71.76.72.157", "2001:db8::1");
+        verify(upstreamGateway, never()).fetchAsync(anyString());
+        assertThat(upstreamBatcher.getBatchCount()).isEqualTo(1);
+        assertThat(upstreamBatcher.getBatchedIpCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void fullBatchIsSentWithoutWaitingForDelay() throws Exception {
+        upstreamBatcher = new UpstreamBatcher(upstreamGateway, 2, 60000);
+        upstreamBatcher.start();
+
+        CompletableFuture<QueryIpResponseEntity> first = upstreamBatcher.fetchAsync("71.76.72.156");
+        CompletableFuture<QueryIpResponseEntity> second = upstreamBatcher.fetchAsync("71.76.72.157");
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.156");
+        assertThat(second.get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.157");
+        verify(upstreamGateway).fetchBatchAsync(anyList());
+    }
+
+    @Test
+    public void fullBatchCancelsDelayedDispatchOfItsIps() throws Exception {
+        upstreamBatcher = new UpstreamBatcher(upstreamGateway, 2, 500);
+        upstreamBatcher.start();
+        CompletableFuture<QueryIpResponseEntity> first = upstreamBatcher.fetchAsync("71.76.72.156");
+        upstreamBatcher.fetchAsync("71.76.72.157").get(5, TimeUnit.SECONDS);
+        first.get(5, TimeUnit.SECONDS);
+        Thread.sleep(300);
+
+        CompletableFuture<QueryIpResponseEntity> third = upstreamBatcher.fetchAsync("71.76.72.158");
+        Thread.sleep(300);
+
+        // the dispatch scheduled for the first ip would have sent the third one 200 ms after it was collected
+        assertThat(third.isDone()).isFalse();
+        verify(upstreamGateway, never()).fetchAsync("71.76.72.158");
+        assertThat(third.get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.158");
+    }
+
+    @Test
+    public void sameIpSharesOneFuture() {
+        upstreamBatcher = new UpstreamBatcher(upstreamGateway, 100, 60000);
+        upstreamBatcher.start();
+
+        assertThat(upstreamBatcher.fetchAsync("71.76.72.156")).isSameAs(upstreamBatcher.fetchAsync("71.76.72.156"));
+    }
+
+    @Test
+    public void domainNamesAndSingleIpsAreFetchedWithSingleCalls() throws Exception {
+        upstreamBatcher = new UpstreamBatcher(upstreamGateway, 100, 10);
+        upstreamBatcher.start();
+
+        assertThat(upstreamBatcher.fetchAsync("example.com").get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("example.com");
+        assertThat(upstreamBatcher.fetchAsync("71.76.72.156").get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.156");
+
+        verify(upstreamGateway).fetchAsync("example.com");
+        verify(upstreamGateway).fetchAsync("71.76.72.156");
+        verify(upstreamGateway, never()).fetchBatchAsync(anyList());
+    }
+
+    @Test
+    public void failedBatchCallFailsEveryIp() {
+        when(upstreamGateway.fetchBatchAsync(anyList())).thenReturn(CompletableFuture.failedFuture(new ProcessingException("upstream down")));
+        upstreamBatcher = new UpstreamBatcher(upstreamGateway, 2, 60000);
+        upstreamBatcher.start();
+
+        CompletableFuture<QueryIpResponseEntity> first = upstreamBatcher.fetchAsync("71.76.72.156");
+        CompletableFuture<QueryIpResponseEntity> second = upstreamBatcher.fetchAsync("71.76.72.157");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertThat(e.getCause()).isInstanceOf(ProcessingException.class);
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stopSendsCollectedIps() throws Exception {
+        upstreamBatcher = new UpstreamBatcher(upstreamGateway, 100, 60000);
+        upstreamBatcher.start();
+        CompletableFuture<QueryIpResponseEntity> first = upstreamBatcher.fetchAsync("71.76.72.156");
+        CompletableFuture<QueryIpResponseEntity> second = upstreamBatcher.fetchAsync("71.76.72.157");
+
+        upstreamBatcher.stop();
+
+        assertThat(first.isDone()).isTrue();
+        assertThat(second.get().getQuery()).isEqualTo("71.76.72.157");
+        verify(upstreamGateway, timeout(1000)).fetchBatchAsync(anyList());
+    }
+
+    @Test
+    public void directBatcherFetchesEachIp() {
+        when(upstreamGateway.fetch("71.76.72.156")).thenReturn(charlotte("71.76.72.156"));
+        upstreamBatcher = UpstreamBatcher.direct(upstreamGateway);
+        upstreamBatcher.start();
+
+        assertThat(upstreamBatcher.isBatching()).isFalse();
+        assertThat(upstreamBatcher.fetch("71.76.72.156").getQuery()).isEqualTo("71.76.72.156");
+        verify(upstreamGateway, never()).fetchBatchAsync(anyList());
+    }
+}
@@ -0,0 +1,233 @@
+package com.hilton.queryservice.client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.core.QueryIpResponses;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.jackson.JacksonFeature;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Gateway against a local stub of the remote api, answering with the status and rate limit headers set by each test
+ */
+public class UpstreamGatewayTest {
+
+    private static final String PATH = "/json/";
+    private static final String BATCH_PATH = "/batch";
+
+    private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+    private final AtomicInteger calls = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService executor;
+    private Client client;
+    private String serviceUrl;
+
+    private volatile int status = 200;
+    private volatile String remainingRequests = "44";
+    private volatile String secondsToReset = "60";
+    private volatile CountDownLatch answerGate = new CountDownLatch(0);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.createContext(PATH, exchange -> {
+            calls.incrementAndGet();
+            try {
+                answerGate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String ip = exchange.getRequestURI().getPath().substring(PATH.length());
+            byte[] body = objectMapper.writeValueAsBytes(charlotte(ip));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set(UpstreamGateway.REMAINING_REQUESTS_HEADER, remainingRequests);
+            exchange.getResponseHeaders().set(UpstreamGateway.SECONDS_TO_RESET_HEADER, secondsToReset);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext(BATCH_PATH, exchange -> {
+            calls.incrementAndGet();
+            List<String> ips = objectMapper.readValue(exchange.getRequestBody(), new TypeReference<List<String>>() {
+            });
+            byte[] body = objectMapper.writeValueAsBytes(ips.stream().map(QueryIpResponses::charlotte).collect(Collectors.toList()));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        serviceUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH;
+        client = ClientBuilder.newClient().register(new JacksonFeature(objectMapper));
+    }
+
+    @AfterEach
+    void tearDown() {
+        answerGate.countDown();
+        client.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void fetchReadsResponse() throws Exception {
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, new TokenBucket(600, 5), 4, new CircuitBreaker(3, 60000), 1000);
+
+        assertThat(upstreamGateway.fetch("71.76.72.156").getQuery()).isEqualTo("71.76.72.156");
+        assertThat(upstreamGateway.fetchAsync("71.76.72.157").get().getQuery()).isEqualTo("71.76.72.157");
+        assertThat(upstreamGateway.getCircuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void fetchBatchPostsIpsToBatchEndpoint() throws Exception {
+        String batchServiceUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + BATCH_PATH;
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, batchServiceUrl, null, new TokenBucket(15, 1), 4, null, 100);
+
+        List<QueryIpResponseEntity> answers = upstreamGateway.fetchBatchAsync(Arrays.asList("71.76.72.156", "71.76.72.157")).get(5, TimeUnit.SECONDS);
+
+        assertThat(answers.stream().map(QueryIpResponseEntity::getQuery).collect(Collectors.toList())).containsExactly("71.76.72.156", "71.76.72.157");
+        assertThat(calls.get()).isEqualTo(1);
+        // the batch rate limit is separate from the one of single calls
+        ExecutionException e = assertThrows(ExecutionException.class, () -> upstreamGateway.fetchBatchAsync(Arrays.asList("71.76.72.158", "71.76.72.159")).get());
+        assertThat(e.getCause()).isInstanceOf(UpstreamRejectedException.class);
+        assertThat(upstreamGateway.fetch("71.76.72.158").getQuery()).isEqualTo("71.76.72.158");
+    }
+
+    @Test
+    public void serverErrorsOpenCircuitAndLaterCallsFailFast() {
+        status = 503;
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, null, 4, new CircuitBreaker(2, 60000), 1000);
+
+        assertThrows(ProcessingException.class, () -> upstreamGateway.fetch("71.76.72.156"));
+        assertThrows(ProcessingException.class, () -> upstreamGateway.fetch("71.76.72.156"));
+        assertThat(upstreamGateway.getCircuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        assertThrows(UpstreamRejectedException.class, () -> upstreamGateway.fetch("71.76.72.156"));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> upstreamGateway.fetchAsync("71.76.72.156").get());
+        assertThat(e.getCause()).isInstanceOf(UpstreamRejectedException.class);
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void errorAnswersAreClosed() {
+        Client mockClient = Mockito.mock(Client.class);
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        Response response = Mockito.mock(Response.class);
+        when(mockClient.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.get()).thenReturn(response);
+        when(response.getStatus()).thenReturn(503);
+        UpstreamGateway upstreamGateway = new UpstreamGateway(mockClient, serviceUrl, null, 1, null, 100);
+
+        assertThrows(ProcessingException.class, () -> upstreamGateway.fetch("71.76.72.156"));
+        assertThrows(ProcessingException.class, () -> upstreamGateway.fetch("71.76.72.156"));
+
+        verify(response, times(2)).close();
+    }
+
+    @Test
+    public void tooManyRequestsPausesRateLimitWithoutOpeningCircuit() {
+        status = 429;
+        remainingRequests = "0";
+        secondsToReset = "30";
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, new TokenBucket(600, 5), 4, new CircuitBreaker(1, 60000), 1000);
+
+        assertThrows(ProcessingException.class, () -> upstreamGateway.fetch("71.76.72.156"));
+
+        assertThat(upstreamGateway.getCircuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThrows(UpstreamRejectedException.class, () -> upstreamGateway.fetch("71.76.72.156"));
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void exhaustedQuotaPausesRateLimit() throws Exception {
+        remainingRequests = "0";
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, new TokenBucket(600, 5), 4, null, 100);
+
+        assertThat(upstreamGateway.fetch("71.76.72.156").getQuery()).isEqualTo("71.76.72.156");
+
+        assertThrows(UpstreamRejectedException.class, () -> upstreamGateway.fetch("71.76.72.157"));
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void exhaustedQuotaOfAsyncCallPausesRateLimit() throws Exception {
+        remainingRequests = "0";
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, new TokenBucket(600, 5), 4, null, 100);
+
+        assertThat(upstreamGateway.fetchAsync("71.76.72.156").get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.156");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> upstreamGateway.fetchAsync("71.76.72.157").get());
+        assertThat(e.getCause()).isInstanceOf(UpstreamRejectedException.class);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void asyncServerErrorsOpenCircuit() {
+        status = 503;
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, null, 4, new CircuitBreaker(2, 60000), 1000);
+
+        for (int i = 0; i < 2; i++) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> upstreamGateway.fetchAsync("71.76.72.156").get(5, TimeUnit.SECONDS));
+            assertThat(e.getCause()).isInstanceOf(ProcessingException.class);
+        }
+
+        assertThat(upstreamGateway.getCircuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void callsBeyondMaxConcurrentCallsAreRejectedAfterTimeout() throws Exception {
+        answerGate = new CountDownLatch(1);
+        UpstreamGateway upstreamGateway = new UpstreamGateway(client, serviceUrl, null, 1, null, 100);
+        CompletableFuture<QueryIpResponseEntity> inFlight = CompletableFuture.supplyAsync(() -> upstreamGateway.fetch("71.76.72.156"));
+        while (calls.get() == 0) {
+            Thread.sleep(5);
+        }
+
+        long start = System.nanoTime();
+        assertThrows(UpstreamRejectedException.class, () -> upstreamGateway.fetch("71.76.72.157"));
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+
+        answerGate.countDown();
+        assertThat(inFlight.get(5, TimeUnit.SECONDS).getQuery()).isEqualTo("71.76.72.156");
+        assertThat(upstreamGateway.fetch("71.76.72.157").getQuery()).isEqualTo("71.76.72.157");
+    }
+}
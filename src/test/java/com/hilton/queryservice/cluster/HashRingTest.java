@@ -0,0 +1,76 @@
+package com.hilton.queryservice.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HashRingTest {
+
+    private static final List<String> NODES = Arrays.asList("http://localhost:8080", "http://localhost:9080", "http://localhost:10080");
+    private static final int KEYS = 30000;
+
+    @Test
+    public void spreadsKeysEvenlyOverNodes() {
+        HashRing hashRing = new HashRing(NODES, 128);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owned.merge(hashRing.nodeOf(ip(i)), 1, Integer::sum);
+        }
+
+        assertThat(owned).containsOnlyKeys(NODES.toArray(new String[0]));
+        for (int count : owned.values()) {
+            assertThat(count).isBetween(KEYS / 3 * 8 / 10, KEYS / 3 * 12 / 10);
+        }
+    }
+
+    @Test
+    public void ownersDoNotDependOnNodeOrder() {
+        HashRing hashRing = new HashRing(NODES, 128);
+        HashRing reversed = new HashRing(Arrays.asList(NODES.get(2), NODES.get(1), NODES.get(0)), 128);
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(reversed.nodeOf(ip(i))).isEqualTo(hashRing.nodeOf(ip(i)));
+        }
+    }
+
+    @Test
+    public void addingNodeOnlyMovesKeysToIt() {
+        HashRing hashRing = new HashRing(NODES, 128);
+        String added = "http://localhost:11080";
+        HashRing grown = new HashRing(Arrays.asList(NODES.get(0), NODES.get(1), NODES.get(2), added), 128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String owner = grown.nodeOf(ip(i));
+            if (!owner.equals(hashRing.nodeOf(ip(i)))) {
+                assertThat(owner).isEqualTo(added);
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(KEYS / 4 * 8 / 10, KEYS / 4 * 12 / 10);
+    }
+
+    @Test
+    public void singleNodeOwnsEveryKey() {
+        HashRing hashRing = new HashRing(List.of("http://localhost:8080"), 1);
+
+        assertThat(hashRing.nodeOf("71.76.72.156")).isEqualTo("http://localhost:8080");
+        assertThat(hashRing.nodeOf("2001:db8::1")).isEqualTo("http://localhost:8080");
+    }
+
+    @Test
+    public void rejectsEmptyRing() {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of(), 128));
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(NODES, 0));
+    }
+
+    private static String ip(int i) {
+        return "71." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+    }
+}
@@ -0,0 +1,138 @@
+package com.hilton.queryservice.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.sun.net.httpserver.HttpServer;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.jackson.JacksonFeature;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Peer group against a local stub of a peer instance answering the peer endpoint
+ */
+public class PeerGroupTest {
+
+    private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+    private final List<String> requestedIps = new ArrayList<>();
+    private HttpServer server;
+    private Client client;
+    private String peerUrl;
+
+    private volatile int status = 200;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PeerGroup.PEER_PATH, exchange -> {
+            String ip = exchange.getRequestURI().getPath().substring(PeerGroup.PEER_PATH.length());
+            synchronized (requestedIps) {
+                requestedIps.add(ip);
+            }
+            QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+            queryIpResponseEntity.setQuery(ip);
+            queryIpResponseEntity.setStatus("success");
+            queryIpResponseEntity.setCity("Charlotte");
+            byte[] body = objectMapper.writeValueAsBytes(queryIpResponseEntity);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        peerUrl = "http://localhost:" + server.getAddress().getPort();
+        client = ClientBuilder.newClient().register(new JacksonFeature(objectMapper));
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void standaloneOwnsEveryIp() {
+        PeerGroup peerGroup = PeerGroup.standalone();
+
+        assertThat(peerGroup.isClustered()).isFalse();
+        assertThat(peerGroup.ownerOf("71.76.72.156")).isNull();
+    }
+
+    @Test
+    public void selfUrlMustBeOneOfThePeers() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new PeerGroup(client, "http://localhost:7080", Arrays.asList("http://localhost:8080", "http://localhost:9080"), 128));
+        assertThrows(IllegalArgumentException.class, () -> new PeerGroup(client, null, List.of("http://localhost:8080"), 128));
+    }
+
+    @Test
+    public void ownersAgreeAcrossPeers() {
+        List<String> peers = Arrays.asList("http://localhost:8080/", "http://localhost:9080");
+        PeerGroup first = new PeerGroup(client, "http://localhost:8080", peers, 128);
+        PeerGroup second = new PeerGroup(client, "http://localhost:9080/", peers, 128);
+
+        int ownedByFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            String ip = "71.76." + (i >> 8) + "." + (i & 0xff);
+            String ownerSeenByFirst = first.ownerOf(ip);
+            String ownerSeenBySecond = second.ownerOf(ip);
+            // exactly one of the peers owns the ip and the other one names it
+            if (ownerSeenByFirst == null) {
+                ownedByFirst++;
+                assertThat(ownerSeenBySecond).isEqualTo("http://localhost:8080");
+            } else {
+                assertThat(ownerSeenByFirst).isEqualTo("http://localhost:9080");
+                assertThat(ownerSeenBySecond).isNull();
+            }
+        }
+        assertThat(ownedByFirst).isBetween(350, 650);
+        assertThat(first.isClustered()).isTrue();
+    }
+
+    @Test
+    public void singlePeerIsNotClustered() {
+        PeerGroup peerGroup = new PeerGroup(client, peerUrl, List.of(peerUrl), 128);
+
+        assertThat(peerGroup.isClustered()).isFalse();
+        assertThat(peerGroup.ownerOf("71.76.72.156")).isNull();
+    }
+
+    @Test
+    public void fetchesFromOwner() throws Exception {
+        PeerGroup peerGroup = new PeerGroup(client, "http://localhost:1", Arrays.asList("http://localhost:1", peerUrl), 128);
+
+        QueryIpResponseEntity fetched = peerGroup.fetch(peerUrl, "71.76.72.156");
+        QueryIpResponseEntity fetchedAsync = peerGroup.fetchAsync(peerUrl, "2001:db8::1").get(5, TimeUnit.SECONDS);
+
+        assertThat(fetched.getQuery()).isEqualTo("71.76.72.156");
+        assertThat(fetched.getCity()).isEqualTo("Charlotte");
+        assertThat(fetchedAsync.getQuery()).isEqualTo("2001:db8::1");
+        assertThat(requestedIps).containsExactly("71.76.72.156", "2001:db8::1");
+    }
+
+    @Test
+    public void errorStatusOfOwnerFailsFetch() {
+        PeerGroup peerGroup = new PeerGroup(client, "http://localhost:1", Arrays.asList("http://localhost:1", peerUrl), 128);
+        status = 503;
+
+        assertThrows(ProcessingException.class, () -> peerGroup.fetch(peerUrl, "71.76.72.156"));
+        assertThrows(ExecutionException.class, () -> peerGroup.fetchAsync(peerUrl, "71.76.72.156").get(5, TimeUnit.SECONDS));
+    }
+}
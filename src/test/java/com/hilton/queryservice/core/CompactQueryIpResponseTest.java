@@ -0,0 +1,92 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactQueryIpResponseTest {
+
+    private final StringDictionary dictionary = new StringDictionary();
+
+    @Test
+    public void convertsBackToEqualEntity() {
+        QueryIpResponseEntity queryIpResponseEntity = charlotte("71.76.72.156");
+
+        CompactQueryIpResponse compact = CompactQueryIpResponse.of("71.76.72.156", queryIpResponseEntity, dictionary);
+
+        assertThat(compact.toEntity("71.76.72.156", dictionary)).isEqualTo(queryIpResponseEntity);
+    }
+
+    @Test
+    public void sharesRepeatedStrings() {
+        CompactQueryIpResponse first = CompactQueryIpResponse.of("71.76.72.156", charlotte("71.76.72.156"), dictionary);
+        int size = dictionary.size();
+
+        CompactQueryIpResponse second = CompactQueryIpResponse.of("71.76.72.157", charlotte("71.76.72.157"), dictionary);
+
+        assertThat(dictionary.size()).isEqualTo(size);
+        // the query equals the key and is not held, so values of the same location are equal
+        assertThat(second).isEqualTo(first);
+        assertThat(second.toEntity("71.76.72.157", dictionary).getQuery()).isEqualTo("71.76.72.157");
+    }
+
+    @Test
+    public void keepsQueryThatDiffersFromKey() {
+        QueryIpResponseEntity queryIpResponseEntity = charlotte("142.250.65.174");
+
+        CompactQueryIpResponse compact = CompactQueryIpResponse.of("google.com", queryIpResponseEntity, dictionary);
+
+        assertThat(compact.toEntity("google.com", dictionary).getQuery()).isEqualTo("142.250.65.174");
+    }
+
+    @Test
+    public void keepsMessageAndNullFields() {
+        QueryIpResponseEntity failAnswer = new QueryIpResponseEntity();
+        failAnswer.setQuery("10.0.0.1");
+        failAnswer.setStatus("fail");
+        failAnswer.setMessage("private range");
+
+        QueryIpResponseEntity converted = CompactQueryIpResponse.of("10.0.0.1", failAnswer, dictionary).toEntity("10.0.0.1", dictionary);
+
+        assertThat(converted).isEqualTo(failAnswer);
+        assertThat(converted.getCity()).isNull();
+        assertThat(converted.getMessage()).isEqualTo("private range");
+    }
+
+    @Test
+    public void keepsInferredFlagInEntityAndJsonBody() {
+        QueryIpResponseEntity inferred = charlotte("71.76.72.156");
+        inferred.setInferred(true);
+
+        CompactQueryIpResponse compact = CompactQueryIpResponse.of("71.76.72.156", inferred, dictionary).withEncoding("71.76.72.156", dictionary);
+
+        assertThat(compact.toEntity("71.76.72.156", dictionary)).isEqualTo(inferred);
+        assertThat(compact).isNotEqualTo(CompactQueryIpResponse.of("71.76.72.156", charlotte("71.76.72.156"), dictionary));
+        assertThat(new String(compact.encoded("71.76.72.156", dictionary).getJson(), StandardCharsets.UTF_8)).contains("\"inferred\":true");
+        assertThat(new String(EncodedQueryIpResponse.of(charlotte("71.76.72.156")).getJson(), StandardCharsets.UTF_8)).doesNotContain("inferred");
+    }
+
+    @Test
+    public void estimatesSmallerSizeThanEntity() {
+        CompactQueryIpResponse compact = CompactQueryIpResponse.of("71.76.72.156", charlotte("71.76.72.156"), dictionary);
+
+        assertThat(compact.estimatedSizeInBytes(IpAddressParser.toKey("71.76.72.156"))).isLessThan(200);
+    }
+
+    @Test
+    public void holdsEncodingWithoutChangingEquality() {
+        CompactQueryIpResponse compact = CompactQueryIpResponse.of("71.76.72.156", charlotte("71.76.72.156"), dictionary);
+
+        CompactQueryIpResponse encoded = compact.withEncoding("71.76.72.156", dictionary);
+
+        assertThat(encoded).isEqualTo(compact);
+        assertThat(encoded.encoded("71.76.72.156", dictionary)).isSameAs(encoded.encoded("71.76.72.156", dictionary));
+        assertThat(encoded.encoded("71.76.72.156", dictionary).getEntityTag())
+                .isEqualTo(compact.encoded("71.76.72.156", dictionary).getEntityTag());
+        assertThat(encoded.estimatedSizeInBytes(IpAddressParser.toKey("71.76.72.156")))
+                .isGreaterThan(compact.estimatedSizeInBytes(IpAddressParser.toKey("71.76.72.156")));
+    }
+}
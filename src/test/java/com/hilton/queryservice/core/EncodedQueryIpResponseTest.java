@@ -0,0 +1,58 @@
+package com.hilton.queryservice.core;
+
+import io.dropwizard.jackson.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EncodedQueryIpResponseTest {
+
+    @Test
+    public void jsonBodyReadsBackToEqualEntity() throws IOException {
+        QueryIpResponseEntity queryIpResponseEntity = charlotte("71.76.72.156");
+
+        EncodedQueryIpResponse encoded = EncodedQueryIpResponse.of(queryIpResponseEntity);
+
+        assertThat(Jackson.newObjectMapper().readValue(encoded.getJson(), QueryIpResponseEntity.class)).isEqualTo(queryIpResponseEntity);
+    }
+
+    @Test
+    public void gzipBodyDecompressesToJsonBody() throws IOException {
+        EncodedQueryIpResponse encoded = EncodedQueryIpResponse.of(charlotte("71.76.72.156"));
+
+        assertThat(encoded.getGzip()).isNotNull();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded.getGzip()))) {
+            assertThat(in.readAllBytes()).isEqualTo(encoded.getJson());
+        }
+    }
+
+    @Test
+    public void equalEntitiesShareTags() {
+        EncodedQueryIpResponse first = EncodedQueryIpResponse.of(charlotte("71.76.72.156"));
+        EncodedQueryIpResponse second = EncodedQueryIpResponse.of(charlotte("71.76.72.156"));
+        EncodedQueryIpResponse other = EncodedQueryIpResponse.of(charlotte("71.76.72.157"));
+
+        assertThat(second.getEntityTag()).isEqualTo(first.getEntityTag());
+        assertThat(other.getEntityTag()).isNotEqualTo(first.getEntityTag());
+        assertThat(first.getGzipEntityTag()).isNotEqualTo(first.getEntityTag());
+        assertThat(first.getEntityTag()).startsWith("\"").endsWith("\"");
+    }
+
+    @Test
+    public void matchesIfNoneMatchHeaders() {
+        EncodedQueryIpResponse encoded = EncodedQueryIpResponse.of(charlotte("71.76.72.156"));
+
+        assertThat(encoded.matches(encoded.getEntityTag())).isTrue();
+        assertThat(encoded.matches(encoded.getGzipEntityTag())).isTrue();
+        assertThat(encoded.matches("W/" + encoded.getEntityTag())).isTrue();
+        assertThat(encoded.matches("\"other\", " + encoded.getEntityTag())).isTrue();
+        assertThat(encoded.matches("*")).isTrue();
+        assertThat(encoded.matches("\"other\"")).isFalse();
+        assertThat(encoded.matches(null)).isFalse();
+    }
+}
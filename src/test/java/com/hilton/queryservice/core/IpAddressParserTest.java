@@ -0,0 +1,107 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IpAddressParserTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            // IPv4
+            "71.76.72.156 | 71.76.72.156",
+            "0.0.0.0 | 0.0.0.0",
+            "255.255.255.255 | 255.255.255.255",
+            // IPv6 spellings of one address
+            "::1 | ::1",
+            "0:0:0:0:0:0:0:1 | ::1",
+            "0000:0000:0000:0000:0000:0000:0000:0001 | ::1",
+            ":: | ::",
+            "0::0 | ::",
+            "2001:0db8:85a3:0000:0000:8a2e:0370:7334 | 2001:db8:85a3::8a2e:370:7334",
+            "2001:DB8:85A3::8A2E:370:7334 | 2001:db8:85a3::8a2e:370:7334",
+            "2001:db8:: | 2001:db8::",
+            "fe80:0:0:0:0:0:0:0 | fe80::",
+            // the longest run of zero groups is compressed, the first one of equal runs
+            "1:0:0:2:0:0:0:3 | 1:0:0:2::3",
+            "1:0:0:2:0:0:3:4 | 1::2:0:0:3:4",
+            "0:1:0:0:1:0:0:0 | 0:1:0:0:1::",
+            // a single zero group is not compressed
+            "1:2:3:4:5:6:7:: | 1:2:3:4:5:6:7:0",
+            "1:2:3:4:5:6:0:8 | 1:2:3:4:5:6:0:8",
+            // IPv4-mapped addresses are the IPv4 address, other embedded IPv4 addresses are written in hex
+            "::ffff:71.76.72.156 | 71.76.72.156",
+            "::FFFF:474c:489c | 71.76.72.156",
+            "0:0:0:0:0:ffff:71.76.72.156 | 71.76.72.156",
+            "::1.2.3.4 | ::102:304",
+            "1:2:3:4:5:6:1.2.3.4 | 1:2:3:4:5:6:102:304",
+            // domain names
+            "google.com | google.com",
+            "Google.COM | google.com",
+            "a.b-c.co.uk | a.b-c.co.uk",
+            "1e100.net | 1e100.net"
+    })
+    public void canonicalizesValidIps(String input, String canonical) {
+        assertThat(IpAddressParser.canonicalize(input)).isEqualTo(canonical);
+        assertThat(IpAddressParser.canonicalize(canonical)).isEqualTo(canonical);
+        assertThat(IpAddressParser.toKey(input)).isEqualTo(IpAddressParser.toKey(canonical));
+        assertThat(IpAddressParser.toKey(input).toString()).isEqualTo(canonical);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "", " ", "invalidString", "localhost", "abc.d", "x.co1", "a..com", ".com", "com.", "-a.com", "a-.com", "a--b.com",
+            "a_b.com", "google.com ", "71.76.72", "71.76.72.156.1", "71.76.72.256", "071.76.72.156", "71.76.72.00",
+            "71.76.72.", ".71.76.72.156", "71.76.72.156a", "71.-76.72.156",
+            ":", ":1", "1:", ":::", "1::2::3", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "1:2:3:4:5:6::7:8", "12345::", "g::1",
+            "fe80::1%eth0", "2001:db8::/32", "::ffff:1.2.3", "::ffff:01.2.3.4", "::ffff:1.2.3.4:5", "1:2:3:4:5:6:7:1.2.3.4",
+            "2001:0db8:85a3:0000:0000:8a2e:0370:7334:9079:9097"
+    })
+    public void rejectsInvalidIps(String input) {
+        assertThat(IpAddressParser.canonicalize(input)).isNull();
+        assertThat(IpAddressParser.isIpLiteral(input)).isFalse();
+        assertThat(IpAddressParser.toKey(input)).isNull();
+    }
+
+    @Test
+    public void rejectsNull() {
+        assertThat(IpAddressParser.canonicalize(null)).isNull();
+        assertThat(IpAddressParser.isIpLiteral(null)).isFalse();
+    }
+
+    @Test
+    public void returnsCanonicalInputItself() {
+        String ipv4 = "71.76.72.156";
+        String ipv6 = "2001:db8:85a3::8a2e:370:7334";
+        String loopback = "::1";
+        String uncompressed = "2001:db8:1:2:3:4:5:6";
+        String domain = "google.com";
+
+        assertThat(IpAddressParser.canonicalize(ipv4)).isSameAs(ipv4);
+        assertThat(IpAddressParser.canonicalize(ipv6)).isSameAs(ipv6);
+        assertThat(IpAddressParser.canonicalize(loopback)).isSameAs(loopback);
+        assertThat(IpAddressParser.canonicalize(uncompressed)).isSameAs(uncompressed);
+        assertThat(IpAddressParser.canonicalize(domain)).isSameAs(domain);
+    }
+
+    @Test
+    public void rejectsDomainLongerThanDnsLimit() {
+        StringBuilder domain = new StringBuilder();
+        while (domain.length() < 251) {
+            domain.append("abcdefghi.");
+        }
+        domain.append("com");
+
+        assertThat(IpAddressParser.canonicalize(domain.toString())).isNull();
+    }
+
+    @Test
+    public void tellsIpLiteralsFromDomainNames() {
+        assertThat(IpAddressParser.isIpLiteral("71.76.72.156")).isTrue();
+        assertThat(IpAddressParser.isIpLiteral("0:0:0:0:0:0:0:1")).isTrue();
+        assertThat(IpAddressParser.isIpLiteral("google.com")).isFalse();
+    }
+}
@@ -0,0 +1,75 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IpKeyTest {
+
+    @Test
+    public void mapsIpv4ToIpv4MappedAddress() {
+        IpKey ipKey = IpAddressParser.toKey("71.76.72.156");
+
+        assertThat(ipKey.isIpv4()).isTrue();
+        assertThat(ipKey.isDomain()).isFalse();
+        assertThat(ipKey.getHigh()).isEqualTo(0L);
+        assertThat(ipKey.getLow()).isEqualTo(0x0000ffff474c489cL);
+        assertThat(ipKey).isEqualTo(IpAddressParser.toKey("::ffff:71.76.72.156"));
+        assertThat(ipKey.hashCode()).isEqualTo(IpAddressParser.toKey("::ffff:71.76.72.156").hashCode());
+    }
+
+    @Test
+    public void convertsAddressToBytesAndBack() {
+        IpKey ipKey = IpAddressParser.toKey("2001:db8:85a3::8a2e:370:7334");
+
+        byte[] address = ipKey.toBytes();
+
+        assertThat(address).hasSize(IpKey.ADDRESS_LENGTH_IN_BYTES);
+        assertThat(address[0]).isEqualTo((byte) 0x20);
+        assertThat(address[15]).isEqualTo((byte) 0x34);
+        assertThat(IpKey.ofBytes(address)).isEqualTo(ipKey);
+        assertThat(IpKey.ofBytes(address).toString()).isEqualTo("2001:db8:85a3::8a2e:370:7334");
+    }
+
+    @Test
+    public void computesIpv4PrefixRange() {
+        IpKey ipKey = IpAddressParser.toKey("10.1.2.3");
+
+        assertThat(ipKey.firstInPrefix(16).toString()).isEqualTo("10.1.0.0");
+        assertThat(ipKey.lastInPrefix(16).toString()).isEqualTo("10.1.255.255");
+        assertThat(ipKey.firstInPrefix(32)).isEqualTo(ipKey);
+        assertThat(ipKey.firstInPrefix(0).toString()).isEqualTo("0.0.0.0");
+        assertThat(ipKey.lastInPrefix(0).toString()).isEqualTo("255.255.255.255");
+    }
+
+    @Test
+    public void computesIpv6PrefixRange() {
+        IpKey ipKey = IpAddressParser.toKey("2001:db8:85a3::8a2e:370:7334");
+
+        assertThat(ipKey.firstInPrefix(48).toString()).isEqualTo("2001:db8:85a3::");
+        assertThat(ipKey.lastInPrefix(48).toString()).isEqualTo("2001:db8:85a3:ffff:ffff:ffff:ffff:ffff");
+        assertThat(ipKey.firstInPrefix(96).toString()).isEqualTo("2001:db8:85a3::8a2e:0:0");
+        assertThat(ipKey.lastInPrefix(128)).isEqualTo(ipKey);
+        assertThat(ipKey.lastInPrefix(0).toString()).isEqualTo("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+    }
+
+    @Test
+    public void rejectsInvalidPrefixLength() {
+        assertThrows(IllegalArgumentException.class, () -> IpAddressParser.toKey("10.1.2.3").firstInPrefix(33));
+        assertThrows(IllegalArgumentException.class, () -> IpAddressParser.toKey("::1").lastInPrefix(-1));
+        assertThrows(IllegalStateException.class, () -> IpAddressParser.toKey("google.com").firstInPrefix(8));
+    }
+
+    @Test
+    public void keysDomainByName() {
+        IpKey ipKey = IpAddressParser.toKey("Google.com");
+
+        assertThat(ipKey.isDomain()).isTrue();
+        assertThat(ipKey.getDomain()).isEqualTo("google.com");
+        assertThat(ipKey.toBytes()).isNull();
+        assertThat(ipKey).isEqualTo(IpAddressParser.toKey("google.com"));
+        assertThat(ipKey).isNotEqualTo(IpAddressParser.toKey("::"));
+        assertThat(ipKey.toString()).isEqualTo("google.com");
+    }
+}
@@ -0,0 +1,81 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IpRangeIndexTest {
+
+    private static IpRangeIndex ipRangeIndex;
+
+    @BeforeAll
+    static void loadIndex() throws Exception {
+        ipRangeIndex = IpRangeIndex.load(Paths.get(IpRangeIndexTest.class.getResource("/ipranges.csv").toURI()));
+    }
+
+    @Test
+    public void loadsAllRanges() {
+        assertThat(ipRangeIndex.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void findsIPV4AddressInRange() {
+        Optional<QueryIpResponseEntity> response = ipRangeIndex.lookup("71.76.72.156");
+        assertThat(response).isPresent();
+        assertThat(response.get().getQuery()).isEqualTo("71.76.72.156");
+        assertThat(response.get().getStatus()).isEqualTo("success");
+        assertThat(response.get().getCity()).isEqualTo("Charlotte");
+        assertThat(response.get().getAs()).isEqualTo("AS11426 Charter Communications, Inc");
+        assertThat(response.get().getLat()).isEqualTo(35.1362);
+    }
+
+    @Test
+    public void findsRangeBoundaries() {
+        assertThat(ipRangeIndex.lookup("8.8.8.0")).isPresent();
+        assertThat(ipRangeIndex.lookup("8.8.8.255")).isPresent();
+        assertThat(ipRangeIndex.lookup("8.8.7.255")).isEmpty();
+        assertThat(ipRangeIndex.lookup("8.8.9.0")).isEmpty();
+    }
+
+    @Test
+    public void missesBetweenRanges() {
+        assertThat(ipRangeIndex.lookup("71.76.73.128")).isEmpty();
+        assertThat(ipRangeIndex.lookup("1.1.1.1")).isEmpty();
+        assertThat(ipRangeIndex.lookup("255.255.255.255")).isEmpty();
+    }
+
+    @Test
+    public void findsIPV6AddressInRange() {
+        Optional<QueryIpResponseEntity> response = ipRangeIndex.lookup("2001:4860:4860::8888");
+        assertThat(response).isPresent();
+        assertThat(response.get().getCity()).isEqualTo("Mountain View");
+        assertThat(ipRangeIndex.lookup("2001:4861::1")).isEmpty();
+    }
+
+    @Test
+    public void neverResolvesDomainNames() {
+        assertThat(ipRangeIndex.lookup("google.com")).isEmpty();
+    }
+
+    @Test
+    public void emptyIndexAlwaysMisses() {
+        assertThat(IpRangeIndex.empty().lookup("71.76.72.156")).isEmpty();
+        assertThat(IpRangeIndex.empty().find(0L, 0L)).isEqualTo(-1);
+    }
+
+    @Test
+    public void rejectsOverlappingRanges(@TempDir Path tempDir) throws IOException {
+        Path rangeFile = tempDir.resolve("overlapping.csv");
+        Files.writeString(rangeFile, "10.0.0.0,10.0.0.255,US,,,,,,0,0,,,,\n10.0.0.128,10.0.1.0,US,,,,,,0,0,,,,\n");
+        assertThrows(IOException.class, () -> IpRangeIndex.load(rangeFile));
+    }
+}
@@ -0,0 +1,125 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PrefixAnswerCacheTest {
+
+    private final PrefixAnswerCache prefixAnswerCache = new PrefixAnswerCache(100, 3600, 24, 48, 2, 75);
+
+    @Test
+    public void answersOtherHostsOncePrefixHostsAgree() {
+        prefixAnswerCache.observe("71.76.72.1", located("71.76.72.1", "Charlotte"));
+        assertThat(prefixAnswerCache.lookup("71.76.72.156")).isEmpty();
+
+        prefixAnswerCache.observe("71.76.72.2", located("71.76.72.2", "Charlotte"));
+        Optional<QueryIpResponseEntity> inferred = prefixAnswerCache.lookup("71.76.72.156");
+
+        assertThat(inferred).isPresent();
+        assertThat(inferred.get().getQuery()).isEqualTo("71.76.72.156");
+        assertThat(inferred.get().getCity()).isEqualTo("Charlotte");
+        assertThat(inferred.get().getInferred()).isTrue();
+        assertThat(inferred.get().getPersisted()).isNull();
+        assertThat(prefixAnswerCache.lookup("71.76.73.156")).isEmpty();
+        assertThat(prefixAnswerCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void countsEachHostOnce() {
+        prefixAnswerCache.observe("71.76.72.1", located("71.76.72.1", "Charlotte"));
+        prefixAnswerCache.observe("71.76.72.1", located("71.76.72.1", "Charlotte"));
+
+        assertThat(prefixAnswerCache.lookup("71.76.72.156")).isEmpty();
+    }
+
+    @Test
+    public void answersNothingWhileHostsDisagree() {
+        prefixAnswerCache.observe("71.76.72.1", located("71.76.72.1", "Charlotte"));
+        prefixAnswerCache.observe("71.76.72.2", located("71.76.72.2", "Charlotte"));
+        prefixAnswerCache.observe("71.76.72.3", located("71.76.72.3", "Raleigh"));
+
+        assertThat(prefixAnswerCache.lookup("71.76.72.156")).isEmpty();
+
+        prefixAnswerCache.observe("71.76.72.4", located("71.76.72.4", "Charlotte"));
+        assertThat(prefixAnswerCache.lookup("71.76.72.156").get().getCity()).isEqualTo("Charlotte");
+
+        // a host whose answer changed is counted with its latest answer
+        prefixAnswerCache.observe("71.76.72.3", located("71.76.72.3", "Charlotte"));
+        prefixAnswerCache.observe("71.76.72.4", located("71.76.72.4", "Raleigh"));
+        prefixAnswerCache.observe("71.76.72.5", located("71.76.72.5", "Raleigh"));
+        assertThat(prefixAnswerCache.lookup("71.76.72.156")).isEmpty();
+    }
+
+    @Test
+    public void ignoresFailInferredAndDomainAnswers() {
+        QueryIpResponseEntity fail = located("71.76.72.1", "Charlotte");
+        fail.setStatus("fail");
+        QueryIpResponseEntity inferred = located("71.76.72.2", "Charlotte");
+        inferred.setInferred(true);
+        prefixAnswerCache.observe("71.76.72.1", fail);
+        prefixAnswerCache.observe("71.76.72.2", inferred);
+        prefixAnswerCache.observe("google.com", located("google.com", "Mountain View"));
+
+        assertThat(prefixAnswerCache.size()).isEqualTo(0);
+        assertThat(prefixAnswerCache.lookup("google.com")).isEmpty();
+    }
+
+    @Test
+    public void sharesIpv6AnswersWithinPrefix() {
+        prefixAnswerCache.observe("2001:db8:1:1::1", located("2001:db8:1:1::1", "Charlotte"));
+        prefixAnswerCache.observe("2001:db8:1:2::1", located("2001:db8:1:2::1", "Charlotte"));
+
+        assertThat(prefixAnswerCache.lookup("2001:db8:1:ffff::9").get().getCity()).isEqualTo("Charlotte");
+        assertThat(prefixAnswerCache.lookup("2001:db8:2::1")).isEmpty();
+    }
+
+    @Test
+    public void seedsPrefixFromNeighboursOnce() {
+        IpKey ipKey = IpAddressParser.toKey("71.76.72.156");
+        assertThat(prefixAnswerCache.isSeeded(ipKey)).isFalse();
+        List<QueryIpResponseEntity> neighbours = Arrays.asList(located("71.76.72.1", "Charlotte"), located("71.76.72.2", "Charlotte"),
+                located("71.76.73.1", "Raleigh"));
+
+        prefixAnswerCache.seed(ipKey, neighbours);
+
+        assertThat(prefixAnswerCache.isSeeded(ipKey)).isTrue();
+        assertThat(prefixAnswerCache.isSeeded(IpAddressParser.toKey("71.76.73.1"))).isFalse();
+        assertThat(prefixAnswerCache.lookup("71.76.72.156").get().getCity()).isEqualTo("Charlotte");
+    }
+
+    @Test
+    public void disabledCacheNeverAnswers() {
+        PrefixAnswerCache disabled = PrefixAnswerCache.disabled();
+        disabled.observe("71.76.72.1", located("71.76.72.1", "Charlotte"));
+        disabled.seed(IpAddressParser.toKey("71.76.72.1"), List.of(located("71.76.72.2", "Charlotte")));
+
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThat(disabled.lookup("71.76.72.1")).isEmpty();
+        assertThat(disabled.isSeeded(IpAddressParser.toKey("71.76.72.1"))).isFalse();
+    }
+
+    @Test
+    public void rejectsMinHostsAboveTrackedHosts() {
+        assertThrows(IllegalArgumentException.class, () -> new PrefixAnswerCache(100, 3600, 24, 48, PrefixAnswerCache.MAX_HOSTS_PER_PREFIX + 1, 75));
+    }
+
+    @Test
+    public void rejectsMinConfidenceOutsidePercentRange() {
+        assertThrows(IllegalArgumentException.class, () -> new PrefixAnswerCache(100, 3600, 24, 48, 3, 0));
+        assertThrows(IllegalArgumentException.class, () -> new PrefixAnswerCache(100, 3600, 24, 48, 3, 101));
+    }
+
+    private static QueryIpResponseEntity located(String ip, String city) {
+        QueryIpResponseEntity queryIpResponseEntity = charlotte(ip);
+        queryIpResponseEntity.setCity(city);
+        queryIpResponseEntity.setFetchedAt(System.currentTimeMillis());
+        return queryIpResponseEntity;
+    }
+}
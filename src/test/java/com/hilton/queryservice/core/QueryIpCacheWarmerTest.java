@@ -0,0 +1,106 @@
+package com.hilton.queryservice.core;
+
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.client.Client;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryIpCacheWarmerTest {
+
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = Mockito.mock(QueryIpResponseDAO.class);
+        queryIpLookupService = QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(Mockito.mock(Client.class), "testUrl")),
+                        LookupCacheSpec.ofSize(60, 2000), queryIpResponseDAO)
+                .loaderExecutor(Runnable::run)
+                .build();
+    }
+
+    @Test
+    public void warmsCacheWithStreamedRows() throws ExecutionException {
+        streamRows(1200);
+        QueryIpCacheWarmer queryIpCacheWarmer = new QueryIpCacheWarmer(queryIpResponseDAO, queryIpLookupService, Runnable::run, 1200, 30);
+
+        queryIpCacheWarmer.warm();
+
+        assertThat(queryIpCacheWarmer.isFinished()).isTrue();
+        assertThat(queryIpCacheWarmer.getLoadedCount()).isEqualTo(1200);
+        assertThat(queryIpCacheWarmer.getFailure()).isNull();
+        assertThat(queryIpLookupService.getIfPresent("111.11.1.0")).isNotNull();
+        assertThat(queryIpLookupService.get("111.11.4.175").getCity()).isEqualTo("city-1199");
+        verify(queryIpResponseDAO, never()).findByIp(anyString());
+    }
+
+    @Test
+    public void skipsFailAnswers() {
+        when(queryIpResponseDAO.streamMostRecent(anyInt(), any())).thenAnswer(invocation -> {
+            Predicate<QueryIpResponseEntity> consumer = invocation.getArgument(1);
+            QueryIpResponseEntity failAnswer = new QueryIpResponseEntity();
+            failAnswer.setQuery("111.11.111.11");
+            failAnswer.setStatus("fail");
+            consumer.test(failAnswer);
+            return 1;
+        });
+        QueryIpCacheWarmer queryIpCacheWarmer = new QueryIpCacheWarmer(queryIpResponseDAO, queryIpLookupService, Runnable::run, 10, 30);
+
+        queryIpCacheWarmer.warm();
+
+        assertThat(queryIpLookupService.getIfPresent("111.11.111.11")).isNull();
+    }
+
+    @Test
+    public void reportsFailureAsFinished() {
+        when(queryIpResponseDAO.streamMostRecent(anyInt(), any())).thenThrow(new IllegalStateException("database down"));
+        QueryIpCacheWarmer queryIpCacheWarmer = new QueryIpCacheWarmer(queryIpResponseDAO, queryIpLookupService, Runnable::run, 10, 30);
+
+        queryIpCacheWarmer.warm();
+
+        assertThat(queryIpCacheWarmer.isFinished()).isTrue();
+        assertThat(queryIpCacheWarmer.getFailure()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void notFinishedBeforeStart() {
+        QueryIpCacheWarmer queryIpCacheWarmer = new QueryIpCacheWarmer(queryIpResponseDAO, queryIpLookupService, Runnable::run, 10, 30);
+
+        assertThat(queryIpCacheWarmer.isFinished()).isFalse();
+        assertThat(queryIpCacheWarmer.elapsedMillis()).isEqualTo(0L);
+    }
+
+    private void streamRows(int rows) {
+        when(queryIpResponseDAO.streamMostRecent(anyInt(), any())).thenAnswer(invocation -> {
+            Predicate<QueryIpResponseEntity> consumer = invocation.getArgument(1);
+            for (int i = 0; i < rows; i++) {
+                QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+                queryIpResponseEntity.setQuery("111.11." + (i / 256) + "." + (i % 256));
+                queryIpResponseEntity.setStatus("success");
+                queryIpResponseEntity.setCity("city-" + i);
+                queryIpResponseEntity.setPersisted("true");
+                if (!consumer.test(queryIpResponseEntity)) {
+                    return i + 1;
+                }
+            }
+            return rows;
+        });
+        when(queryIpResponseDAO.findByIp(anyString())).thenReturn(Optional.empty());
+    }
+}
@@ -0,0 +1,67 @@
+package com.hilton.queryservice.core;
+
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.db.QueryIpAccessTracker;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.hilton.queryservice.core.QueryIpResponses.answer;
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lookups recording the last access of their ip for retention
+ */
+public class QueryIpLookupAccessTest {
+
+    private static final String IP = "71.76.72.156";
+
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private UpstreamBatcher upstreamBatcher;
+    private QueryIpAccessTracker accessTracker;
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = Mockito.mock(QueryIpResponseDAO.class);
+        upstreamBatcher = Mockito.mock(UpstreamBatcher.class);
+        accessTracker = Mockito.mock(QueryIpAccessTracker.class);
+        queryIpLookupService = QueryIpLookupService.builder(upstreamBatcher, LookupCacheSpec.ofSize(60, 100), queryIpResponseDAO)
+                .loaderExecutor(Runnable::run)
+                .accessTracker(accessTracker)
+                .build();
+    }
+
+    @Test
+    public void loadsAndCacheHitsAreRecorded() throws Exception {
+        when(queryIpResponseDAO.findByIp(IP)).thenReturn(Optional.of(charlotte(IP)));
+
+        queryIpLookupService.get(IP);
+        queryIpLookupService.get(IP);
+        queryIpLookupService.getAsync(IP).get(5, TimeUnit.SECONDS);
+
+        verify(accessTracker, times(3)).record(IP);
+    }
+
+    @Test
+    public void asyncAnswerOfNegativeCacheIsNotRecorded() throws Exception {
+        when(upstreamBatcher.fetchAsync(IP)).thenReturn(CompletableFuture.completedFuture(answer(IP, QueryIpLookupService.FAIL_STATUS)));
+
+        assertThat(queryIpLookupService.getAsync(IP).get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(QueryIpLookupService.FAIL_STATUS);
+        assertThat(queryIpLookupService.getAsync(IP).get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(QueryIpLookupService.FAIL_STATUS);
+
+        // the load is recorded, the answer of the negative cache has no row to touch
+        verify(accessTracker, times(1)).record(IP);
+        verify(upstreamBatcher, times(1)).fetchAsync(IP);
+    }
+}
@@ -0,0 +1,124 @@
+package com.hilton.queryservice.core;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import static com.hilton.queryservice.core.QueryIpResponses.answer;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class QueryIpLookupMetricsTest {
+
+    private static final String SERVICE = QueryIpLookupService.class.getName();
+
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private Client client;
+    private MetricRegistry metricRegistry;
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = Mockito.mock(QueryIpResponseDAO.class);
+        client = Mockito.mock(Client.class);
+        metricRegistry = new MetricRegistry();
+        queryIpLookupService = QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, "testUrl")), LookupCacheSpec.ofSize(60, 100), queryIpResponseDAO)
+                .loaderExecutor(Runnable::run)
+                .metricRegistry(metricRegistry)
+                .build();
+    }
+
+    @Test
+    public void metersDatabaseAnswerThenCacheHit() throws ExecutionException {
+        when(queryIpResponseDAO.findByIp("111.11.111.11")).thenReturn(Optional.of(answer("111.11.111.11", "success")));
+
+        queryIpLookupService.get("111.11.111.11");
+        queryIpLookupService.get("111.11.111.11");
+
+        assertThat(answers("database")).isEqualTo(1);
+        assertThat(answers("cache")).isEqualTo(1);
+        assertThat(answers("remote")).isEqualTo(0);
+        assertThat(metricRegistry.meter(MetricRegistry.name(SERVICE, "cache", "misses")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.timer(MetricRegistry.name(SERVICE, "cache", "loads")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.getGauges().get(MetricRegistry.name(SERVICE, "cache", "hit-ratio")).getValue()).isEqualTo(0.5);
+        assertThat(metricRegistry.getGauges().get(MetricRegistry.name(SERVICE, "cache", "size")).getValue()).isEqualTo(1L);
+        assertThat(metricRegistry.getGauges().get(MetricRegistry.name(SERVICE, "in-flight-loads")).getValue()).isEqualTo(0);
+    }
+
+    @Test
+    public void metersRemoteAnswerAndTimesRemoteCall() throws ExecutionException {
+        when(queryIpResponseDAO.findByIp("111.11.111.11")).thenReturn(Optional.empty());
+        Response response = mockRemoteResponse();
+        when(response.readEntity(QueryIpResponseEntity.class)).thenReturn(answer("111.11.111.11", "success"));
+
+        queryIpLookupService.get("111.11.111.11");
+
+        assertThat(answers("database")).isEqualTo(0);
+        assertThat(answers("remote")).isEqualTo(1);
+        assertThat(metricRegistry.timer(MetricRegistry.name(SERVICE, "remote-call")).getCount()).isEqualTo(1);
+        assertThat(queryIpLookupService.metrics().getInFlightLoads()).isEqualTo(0);
+    }
+
+    @Test
+    public void metersRemoteErrorThenNegativeCacheAnswer() {
+        when(queryIpResponseDAO.findByIp("111.11.111.11")).thenReturn(Optional.empty());
+        when(client.target(anyString())).thenThrow(new ProcessingException("connection refused"));
+
+        assertThrows(ServiceUnavailableException.class, () -> queryIpLookupService.get("111.11.111.11"));
+        assertThrows(ServiceUnavailableException.class, () -> queryIpLookupService.get("111.11.111.11"));
+
+        assertThat(metricRegistry.meter(MetricRegistry.name(SERVICE, "remote-errors")).getCount()).isEqualTo(1);
+        assertThat(answers("negative-cache")).isEqualTo(1);
+    }
+
+    @Test
+    public void metersReservedAnswer() throws ExecutionException {
+        queryIpLookupService.get("10.0.0.1");
+
+        assertThat(answers("reserved")).isEqualTo(1);
+        assertThat(answers("database")).isEqualTo(0);
+    }
+
+    @Test
+    public void servicesSharingRegistryShareMetrics() throws ExecutionException {
+        QueryIpLookupService other = QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, "testUrl")), LookupCacheSpec.ofSize(60, 100), queryIpResponseDAO)
+                .loaderExecutor(Runnable::run)
+                .metricRegistry(metricRegistry)
+                .build();
+
+        queryIpLookupService.get("10.0.0.1");
+        other.get("10.0.0.2");
+
+        assertThat(answers("reserved")).isEqualTo(2);
+    }
+
+    private long answers(String source) {
+        return metricRegistry.meter(MetricRegistry.name(SERVICE, "answers", source)).getCount();
+    }
+
+    private Response mockRemoteResponse() {
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        Response response = Mockito.mock(Response.class);
+        when(client.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.get()).thenReturn(response);
+        return response;
+    }
+}
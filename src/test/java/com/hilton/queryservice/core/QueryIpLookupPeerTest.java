@@ -0,0 +1,148 @@
+package com.hilton.queryservice.core;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.cluster.PeerGroup;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.hilton.queryservice.core.QueryIpResponses.answer;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Lookups of ips owned by a peer instance, which are asked to the owner before the database and the remote api
+ */
+public class QueryIpLookupPeerTest {
+
+    private static final String SERVICE = QueryIpLookupService.class.getName();
+    private static final String OWNER = "http://localhost:9080";
+    private static final String PEER_IP = "71.76.72.156";
+    private static final String LOCAL_IP = "71.76.72.157";
+
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private PeerGroup peerGroup;
+    private MetricRegistry metricRegistry;
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = Mockito.mock(QueryIpResponseDAO.class);
+        peerGroup = Mockito.mock(PeerGroup.class);
+        when(peerGroup.isClustered()).thenReturn(true);
+        when(peerGroup.ownerOf(PEER_IP)).thenReturn(OWNER);
+        metricRegistry = new MetricRegistry();
+        queryIpLookupService = QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(Mockito.mock(Client.class), "testUrl")),
+                        LookupCacheSpec.ofSize(60, 100), queryIpResponseDAO)
+                .loaderExecutor(Runnable::run)
+                .metricRegistry(metricRegistry)
+                .peerGroup(peerGroup)
+                .build();
+    }
+
+    @Test
+    public void missOfIpOwnedByPeerIsAskedToOwner() throws ExecutionException {
+        when(peerGroup.fetch(OWNER, PEER_IP)).thenReturn(answer(PEER_IP, "success"));
+
+        QueryIpResponseEntity fetched = queryIpLookupService.get(PEER_IP);
+        QueryIpResponseEntity cached = queryIpLookupService.get(PEER_IP);
+
+        assertThat(fetched.getQuery()).isEqualTo(PEER_IP);
+        assertThat(cached.getStatus()).isEqualTo("success");
+        verify(peerGroup, times(1)).fetch(OWNER, PEER_IP);
+        verify(queryIpResponseDAO, never()).findByIp(anyString());
+        assertThat(answers("peer")).isEqualTo(1);
+    }
+
+    @Test
+    public void missOfOwnIpIsNotAskedToPeers() throws ExecutionException {
+        when(queryIpResponseDAO.findByIp(LOCAL_IP)).thenReturn(Optional.of(answer(LOCAL_IP, "success")));
+
+        queryIpLookupService.get(LOCAL_IP);
+
+        verify(peerGroup, never()).fetch(anyString(), anyString());
+        assertThat(answers("database")).isEqualTo(1);
+    }
+
+    @Test
+    public void unreachableOwnerFallsBackToDatabase() throws ExecutionException {
+        when(peerGroup.fetch(OWNER, PEER_IP)).thenThrow(new ProcessingException("connection refused"));
+        when(queryIpResponseDAO.findByIp(PEER_IP)).thenReturn(Optional.of(answer(PEER_IP, "success")));
+
+        QueryIpResponseEntity fetched = queryIpLookupService.get(PEER_IP);
+
+        assertThat(fetched.getQuery()).isEqualTo(PEER_IP);
+        assertThat(metricRegistry.meter(MetricRegistry.name(SERVICE, "peer-errors")).getCount()).isEqualTo(1);
+        assertThat(answers("database")).isEqualTo(1);
+    }
+
+    @Test
+    public void failAnswerOfOwnerIsKeptInNegativeCache() throws ExecutionException {
+        when(peerGroup.fetch(OWNER, PEER_IP)).thenReturn(answer(PEER_IP, QueryIpLookupService.FAIL_STATUS));
+
+        assertThat(queryIpLookupService.get(PEER_IP).getStatus()).isEqualTo(QueryIpLookupService.FAIL_STATUS);
+        assertThat(queryIpLookupService.get(PEER_IP).getStatus()).isEqualTo(QueryIpLookupService.FAIL_STATUS);
+
+        verify(peerGroup, times(1)).fetch(OWNER, PEER_IP);
+        assertThat(answers("negative-cache")).isEqualTo(1);
+        assertThat(queryIpLookupService.getIfPresent(PEER_IP)).isNull();
+    }
+
+    @Test
+    public void lookupForPeerIsNotForwarded() throws ExecutionException {
+        when(queryIpResponseDAO.findByIp(PEER_IP)).thenReturn(Optional.of(answer(PEER_IP, "success")));
+
+        QueryIpResponseEntity fetched = queryIpLookupService.getForPeer(PEER_IP);
+
+        assertThat(fetched.getQuery()).isEqualTo(PEER_IP);
+        verify(peerGroup, never()).fetch(anyString(), anyString());
+        verify(peerGroup, never()).fetchAsync(anyString(), anyString());
+    }
+
+    @Test
+    public void asyncMissOfIpOwnedByPeerIsAskedToOwner() throws Exception {
+        when(peerGroup.fetchAsync(OWNER, PEER_IP)).thenReturn(CompletableFuture.completedFuture(answer(PEER_IP, "success")));
+
+        QueryIpResponseEntity fetched = queryIpLookupService.getAsync(PEER_IP).get(5, TimeUnit.SECONDS);
+
+        assertThat(fetched.getQuery()).isEqualTo(PEER_IP);
+        verify(queryIpResponseDAO, never()).findByIp(anyString());
+        assertThat(answers("peer")).isEqualTo(1);
+    }
+
+    @Test
+    public void batchAsksOwnersBeforeDatabase() {
+        when(peerGroup.fetchAsync(OWNER, PEER_IP)).thenReturn(CompletableFuture.completedFuture(answer(PEER_IP, "success")));
+        when(queryIpResponseDAO.findByIps(anyCollection())).thenReturn(List.of(answer(LOCAL_IP, "success")));
+
+        Map<String, QueryIpBatchResult> results = queryIpLookupService.getAll(Arrays.asList(PEER_IP, LOCAL_IP));
+
+        assertThat(results.get(PEER_IP).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+        assertThat(results.get(LOCAL_IP).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+        verify(queryIpResponseDAO).findByIps(List.of(LOCAL_IP));
+        assertThat(queryIpLookupService.getIfPresent(PEER_IP)).isNotNull();
+    }
+
+    private long answers(String source) {
+        return metricRegistry.meter(MetricRegistry.name(SERVICE, "answers", source)).getCount();
+    }
+}
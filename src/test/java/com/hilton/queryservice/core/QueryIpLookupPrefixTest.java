@@ -0,0 +1,146 @@
+package com.hilton.queryservice.core;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Answers shared by the hosts of a network prefix, observed from exact answers or read from the persisted neighbours
+ */
+public class QueryIpLookupPrefixTest {
+
+    private static final String SERVICE = QueryIpLookupService.class.getName();
+
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private UpstreamBatcher upstreamBatcher;
+    private MetricRegistry metricRegistry;
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = Mockito.mock(QueryIpResponseDAO.class);
+        upstreamBatcher = Mockito.mock(UpstreamBatcher.class);
+        metricRegistry = new MetricRegistry();
+        queryIpLookupService = QueryIpLookupService.builder(upstreamBatcher, LookupCacheSpec.ofSize(60, 100), queryIpResponseDAO)
+                .loaderExecutor(Runnable::run)
+                .metricRegistry(metricRegistry)
+                .prefixAnswerCache(new PrefixAnswerCache(100, 3600, 24, 48, 2, 90))
+                .build();
+    }
+
+    @Test
+    public void remoteAnswersOfPrefixAnswerItsOtherHosts() throws ExecutionException {
+        when(upstreamBatcher.fetch("71.76.72.1")).thenReturn(charlotte("71.76.72.1"));
+        when(upstreamBatcher.fetch("71.76.72.2")).thenReturn(charlotte("71.76.72.2"));
+        queryIpLookupService.get("71.76.72.1");
+        queryIpLookupService.get("71.76.72.2");
+
+        QueryIpResponseEntity answered = queryIpLookupService.get("71.76.72.156");
+
+        assertThat(answered.getQuery()).isEqualTo("71.76.72.156");
+        assertThat(answered.getCity()).isEqualTo("Charlotte");
+        assertThat(answered.getInferred()).isTrue();
+        assertThat(queryIpLookupService.get("71.76.72.156").getInferred()).isTrue();
+        verify(upstreamBatcher, never()).fetch("71.76.72.156");
+        // the exact tiers are looked up before the prefix answers
+        verify(queryIpResponseDAO, times(1)).findByIp("71.76.72.156");
+        verify(queryIpResponseDAO, times(2)).upsertAll(anyList());
+        // the neighbours of the prefix are read once, at its first miss
+        verify(queryIpResponseDAO, times(1)).findByAddressRange(any(), any(), anyInt());
+        assertThat(meter("prefix")).isEqualTo(1);
+        assertThat(meter("remote")).isEqualTo(2);
+    }
+
+    @Test
+    public void persistedNeighboursAnswerHostMissedByDatabase() throws ExecutionException {
+        IpKey ipKey = IpAddressParser.toKey("71.76.72.156");
+        when(queryIpResponseDAO.findByAddressRange(ipKey.firstInPrefix(24), ipKey.lastInPrefix(24), PrefixAnswerCache.MAX_HOSTS_PER_PREFIX))
+                .thenReturn(Arrays.asList(charlotte("71.76.72.1"), charlotte("71.76.72.2")));
+
+        QueryIpResponseEntity answered = queryIpLookupService.getAsync("71.76.72.156").join();
+
+        assertThat(answered.getCity()).isEqualTo("Charlotte");
+        assertThat(answered.getInferred()).isTrue();
+        verify(queryIpResponseDAO, times(1)).findByIp("71.76.72.156");
+        verify(upstreamBatcher, never()).fetchAsync("71.76.72.156");
+        verify(queryIpResponseDAO, never()).upsertAll(anyList());
+        assertThat(meter("prefix")).isEqualTo(1);
+    }
+
+    @Test
+    public void persistedAnswerOfHostBeatsAnswerOfPrefix() throws ExecutionException {
+        QueryIpResponseEntity raleigh = charlotte("71.76.72.156");
+        raleigh.setCity("Raleigh");
+        when(upstreamBatcher.fetch("71.76.72.1")).thenReturn(charlotte("71.76.72.1"));
+        when(upstreamBatcher.fetch("71.76.72.2")).thenReturn(charlotte("71.76.72.2"));
+        when(queryIpResponseDAO.findByIp("71.76.72.156")).thenReturn(Optional.of(raleigh));
+        queryIpLookupService.get("71.76.72.1");
+        queryIpLookupService.get("71.76.72.2");
+
+        QueryIpResponseEntity answered = queryIpLookupService.get("71.76.72.156");
+
+        assertThat(answered.getCity()).isEqualTo("Raleigh");
+        assertThat(answered.getInferred()).isNull();
+        assertThat(meter("prefix")).isEqualTo(0);
+        assertThat(meter("database")).isEqualTo(1);
+    }
+
+    @Test
+    public void batchLooksUpDatabaseBeforePrefix() throws ExecutionException {
+        QueryIpResponseEntity raleigh = charlotte("71.76.72.156");
+        raleigh.setCity("Raleigh");
+        when(upstreamBatcher.fetch("71.76.72.1")).thenReturn(charlotte("71.76.72.1"));
+        when(upstreamBatcher.fetch("71.76.72.2")).thenReturn(charlotte("71.76.72.2"));
+        when(queryIpResponseDAO.findByIps(anyCollection())).thenReturn(List.of(raleigh));
+        queryIpLookupService.get("71.76.72.1");
+        queryIpLookupService.get("71.76.72.2");
+
+        Map<String, QueryIpBatchResult> results = queryIpLookupService.getAll(List.of("71.76.72.156"));
+
+        assertThat(results.get("71.76.72.156").getResponse().getCity()).isEqualTo("Raleigh");
+        assertThat(results.get("71.76.72.156").getResponse().getInferred()).isNull();
+        assertThat(meter("prefix")).isEqualTo(0);
+    }
+
+    @Test
+    public void disagreeingHostsAreFetchedFromRemote() throws ExecutionException {
+        QueryIpResponseEntity raleigh = charlotte("71.76.72.2");
+        raleigh.setCity("Raleigh");
+        when(upstreamBatcher.fetch("71.76.72.1")).thenReturn(charlotte("71.76.72.1"));
+        when(upstreamBatcher.fetch("71.76.72.2")).thenReturn(raleigh);
+        when(upstreamBatcher.fetch("71.76.72.156")).thenReturn(charlotte("71.76.72.156"));
+        queryIpLookupService.get("71.76.72.1");
+        queryIpLookupService.get("71.76.72.2");
+
+        QueryIpResponseEntity answered = queryIpLookupService.get("71.76.72.156");
+
+        assertThat(answered.getInferred()).isNull();
+        verify(upstreamBatcher, times(1)).fetch("71.76.72.156");
+        assertThat(meter("prefix")).isEqualTo(0);
+    }
+
+    private long meter(String source) {
+        return metricRegistry.meter(MetricRegistry.name(SERVICE, "answers", source)).getCount();
+    }
+}
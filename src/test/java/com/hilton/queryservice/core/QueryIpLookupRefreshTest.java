@@ -0,0 +1,139 @@
+package com.hilton.queryservice.core;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.db.QueryIpResponseDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import javax.ws.rs.ProcessingException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.hilton.queryservice.core.QueryIpResponses.answer;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stale-while-revalidate of persisted responses older than the max age, and their refresh from the remote api
+ */
+public class QueryIpLookupRefreshTest {
+
+    private static final String SERVICE = QueryIpLookupService.class.getName();
+    private static final String IP = "71.76.72.156";
+    private static final long MAX_AGE_IN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private QueryIpResponseDAO queryIpResponseDAO;
+    private UpstreamBatcher upstreamBatcher;
+    private MetricRegistry metricRegistry;
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = Mockito.mock(QueryIpResponseDAO.class);
+        upstreamBatcher = Mockito.mock(UpstreamBatcher.class);
+        metricRegistry = new MetricRegistry();
+        queryIpLookupService = QueryIpLookupService.builder(upstreamBatcher, LookupCacheSpec.ofSize(60, 100), queryIpResponseDAO)
+                .loaderExecutor(Runnable::run)
+                .metricRegistry(metricRegistry)
+                .persistedMaxAgeInSeconds((int) TimeUnit.MILLISECONDS.toSeconds(MAX_AGE_IN_MILLIS))
+                .build();
+    }
+
+    @Test
+    public void staleRowIsAnsweredThenRefreshed() throws ExecutionException {
+        long start = System.currentTimeMillis();
+        when(queryIpResponseDAO.findByIp(IP)).thenReturn(Optional.of(response(IP, "success", "Charlotte", start - 2 * MAX_AGE_IN_MILLIS)));
+        when(upstreamBatcher.fetchAsync(IP)).thenReturn(CompletableFuture.completedFuture(response(IP, "success", "Raleigh", null)));
+
+        QueryIpResponseEntity answered = queryIpLookupService.get(IP);
+
+        assertThat(answered.getCity()).isEqualTo("Charlotte");
+        QueryIpResponseEntity updated = upserted().get(0);
+        assertThat(updated.getCity()).isEqualTo("Raleigh");
+        assertThat(updated.getPersisted()).isEqualTo("true");
+        assertThat(updated.getFetchedAt()).isGreaterThanOrEqualTo(start);
+        assertThat(meter("stale-answers")).isEqualTo(1);
+        assertThat(meter("refreshes")).isEqualTo(1);
+    }
+
+    @Test
+    public void rowOfUnknownFetchTimeIsStale() {
+        assertThat(queryIpLookupService.isStale(response(IP, "success", "Charlotte", null))).isTrue();
+        assertThat(queryIpLookupService.isStale(response(IP, "success", "Charlotte", System.currentTimeMillis()))).isFalse();
+    }
+
+    @Test
+    public void freshRowIsNotRefreshed() throws ExecutionException {
+        when(queryIpResponseDAO.findByIp(IP)).thenReturn(Optional.of(response(IP, "success", "Charlotte", System.currentTimeMillis())));
+
+        assertThat(queryIpLookupService.get(IP).getCity()).isEqualTo("Charlotte");
+
+        verify(upstreamBatcher, never()).fetchAsync(anyString());
+        verify(queryIpResponseDAO, never()).upsertAll(anyList());
+        assertThat(meter("stale-answers")).isEqualTo(0);
+    }
+
+    @Test
+    public void failAnswerKeepsPersistedResponseWithNewFetchTime() {
+        long start = System.currentTimeMillis();
+        when(upstreamBatcher.fetchAsync(IP)).thenReturn(CompletableFuture.completedFuture(response(IP, "fail", null, null)));
+
+        QueryIpResponseEntity stale = response(IP, "success", "Charlotte", 0L);
+        stale.setLastAccessedAt(1000L);
+
+        int refreshed = queryIpLookupService.refresh(List.of(stale)).join();
+
+        assertThat(refreshed).isEqualTo(1);
+        QueryIpResponseEntity updated = upserted().get(0);
+        assertThat(updated.getStatus()).isEqualTo("success");
+        assertThat(updated.getCity()).isEqualTo("Charlotte");
+        assertThat(updated.getFetchedAt()).isGreaterThanOrEqualTo(start);
+        assertThat(updated.getLastAccessedAt()).isEqualTo(1000L);
+    }
+
+    @Test
+    public void failedRemoteCallLeavesRowStale() {
+        String other = "71.76.72.157";
+        when(upstreamBatcher.fetchAsync(IP)).thenReturn(CompletableFuture.failedFuture(new ProcessingException("remote api down")));
+        when(upstreamBatcher.fetchAsync(other)).thenReturn(CompletableFuture.completedFuture(response(other, "success", "Raleigh", null)));
+
+        int refreshed = queryIpLookupService.refresh(Arrays.asList(response(IP, "success", "Charlotte", 0L), response(other, "success", "Charlotte", 0L))).join();
+
+        assertThat(refreshed).isEqualTo(1);
+        List<QueryIpResponseEntity> upserted = upserted();
+        assertThat(upserted).hasSize(1);
+        assertThat(upserted.get(0).getQuery()).isEqualTo(other);
+        assertThat(meter("remote-errors")).isEqualTo(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<QueryIpResponseEntity> upserted() {
+        ArgumentCaptor<List<QueryIpResponseEntity>> captor = ArgumentCaptor.forClass(List.class);
+        verify(queryIpResponseDAO, times(1)).upsertAll(captor.capture());
+        return captor.getValue();
+    }
+
+    private long meter(String name) {
+        return metricRegistry.meter(MetricRegistry.name(SERVICE, name)).getCount();
+    }
+
+    private static QueryIpResponseEntity response(String ip, String status, String city, Long fetchedAt) {
+        QueryIpResponseEntity queryIpResponseEntity = answer(ip, status);
+        queryIpResponseEntity.setCity(city);
+        queryIpResponseEntity.setFetchedAt(fetchedAt);
+        return queryIpResponseEntity;
+    }
+}
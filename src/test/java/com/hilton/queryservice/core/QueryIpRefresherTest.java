@@ -0,0 +1,90 @@
+package com.hilton.queryservice.core;
+
+import com.hilton.queryservice.db.QueryIpStore;
+import com.hilton.queryservice.db.UnitOfWorkRunner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryIpRefresherTest {
+
+    private QueryIpStore queryIpStore;
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpStore = Mockito.mock(QueryIpStore.class);
+        queryIpLookupService = Mockito.mock(QueryIpLookupService.class);
+        when(queryIpLookupService.refresh(anyList())).thenAnswer(invocation -> {
+            List<QueryIpResponseEntity> chunk = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(chunk.size());
+        });
+    }
+
+    @Test
+    public void refreshesStaleRowsChunkAfterChunk() {
+        when(queryIpStore.findStale(anyLong(), eq(""), eq(2))).thenReturn(rows(1, 2));
+        when(queryIpStore.findStale(anyLong(), eq("111.11.1.2"), eq(2))).thenReturn(rows(3));
+        when(queryIpStore.findStale(anyLong(), eq("111.11.1.3"), eq(2))).thenReturn(Collections.emptyList());
+        QueryIpRefresher queryIpRefresher = new QueryIpRefresher(queryIpStore, UnitOfWorkRunner.direct(), queryIpLookupService, 3600, 60, 2, 100);
+
+        long before = System.currentTimeMillis() - 3600 * 1000L;
+        assertThat(queryIpRefresher.refreshStale()).isEqualTo(3);
+
+        verify(queryIpLookupService, times(2)).refresh(anyList());
+        ArgumentCaptor<Long> fetchedBefore = ArgumentCaptor.forClass(Long.class);
+        verify(queryIpStore, times(3)).findStale(fetchedBefore.capture(), anyString(), eq(2));
+        assertThat(fetchedBefore.getValue()).isGreaterThanOrEqualTo(before);
+        assertThat(queryIpRefresher.getRefreshedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void stopsRoundAtMaxPerRound() {
+        when(queryIpStore.findStale(anyLong(), eq(""), eq(2))).thenReturn(rows(1, 2));
+        when(queryIpStore.findStale(anyLong(), eq("111.11.1.2"), eq(1))).thenReturn(rows(3));
+        QueryIpRefresher queryIpRefresher = new QueryIpRefresher(queryIpStore, UnitOfWorkRunner.direct(), queryIpLookupService, 3600, 60, 2, 3);
+
+        assertThat(queryIpRefresher.refreshStale()).isEqualTo(3);
+
+        verify(queryIpStore, times(2)).findStale(anyLong(), anyString(), anyInt());
+    }
+
+    @Test
+    public void stopsRoundWhenNoRowOfChunkIsRefreshed() {
+        when(queryIpStore.findStale(anyLong(), eq(""), anyInt())).thenReturn(rows(1, 2));
+        when(queryIpLookupService.refresh(anyList())).thenReturn(CompletableFuture.completedFuture(0));
+        QueryIpRefresher queryIpRefresher = new QueryIpRefresher(queryIpStore, UnitOfWorkRunner.direct(), queryIpLookupService, 3600, 60, 2, 100);
+
+        assertThat(queryIpRefresher.refreshStale()).isEqualTo(0);
+
+        verify(queryIpStore, never()).findStale(anyLong(), eq("111.11.1.2"), anyInt());
+    }
+
+    private static List<QueryIpResponseEntity> rows(int... lastOctets) {
+        List<QueryIpResponseEntity> rows = new ArrayList<>();
+        for (int lastOctet : lastOctets) {
+            QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+            queryIpResponseEntity.setQuery("111.11.1." + lastOctet);
+            queryIpResponseEntity.setStatus("success");
+            rows.add(queryIpResponseEntity);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,80 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class QueryIpResponseCodecTest {
+
+    @Test
+    public void roundTripsAllFields() throws IOException {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery("71.76.72.156");
+        queryIpResponseEntity.setStatus("success");
+        queryIpResponseEntity.setCountry("United States");
+        queryIpResponseEntity.setCountryCode("US");
+        queryIpResponseEntity.setRegion("NC");
+        queryIpResponseEntity.setRegionName("North Carolina");
+        queryIpResponseEntity.setCity("Charlotte");
+        queryIpResponseEntity.setZip("28270");
+        queryIpResponseEntity.setLat(35.1362);
+        queryIpResponseEntity.setLon(-80.7673);
+        queryIpResponseEntity.setTimezone("America/New_York");
+        queryIpResponseEntity.setIsp("Spectrum");
+        queryIpResponseEntity.setOrg("Road Runner");
+        queryIpResponseEntity.setAs("AS11426 Charter Communications Inc");
+        queryIpResponseEntity.setPersisted("true");
+
+        QueryIpResponseEntity decoded = QueryIpResponseCodec.decode(QueryIpResponseCodec.encode(queryIpResponseEntity));
+
+        assertThat(decoded).isEqualTo(queryIpResponseEntity);
+        assertThat(decoded.getMessage()).isNull();
+    }
+
+    @Test
+    public void roundTripsFetchedAt() throws IOException {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery("71.76.72.156");
+        queryIpResponseEntity.setFetchedAt(1700000000000L);
+
+        assertThat(QueryIpResponseCodec.decode(QueryIpResponseCodec.encode(queryIpResponseEntity)).getFetchedAt()).isEqualTo(1700000000000L);
+        queryIpResponseEntity.setFetchedAt(null);
+        assertThat(QueryIpResponseCodec.decode(QueryIpResponseCodec.encode(queryIpResponseEntity)).getFetchedAt()).isNull();
+    }
+
+    @Test
+    public void readsFormatWithoutFetchedAt() throws IOException {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery("71.76.72.156");
+        queryIpResponseEntity.setCity("Charlotte");
+        byte[] bytes = QueryIpResponseCodec.encode(queryIpResponseEntity);
+        // format 1 ends before the fetchedAt presence flag
+        byte[] formatOne = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, formatOne, 0, formatOne.length);
+        formatOne[0] = 1;
+
+        QueryIpResponseEntity decoded = QueryIpResponseCodec.decode(formatOne);
+
+        assertThat(decoded.getCity()).isEqualTo("Charlotte");
+        assertThat(decoded.getFetchedAt()).isNull();
+    }
+
+    @Test
+    public void rejectsTruncatedBytes() {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery("71.76.72.156");
+        byte[] bytes = QueryIpResponseCodec.encode(queryIpResponseEntity);
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+        assertThrows(IOException.class, () -> QueryIpResponseCodec.decode(truncated));
+    }
+
+    @Test
+    public void rejectsOtherFormatVersion() {
+        assertThrows(IOException.class, () -> QueryIpResponseCodec.decode(new byte[]{99}));
+    }
+}
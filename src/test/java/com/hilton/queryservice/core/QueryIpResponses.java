@@ -0,0 +1,44 @@
+package com.hilton.queryservice.core;
+
+/**
+ * Answers of the remote api shared by the tests
+ */
+public final class QueryIpResponses {
+
+    private QueryIpResponses() {
+    }
+
+    /**
+     * @param ip query ip
+     * @return persisted successful answer locating the ip in Charlotte, North Carolina
+     */
+    public static QueryIpResponseEntity charlotte(String ip) {
+        QueryIpResponseEntity queryIpResponseEntity = answer(ip, "success");
+        queryIpResponseEntity.setCountry("United States");
+        queryIpResponseEntity.setCountryCode("US");
+        queryIpResponseEntity.setRegion("NC");
+        queryIpResponseEntity.setRegionName("North Carolina");
+        queryIpResponseEntity.setCity("Charlotte");
+        queryIpResponseEntity.setZip("28270");
+        queryIpResponseEntity.setLat(35.1362);
+        queryIpResponseEntity.setLon(-80.7673);
+        queryIpResponseEntity.setTimezone("America/New_York");
+        queryIpResponseEntity.setIsp("Spectrum");
+        queryIpResponseEntity.setOrg("Road Runner");
+        queryIpResponseEntity.setAs("AS11426 Charter Communications Inc");
+        return queryIpResponseEntity;
+    }
+
+    /**
+     * @param ip     query ip
+     * @param status status of the answer, success or fail
+     * @return persisted answer of the ip without location
+     */
+    public static QueryIpResponseEntity answer(String ip, String status) {
+        QueryIpResponseEntity queryIpResponseEntity = new QueryIpResponseEntity();
+        queryIpResponseEntity.setQuery(ip);
+        queryIpResponseEntity.setStatus(status);
+        queryIpResponseEntity.setPersisted("true");
+        return queryIpResponseEntity;
+    }
+}
@@ -0,0 +1,50 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReservedRangesTest {
+
+    @Test
+    public void answersPrivateIPV4Ranges() {
+        for (String ip : new String[]{"10.1.2.3", "172.16.0.1", "172.31.255.255", "192.168.1.1"}) {
+            Optional<QueryIpResponseEntity> response = ReservedRanges.lookup(ip);
+            assertThat(response).isPresent();
+            assertThat(response.get().getQuery()).isEqualTo(ip);
+            assertThat(response.get().getStatus()).isEqualTo(QueryIpLookupService.FAIL_STATUS);
+            assertThat(response.get().getMessage()).isEqualTo(ReservedRanges.PRIVATE_RANGE_MESSAGE);
+        }
+    }
+
+    @Test
+    public void answersUniqueLocalIPV6AsPrivateRange() {
+        Optional<QueryIpResponseEntity> response = ReservedRanges.lookup("fd12:3456:789a::1");
+        assertThat(response).isPresent();
+        assertThat(response.get().getMessage()).isEqualTo(ReservedRanges.PRIVATE_RANGE_MESSAGE);
+    }
+
+    @Test
+    public void answersReservedRanges() {
+        for (String ip : new String[]{"127.0.0.1", "169.254.1.1", "0.0.0.0", "::1", "fe80::1"}) {
+            Optional<QueryIpResponseEntity> response = ReservedRanges.lookup(ip);
+            assertThat(response).isPresent();
+            assertThat(response.get().getMessage()).isEqualTo(ReservedRanges.RESERVED_RANGE_MESSAGE);
+        }
+    }
+
+    @Test
+    public void missesPublicAddresses() {
+        assertThat(ReservedRanges.lookup("71.76.72.156")).isEmpty();
+        assertThat(ReservedRanges.lookup("172.32.0.1")).isEmpty();
+        assertThat(ReservedRanges.lookup("2001:4860:4860::8888")).isEmpty();
+    }
+
+    @Test
+    public void missesDomainNames() {
+        assertThat(ReservedRanges.lookup("localhost")).isEmpty();
+        assertThat(ReservedRanges.lookup("google.com")).isEmpty();
+    }
+}
@@ -0,0 +1,69 @@
+package com.hilton.queryservice.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void assignsSameIdToEqualStrings() {
+        StringDictionary dictionary = new StringDictionary();
+
+        int id = dictionary.idOf("United States");
+
+        assertThat(dictionary.idOf(new String("United States"))).isEqualTo(id);
+        assertThat(dictionary.idOf("Canada")).isNotEqualTo(id);
+        assertThat(dictionary.valueOf(id)).isEqualTo("United States");
+        assertThat(dictionary.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void mapsNullToNullId() {
+        StringDictionary dictionary = new StringDictionary();
+
+        assertThat(dictionary.idOf(null)).isEqualTo(StringDictionary.NULL_ID);
+        assertThat(dictionary.valueOf(StringDictionary.NULL_ID)).isNull();
+        assertThat(dictionary.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        StringDictionary dictionary = new StringDictionary();
+
+        for (int i = 0; i < 5000; i++) {
+            assertThat(dictionary.idOf("city-" + i)).isEqualTo(i);
+        }
+
+        assertThat(dictionary.valueOf(4999)).isEqualTo("city-4999");
+        assertThat(dictionary.valueOf(0)).isEqualTo("city-0");
+    }
+
+    @Test
+    public void assignsOneIdUnderConcurrentUse() throws Exception {
+        StringDictionary dictionary = new StringDictionary();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        String value = "isp-" + i;
+                        assertThat(dictionary.valueOf(dictionary.idOf(value))).isEqualTo(value);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(dictionary.size()).isEqualTo(2000);
+    }
+}
@@ -0,0 +1,56 @@
+package com.hilton.queryservice.core;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void runsTasksOnNamedVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isAvailable());
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-virtual-");
+        try {
+            CompletableFuture<Thread> thread = CompletableFuture.supplyAsync(Thread::currentThread, executor);
+
+            assertThat(thread.get(5, TimeUnit.SECONDS).getName()).startsWith("test-virtual-");
+            assertThat(Thread.class.getMethod("isVirtual").invoke(thread.get())).isEqualTo(true);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void unavailableVirtualThreadsAreRejected() {
+        assumeFalse(VirtualThreads.isAvailable());
+
+        assertThrows(UnsupportedOperationException.class, () -> VirtualThreads.newThreadPerTaskExecutor("test-virtual-"));
+    }
+
+    @Test
+    public void configuresThreadPoolWithExecutorSetter() {
+        Executor executor = Runnable::run;
+        RecordingThreadPool threadPool = new RecordingThreadPool();
+
+        assertThat(VirtualThreads.useFor(threadPool, executor)).isTrue();
+        assertThat(threadPool.virtualThreadsExecutor).isSameAs(executor);
+    }
+
+    public static class RecordingThreadPool extends QueuedThreadPool {
+
+        private Executor virtualThreadsExecutor;
+
+        public void setVirtualThreadsExecutor(Executor executor) {
+            this.virtualThreadsExecutor = executor;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.hilton.queryservice.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpKey;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Plain JDBC reads against an in-memory H2 ipquerytable of the schema of the migrations
+ */
+public class JdbcQueryIpResponseDAOTest {
+
+    private static final String INSERT = "INSERT INTO ipquerytable (query, status, country, countryCode, region, regionName, city, zip,"
+            + " lat, lon, timezone, isp, org, asColumn, persisted, address, fetchedAt, lastAccessedAt) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+    private MetricRegistry metricRegistry;
+    private JdbcQueryIpResponseDAO queryIpResponseDAO;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:jdbcQueryIpResponseDAOTest");
+        // the in-memory database lives while a connection is open
+        keepAlive = dataSource.getConnection();
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE ipquerytable (id BIGINT AUTO_INCREMENT PRIMARY KEY, query VARCHAR(100) NOT NULL UNIQUE,"
+                    + " status VARCHAR(100), country VARCHAR(100), countryCode VARCHAR(10), region VARCHAR(100), regionName VARCHAR(100),"
+                    + " city VARCHAR(100), zip VARCHAR(10), lat DOUBLE, lon DOUBLE, timezone VARCHAR(100), isp VARCHAR(100),"
+                    + " org VARCHAR(100), asColumn VARCHAR(100), persisted VARCHAR(10), address BINARY(16), fetchedAt BIGINT, lastAccessedAt BIGINT)");
+        }
+        metricRegistry = new MetricRegistry();
+        queryIpResponseDAO = new JdbcQueryIpResponseDAO(Mockito.mock(SessionFactory.class), dataSource, metricRegistry);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Test
+    public void findsIpWithoutSession() throws SQLException {
+        QueryIpResponseEntity charlotte = insert(charlotte("71.76.72.156"));
+
+        Optional<QueryIpResponseEntity> found = queryIpResponseDAO.findByIp("71.76.72.156");
+
+        assertThat(found).contains(charlotte);
+        assertThat(found.get().getAddress()).isEqualTo(charlotte.getAddress());
+        assertThat(found.get().getLat()).isEqualTo(35.1362);
+        assertThat(queryIpResponseDAO.findByIp("71.76.72.157")).isEmpty();
+        assertThat(metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "find-by-ip")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void findsDomainNameQueryWithoutAddress() throws SQLException {
+        insert(charlotte("google.com"));
+
+        assertThat(queryIpResponseDAO.findByIp("google.com").get().getAddress()).isNull();
+    }
+
+    @Test
+    public void readsFetchedAndAccessTimesOrNull() throws SQLException {
+        QueryIpResponseEntity charlotte = charlotte("71.76.72.156");
+        charlotte.setFetchedAt(1700000000000L);
+        charlotte.setLastAccessedAt(1700000060000L);
+        insert(charlotte);
+        insert(charlotte("71.76.72.157"));
+
+        assertThat(queryIpResponseDAO.findByIp("71.76.72.156").get().getFetchedAt()).isEqualTo(1700000000000L);
+        assertThat(queryIpResponseDAO.findByIp("71.76.72.156").get().getLastAccessedAt()).isEqualTo(1700000060000L);
+        assertThat(queryIpResponseDAO.findByIp("71.76.72.157").get().getFetchedAt()).isNull();
+        assertThat(queryIpResponseDAO.findByIp("71.76.72.157").get().getLastAccessedAt()).isNull();
+    }
+
+    @Test
+    public void findsBatchLargerThanOneInList() throws SQLException {
+        List<String> ips = new ArrayList<>();
+        for (int i = 0; i < JdbcQueryIpResponseDAO.MAX_IN_LIST_SIZE + 45; i++) {
+            String ip = "71.76." + (i >> 8) + "." + (i & 0xff);
+            ips.add(ip);
+            if (i % 2 == 0) {
+                insert(charlotte(ip));
+            }
+        }
+
+        List<QueryIpResponseEntity> found = queryIpResponseDAO.findByIps(ips);
+
+        Set<String> foundIps = new HashSet<>();
+        for (QueryIpResponseEntity queryIpResponseEntity : found) {
+            foundIps.add(queryIpResponseEntity.getQuery());
+        }
+        assertThat(found).hasSize((ips.size() + 1) / 2);
+        assertThat(foundIps).hasSize(found.size());
+        assertThat(ips).containsAll(foundIps);
+        assertThat(queryIpResponseDAO.findByIps(List.of())).isEmpty();
+    }
+
+    @Test
+    public void findsAddressRangeInAddressOrderWithoutSession() throws SQLException {
+        insert(charlotte("71.76.72.200"));
+        insert(charlotte("71.76.72.3"));
+        insert(charlotte("71.76.73.1"));
+        insert(charlotte("71.76.72.40"));
+        insert(charlotte("google.com"));
+        IpKey ipKey = IpAddressParser.toKey("71.76.72.156");
+
+        List<QueryIpResponseEntity> found = queryIpResponseDAO.findByAddressRange(ipKey.firstInPrefix(24), ipKey.lastInPrefix(24), 16);
+
+        List<String> queries = new ArrayList<>();
+        for (QueryIpResponseEntity queryIpResponseEntity : found) {
+            queries.add(queryIpResponseEntity.getQuery());
+        }
+        assertThat(queries).containsExactly("71.76.72.3", "71.76.72.40", "71.76.72.200");
+        assertThat(queryIpResponseDAO.findByAddressRange(ipKey.firstInPrefix(24), ipKey.lastInPrefix(24), 2)).hasSize(2);
+    }
+
+    @Test
+    public void padsInListsToPowersOfTwo() {
+        assertThat(Arrays.asList(1, 2, 3, 5, 100, 255, 256, 1000).stream().map(JdbcQueryIpResponseDAO::inListSize))
+                .containsExactly(1, 2, 4, 8, 128, 256, 256, 256);
+        assertThat(JdbcQueryIpResponseDAO.findByIpsStatement(2)).endsWith("WHERE query IN (?, ?)");
+    }
+
+    private QueryIpResponseEntity insert(QueryIpResponseEntity queryIpResponseEntity) throws SQLException {
+        // derived from the query as on persist
+        queryIpResponseEntity.setAddress(IpAddressParser.toKey(queryIpResponseEntity.getQuery()).toBytes());
+        try (PreparedStatement statement = keepAlive.prepareStatement(INSERT)) {
+            statement.setString(1, queryIpResponseEntity.getQuery());
+            statement.setString(2, queryIpResponseEntity.getStatus());
+            statement.setString(3, queryIpResponseEntity.getCountry());
+            statement.setString(4, queryIpResponseEntity.getCountryCode());
+            statement.setString(5, queryIpResponseEntity.getRegion());
+            statement.setString(6, queryIpResponseEntity.getRegionName());
+            statement.setString(7, queryIpResponseEntity.getCity());
+            statement.setString(8, queryIpResponseEntity.getZip());
+            statement.setDouble(9, queryIpResponseEntity.getLat());
+            statement.setDouble(10, queryIpResponseEntity.getLon());
+            statement.setString(11, queryIpResponseEntity.getTimezone());
+            statement.setString(12, queryIpResponseEntity.getIsp());
+            statement.setString(13, queryIpResponseEntity.getOrg());
+            statement.setString(14, queryIpResponseEntity.getAs());
+            statement.setString(15, queryIpResponseEntity.getPersisted());
+            statement.setBytes(16, queryIpResponseEntity.getAddress());
+            statement.setObject(17, queryIpResponseEntity.getFetchedAt(), Types.BIGINT);
+            statement.setObject(18, queryIpResponseEntity.getLastAccessedAt(), Types.BIGINT);
+            statement.executeUpdate();
+        }
+        return queryIpResponseEntity;
+    }
+}
@@ -0,0 +1,163 @@
+package com.hilton.queryservice.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpKey;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Embedded MVStore engine of the persisted responses, on a temporary store file
+ */
+public class MVStoreQueryIpStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private MetricRegistry metricRegistry;
+    private MVStoreQueryIpStore store;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry();
+        store = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void findsCreatedIp() {
+        QueryIpResponseEntity charlotte = store.create(charlotte("71.76.72.156"));
+
+        Optional<QueryIpResponseEntity> found = store.findByIp("71.76.72.156");
+
+        assertThat(found).contains(charlotte);
+        assertThat(found.get().getAddress()).isEqualTo(IpAddressParser.toKey("71.76.72.156").toBytes());
+        assertThat(found.get().getLat()).isEqualTo(35.1362);
+        assertThat(store.findByIp("71.76.72.157")).isEmpty();
+        assertThat(metricRegistry.timer(MetricRegistry.name(QueryIpResponseDAO.class, "find-by-ip")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void upsertReplacesResponseOfQuery() {
+        store.upsertAll(Arrays.asList(charlotte("71.76.72.156"), charlotte("google.com")));
+        QueryIpResponseEntity moved = charlotte("71.76.72.156");
+        moved.setCity("Raleigh");
+
+        assertThat(store.upsertAll(List.of(moved))).isEqualTo(1);
+
+        assertThat(store.findByIp("71.76.72.156").get().getCity()).isEqualTo("Raleigh");
+        assertThat(store.findByIp("google.com").get().getAddress()).isNull();
+        assertThat(store.findByIps(Arrays.asList("71.76.72.156", "71.76.72.157", "google.com"))).hasSize(2);
+        assertThat(store.findByIps(List.of())).isEmpty();
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void findsAddressesOfPrefixInAddressOrder() {
+        store.upsertAll(Arrays.asList(charlotte("71.76.73.1"), charlotte("71.76.72.200"), charlotte("71.76.72.3"), charlotte("google.com")));
+        IpKey ipKey = IpAddressParser.toKey("71.76.72.156");
+
+        List<String> found = queries(store.findByAddressRange(ipKey.firstInPrefix(24), ipKey.lastInPrefix(24), 10));
+
+        assertThat(found).containsExactly("71.76.72.3", "71.76.72.200");
+        assertThat(store.findByAddressRange(ipKey.firstInPrefix(16), ipKey.lastInPrefix(16), 1)).hasSize(1);
+    }
+
+    @Test
+    public void streamsLatestWritesNewestFirst() {
+        store.create(charlotte("71.76.72.1"));
+        store.upsertAll(Arrays.asList(charlotte("71.76.72.2"), charlotte("71.76.72.3")));
+        store.create(charlotte("71.76.72.1"));
+
+        List<QueryIpResponseEntity> streamed = new ArrayList<>();
+        int count = store.streamMostRecent(10, streamed::add);
+
+        assertThat(count).isEqualTo(3);
+        assertThat(queries(streamed)).containsExactly("71.76.72.1", "71.76.72.3", "71.76.72.2");
+        assertThat(store.streamMostRecent(10, queryIpResponseEntity -> false)).isEqualTo(1);
+        assertThat(store.streamMostRecent(2, queryIpResponseEntity -> true)).isEqualTo(2);
+    }
+
+    @Test
+    public void pagesStaleResponsesInQueryOrder() {
+        QueryIpResponseEntity fresh = charlotte("71.76.72.2");
+        fresh.setFetchedAt(2000L);
+        QueryIpResponseEntity old = charlotte("71.76.72.3");
+        old.setFetchedAt(500L);
+        store.upsertAll(Arrays.asList(charlotte("71.76.72.4"), fresh, old, charlotte("71.76.72.1")));
+
+        List<QueryIpResponseEntity> first = store.findStale(1000L, "", 2);
+
+        assertThat(queries(first)).containsExactly("71.76.72.1", "71.76.72.3");
+        assertThat(queries(store.findStale(1000L, "71.76.72.3", 2))).containsExactly("71.76.72.4");
+        assertThat(store.findStale(1000L, "71.76.72.4", 2)).isEmpty();
+        assertThat(first.get(1).getFetchedAt()).isEqualTo(500L);
+    }
+
+    @Test
+    public void removesColdResponsesNotAccessedSince() {
+        QueryIpResponseEntity accessed = charlotte("71.76.72.1");
+        accessed.setLastAccessedAt(2000L);
+        store.upsertAll(Arrays.asList(accessed, charlotte("71.76.72.2"), charlotte("71.76.72.3"), charlotte("71.76.72.4")));
+        assertThat(store.touchAll(Arrays.asList("71.76.72.2", "71.76.72.3", "71.76.72.9"), 500L)).isEqualTo(2);
+
+        assertThat(store.findCold(1000L, "", 10)).containsExactly("71.76.72.2", "71.76.72.3");
+        assertThat(store.findCold(1000L, "71.76.72.2", 10)).containsExactly("71.76.72.3");
+        assertThat(store.findByIp("71.76.72.1").get().getLastAccessedAt()).isEqualTo(2000L);
+
+        store.touchAll(List.of("71.76.72.3"), 3000L);
+        assertThat(store.removeCold(Arrays.asList("71.76.72.2", "71.76.72.3", "71.76.72.4"), 1000L, true)).containsExactly("71.76.72.2");
+
+        assertThat(store.findByIp("71.76.72.2")).isEmpty();
+        assertThat(store.findByIp("71.76.72.3")).isPresent();
+        assertThat(store.findByIp("71.76.72.4")).isPresent();
+        assertThat(store.findCold(1000L, "", 10)).isEmpty();
+        assertThat(store.size()).isEqualTo(3);
+        assertThat(store.archivedSize()).isEqualTo(1);
+        List<QueryIpResponseEntity> streamed = new ArrayList<>();
+        store.streamMostRecent(10, streamed::add);
+        assertThat(queries(streamed)).doesNotContain("71.76.72.2");
+    }
+
+    @Test
+    public void keepsResponsesAndWriteOrderAcrossReopen() {
+        store.upsertAll(Arrays.asList(charlotte("71.76.72.1"), charlotte("71.76.72.2")));
+        store.close();
+
+        store = open();
+        store.create(charlotte("71.76.72.3"));
+
+        assertThat(store.findByIp("71.76.72.1")).contains(charlotte("71.76.72.1"));
+        List<QueryIpResponseEntity> streamed = new ArrayList<>();
+        store.streamMostRecent(10, streamed::add);
+        assertThat(queries(streamed)).containsExactly("71.76.72.3", "71.76.72.2", "71.76.72.1");
+    }
+
+    private MVStoreQueryIpStore open() {
+        return MVStoreQueryIpStore.open(tempDir.resolve("ipquerystore.mv.db"), 1, true, metricRegistry);
+    }
+
+    private static List<String> queries(List<QueryIpResponseEntity> queryIpResponseEntities) {
+        List<String> queries = new ArrayList<>();
+        for (QueryIpResponseEntity queryIpResponseEntity : queryIpResponseEntities) {
+            queries.add(queryIpResponseEntity.getQuery());
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,103 @@
+package com.hilton.queryservice.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryIpAccessTrackerTest {
+
+    private QueryIpStore queryIpStore;
+
+    @BeforeEach
+    void setUp() {
+        queryIpStore = Mockito.mock(QueryIpStore.class);
+        when(queryIpStore.touchAll(anyCollection(), anyLong())).thenAnswer(invocation -> {
+            Collection<String> queries = invocation.getArgument(0);
+            return queries.size();
+        });
+    }
+
+    @Test
+    public void flushesDistinctIpsInBatches() {
+        QueryIpAccessTracker queryIpAccessTracker = new QueryIpAccessTracker(queryIpStore, UnitOfWorkRunner.direct(), 100, 2, 60);
+        long start = System.currentTimeMillis();
+        queryIpAccessTracker.record("71.76.72.1");
+        queryIpAccessTracker.record("71.76.72.2");
+        queryIpAccessTracker.record("71.76.72.1");
+        queryIpAccessTracker.record("71.76.72.3");
+
+        assertThat(queryIpAccessTracker.flush()).isEqualTo(3);
+
+        List<String> touched = touched(2);
+        assertThat(touched).containsExactlyInAnyOrder("71.76.72.1", "71.76.72.2", "71.76.72.3");
+        ArgumentCaptor<Long> accessedAt = ArgumentCaptor.forClass(Long.class);
+        verify(queryIpStore, times(2)).touchAll(anyCollection(), accessedAt.capture());
+        assertThat(accessedAt.getValue()).isGreaterThanOrEqualTo(start);
+        assertThat(queryIpAccessTracker.getTouchedCount()).isEqualTo(3);
+        assertThat(queryIpAccessTracker.flush()).isEqualTo(0);
+    }
+
+    @Test
+    public void dropsNewIpsWhileMaxPendingIpsWait() {
+        QueryIpAccessTracker queryIpAccessTracker = new QueryIpAccessTracker(queryIpStore, UnitOfWorkRunner.direct(), 2, 10, 60);
+        queryIpAccessTracker.record("71.76.72.1");
+        queryIpAccessTracker.record("71.76.72.2");
+        queryIpAccessTracker.record("71.76.72.3");
+        queryIpAccessTracker.record("71.76.72.1");
+
+        assertThat(queryIpAccessTracker.flush()).isEqualTo(2);
+        assertThat(queryIpAccessTracker.getDroppedCount()).isEqualTo(1);
+
+        queryIpAccessTracker.record("71.76.72.3");
+        assertThat(queryIpAccessTracker.flush()).isEqualTo(1);
+    }
+
+    @Test
+    public void countsIpsOfFailedBatch() {
+        when(queryIpStore.touchAll(anyCollection(), anyLong())).thenThrow(new IllegalStateException("database down"));
+        QueryIpAccessTracker queryIpAccessTracker = new QueryIpAccessTracker(queryIpStore, UnitOfWorkRunner.direct(), 100, 10, 60);
+        queryIpAccessTracker.record("71.76.72.1");
+        queryIpAccessTracker.record("71.76.72.2");
+
+        assertThat(queryIpAccessTracker.flush()).isEqualTo(0);
+
+        assertThat(queryIpAccessTracker.getFailedCount()).isEqualTo(2);
+        assertThat(queryIpAccessTracker.flush()).isEqualTo(0);
+    }
+
+    @Test
+    public void disabledTrackerRecordsNothing() throws InterruptedException {
+        QueryIpAccessTracker queryIpAccessTracker = QueryIpAccessTracker.disabled();
+        queryIpAccessTracker.start();
+        queryIpAccessTracker.record("71.76.72.1");
+
+        assertThat(queryIpAccessTracker.flush()).isEqualTo(0);
+        queryIpAccessTracker.stop();
+        verify(queryIpStore, never()).touchAll(anyCollection(), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> touched(int batches) {
+        ArgumentCaptor<Collection<String>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(queryIpStore, times(batches)).touchAll(captor.capture(), anyLong());
+        List<String> touched = new ArrayList<>();
+        for (Collection<String> batch : captor.getAllValues()) {
+            assertThat(batch.size()).isLessThanOrEqualTo(2);
+            touched.addAll(batch);
+        }
+        return touched;
+    }
+}
@@ -1,5 +1,7 @@
 package com.hilton.queryservice.db;
 
+import com.hilton.queryservice.core.IpAddressParser;
+import com.hilton.queryservice.core.IpKey;
 import com.hilton.queryservice.core.QueryIpResponseEntity;
 import com.mysql.cj.conf.PropertyKey;
 import io.dropwizard.testing.junit5.DAOTestExtension;
@@ -16,8 +18,12 @@ import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
 import static org.assertj.core.api.Assertions.assertThat;
 
 @Testcontainers(disabledWithoutDocker = true)
@@ -47,6 +53,14 @@ public class QueryIpResponseDAOTest {
     @BeforeEach
     void setUp() {
         queryIpResponseDAO = new QueryIpResponseDAO(daoTestRule.getSessionFactory());
+        // created by the migrations, not by hibernate
+        daoTestRule.inTransaction(() -> {
+            nativeUpdate("CREATE TABLE IF NOT EXISTS ipquerytable_archive (query VARCHAR(100) NOT NULL, status VARCHAR(100),"
+                    + " country VARCHAR(100), countryCode VARCHAR(10), region VARCHAR(100), regionName VARCHAR(100), city VARCHAR(100),"
+                    + " zip VARCHAR(10), lat DOUBLE, lon DOUBLE, timezone VARCHAR(100), isp VARCHAR(100), org VARCHAR(100),"
+                    + " asColumn VARCHAR(100), persisted VARCHAR(10), address BINARY(16), fetchedAt BIGINT, lastAccessedAt BIGINT)");
+            nativeUpdate("DELETE FROM ipquerytable_archive");
+        });
     }
 
     @Test
@@ -94,4 +108,126 @@ public class QueryIpResponseDAOTest {
         assertThat(queryIpResponseDAO.findByIp(queryIp1)).isEqualTo(Optional.of(queryIpResponseEntity1));
         assertThat(queryIpResponseDAO.findByIp(invalidIp)).isEqualTo(Optional.empty());
     }
+
+    @Test
+    public void upsertsInsertNewRowsAndUpdateExistingOnes() {
+        QueryIpResponseEntity charlotte = accessedAt("71.76.72.1", 500L);
+        charlotte.setFetchedAt(100L);
+        daoTestRule.inTransaction(() -> queryIpResponseDAO.upsertAll(Arrays.asList(charlotte, accessedAt("71.76.72.2", 500L))));
+        QueryIpResponseEntity raleigh = accessedAt("71.76.72.1", null);
+        raleigh.setCity("Raleigh");
+        raleigh.setFetchedAt(200L);
+
+        daoTestRule.inTransaction(() -> queryIpResponseDAO.upsertAll(Collections.singletonList(raleigh)));
+
+        QueryIpResponseEntity updated = find("71.76.72.1");
+        assertThat(updated.getCity()).isEqualTo("Raleigh");
+        assertThat(updated.getFetchedAt()).isEqualTo(200L);
+        // an upsert without last access time keeps the one of the row
+        assertThat(updated.getLastAccessedAt()).isEqualTo(500L);
+        assertThat(updated.getAddress()).isEqualTo(IpAddressParser.toKey("71.76.72.1").toBytes());
+        assertThat(find("71.76.72.2").getCity()).isEqualTo("Charlotte");
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findByIps(Arrays.asList("71.76.72.1", "71.76.72.2")))).hasSize(2);
+    }
+
+    @Test
+    public void findsStaleRowsPageByPageInQueryOrder() {
+        daoTestRule.inTransaction(() -> queryIpResponseDAO.upsertAll(Arrays.asList(fetchedAt("71.76.72.3", 500L),
+                fetchedAt("71.76.72.1", 500L), fetchedAt("71.76.72.2", 3000L), fetchedAt("71.76.72.4", null))));
+
+        List<QueryIpResponseEntity> firstPage = daoTestRule.inTransaction(() -> queryIpResponseDAO.findStale(1000L, "", 2));
+        List<QueryIpResponseEntity> secondPage = daoTestRule.inTransaction(() -> queryIpResponseDAO.findStale(1000L, "71.76.72.3", 2));
+
+        // rows fetched at an unknown time are stale
+        assertThat(firstPage.stream().map(QueryIpResponseEntity::getQuery)).containsExactly("71.76.72.1", "71.76.72.3");
+        assertThat(secondPage.stream().map(QueryIpResponseEntity::getQuery)).containsExactly("71.76.72.4");
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findStale(1000L, "71.76.72.4", 2))).isEmpty();
+    }
+
+    @Test
+    public void findsAddressRangeOfPrefixInAddressOrder() {
+        daoTestRule.inTransaction(() -> queryIpResponseDAO.upsertAll(Arrays.asList(accessedAt("71.76.72.200", null),
+                accessedAt("71.76.72.3", null), accessedAt("71.76.73.1", null), accessedAt("71.76.72.40", null),
+                accessedAt("2001:db8::1", null), accessedAt("google.com", null))));
+        IpKey ipKey = IpAddressParser.toKey("71.76.72.156");
+
+        List<QueryIpResponseEntity> found = daoTestRule.inTransaction(() ->
+                queryIpResponseDAO.findByAddressRange(ipKey.firstInPrefix(24), ipKey.lastInPrefix(24), 16));
+
+        // addresses compare as unsigned bytes, so .200 sorts after .40
+        assertThat(found.stream().map(QueryIpResponseEntity::getQuery)).containsExactly("71.76.72.3", "71.76.72.40", "71.76.72.200");
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findByAddressRange(ipKey.firstInPrefix(24), ipKey.lastInPrefix(24), 2)))
+                .hasSize(2);
+    }
+
+    @Test
+    public void touchesRowsAndFindsColdOnesInQueryOrder() {
+        daoTestRule.inTransaction(() -> queryIpResponseDAO.upsertAll(Arrays.asList(accessedAt("71.76.72.1", 500L),
+                accessedAt("71.76.72.2", 500L), accessedAt("71.76.72.3", 500L), accessedAt("71.76.72.4", null))));
+
+        int touched = daoTestRule.inTransaction(() -> queryIpResponseDAO.touchAll(Arrays.asList("71.76.72.3", "71.76.72.9"), 3000L));
+
+        assertThat(touched).isEqualTo(1);
+        // rows of unknown last access are never cold
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findCold(1000L, "", 10))).containsExactly("71.76.72.1", "71.76.72.2");
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findCold(1000L, "71.76.72.1", 10))).containsExactly("71.76.72.2");
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findCold(1000L, "", 1))).containsExactly("71.76.72.1");
+    }
+
+    @Test
+    public void archivesAndDeletesTheRowsStillCold() {
+        daoTestRule.inTransaction(() -> queryIpResponseDAO.upsertAll(Arrays.asList(accessedAt("71.76.72.1", 500L),
+                accessedAt("71.76.72.2", 500L), accessedAt("71.76.72.3", 3000L), accessedAt("71.76.72.4", null))));
+        List<String> queries = Arrays.asList("71.76.72.1", "71.76.72.2", "71.76.72.3", "71.76.72.4");
+
+        List<String> removed = daoTestRule.inTransaction(() -> queryIpResponseDAO.removeCold(queries, 1000L, true));
+
+        assertThat(removed).containsExactlyInAnyOrder("71.76.72.1", "71.76.72.2");
+        // removing the same rows again finds them gone and archives nothing twice
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.removeCold(queries, 1000L, true))).isEmpty();
+        assertThat(archived()).containsExactlyInAnyOrder("71.76.72.1", "71.76.72.2");
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findByIps(queries)).stream().map(QueryIpResponseEntity::getQuery))
+                .containsExactlyInAnyOrder("71.76.72.3", "71.76.72.4");
+    }
+
+    @Test
+    public void deletesColdRowsWithoutArchive() {
+        daoTestRule.inTransaction(() -> queryIpResponseDAO.upsertAll(Collections.singletonList(accessedAt("71.76.72.1", 500L))));
+
+        List<String> removed = daoTestRule.inTransaction(() -> queryIpResponseDAO.removeCold(List.of("71.76.72.1"), 1000L, false));
+
+        assertThat(removed).containsExactly("71.76.72.1");
+        assertThat(archived()).isEmpty();
+        assertThat(daoTestRule.inTransaction(() -> queryIpResponseDAO.findByIps(List.of("71.76.72.1")))).isEmpty();
+    }
+
+    private QueryIpResponseEntity find(String ip) {
+        return daoTestRule.inTransaction(() -> {
+            // rows upserted with JDBC are read again instead of from the persistence context
+            daoTestRule.getSessionFactory().getCurrentSession().clear();
+            return queryIpResponseDAO.findByIp(ip).get();
+        });
+    }
+
+    private void nativeUpdate(String sql) {
+        daoTestRule.getSessionFactory().getCurrentSession().createNativeQuery(sql).executeUpdate();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> archived() {
+        return daoTestRule.inTransaction(() -> (List<String>) daoTestRule.getSessionFactory().getCurrentSession()
+                .createNativeQuery("SELECT query FROM ipquerytable_archive").getResultList());
+    }
+
+    private static QueryIpResponseEntity fetchedAt(String ip, Long fetchedAt) {
+        QueryIpResponseEntity queryIpResponseEntity = accessedAt(ip, null);
+        queryIpResponseEntity.setFetchedAt(fetchedAt);
+        return queryIpResponseEntity;
+    }
+
+    private static QueryIpResponseEntity accessedAt(String ip, Long lastAccessedAt) {
+        QueryIpResponseEntity queryIpResponseEntity = charlotte(ip);
+        queryIpResponseEntity.setLastAccessedAt(lastAccessedAt);
+        return queryIpResponseEntity;
+    }
 }
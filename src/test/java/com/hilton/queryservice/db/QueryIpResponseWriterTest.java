@@ -0,0 +1,170 @@
+package com.hilton.queryservice.db;
+
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryIpResponseWriterTest {
+
+    private QueryIpResponseDAO queryIpResponseDAO;
+
+    @BeforeEach
+    void setUp() {
+        queryIpResponseDAO = mock(QueryIpResponseDAO.class);
+    }
+
+    @Test
+    public void directWriterUpsertsOnCallerThread() {
+        QueryIpResponseWriter queryIpResponseWriter = QueryIpResponseWriter.direct(queryIpResponseDAO, UnitOfWorkRunner.direct());
+        QueryIpResponseEntity queryIpResponseEntity = charlotte("71.76.72.156");
+
+        queryIpResponseWriter.write(queryIpResponseEntity);
+
+        verify(queryIpResponseDAO).upsertAll(Collections.singletonList(queryIpResponseEntity));
+        verify(queryIpResponseDAO, never()).create(any());
+    }
+
+    @Test
+    public void directWriterWritesDuplicateWithoutFailing() {
+        QueryIpResponseWriter queryIpResponseWriter = QueryIpResponseWriter.direct(queryIpResponseDAO, UnitOfWorkRunner.direct());
+        when(queryIpResponseDAO.create(any())).thenThrow(new IllegalStateException("duplicate key"));
+
+        queryIpResponseWriter.write(charlotte("71.76.72.156"));
+        queryIpResponseWriter.write(charlotte("71.76.72.156"));
+
+        verify(queryIpResponseDAO, times(2)).upsertAll(Collections.singletonList(charlotte("71.76.72.156")));
+    }
+
+    @Test
+    public void writeBehindUpsertsInBatchesOfBatchSize() throws Exception {
+        QueryIpResponseWriter queryIpResponseWriter = new QueryIpResponseWriter(queryIpResponseDAO, UnitOfWorkRunner.direct(), 100, 3, 60000, 100);
+        List<List<QueryIpResponseEntity>> batches = recordBatches();
+        queryIpResponseWriter.start();
+
+        for (int i = 0; i < 7; i++) {
+            queryIpResponseWriter.write(charlotte("71.76.72." + i));
+        }
+        queryIpResponseWriter.stop();
+
+        verify(queryIpResponseDAO, never()).create(any());
+        assertThat(batches.stream().mapToInt(List::size).max().getAsInt()).isLessThanOrEqualTo(3);
+        assertThat(batches.stream().mapToInt(List::size).sum()).isEqualTo(7);
+        assertThat(batches.get(0).get(0).getQuery()).isEqualTo("71.76.72.0");
+        assertThat(queryIpResponseWriter.getWrittenCount()).isEqualTo(7);
+        assertThat(queryIpResponseWriter.getQueuedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void writeBehindFlushesAfterFlushInterval() throws Exception {
+        QueryIpResponseWriter queryIpResponseWriter = new QueryIpResponseWriter(queryIpResponseDAO, UnitOfWorkRunner.direct(), 100, 100, 20, 100);
+        queryIpResponseWriter.start();
+        try {
+            queryIpResponseWriter.write(charlotte("71.76.72.156"));
+
+            verify(queryIpResponseDAO, timeout(5000)).upsertAll(anyList());
+        } finally {
+            queryIpResponseWriter.stop();
+        }
+    }
+
+    @Test
+    public void fullQueueWritesOnCallerThread() throws Exception {
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> callerThreadWrites = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<QueryIpResponseEntity> batch = invocation.getArgument(0);
+            if (Thread.currentThread().getName().equals("query-ip-writer")) {
+                writerBlocked.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            } else {
+                callerThreadWrites.add(batch.get(0).getQuery());
+            }
+            return batch.size();
+        }).when(queryIpResponseDAO).upsertAll(anyList());
+        QueryIpResponseWriter queryIpResponseWriter = new QueryIpResponseWriter(queryIpResponseDAO, UnitOfWorkRunner.direct(), 1, 1, 60000, 10);
+        queryIpResponseWriter.start();
+        try {
+            queryIpResponseWriter.write(charlotte("71.76.72.1"));
+            assertThat(writerBlocked.await(5, TimeUnit.SECONDS)).isTrue();
+            queryIpResponseWriter.write(charlotte("71.76.72.2"));
+
+            queryIpResponseWriter.write(charlotte("71.76.72.3"));
+
+            assertThat(callerThreadWrites).containsExactly("71.76.72.3");
+        } finally {
+            release.countDown();
+            queryIpResponseWriter.stop();
+        }
+        assertThat(queryIpResponseWriter.getWrittenCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void failedBatchIsCountedAndWriterKeepsRunning() throws Exception {
+        when(queryIpResponseDAO.upsertAll(anyList())).thenThrow(new IllegalStateException("database down")).thenReturn(1);
+        QueryIpResponseWriter queryIpResponseWriter = new QueryIpResponseWriter(queryIpResponseDAO, UnitOfWorkRunner.direct(), 100, 1, 60000, 100);
+        queryIpResponseWriter.start();
+
+        queryIpResponseWriter.write(charlotte("71.76.72.1"));
+        queryIpResponseWriter.write(charlotte("71.76.72.2"));
+        queryIpResponseWriter.stop();
+
+        assertThat(queryIpResponseWriter.getFailedCount()).isEqualTo(1);
+        assertThat(queryIpResponseWriter.getWrittenCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void writeBeforeStartUpsertsOnCallerThread() {
+        QueryIpResponseWriter queryIpResponseWriter = new QueryIpResponseWriter(queryIpResponseDAO, UnitOfWorkRunner.direct(), 100, 10, 60000, 100);
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+
+        queryIpResponseWriter.write(charlotte("71.76.72.156"));
+
+        verify(queryIpResponseDAO, atLeastOnce()).upsertAll(batchCaptor.capture());
+        assertThat(batchCaptor.getValue()).hasSize(1);
+        assertThat(queryIpResponseWriter.getQueuedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void directWriterUpsertsUpdates() {
+        QueryIpResponseWriter queryIpResponseWriter = QueryIpResponseWriter.direct(queryIpResponseDAO, UnitOfWorkRunner.direct());
+        List<QueryIpResponseEntity> updated = Arrays.asList(charlotte("71.76.72.1"), charlotte("71.76.72.2"));
+
+        queryIpResponseWriter.update(updated);
+
+        verify(queryIpResponseDAO).upsertAll(updated);
+        verify(queryIpResponseDAO, never()).create(any());
+        assertThat(queryIpResponseWriter.getWrittenCount()).isEqualTo(2);
+    }
+
+    private List<List<QueryIpResponseEntity>> recordBatches() {
+        List<List<QueryIpResponseEntity>> batches = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<QueryIpResponseEntity> batch = invocation.getArgument(0);
+            batches.add(new ArrayList<>(batch));
+            return batch.size();
+        }).when(queryIpResponseDAO).upsertAll(anyList());
+        return batches;
+    }
+}
@@ -0,0 +1,114 @@
+package com.hilton.queryservice.db;
+
+import com.hilton.queryservice.cache.MappedFileCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryIpRetentionTest {
+
+    @TempDir
+    Path tempDir;
+
+    private QueryIpStore queryIpStore;
+
+    @BeforeEach
+    void setUp() {
+        queryIpStore = Mockito.mock(QueryIpStore.class);
+        when(queryIpStore.removeCold(anyCollection(), anyLong(), anyBoolean())).thenAnswer(invocation -> {
+            Collection<String> queries = invocation.getArgument(0);
+            return new ArrayList<>(queries);
+        });
+    }
+
+    @Test
+    public void removesColdRowsBatchAfterBatch() {
+        when(queryIpStore.findCold(anyLong(), eq(""), eq(2))).thenReturn(Arrays.asList("71.76.72.1", "71.76.72.2"));
+        when(queryIpStore.findCold(anyLong(), eq("71.76.72.2"), eq(2))).thenReturn(List.of("71.76.72.3"));
+        when(queryIpStore.findCold(anyLong(), eq("71.76.72.3"), eq(2))).thenReturn(Collections.emptyList());
+        QueryIpRetention queryIpRetention = new QueryIpRetention(queryIpStore, UnitOfWorkRunner.direct(), MappedFileCache.disabled(), 3600, 60, 2, 100, true);
+
+        long before = System.currentTimeMillis() - 3600 * 1000L;
+        assertThat(queryIpRetention.removeCold()).isEqualTo(3);
+
+        List<String> removed = removed(2);
+        assertThat(removed).containsExactly("71.76.72.1", "71.76.72.2", "71.76.72.3");
+        ArgumentCaptor<Long> accessedBefore = ArgumentCaptor.forClass(Long.class);
+        verify(queryIpStore, times(3)).findCold(accessedBefore.capture(), anyString(), eq(2));
+        assertThat(accessedBefore.getValue()).isGreaterThanOrEqualTo(before);
+        verify(queryIpStore, times(2)).removeCold(anyCollection(), eq(accessedBefore.getValue()), eq(true));
+        assertThat(queryIpRetention.getRemovedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void stopsRoundAtMaxPerRound() {
+        when(queryIpStore.findCold(anyLong(), eq(""), eq(2))).thenReturn(Arrays.asList("71.76.72.1", "71.76.72.2"));
+        when(queryIpStore.findCold(anyLong(), eq("71.76.72.2"), eq(1))).thenReturn(List.of("71.76.72.3"));
+        QueryIpRetention queryIpRetention = new QueryIpRetention(queryIpStore, UnitOfWorkRunner.direct(), MappedFileCache.disabled(), 3600, 60, 2, 3, false);
+
+        assertThat(queryIpRetention.removeCold()).isEqualTo(3);
+
+        verify(queryIpStore, times(2)).findCold(anyLong(), anyString(), anyInt());
+        verify(queryIpStore, times(2)).removeCold(anyCollection(), anyLong(), eq(false));
+    }
+
+    @Test
+    public void countsOnlyRowsStillColdWhenRemoved() {
+        when(queryIpStore.findCold(anyLong(), eq(""), eq(2))).thenReturn(Arrays.asList("71.76.72.1", "71.76.72.2"));
+        when(queryIpStore.findCold(anyLong(), eq("71.76.72.2"), eq(2))).thenReturn(Collections.emptyList());
+        when(queryIpStore.removeCold(anyCollection(), anyLong(), anyBoolean())).thenReturn(List.of("71.76.72.1"));
+        QueryIpRetention queryIpRetention = new QueryIpRetention(queryIpStore, UnitOfWorkRunner.direct(), MappedFileCache.disabled(), 3600, 60, 2, 100, false);
+
+        assertThat(queryIpRetention.removeCold()).isEqualTo(1);
+    }
+
+    @Test
+    public void evictsRemovedRowsFromMappedCache() throws IOException {
+        when(queryIpStore.findCold(anyLong(), eq(""), eq(2))).thenReturn(Arrays.asList("71.76.72.1", "71.76.72.2"));
+        when(queryIpStore.findCold(anyLong(), eq("71.76.72.2"), eq(2))).thenReturn(Collections.emptyList());
+        when(queryIpStore.removeCold(anyCollection(), anyLong(), anyBoolean())).thenReturn(List.of("71.76.72.1"));
+        try (MappedFileCache mappedFileCache = MappedFileCache.open(tempDir.resolve("cache.bin"), 16, 4, 128)) {
+            mappedFileCache.put("71.76.72.1", new byte[]{1});
+            mappedFileCache.put("71.76.72.2", new byte[]{2});
+            QueryIpRetention queryIpRetention = new QueryIpRetention(queryIpStore, UnitOfWorkRunner.direct(), mappedFileCache, 3600, 60, 2, 100, false);
+
+            assertThat(queryIpRetention.removeCold()).isEqualTo(1);
+
+            // a row accessed since it was found cold is kept, and so is its mapped cache entry
+            assertThat(mappedFileCache.get("71.76.72.1")).isNull();
+            assertThat(mappedFileCache.get("71.76.72.2")).isEqualTo(new byte[]{2});
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> removed(int batches) {
+        ArgumentCaptor<Collection<String>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(queryIpStore, times(batches)).removeCold(captor.capture(), anyLong(), anyBoolean());
+        List<String> removed = new ArrayList<>();
+        for (Collection<String> batch : captor.getAllValues()) {
+            removed.addAll(batch);
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,45 @@
+package com.hilton.queryservice.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.hilton.queryservice.core.QueryIpCacheWarmer;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+public class CacheWarmupHealthCheckTest {
+
+    private final QueryIpCacheWarmer queryIpCacheWarmer = Mockito.mock(QueryIpCacheWarmer.class);
+    private final CacheWarmupHealthCheck underTest = new CacheWarmupHealthCheck(queryIpCacheWarmer);
+
+    @Test
+    public void unhealthyWhileWarming() {
+        when(queryIpCacheWarmer.isFinished()).thenReturn(false);
+        when(queryIpCacheWarmer.getLoadedCount()).thenReturn(500);
+
+        HealthCheck.Result result = underTest.check();
+
+        assertThat(result.isHealthy()).isFalse();
+        assertThat(result.getMessage()).startsWith("cache warm-up in progress, 500 ips loaded");
+    }
+
+    @Test
+    public void healthyWhenFinished() {
+        when(queryIpCacheWarmer.isFinished()).thenReturn(true);
+        when(queryIpCacheWarmer.getLoadedCount()).thenReturn(1200);
+
+        HealthCheck.Result result = underTest.check();
+
+        assertThat(result.isHealthy()).isTrue();
+        assertThat(result.getMessage()).startsWith("cache warm-up finished, 1200 ips loaded");
+    }
+
+    @Test
+    public void healthyWhenTimeBudgetExhausted() {
+        when(queryIpCacheWarmer.isFinished()).thenReturn(true);
+        when(queryIpCacheWarmer.isTimeBudgetExhausted()).thenReturn(true);
+
+        assertThat(underTest.check().isHealthy()).isTrue();
+    }
+}
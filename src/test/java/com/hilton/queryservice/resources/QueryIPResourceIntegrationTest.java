@@ -1,5 +1,9 @@
 package com.hilton.queryservice.resources;
 
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.core.QueryIpLookupService;
 import com.hilton.queryservice.core.QueryIpResponseEntity;
 import com.hilton.queryservice.db.QueryIpResponseDAO;
 import com.mysql.cj.conf.PropertyKey;
@@ -60,7 +64,10 @@ public class QueryIPResourceIntegrationTest {
     void setUp() {
         queryIpResponseDAO = new QueryIpResponseDAO(daoTestRule.getSessionFactory());
         client = new JerseyClientBuilder(new Environment("mockEnvironment")).build("RESTClient");
-        underTest = new QueryIPResource(client, serviceUrl, expireCacheInSeconds, maxCacheSize, queryIpResponseDAO);
+        underTest = QueryIPResource.builder(QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, serviceUrl)),
+                        LookupCacheSpec.ofSize(expireCacheInSeconds, maxCacheSize), queryIpResponseDAO).build())
+                .cacheMaxAgeInSeconds(expireCacheInSeconds)
+                .build();
     }
 
     /**
@@ -221,8 +228,10 @@ public class QueryIPResourceIntegrationTest {
      */
     @Test
     public void testWhenCacheSizeMaxedOut() throws ExecutionException {
-        QueryIPResource cacheSizeMaxedOutResource = new QueryIPResource(client, serviceUrl, expireCacheInSeconds,
-                1, queryIpResponseDAO);
+        QueryIPResource cacheSizeMaxedOutResource = QueryIPResource.builder(QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, serviceUrl)),
+                        LookupCacheSpec.ofSize(expireCacheInSeconds, 1), queryIpResponseDAO).build())
+                .cacheMaxAgeInSeconds(expireCacheInSeconds)
+                .build();
         for (int i = 0; i < 5; i++) {
             String ip = "71.76.72.12" + i;
             QueryIpResponseEntity response = cacheSizeMaxedOutResource.queryIp(Optional.of(ip));
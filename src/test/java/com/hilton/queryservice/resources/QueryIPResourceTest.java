@@ -1,24 +1,49 @@
 package com.hilton.queryservice.resources;
 
+import com.hilton.queryservice.cache.LookupCacheSpec;
+import com.hilton.queryservice.client.UpstreamBatcher;
+import com.hilton.queryservice.client.UpstreamGateway;
+import com.hilton.queryservice.core.EncodedQueryIpResponse;
+import com.hilton.queryservice.core.QueryIpBatchResult;
+import com.hilton.queryservice.core.QueryIpLookupService;
 import com.hilton.queryservice.core.QueryIpResponseEntity;
+import com.hilton.queryservice.core.ReservedRanges;
+import com.hilton.queryservice.db.QueryIpAccessTracker;
 import com.hilton.queryservice.db.QueryIpResponseDAO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.CompletionStageRxInvoker;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -35,7 +60,10 @@ public class QueryIPResourceTest {
     void setUp() {
         queryIpResponseDAO = Mockito.mock(QueryIpResponseDAO.class);
         client = Mockito.mock(Client.class);
-        underTest = new QueryIPResource(client, serviceUrl, expireCacheInSeconds, maxCacheSize, queryIpResponseDAO);
+        underTest = QueryIPResource.builder(QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, serviceUrl)),
+                        LookupCacheSpec.ofSize(expireCacheInSeconds, maxCacheSize), queryIpResponseDAO).build())
+                .cacheMaxAgeInSeconds(expireCacheInSeconds)
+                .build();
     }
 
     @Test
@@ -72,6 +100,84 @@ public class QueryIPResourceTest {
         assertEquals("true", result.getPersisted());
     }
 
+    @Test
+    public void testEquivalentIpSpellingsShareOneLookup() throws ExecutionException {
+        String ip = "2001:db8::1";
+        QueryIpResponseEntity expectedResponse = new QueryIpResponseEntity();
+        expectedResponse.setQuery(ip);
+        expectedResponse.setPersisted("true");
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.of(expectedResponse));
+
+        QueryIpResponseEntity first = underTest.queryIp(Optional.of("2001:0DB8:0000:0000:0000:0000:0000:0001"));
+        QueryIpResponseEntity second = underTest.queryIp(Optional.of("2001:db8:0:0::1"));
+
+        assertEquals(ip, first.getQuery());
+        assertEquals(first, second);
+        verify(queryIpResponseDAO, times(1)).findByIp(ip);
+    }
+
+    @Test
+    public void testPeerQueryIpCanonicalizesAndLooksUpLocally() throws ExecutionException {
+        String ip = "2001:db8::1";
+        QueryIpResponseEntity expectedResponse = new QueryIpResponseEntity();
+        expectedResponse.setQuery(ip);
+        expectedResponse.setPersisted("true");
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.of(expectedResponse));
+
+        QueryIpResponseEntity result = underTest.queryIpForPeer(Optional.of("2001:0DB8::0001"));
+
+        assertEquals(ip, result.getQuery());
+        assertThrows(BadRequestException.class, () -> underTest.queryIpForPeer(Optional.of("invalidString")));
+    }
+
+    @Test
+    public void testQueryIpWritesEncodedBodyWithEntityTag() throws ExecutionException {
+        String ip = "111.11.111.111";
+        QueryIpResponseEntity expectedResponse = new QueryIpResponseEntity();
+        expectedResponse.setQuery(ip);
+        expectedResponse.setCity("Charlotte");
+        expectedResponse.setPersisted("true");
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.of(expectedResponse));
+
+        Response plain = underTest.queryIp(Optional.of(ip), null, null);
+        Response gzip = underTest.queryIp(Optional.of(ip), null, "deflate, gzip");
+
+        assertEquals(200, plain.getStatus());
+        assertArrayEquals(EncodedQueryIpResponse.of(expectedResponse).getJson(), (byte[]) plain.getEntity());
+        assertNull(plain.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("max-age=" + expireCacheInSeconds, plain.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        assertEquals(QueryIPResource.GZIP, gzip.getHeaderString(HttpHeaders.CONTENT_ENCODING));
+        assertNotEquals(plain.getHeaderString(HttpHeaders.ETAG), gzip.getHeaderString(HttpHeaders.ETAG));
+        verify(queryIpResponseDAO, times(1)).findByIp(ip);
+    }
+
+    @Test
+    public void testQueryIpAnswersNotModifiedForMatchingEntityTag() throws ExecutionException {
+        String ip = "111.11.111.111";
+        QueryIpResponseEntity expectedResponse = new QueryIpResponseEntity();
+        expectedResponse.setQuery(ip);
+        expectedResponse.setPersisted("true");
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.of(expectedResponse));
+        String entityTag = underTest.queryIp(Optional.of(ip), null, null).getHeaderString(HttpHeaders.ETAG);
+
+        Response notModified = underTest.queryIp(Optional.of(ip), entityTag, null);
+        Response modified = underTest.queryIp(Optional.of(ip), "\"stale\"", null);
+
+        assertEquals(304, notModified.getStatus());
+        assertNull(notModified.getEntity());
+        assertEquals(entityTag, notModified.getHeaderString(HttpHeaders.ETAG));
+        assertEquals(200, modified.getStatus());
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(QueryIPResource.acceptsGzip("gzip, deflate, br"));
+        assertTrue(QueryIPResource.acceptsGzip("GZIP;q=0.5"));
+        assertFalse(QueryIPResource.acceptsGzip("gzip;q=0"));
+        assertFalse(QueryIPResource.acceptsGzip("identity"));
+        assertFalse(QueryIPResource.acceptsGzip(null));
+    }
+
     @Test
     public void testFetchFromDatabaseAfterExpiredCache() throws InterruptedException, ExecutionException {
         String ip = "111.11.111.11";
@@ -103,10 +209,260 @@ public class QueryIPResourceTest {
         when(invocationBuilder.get()).thenReturn(response);
         when(response.readEntity(QueryIpResponseEntity.class)).thenReturn(expectedResponse);
         QueryIpResponseEntity result = underTest.queryIp(queryIp);
-        verify(queryIpResponseDAO).create(any());
+        verify(queryIpResponseDAO).upsertAll(Collections.singletonList(expectedResponse));
         assertEquals(ip, result.getQuery());
         assertNull(null, result.getPersisted());
         assertEquals(expectedResponse, result);
     }
 
+    @Test
+    public void testEmptyBatch() {
+        BadRequestException thrown = assertThrows(
+                BadRequestException.class,
+                () -> underTest.queryIpBatch(Collections.emptyList()),
+                "Expected queryIpBatch() to throw, but it didn't"
+        );
+        assertEquals(QueryIPResource.EMPTY_BATCH_EXCEPTION_MESSAGE, thrown.getMessage());
+    }
+
+    @Test
+    public void testBatchLargerThanMaxBatchSize() {
+        List<String> ips = Collections.nCopies(QueryIPResource.DEFAULT_MAX_BATCH_SIZE + 1, "111.11.111.11");
+        assertThrows(
+                BadRequestException.class,
+                () -> underTest.queryIpBatch(ips),
+                "Expected queryIpBatch() to throw, but it didn't"
+        );
+    }
+
+    @Test
+    public void testBatchDeduplicatesAndKeepsInputOrder() {
+        QueryIpResponseEntity first = new QueryIpResponseEntity();
+        first.setQuery("111.11.111.11");
+        first.setPersisted("true");
+        QueryIpResponseEntity second = new QueryIpResponseEntity();
+        second.setQuery("111.11.111.12");
+        second.setPersisted("true");
+        when(queryIpResponseDAO.findByIps(anyCollection())).thenReturn(Arrays.asList(second, first));
+
+        List<QueryIpBatchResult> results = underTest.queryIpBatch(Arrays.asList("111.11.111.11", "invalidString", "111.11.111.11", "111.11.111.12"));
+
+        assertEquals(4, results.size());
+        assertEquals("111.11.111.11", results.get(0).getIp());
+        assertEquals(QueryIpBatchResult.OK, results.get(0).getStatus());
+        assertEquals(first, results.get(0).getResponse());
+        assertEquals(QueryIpBatchResult.INVALID, results.get(1).getStatus());
+        assertEquals(first, results.get(2).getResponse());
+        assertEquals(second, results.get(3).getResponse());
+        verify(queryIpResponseDAO, times(1)).findByIps(Arrays.asList("111.11.111.11", "111.11.111.12"));
+        verify(client, never()).target(anyString());
+
+        // second batch is answered from the cache
+        underTest.queryIpBatch(Arrays.asList("111.11.111.12", "111.11.111.11"));
+        verify(queryIpResponseDAO, times(1)).findByIps(anyCollection());
+    }
+
+    @Test
+    public void testBatchFetchesOnlyDatabaseMissesFromRemoteApiCall() {
+        String persistedIp = "111.11.111.11";
+        String remoteIp = "111.11.111.12";
+        QueryIpResponseEntity persisted = new QueryIpResponseEntity();
+        persisted.setQuery(persistedIp);
+        persisted.setPersisted("true");
+        QueryIpResponseEntity remote = new QueryIpResponseEntity();
+        remote.setQuery(remoteIp);
+        remote.setStatus("success");
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        Response response = Mockito.mock(Response.class);
+        when(queryIpResponseDAO.findByIps(anyCollection())).thenReturn(Collections.singletonList(persisted));
+        when(client.target(serviceUrl + remoteIp)).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.get()).thenReturn(response);
+        when(response.readEntity(QueryIpResponseEntity.class)).thenReturn(remote);
+
+        List<QueryIpBatchResult> results = underTest.queryIpBatch(Arrays.asList(remoteIp, persistedIp));
+
+        assertEquals(remote, results.get(0).getResponse());
+        assertEquals("true", results.get(0).getResponse().getPersisted());
+        assertEquals(persisted, results.get(1).getResponse());
+        verify(client, times(1)).target(anyString());
+        verify(queryIpResponseDAO, times(1)).upsertAll(Collections.singletonList(remote));
+    }
+
+    @Test
+    public void testAsyncFetchFromDatabase() {
+        String ip = "111.11.111.11";
+        QueryIpResponseEntity expectedResponse = new QueryIpResponseEntity();
+        expectedResponse.setQuery(ip);
+        expectedResponse.setPersisted("true");
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.of(expectedResponse));
+        AsyncResponse asyncResponse = Mockito.mock(AsyncResponse.class);
+
+        underTest.queryIpAsync(Optional.of(ip), asyncResponse);
+
+        verify(asyncResponse, timeout(1000)).resume(expectedResponse);
+        verify(client, never()).target(anyString());
+    }
+
+    @Test
+    public void testAsyncCacheHitIsRecordedAsAccess() throws ExecutionException {
+        String ip = "111.11.111.11";
+        QueryIpAccessTracker accessTracker = Mockito.mock(QueryIpAccessTracker.class);
+        underTest = QueryIPResource.builder(QueryIpLookupService.builder(UpstreamBatcher.direct(UpstreamGateway.unlimited(client, serviceUrl)),
+                        LookupCacheSpec.ofSize(expireCacheInSeconds, maxCacheSize), queryIpResponseDAO)
+                        .accessTracker(accessTracker)
+                        .build())
+                .build();
+        QueryIpResponseEntity expectedResponse = new QueryIpResponseEntity();
+        expectedResponse.setQuery(ip);
+        expectedResponse.setPersisted("true");
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.of(expectedResponse));
+        underTest.queryIp(Optional.of(ip));
+        AsyncResponse asyncResponse = Mockito.mock(AsyncResponse.class);
+
+        underTest.queryIpAsync(Optional.of(ip), asyncResponse);
+
+        verify(asyncResponse).resume(expectedResponse);
+        // the load of the first lookup and the hit of the async one
+        verify(accessTracker, times(2)).record(ip);
+    }
+
+    @Test
+    public void testAsyncFetchFromRemoteApiCallAndLaterServedFromCache() {
+        String ip = "111.11.111.11";
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        CompletionStageRxInvoker rxInvoker = Mockito.mock(CompletionStageRxInvoker.class);
+        QueryIpResponseEntity expectedResponse = new QueryIpResponseEntity();
+        expectedResponse.setQuery(ip);
+        expectedResponse.setCity("Charlotte");
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.empty());
+        when(client.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.rx()).thenReturn(rxInvoker);
+        Response response = Mockito.mock(Response.class);
+        when(response.getStatus()).thenReturn(200);
+        when(response.readEntity(QueryIpResponseEntity.class)).thenReturn(expectedResponse);
+        when(rxInvoker.get()).thenReturn(CompletableFuture.completedFuture(response));
+        AsyncResponse asyncResponse = Mockito.mock(AsyncResponse.class);
+
+        underTest.queryIpAsync(Optional.of(ip), asyncResponse);
+
+        verify(asyncResponse, timeout(1000)).resume(expectedResponse);
+        verify(queryIpResponseDAO).upsertAll(Collections.singletonList(expectedResponse));
+        assertEquals("true", expectedResponse.getPersisted());
+
+        AsyncResponse cachedAsyncResponse = Mockito.mock(AsyncResponse.class);
+        underTest.queryIpAsync(Optional.of(ip), cachedAsyncResponse);
+        verify(cachedAsyncResponse).resume(expectedResponse);
+        verify(client, times(1)).target(anyString());
+    }
+
+    @Test
+    public void testAsyncInvalidQueryIpFormat() {
+        AsyncResponse asyncResponse = Mockito.mock(AsyncResponse.class);
+        BadRequestException thrown = assertThrows(
+                BadRequestException.class,
+                () -> underTest.queryIpAsync(Optional.of("invalidString"), asyncResponse),
+                "Expected queryIpAsync() to throw, but it didn't"
+        );
+        assertEquals(QueryIPResource.INVALID_INPUT_EXCEPTION_MESSAGE, thrown.getMessage());
+    }
+
+    @Test
+    public void testPrivateRangeAnsweredLocally() throws ExecutionException {
+        QueryIpResponseEntity response = underTest.queryIp(Optional.of("192.168.1.1"));
+        assertEquals("fail", response.getStatus());
+        assertEquals(ReservedRanges.PRIVATE_RANGE_MESSAGE, response.getMessage());
+        verify(queryIpResponseDAO, never()).findByIp(anyString());
+        verify(client, never()).target(anyString());
+    }
+
+    @Test
+    public void testFailAnswerIsNegativeCachedAndNotPersisted() throws ExecutionException {
+        String ip = "111.11.111.11";
+        QueryIpResponseEntity failAnswer = new QueryIpResponseEntity();
+        failAnswer.setQuery(ip);
+        failAnswer.setStatus("fail");
+        failAnswer.setMessage("invalid query");
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        Response response = Mockito.mock(Response.class);
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.empty());
+        when(client.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.get()).thenReturn(response);
+        when(response.readEntity(QueryIpResponseEntity.class)).thenReturn(failAnswer);
+
+        assertEquals(failAnswer, underTest.queryIp(Optional.of(ip)));
+        assertEquals(failAnswer, underTest.queryIp(Optional.of(ip)));
+
+        verify(client, times(1)).target(anyString());
+        verify(queryIpResponseDAO, never()).upsertAll(any());
+        assertNull(failAnswer.getPersisted());
+    }
+
+    @Test
+    public void testFailAnswerIsNotStoredByClients() throws ExecutionException {
+        String ip = "111.11.111.11";
+        QueryIpResponseEntity failAnswer = new QueryIpResponseEntity();
+        failAnswer.setQuery(ip);
+        failAnswer.setStatus("fail");
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        Response response = Mockito.mock(Response.class);
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.empty());
+        when(client.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.get()).thenReturn(response);
+        when(response.getStatus()).thenReturn(200);
+        when(response.readEntity(QueryIpResponseEntity.class)).thenReturn(failAnswer);
+
+        Response remote = underTest.queryIp(Optional.of(ip), null, null);
+        Response negative = underTest.queryIp(Optional.of(ip), null, null);
+
+        assertEquals(QueryIPResource.NO_STORE, remote.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        assertEquals(QueryIPResource.NO_STORE, negative.getHeaderString(HttpHeaders.CACHE_CONTROL));
+        verify(client, times(1)).target(anyString());
+    }
+
+    @Test
+    public void testRemoteApiErrorIsNegativeCached() {
+        String ip = "111.11.111.11";
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.empty());
+        when(client.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.get()).thenThrow(new ProcessingException("connect timed out"));
+
+        assertThrows(ServiceUnavailableException.class, () -> underTest.queryIp(Optional.of(ip)));
+        assertThrows(ServiceUnavailableException.class, () -> underTest.queryIp(Optional.of(ip)));
+
+        List<QueryIpBatchResult> results = underTest.queryIpBatch(Collections.singletonList(ip));
+        assertEquals(QueryIpBatchResult.ERROR, results.get(0).getStatus());
+        verify(client, times(1)).target(anyString());
+    }
+
+    @Test
+    public void testRemoteApiErrorStatusIsNegativeCached() {
+        String ip = "111.11.111.11";
+        WebTarget webTarget = Mockito.mock(WebTarget.class);
+        Invocation.Builder invocationBuilder = Mockito.mock(Invocation.Builder.class);
+        Response response = Mockito.mock(Response.class);
+        when(queryIpResponseDAO.findByIp(ip)).thenReturn(Optional.empty());
+        when(client.target(anyString())).thenReturn(webTarget);
+        when(webTarget.request(anyString())).thenReturn(invocationBuilder);
+        when(invocationBuilder.get()).thenReturn(response);
+        when(response.getStatus()).thenReturn(429);
+
+        assertThrows(ServiceUnavailableException.class, () -> underTest.queryIp(Optional.of(ip)));
+
+        AsyncResponse asyncResponse = Mockito.mock(AsyncResponse.class);
+        underTest.queryIpAsync(Optional.of(ip), asyncResponse);
+        verify(asyncResponse).resume(any(ServiceUnavailableException.class));
+        verify(client, times(1)).target(anyString());
+        verify(response, never()).readEntity(QueryIpResponseEntity.class);
+    }
 }
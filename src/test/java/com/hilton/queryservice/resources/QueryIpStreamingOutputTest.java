@@ -0,0 +1,144 @@
+package com.hilton.queryservice.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hilton.queryservice.core.QueryIpBatchResult;
+import com.hilton.queryservice.core.QueryIpLookupService;
+import com.hilton.queryservice.core.QueryIpResponseEntity;
+import io.dropwizard.jackson.Jackson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ServiceUnavailableException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.hilton.queryservice.core.QueryIpResponses.charlotte;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QueryIpStreamingOutputTest {
+
+    private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+    private QueryIpLookupService queryIpLookupService;
+
+    @BeforeEach
+    void setUp() {
+        queryIpLookupService = mock(QueryIpLookupService.class);
+        when(queryIpLookupService.getAsync(anyString())).thenAnswer(invocation -> CompletableFuture.completedFuture(charlotte(invocation.getArgument(0))));
+    }
+
+    @Test
+    public void writesOneResultPerLineInInputOrder() throws Exception {
+        when(queryIpLookupService.getCached("71.76.72.157")).thenReturn(charlotte("71.76.72.157"));
+        CompletableFuture<QueryIpResponseEntity> slow = new CompletableFuture<>();
+        when(queryIpLookupService.getAsync("71.76.72.156")).thenReturn(slow);
+        CompletableFuture.runAsync(() -> slow.complete(charlotte("71.76.72.156")), CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+
+        List<QueryIpBatchResult> results = stream("71.76.72.156\n71.76.72.157\r\n\ninvalidString\n0:0:0:0:0:0:0:1\n", 16);
+
+        assertThat(results).hasSize(4);
+        assertThat(results.get(0).getIp()).isEqualTo("71.76.72.156");
+        assertThat(results.get(0).getResponse().getQuery()).isEqualTo("71.76.72.156");
+        assertThat(results.get(1).getIp()).isEqualTo("71.76.72.157");
+        assertThat(results.get(1).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+        assertThat(results.get(2).getStatus()).isEqualTo(QueryIpBatchResult.INVALID);
+        assertThat(results.get(3).getIp()).isEqualTo("0:0:0:0:0:0:0:1");
+        verify(queryIpLookupService).getAsync("::1");
+        verify(queryIpLookupService, never()).getAsync("71.76.72.157");
+    }
+
+    @Test
+    public void failedLookupsAreWrittenAsErrors() throws Exception {
+        when(queryIpLookupService.getAsync("71.76.72.156")).thenReturn(CompletableFuture.failedFuture(new ServiceUnavailableException("remote api call failed")));
+
+        List<QueryIpBatchResult> results = stream("71.76.72.156\n71.76.72.157", 16);
+
+        assertThat(results.get(0).getStatus()).isEqualTo(QueryIpBatchResult.ERROR);
+        assertThat(results.get(0).getMessage()).isEqualTo("remote api call failed");
+        assertThat(results.get(1).getStatus()).isEqualTo(QueryIpBatchResult.OK);
+    }
+
+    @Test
+    public void pendingLookupsAreBoundedByMaxInFlight() throws Exception {
+        List<CompletableFuture<QueryIpResponseEntity>> pending = new ArrayList<>();
+        when(queryIpLookupService.getAsync(anyString())).thenAnswer(invocation -> {
+            CompletableFuture<QueryIpResponseEntity> future = new CompletableFuture<>();
+            synchronized (pending) {
+                pending.add(future);
+            }
+            return future;
+        });
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            input.append("71.76.72.").append(i).append('\n');
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        QueryIpStreamingOutput streamingOutput = new QueryIpStreamingOutput(queryIpLookupService,
+                new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), 3);
+        CompletableFuture<Void> written = CompletableFuture.runAsync(() -> {
+            try {
+                streamingOutput.write(output);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        verify(queryIpLookupService, after(200).times(3)).getAsync(anyString());
+        synchronized (pending) {
+            pending.get(0).complete(charlotte("71.76.72.0"));
+        }
+        verify(queryIpLookupService, after(200).times(4)).getAsync(anyString());
+
+        for (int i = 1; i < 10; i++) {
+            while (true) {
+                synchronized (pending) {
+                    if (pending.size() > i) {
+                        pending.get(i).complete(charlotte("71.76.72." + i));
+                        break;
+                    }
+                }
+                Thread.sleep(5);
+            }
+        }
+        written.get(5, TimeUnit.SECONDS);
+        assertThat(output.toString(StandardCharsets.UTF_8).split("\n")).hasSize(10);
+    }
+
+    @Test
+    public void longLinesAreReadUpToMaxLength() throws Exception {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longLine.append('1');
+        }
+        StringReader reader = new StringReader(longLine + "\n71.76.72.156");
+        StringBuilder line = new StringBuilder();
+
+        assertThat(QueryIpStreamingOutput.readLine(reader, line)).isEqualTo(10000);
+        assertThat(line.length()).isEqualTo(QueryIpStreamingOutput.MAX_LINE_LENGTH + 1);
+        assertThat(QueryIpStreamingOutput.readLine(reader, line)).isEqualTo(12);
+        assertThat(line.toString()).isEqualTo("71.76.72.156");
+        assertThat(QueryIpStreamingOutput.readLine(reader, line)).isEqualTo(-1);
+    }
+
+    private List<QueryIpBatchResult> stream(String input, int maxInFlight) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new QueryIpStreamingOutput(queryIpLookupService, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), maxInFlight).write(output);
+        List<QueryIpBatchResult> results = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(objectMapper.readValue(line, QueryIpBatchResult.class));
+        }
+        return results;
+    }
+}